@@ -35,10 +35,13 @@ import dr.app.plugin.Plugin;
 import dr.app.plugin.PluginLoader;
 import dr.app.util.Arguments;
 import dr.app.util.Utils;
+import dr.inference.loggers.MCLogger;
 import dr.inference.mcmc.MCMC;
 import dr.inference.mcmcmc.MCMCMC;
 import dr.inference.mcmcmc.MCMCMCOptions;
+import dr.inference.model.ModelGraph;
 import dr.inference.operators.OperatorSchedule;
+import dr.inference.smc.SMC;
 import dr.math.MathUtils;
 import dr.util.*;
 import dr.xml.XMLObjectParser;
@@ -173,7 +176,47 @@ public class BeastMain {
                 Logger.getLogger("dr.apps.beast").info("Overriding checkpointing settings in the provided XML file");
             }
 
-            if (mc3Options == null) {
+            int smcThreadCount = Integer.getInteger("smc.threads", 1);
+
+            if (mc3Options == null && System.getProperty("smc.particle_folder") != null && smcThreadCount > 1) {
+
+                // parse the file for the SMC returning the SMC object
+                SMC smc = (SMC) parser.parse(fileReader, SMC.class);
+                if (smc == null) {
+                    throw new dr.xml.XMLParseException("BEAST XML file is missing an MCMC element");
+                }
+                fileReader.close();
+
+                Logger.getLogger("dr.apps.beast").info("Moving the particles on " + smcThreadCount + " copies of the model");
+
+                for (int i = 1; i < smcThreadCount; i++) {
+                    // parse the file once for each worker and take its model out of the connected set
+                    fileReader = new FileReader(inputFile);
+
+                    // turn off all messages for subsequent reads of the file (they will be the same as the
+                    // first time).
+                    logger.setLevel(Level.OFF);
+
+                    parser = new BeastParser(new String[]{fileName}, additionalParsers, verbose, parserWarning, strictXML, version);
+
+                    PluginLoader.loadPlugins(parser);
+
+                    ModelGraph connected = ModelGraph.getConnected();
+                    SMC worker = (SMC) parser.parse(fileReader, SMC.class);
+                    if (worker == null) {
+                        throw new dr.xml.XMLParseException("BEAST XML file is missing an MCMC element");
+                    }
+                    fileReader.close();
+
+                    smc.addWorker(worker, ModelGraph.disconnectSince(connected));
+                }
+
+                // restart messages
+                logger.setLevel(Level.ALL);
+
+                smc.run();
+
+            } else if (mc3Options == null) {
                 // just parse the file running all threads...
 
                 parser.parse(fileReader, true);
@@ -406,12 +449,18 @@ public class BeastMain {
                         new Arguments.Option("mpi", "Use MPI rank to label output"),
 
                         new Arguments.StringOption("particles", "FOLDER", "Specify a folder of particle start states"),
+                        new Arguments.IntegerOption("particle_rounds", 1, Integer.MAX_VALUE, "number of rounds of resampling and moving the particles (default 1, resampling needs -particle_reweight)"),
+                        new Arguments.RealOption("particle_threshold", 0.0, 1.0, "resample when the particle ESS falls below this proportion of the particles (default 0.5)"),
+                        new Arguments.IntegerOption("particle_checkpoint", 0, Integer.MAX_VALUE, "write the particle files every this many rounds (default only at the end)"),
+                        new Arguments.Option("particle_reweight", "weight the particles by the change in posterior since they were saved"),
+                        new Arguments.IntegerOption("particle_threads", 1, Integer.MAX_VALUE, "number of copies of the model to move the particles on in parallel (default 1)"),
 
                         new Arguments.IntegerOption("mc3_chains", 1, Integer.MAX_VALUE, "number of chains"),
                         new Arguments.RealOption("mc3_delta", 0.0, Double.MAX_VALUE, "temperature increment parameter"),
                         new Arguments.RealArrayOption("mc3_temperatures", -1, "a comma-separated list of the hot chain temperatures"),
                         new Arguments.IntegerOption("mc3_swap", 1, Integer.MAX_VALUE, "frequency at which chains temperatures will be swapped"),
                         new Arguments.StringOption("mc3_scheme", "NAME", "Specify parallel tempering swap scheme"),
+                        new Arguments.Option("mc3_async", "swap chains as they become ready so the cold chain never waits"),
 
                         new Arguments.StringOption("load_state", "FILENAME", "Specify a filename to load a saved state from"),
                         new Arguments.StringOption("save_stem", "FILENAME", "Specify a stem for the filenames to save states to"),
@@ -420,7 +469,11 @@ public class BeastMain {
                         new Arguments.LongOption("save_every", "Specify a frequency to save the state file"),
                         new Arguments.StringOption("save_state", "FILENAME", "Specify a filename to save state to"),
                         new Arguments.Option("full_checkpoint_precision", "Use hex-encoded doubles in checkpoint files"),
+                        new Arguments.StringOption("checkpoint_format", new String[]{"text", "binary"},
+                                false, "Specify the format of saved state files (loading detects the format)"),
+                        new Arguments.Option("checkpoint_async", "Write binary state files on a background thread"),
                         new Arguments.Option("force_resume", "Force resuming from a saved state"),
+                        new Arguments.Option("log_async", "Write log files on a background thread"),
 
                         new Arguments.StringOption("citations_file", "FILENAME", "Specify a filename to write a citation list to"),
                         new Arguments.Option("citations_off", "Turn off writing citations to file"),
@@ -496,11 +549,28 @@ public class BeastMain {
         double[] chainTemperatures = null;
         int swapChainsEvery = DEFAULT_SWAP_CHAIN_EVERY;
         MCMCMCOptions.SwapScheme swapScheme = MCMCMCOptions.SwapScheme.ORIGINAL_FLAVOR;
+        boolean asynchronousSwaps = false;
 
         if (arguments.hasOption("particles")) {
             System.setProperty("smc.particle_folder", arguments.getStringOption("particles"));
             usingSMC = true;
 
+            if (arguments.hasOption("particle_rounds")) {
+                System.setProperty("smc.rounds", Integer.toString(arguments.getIntegerOption("particle_rounds")));
+            }
+            if (arguments.hasOption("particle_threshold")) {
+                System.setProperty("smc.resampling_threshold", Double.toString(arguments.getRealOption("particle_threshold")));
+            }
+            if (arguments.hasOption("particle_checkpoint")) {
+                System.setProperty("smc.checkpoint_every", Integer.toString(arguments.getIntegerOption("particle_checkpoint")));
+            }
+            if (arguments.hasOption("particle_reweight")) {
+                System.setProperty("smc.reweight", Boolean.TRUE.toString());
+            }
+            if (arguments.hasOption("particle_threads")) {
+                System.setProperty("smc.threads", Integer.toString(arguments.getIntegerOption("particle_threads")));
+            }
+
             System.setProperty("mcmc.evaluation.count", Long.toString(0));
         }
 
@@ -574,6 +644,8 @@ public class BeastMain {
                 swapScheme = MCMCMCOptions.SwapScheme.parse(arguments.getStringOption("mc3_scheme"));
             }
 
+            asynchronousSwaps = arguments.hasOption("mc3_async");
+
             usingMC3 = chainCount > 1;
         }
 
@@ -757,10 +829,28 @@ public class BeastMain {
                 System.setProperty(BeastCheckpointer.FULL_CHECKPOINT_PRECISION, "true");
             }
 
+            if (arguments.hasOption("checkpoint_format")) {
+                System.setProperty(BeastCheckpointer.CHECKPOINT_FORMAT, arguments.getStringOption("checkpoint_format"));
+            }
+
+            if (arguments.hasOption("checkpoint_async")) {
+                if (!"binary".equalsIgnoreCase(arguments.getStringOption("checkpoint_format"))) {
+                    System.err.println("The -checkpoint_async option can only be used with -checkpoint_format binary");
+                    System.err.println();
+                    printUsage(arguments);
+                    System.exit(1);
+                }
+                System.setProperty(BeastCheckpointer.CHECKPOINT_ASYNC, Boolean.TRUE.toString());
+            }
+
             if (arguments.hasOption("force_resume")) {
                 System.setProperty("force.resume", Boolean.TRUE.toString());
             }
 
+            if (arguments.hasOption("log_async")) {
+                System.setProperty(MCLogger.ASYNC_LOGGING, Boolean.TRUE.toString());
+            }
+
             if (arguments.hasOption("citations_file")) {
                 String debugStateFile = arguments.getStringOption("citations_file");
                 System.setProperty("citations.filename", debugStateFile);
@@ -976,7 +1066,7 @@ public class BeastMain {
 
         try {
             new BeastMain(inputFile, consoleApp, maxErrorCount, verbose, warnings, strictXML, additionalParsers,
-                    usingMC3 ? new MCMCMCOptions(chainTemperatures, swapChainsEvery, swapScheme) : null);
+                    usingMC3 ? new MCMCMCOptions(chainTemperatures, swapChainsEvery, swapScheme, asynchronousSwaps) : null);
 //                    usingMC3, chainTemperatures, swapChainsEvery);
         } catch (RuntimeException rte) {
             // The stack trace here is not useful
@@ -34,6 +34,7 @@ import dr.inference.markovchain.MarkovChain;
 import dr.inference.markovchain.MarkovChainListener;
 import dr.inference.model.Likelihood;
 import dr.inference.model.Model;
+import dr.inference.model.ModelGraph;
 import dr.inference.model.Parameter;
 import dr.inference.operators.AdaptableMCMCOperator;
 import dr.inference.operators.MCMCOperator;
@@ -46,6 +47,10 @@ import java.text.SimpleDateFormat;
 import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * A state loader / saver
@@ -73,6 +78,11 @@ public class BeastCheckpointer implements StateLoaderSaver {
 
     public final static String FULL_CHECKPOINT_PRECISION = "full.checkpoint.precision";
 
+    // "text" (the default) or "binary"
+    public final static String CHECKPOINT_FORMAT = "checkpoint.format";
+    // write binary checkpoints on a background thread from a snapshot of the state
+    public final static String CHECKPOINT_ASYNC = "checkpoint.async";
+
     private String loadStateFileName;
     private String saveStateFileName;
     private String stemFileName;
@@ -81,6 +91,12 @@ public class BeastCheckpointer implements StateLoaderSaver {
 
     private boolean useFullPrecision;
 
+    private boolean useBinaryFormat;
+    private boolean writeAsync;
+
+    private ExecutorService writeExecutor = null;
+    private Future<?> pendingWrite = null;
+
     private final List<MarkovChainListener> listeners = new ArrayList<MarkovChainListener>();
 
     public static synchronized BeastCheckpointer getInstance(String checkpointFileName, int checkpointEvery, int checkpointFinal, boolean overwrite) {
@@ -130,6 +146,13 @@ public class BeastCheckpointer implements StateLoaderSaver {
         useFullPrecision = (System.getProperty(FULL_CHECKPOINT_PRECISION) != null) &&
                 System.getProperty(FULL_CHECKPOINT_PRECISION).equalsIgnoreCase("true");
 
+        useBinaryFormat = System.getProperty(CHECKPOINT_FORMAT, "text").equalsIgnoreCase("binary");
+        writeAsync = useBinaryFormat && Boolean.parseBoolean(System.getProperty(CHECKPOINT_ASYNC, "false"));
+        if (!useBinaryFormat && Boolean.parseBoolean(System.getProperty(CHECKPOINT_ASYNC, "false"))) {
+            System.err.println("WARNING: background checkpoint writing is only available for the binary format, " +
+                    "text checkpoints will be written on the chain thread");
+        }
+
         Factory.INSTANCE = new Factory() {
             @Override
             public StateLoader getInitialStateLoader() {
@@ -165,6 +188,33 @@ public class BeastCheckpointer implements StateLoaderSaver {
                     }
                 };
             }
+
+            @Override
+            public StateLoaderSaver getMemoryStateLoaderSaver() {
+                return new StateLoaderSaver() {
+
+                    @Override
+                    public boolean saveState(MarkovChain markovChain, long state, double lnL) {
+                        snapshot = BinaryCheckpoint.create(state, lnL, markovChain);
+                        return true;
+                    }
+
+                    @Override
+                    public long loadState(MarkovChain markovChain, double[] savedLnL) {
+                        if (snapshot == null) {
+                            throw new RuntimeException("No state has been saved to load");
+                        }
+                        return BeastCheckpointer.this.restoreBinaryCheckpoint(snapshot, markovChain, savedLnL, false);
+                    }
+
+                    @Override
+                    public void checkLoadState(double savedLnL, double lnL) {
+                        // do nothing.
+                    }
+
+                    private BinaryCheckpoint snapshot = null;
+                };
+            }
         };
 
     }
@@ -266,6 +316,10 @@ public class BeastCheckpointer implements StateLoaderSaver {
     }
 
     protected boolean writeStateToFile(File file, long state, double lnL, MarkovChain markovChain) {
+        if (useBinaryFormat) {
+            return writeBinaryStateToFile(file, state, lnL, markovChain);
+        }
+
         OperatorSchedule operatorSchedule = markovChain.getSchedule();
 
         OutputStream fileOut = null;
@@ -413,8 +467,191 @@ public class BeastCheckpointer implements StateLoaderSaver {
         return true;
     }
 
+    /**
+     * Writes a binary checkpoint. The state is copied into a snapshot on the calling thread; if
+     * writing asynchronously the file is then written on a background thread while the chain
+     * continues. Only one write is in flight at a time.
+     */
+    private boolean writeBinaryStateToFile(final File file, long state, double lnL, MarkovChain markovChain) {
+        final BinaryCheckpoint checkpoint = BinaryCheckpoint.create(state, lnL, markovChain);
+
+        if (!writeAsync) {
+            try {
+                checkpoint.write(file);
+            } catch (IOException ioe) {
+                System.err.println("Unable to write file: " + ioe.getMessage());
+                return false;
+            }
+            return true;
+        }
+
+        synchronized (this) {
+            if (writeExecutor == null) {
+                writeExecutor = Executors.newSingleThreadExecutor(r -> {
+                    Thread thread = new Thread(r, "checkpoint-writer");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                // make sure the last checkpoint is complete before the JVM exits
+                Runtime.getRuntime().addShutdownHook(new Thread(this::waitForPendingWrite));
+            }
+
+            waitForPendingWrite();
+
+            pendingWrite = writeExecutor.submit(() -> {
+                try {
+                    checkpoint.write(file);
+                } catch (IOException ioe) {
+                    System.err.println("Unable to write file: " + ioe.getMessage());
+                }
+            });
+        }
+
+        return true;
+    }
+
+    private synchronized void waitForPendingWrite() {
+        if (pendingWrite != null) {
+            try {
+                pendingWrite.get();
+            } catch (InterruptedException | ExecutionException e) {
+                System.err.println("Checkpoint writing failed: " + e.getMessage());
+            }
+            pendingWrite = null;
+        }
+    }
+
+    /**
+     * Loads a binary checkpoint. The values are matched to the parameters, operators and trees
+     * in the same way as the text format.
+     */
+    private long readBinaryStateFromFile(File file, MarkovChain markovChain, double[] lnL) {
+        BinaryCheckpoint checkpoint;
+        try {
+            checkpoint = BinaryCheckpoint.read(file);
+        } catch (IOException ioe) {
+            throw new RuntimeException("Unable to read file: " + ioe.getMessage());
+        }
+
+        return restoreBinaryCheckpoint(checkpoint, markovChain, lnL, true);
+    }
+
+    /**
+     * Puts the chain into the state held by a binary checkpoint. The random number generator state is
+     * only restored when resuming from a file; in-memory snapshots (e.g., SMC particles) leave it alone.
+     */
+    private long restoreBinaryCheckpoint(BinaryCheckpoint checkpoint, MarkovChain markovChain, double[] lnL,
+                                         boolean resuming) {
+        if (lnL != null) {
+            lnL[0] = checkpoint.lnL;
+        }
+
+        ModelGraph modelGraph = markovChain.getModelGraph();
+
+        Iterator<BinaryCheckpoint.ParameterState> parameterStates = checkpoint.parameters.iterator();
+        for (Parameter parameter : modelGraph.getParameters()) {
+            if (!parameter.isImmutable()) {
+                if (!parameterStates.hasNext()) {
+                    throw new RuntimeException("Unable to match state parameter: " + parameter.getParameterName());
+                }
+                BinaryCheckpoint.ParameterState ps = parameterStates.next();
+
+                if (ps.values.length != parameter.getDimension()) {
+                    System.err.println("Unable to match state parameter dimension: " + ps.values.length +
+                            ", expecting " + parameter.getDimension() + " for parameter: " + parameter.getParameterName());
+                }
+
+                if ("branchRates.categories.rootNodeNumber".equals(ps.name)) {
+                    parameter.setParameterValue(0, ps.values[0]);
+                } else {
+                    for (int dim = 0; dim < Math.min(parameter.getDimension(), ps.values.length); dim++) {
+                        try {
+                            parameter.setParameterUntransformedValue(dim, ps.values[dim]);
+                        } catch (RuntimeException rte) {
+                            System.err.println(rte);
+                        }
+                    }
+                }
+            }
+        }
+
+        OperatorSchedule operatorSchedule = markovChain.getSchedule();
+        if (operatorSchedule.getOperatorCount() != checkpoint.operators.size()) {
+            throw new RuntimeException("Unable to match operators: expecting " + operatorSchedule.getOperatorCount() +
+                    ", found " + checkpoint.operators.size());
+        }
+        for (int i = 0; i < operatorSchedule.getOperatorCount(); i++) {
+            MCMCOperator operator = operatorSchedule.getOperator(i);
+            BinaryCheckpoint.OperatorState os = checkpoint.operators.get(i);
+            if (!os.name.equals(operator.getOperatorName())) {
+                throw new RuntimeException("Unable to match " + operator.getOperatorName() + " operator: " + os.name);
+            }
+            operator.setAcceptCount(os.acceptCount);
+            operator.setRejectCount(os.rejectCount);
+            if (operator instanceof AdaptableMCMCOperator) {
+                if (!os.isAdaptable) {
+                    throw new RuntimeException("Coercable operator missing parameter: " + os.name);
+                }
+                ((AdaptableMCMCOperator) operator).setAdaptableParameter(os.adaptableParameter);
+                ((AdaptableMCMCOperator) operator).setAdaptationCount(os.adaptationCount);
+            }
+        }
+
+        // load the tree models last as we get the node heights from the tree
+        ArrayList<TreeParameterModel> traitModels = new ArrayList<TreeParameterModel>();
+        for (Model model : modelGraph.getModels()) {
+            if (model instanceof TreeParameterModel) {
+                traitModels.add((TreeParameterModel) model);
+            }
+        }
+
+        for (Model model : modelGraph.getModels()) {
+            if (model instanceof TreeModel) {
+                BinaryCheckpoint.TreeState ts = null;
+                for (BinaryCheckpoint.TreeState candidate : checkpoint.trees) {
+                    if (candidate.name.equals(model.getModelName())) {
+                        ts = candidate;
+                    }
+                }
+                if (ts == null) {
+                    throw new RuntimeException("\nExpecting, but unable to match state parameter:" + model.getModelName() + "\n");
+                }
+
+                TreeModel treeModel = (TreeModel) model;
+                treeModel.beginTreeEdit();
+                treeModel.adoptTreeStructure(ts.parents, ts.nodeHeights, ts.childOrder, ts.taxaNames);
+                if (traitModels.size() > 0) {
+                    if (resuming) {
+                        System.out.println("adopting " + traitModels.size() + " trait models to treeModel " + treeModel.getId());
+                    }
+                    treeModel.adoptTraitData(ts.parents, traitModels, ts.traitValues, ts.taxaNames);
+                }
+                treeModel.endTreeEdit();
+            }
+        }
+
+        if (!resuming) {
+            return checkpoint.state;
+        }
+
+        if (System.getProperty(BeastCheckpointer.CHECKPOINT_SEED) != null) {
+            MathUtils.setSeed(Long.parseLong(System.getProperty(BeastCheckpointer.CHECKPOINT_SEED)));
+        } else if (checkpoint.rngState != null) {
+            MathUtils.setRandomState(checkpoint.rngState);
+        }
+
+        return checkpoint.state;
+    }
+
     protected long readStateFromFile(File file, MarkovChain markovChain, double[] lnL) {
 
+        // the file may still be being written in the background
+        waitForPendingWrite();
+
+        if (BinaryCheckpoint.isBinaryCheckpoint(file)) {
+            return readBinaryStateFromFile(file, markovChain, lnL);
+        }
+
         DoubleParser parser = useFullPrecision ? DoubleParser.HEX : DoubleParser.TEXT;
 
         OperatorSchedule operatorSchedule = markovChain.getSchedule();
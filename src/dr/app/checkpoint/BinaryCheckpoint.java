@@ -0,0 +1,457 @@
+/*
+ * BinaryCheckpoint.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.app.checkpoint;
+
+import dr.evolution.tree.NodeRef;
+import dr.evomodel.tree.TreeModel;
+import dr.evomodel.tree.TreeParameterModel;
+import dr.inference.markovchain.MarkovChain;
+import dr.inference.model.Model;
+import dr.inference.model.ModelGraph;
+import dr.inference.model.Parameter;
+import dr.inference.operators.AdaptableMCMCOperator;
+import dr.inference.operators.MCMCOperator;
+import dr.inference.operators.OperatorSchedule;
+import dr.math.MathUtils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * A snapshot of the state of the chain that can be written to, and read from, a compact binary
+ * checkpoint file. The snapshot copies all the values it needs when it is created so it can be
+ * written on another thread while the chain continues.
+ *
+ * The file starts with a magic string and a format version followed by a sequence of sections
+ * (a type byte, a length and the payload) and ends with a CRC32 checksum of everything before it.
+ * Readers skip section types they don't know about.
+ */
+public class BinaryCheckpoint {
+
+    public static final int VERSION = 1;
+
+    private static final byte[] MAGIC = "BEASTCKP".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte END_SECTION = 0;
+    private static final byte RNG_SECTION = 1;
+    private static final byte STATE_SECTION = 2;
+    private static final byte PARAMETER_SECTION = 3;
+    private static final byte OPERATOR_SECTION = 4;
+    private static final byte TREE_SECTION = 5;
+
+    int[] rngState;
+    long state;
+    double lnL;
+
+    final List<ParameterState> parameters = new ArrayList<>();
+    final List<OperatorState> operators = new ArrayList<>();
+    final List<TreeState> trees = new ArrayList<>();
+
+    static class ParameterState {
+        String name;
+        double[] values;
+    }
+
+    static class OperatorState {
+        String name;
+        long acceptCount;
+        long rejectCount;
+        boolean isAdaptable;
+        double adaptableParameter;
+        long adaptationCount;
+    }
+
+    static class TreeState {
+        String name;
+        double[] nodeHeights;
+        String[] taxaNames;
+        int[] parents;
+        int[] childOrder;
+        double[][] traitValues;
+    }
+
+    private BinaryCheckpoint() {
+    }
+
+    /**
+     * Takes a snapshot of the current state of the chain, in the same order as the text checkpoint.
+     */
+    public static BinaryCheckpoint create(long state, double lnL, MarkovChain markovChain) {
+        BinaryCheckpoint checkpoint = new BinaryCheckpoint();
+
+        checkpoint.rngState = MathUtils.getRandomState();
+        checkpoint.state = state;
+        checkpoint.lnL = lnL;
+
+        ModelGraph modelGraph = markovChain.getModelGraph();
+
+        for (Parameter parameter : modelGraph.getParameters()) {
+            if (!parameter.isImmutable()) {
+                ParameterState ps = new ParameterState();
+                ps.name = parameter.getParameterName();
+                ps.values = new double[parameter.getDimension()];
+                for (int dim = 0; dim < ps.values.length; dim++) {
+                    ps.values[dim] = parameter.getParameterUntransformedValue(dim);
+                }
+                checkpoint.parameters.add(ps);
+            }
+        }
+
+        OperatorSchedule operatorSchedule = markovChain.getSchedule();
+        for (int i = 0; i < operatorSchedule.getOperatorCount(); i++) {
+            MCMCOperator operator = operatorSchedule.getOperator(i);
+            OperatorState os = new OperatorState();
+            os.name = operator.getOperatorName();
+            os.acceptCount = operator.getAcceptCount();
+            os.rejectCount = operator.getRejectCount();
+            if (operator instanceof AdaptableMCMCOperator) {
+                os.isAdaptable = true;
+                os.adaptableParameter = ((AdaptableMCMCOperator) operator).getAdaptableParameter();
+                os.adaptationCount = ((AdaptableMCMCOperator) operator).getAdaptationCount();
+            }
+            checkpoint.operators.add(os);
+        }
+
+        List<TreeParameterModel> traitModels = new ArrayList<>();
+        for (Model model : modelGraph.getModels()) {
+            if (model instanceof TreeParameterModel) {
+                traitModels.add((TreeParameterModel) model);
+            }
+        }
+
+        for (Model model : modelGraph.getModels()) {
+            if (model instanceof TreeModel) {
+                checkpoint.trees.add(createTreeState((TreeModel) model, traitModels));
+            }
+        }
+
+        return checkpoint;
+    }
+
+    private static TreeState createTreeState(TreeModel tree, List<TreeParameterModel> traitModels) {
+        TreeState ts = new TreeState();
+        ts.name = tree.getModelName();
+
+        int nodeCount = tree.getNodeCount();
+        ts.nodeHeights = new double[nodeCount];
+        ts.taxaNames = new String[tree.getExternalNodeCount()];
+        ts.parents = new int[nodeCount];
+        ts.childOrder = new int[nodeCount];
+        Arrays.fill(ts.parents, -1);
+        Arrays.fill(ts.childOrder, -1);
+
+        List<TreeParameterModel> linked = new ArrayList<>();
+        for (TreeParameterModel tpm : traitModels) {
+            if (tpm.getTreeModel() == tree) {
+                linked.add(tpm);
+            }
+        }
+        ts.traitValues = new double[linked.size()][nodeCount];
+
+        for (int i = 0; i < nodeCount; i++) {
+            NodeRef node = tree.getNode(i);
+            ts.nodeHeights[i] = tree.getNodeHeight(node);
+            if (tree.isExternal(node)) {
+                ts.taxaNames[i] = tree.getNodeTaxon(node).getId();
+            }
+
+            NodeRef parent = tree.getParent(node);
+            if (parent != null) {
+                int number = node.getNumber();
+                ts.parents[number] = parent.getNumber();
+                if (tree.getChild(parent, 0) == node) {
+                    ts.childOrder[number] = 0;
+                } else if (tree.getChild(parent, 1) == node) {
+                    ts.childOrder[number] = 1;
+                } else {
+                    throw new RuntimeException("Operation currently only supported for nodes with 2 children.");
+                }
+                for (int j = 0; j < linked.size(); j++) {
+                    ts.traitValues[j][number] = linked.get(j).getNodeValue(tree, node);
+                }
+            }
+        }
+
+        return ts;
+    }
+
+    /**
+     * @return true if the file starts with the binary checkpoint magic string
+     */
+    public static boolean isBinaryCheckpoint(File file) {
+        byte[] header = new byte[MAGIC.length];
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            in.readFully(header);
+        } catch (IOException ioe) {
+            return false;
+        }
+        return Arrays.equals(header, MAGIC);
+    }
+
+    /**
+     * Writes the checkpoint to a temporary file and then renames it over the destination so a
+     * crash while writing never leaves a truncated checkpoint behind.
+     */
+    public void write(File file) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.write(MAGIC);
+        out.writeInt(VERSION);
+
+        SectionWriter section = new SectionWriter();
+
+        DataOutputStream s = section.begin(RNG_SECTION);
+        s.writeInt(rngState.length);
+        for (int value : rngState) {
+            s.writeInt(value);
+        }
+        section.end(out);
+
+        s = section.begin(STATE_SECTION);
+        s.writeLong(state);
+        s.writeDouble(lnL);
+        section.end(out);
+
+        for (ParameterState ps : parameters) {
+            s = section.begin(PARAMETER_SECTION);
+            writeString(s, ps.name);
+            writeDoubles(s, ps.values);
+            section.end(out);
+        }
+
+        for (OperatorState os : operators) {
+            s = section.begin(OPERATOR_SECTION);
+            writeString(s, os.name);
+            s.writeLong(os.acceptCount);
+            s.writeLong(os.rejectCount);
+            s.writeBoolean(os.isAdaptable);
+            s.writeDouble(os.adaptableParameter);
+            s.writeLong(os.adaptationCount);
+            section.end(out);
+        }
+
+        for (TreeState ts : trees) {
+            s = section.begin(TREE_SECTION);
+            writeString(s, ts.name);
+            writeDoubles(s, ts.nodeHeights);
+            s.writeInt(ts.taxaNames.length);
+            for (String taxon : ts.taxaNames) {
+                writeString(s, taxon);
+            }
+            writeInts(s, ts.parents);
+            writeInts(s, ts.childOrder);
+            s.writeInt(ts.traitValues.length);
+            for (double[] values : ts.traitValues) {
+                writeDoubles(s, values);
+            }
+            section.end(out);
+        }
+
+        out.writeByte(END_SECTION);
+        out.writeInt(0);
+        out.flush();
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray(), 0, bytes.size());
+        out.writeLong(crc.getValue());
+        out.flush();
+
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(tempFile)) {
+            bytes.writeTo(fileOut);
+            // make sure the contents are on disk before the rename so a crash can't leave an
+            // empty or partial file in place of the previous checkpoint
+            fileOut.getChannel().force(true);
+        }
+
+        try {
+            Files.move(tempFile.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException amnse) {
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Reads a binary checkpoint, checking the format version and the checksum.
+     */
+    public static BinaryCheckpoint read(File file) throws IOException {
+        byte[] bytes = Files.readAllBytes(file.toPath());
+
+        if (bytes.length < MAGIC.length + 4 + 8 ||
+                !Arrays.equals(Arrays.copyOf(bytes, MAGIC.length), MAGIC)) {
+            throw new IOException("Not a binary checkpoint file: " + file.getName());
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - 8);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        in.skipBytes(bytes.length - 8);
+        if (in.readLong() != crc.getValue()) {
+            throw new IOException("Checksum mismatch - the checkpoint file is corrupted: " + file.getName());
+        }
+
+        in = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 8));
+        in.skipBytes(MAGIC.length);
+        int version = in.readInt();
+        if (version > VERSION) {
+            throw new IOException("Checkpoint file format version " + version +
+                    " is newer than this version of BEAST can read (" + VERSION + ")");
+        }
+
+        BinaryCheckpoint checkpoint = new BinaryCheckpoint();
+
+        byte type = in.readByte();
+        while (type != END_SECTION) {
+            int length = in.readInt();
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            DataInputStream s = new DataInputStream(new ByteArrayInputStream(payload));
+
+            switch (type) {
+                case RNG_SECTION:
+                    checkpoint.rngState = readInts(s);
+                    break;
+                case STATE_SECTION:
+                    checkpoint.state = s.readLong();
+                    checkpoint.lnL = s.readDouble();
+                    break;
+                case PARAMETER_SECTION:
+                    ParameterState ps = new ParameterState();
+                    ps.name = readString(s);
+                    ps.values = readDoubles(s);
+                    checkpoint.parameters.add(ps);
+                    break;
+                case OPERATOR_SECTION:
+                    OperatorState os = new OperatorState();
+                    os.name = readString(s);
+                    os.acceptCount = s.readLong();
+                    os.rejectCount = s.readLong();
+                    os.isAdaptable = s.readBoolean();
+                    os.adaptableParameter = s.readDouble();
+                    os.adaptationCount = s.readLong();
+                    checkpoint.operators.add(os);
+                    break;
+                case TREE_SECTION:
+                    TreeState ts = new TreeState();
+                    ts.name = readString(s);
+                    ts.nodeHeights = readDoubles(s);
+                    ts.taxaNames = new String[s.readInt()];
+                    for (int i = 0; i < ts.taxaNames.length; i++) {
+                        ts.taxaNames[i] = readString(s);
+                    }
+                    ts.parents = readInts(s);
+                    ts.childOrder = readInts(s);
+                    ts.traitValues = new double[s.readInt()][];
+                    for (int j = 0; j < ts.traitValues.length; j++) {
+                        ts.traitValues[j] = readDoubles(s);
+                    }
+                    checkpoint.trees.add(ts);
+                    break;
+                default:
+                    // a section from a later version - skip it
+                    break;
+            }
+
+            type = in.readByte();
+        }
+
+        return checkpoint;
+    }
+
+    /**
+     * Buffers a section's payload so its length can be written before it.
+     */
+    private static class SectionWriter {
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(buffer);
+        private byte type;
+
+        DataOutputStream begin(byte type) {
+            this.type = type;
+            buffer.reset();
+            return out;
+        }
+
+        void end(DataOutputStream destination) throws IOException {
+            out.flush();
+            destination.writeByte(type);
+            destination.writeInt(buffer.size());
+            buffer.writeTo(destination);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        out.writeBoolean(string != null);
+        if (string != null) {
+            out.writeUTF(string);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeDoubles(DataOutputStream out, double[] values) throws IOException {
+        out.writeInt(values.length);
+        for (double value : values) {
+            out.writeDouble(value);
+        }
+    }
+
+    private static double[] readDoubles(DataInputStream in) throws IOException {
+        double[] values = new double[in.readInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readDouble();
+        }
+        return values;
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static int[] readInts(DataInputStream in) throws IOException {
+        int[] values = new int[in.readInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+}
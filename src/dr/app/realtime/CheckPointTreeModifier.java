@@ -59,6 +59,9 @@ public class CheckPointTreeModifier {
     //public final static boolean CURRENT_APPROACH = false;
     public final static boolean NEW_APPROACH = true;
 
+    //use a PlacementIndex to find the closest taxa (faster for large trees but not guaranteed to find the closest)
+    public final static String PLACEMENT_INDEX = "placement.index";
+
     private final static boolean DEBUG = true;
 
     private TreeModel treeModel;
@@ -431,6 +434,12 @@ public class CheckPointTreeModifier {
         //set the patterns for the distance matrix computations
         choice.setPatterns(patterns);
 
+        //optionally index the current taxa so close ones can be found without a full distance matrix
+        PlacementIndex index = null;
+        if (Boolean.parseBoolean(System.getProperty(PLACEMENT_INDEX))) {
+            index = new PlacementIndex(patterns, currentTaxa);
+        }
+
         //add new taxa one at a time
         System.out.println("Adding " + newTaxaNodes.size() + " taxa ...");
 
@@ -492,7 +501,9 @@ public class CheckPointTreeModifier {
                 }
                 //get the closest Taxon to the Taxon that needs to be added
                 //take into account which taxa can currently be chosen
-                Taxon closest = choice.getClosestTaxon(treeModel.getNodeTaxon(newTaxon), currentTaxa);
+                Taxon closest = index != null ?
+                        choice.getClosestTaxon(treeModel.getNodeTaxon(newTaxon), index) :
+                        choice.getClosestTaxon(treeModel.getNodeTaxon(newTaxon), currentTaxa);
                 System.out.println("\nclosest Taxon: " + closest + " with original height: " + closest.getHeight());
                 //get the distance between these two taxa
                 double distance = choice.getDistance(treeModel.getNodeTaxon(newTaxon), closest);
@@ -684,6 +695,9 @@ public class CheckPointTreeModifier {
                 System.out.println(">>" + treeModel.toString());
                 //add newly added Taxon to list of current taxa
                 currentTaxa.add(treeModel.getNodeTaxon(newTaxon));
+                if (index != null) {
+                    index.addTaxon(treeModel.getNodeTaxon(newTaxon));
+                }
 
                 // Update rate categories here
                 interpolateTraitValuesOneInsertion(traitModels,newTaxon);
@@ -713,7 +727,9 @@ public class CheckPointTreeModifier {
                 }
                 //get the closest Taxon to the Taxon that needs to be added
                 //take into account which taxa can currently be chosen
-                Taxon closest = choice.getClosestTaxon(treeModel.getNodeTaxon(newTaxon), currentTaxa);
+                Taxon closest = index != null ?
+                        choice.getClosestTaxon(treeModel.getNodeTaxon(newTaxon), index) :
+                        choice.getClosestTaxon(treeModel.getNodeTaxon(newTaxon), currentTaxa);
                 System.out.println("\nclosest Taxon: " + closest + " with original height: " + closest.getHeight());
                 //get the distance between these two taxa
                 double distance = choice.getDistance(treeModel.getNodeTaxon(newTaxon), closest);
@@ -796,6 +812,9 @@ public class CheckPointTreeModifier {
                 System.out.println("\nTree after adding taxon " + newTaxon + ":\n" + treeModel.toString());
                 //add newly added Taxon to list of current taxa
                 currentTaxa.add(treeModel.getNodeTaxon(newTaxon));
+                if (index != null) {
+                    index.addTaxon(treeModel.getNodeTaxon(newTaxon));
+                }
             }
         } else if (!NEW_APPROACH){
 
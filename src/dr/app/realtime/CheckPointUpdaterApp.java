@@ -113,10 +113,35 @@ public class CheckPointUpdaterApp {
             return matrix.getTaxon(closestIndex);
         }
 
+        /**
+         * Finds the closest taxon amongst the candidates proposed by a placement index, only
+         * calculating the distances to those candidates. This is much faster for large trees but,
+         * unlike getClosestTaxon(Taxon, ArrayList), may not find the closest taxon.
+         */
+        public Taxon getClosestTaxon(Taxon taxon, PlacementIndex index) {
+            if (matrix == null) {
+                throw new RuntimeException("Patterns need to be set first.");
+            }
+            int taxonIndex = matrix.getTaxonIndex(taxon);
+            int closestIndex = -1;
+            double minimumDistance = Double.MAX_VALUE;
+            for (int i : index.getCandidates(taxonIndex)) {
+                double distance = matrix.getDistance(taxonIndex, i);
+                if (distance < minimumDistance) {
+                    minimumDistance = distance;
+                    closestIndex = i;
+                }
+            }
+            if (closestIndex < 0) {
+                throw new RuntimeException("No taxa available to place " + taxon.getId());
+            }
+            return matrix.getTaxon(closestIndex);
+        }
+
         public double getDistance(Taxon taxonOne, Taxon taxonTwo) {
             System.out.println("taxon 1: " + taxonOne + " (" + matrix.getTaxonIndex(taxonOne) + ")");
             System.out.println("taxon 2: " + taxonTwo + " (" + matrix.getTaxonIndex(taxonTwo) + ")");
-            return matrix.getElement(matrix.getTaxonIndex(taxonOne), matrix.getTaxonIndex(taxonTwo));
+            return matrix.getDistance(matrix.getTaxonIndex(taxonOne), matrix.getTaxonIndex(taxonTwo));
         }
 
         public String getName() {
@@ -239,6 +264,7 @@ public class CheckPointUpdaterApp {
                         new Arguments.StringOption("load_state", "FILENAME", "Specify a filename to load a state from"),
                         new Arguments.StringOption("output_file", "FILENAME", "Specify a filename for the output file"),
                         new Arguments.StringOption("update_choice", "UPDATECHOICE", "Specify a function by which to update the tree"),
+                        new Arguments.Option("placement_index", "Use an index of shared mutations to find the closest taxa (faster for large trees but may not find the closest)"),
                         new Arguments.Option("help", "Print this information and stop")
                 });
 
@@ -296,6 +322,10 @@ public class CheckPointUpdaterApp {
             throw new RuntimeException("Incorrect update mechanism specified.");
         }
 
+        if (arguments.hasOption("placement_index")) {
+            System.setProperty(CheckPointTreeModifier.PLACEMENT_INDEX, Boolean.TRUE.toString());
+        }
+
         if (arguments.hasOption("output_file")) {
             String outputStateFile = arguments.getStringOption("output_file");
             //pass on as argument
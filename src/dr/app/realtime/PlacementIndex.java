@@ -0,0 +1,333 @@
+/*
+ * PlacementIndex.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.app.realtime;
+
+import dr.evolution.alignment.PatternList;
+import dr.evolution.datatype.DataType;
+import dr.evolution.util.Taxon;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An index over the sequences already in the tree for finding the closest ones to a new sequence
+ * without computing a full distance matrix. Each sequence is held as the patterns at which it differs
+ * from the consensus of the reference sequences (its mutations) and those at which it is ambiguous or
+ * a gap. An inverted index from each mutation to the reference sequences carrying it gives the sequences
+ * sharing mutations with a new one; these, ranked by shared mutations, and the reference sequences closest
+ * to the consensus are the candidates, which are then ordered by their exact p-distance.
+ *
+ * Reference sequences can be added as they are placed so that later sequences in the same batch can
+ * attach to them.
+ *
+ * This is a heuristic rather than an exact nearest neighbour search. Only a bounded number of candidates
+ * are considered and the ranking by shared mutations only matches the distance when there is no missing
+ * data, so the closest sequence can be missed, particularly with gaps, ambiguities or many equally close
+ * sequences. A search over the full distance matrix is exact, so the checkpoint updater only uses the
+ * index when asked to (-placement_index).
+ */
+public class PlacementIndex {
+
+    public static final int DEFAULT_CANDIDATE_COUNT = 32;
+
+    public PlacementIndex(PatternList patterns, List<Taxon> referenceTaxa) {
+        this(patterns, referenceTaxa, DEFAULT_CANDIDATE_COUNT);
+    }
+
+    public PlacementIndex(PatternList patterns, List<Taxon> referenceTaxa, int candidateCount) {
+        this.patterns = patterns;
+        this.candidateCount = candidateCount;
+
+        DataType dataType = patterns.getDataType();
+        stateCount = dataType.getStateCount();
+        int patternCount = patterns.getPatternCount();
+        int taxonCount = patterns.getTaxonCount();
+
+        int[] referenceIndices = new int[referenceTaxa.size()];
+        for (int i = 0; i < referenceIndices.length; i++) {
+            referenceIndices[i] = patterns.getTaxonIndex(referenceTaxa.get(i));
+            if (referenceIndices[i] < 0) {
+                throw new IllegalArgumentException("Taxon " + referenceTaxa.get(i).getId() + " is not in the patterns");
+            }
+        }
+
+        // the consensus state of each pattern over the reference sequences
+        weights = new double[patternCount];
+        int[] consensus = new int[patternCount];
+        int[] counts = new int[stateCount];
+        for (int i = 0; i < patternCount; i++) {
+            int[] pattern = patterns.getPattern(i);
+            Arrays.fill(counts, 0);
+            for (int taxon : referenceIndices) {
+                if (isValid(dataType, pattern[taxon])) {
+                    counts[pattern[taxon]]++;
+                }
+            }
+            consensus[i] = -1;
+            int maxCount = 0;
+            for (int state = 0; state < stateCount; state++) {
+                if (counts[state] > maxCount) {
+                    maxCount = counts[state];
+                    consensus[i] = state;
+                }
+            }
+            weights[i] = patterns.getPatternWeight(i);
+            totalWeight += weights[i];
+        }
+
+        // a single pass over the patterns gives the mutations and missing patterns of every sequence
+        // (mutations are coded as pattern * stateCount + state so are ordered by pattern)
+        int[][] mutationBuffers = new int[taxonCount][4];
+        int[] mutationCounts = new int[taxonCount];
+        int[][] missingBuffers = new int[taxonCount][4];
+        int[] missingCounts = new int[taxonCount];
+        for (int i = 0; i < patternCount; i++) {
+            int[] pattern = patterns.getPattern(i);
+            for (int taxon = 0; taxon < taxonCount; taxon++) {
+                int state = pattern[taxon];
+                if (!isValid(dataType, state)) {
+                    missingBuffers[taxon] = append(missingBuffers[taxon], missingCounts[taxon], i);
+                    missingCounts[taxon]++;
+                } else if (state != consensus[i]) {
+                    mutationBuffers[taxon] = append(mutationBuffers[taxon], mutationCounts[taxon], i * stateCount + state);
+                    mutationCounts[taxon]++;
+                }
+            }
+        }
+        mutations = new int[taxonCount][];
+        missing = new int[taxonCount][];
+        mutationWeights = new double[taxonCount];
+        for (int taxon = 0; taxon < taxonCount; taxon++) {
+            mutations[taxon] = Arrays.copyOf(mutationBuffers[taxon], mutationCounts[taxon]);
+            missing[taxon] = Arrays.copyOf(missingBuffers[taxon], missingCounts[taxon]);
+            for (int code : mutations[taxon]) {
+                mutationWeights[taxon] += weights[code / stateCount];
+            }
+        }
+
+        postings = new int[patternCount * stateCount][];
+        postingCounts = new int[patternCount * stateCount];
+        isReference = new boolean[taxonCount];
+        sharedWeights = new double[taxonCount];
+        isCandidate = new boolean[taxonCount];
+        candidateDistances = new double[taxonCount];
+
+        for (int taxon : referenceIndices) {
+            addTaxon(taxon);
+        }
+    }
+
+    private static boolean isValid(DataType dataType, int state) {
+        return state < dataType.getStateCount() && !dataType.isAmbiguousState(state);
+    }
+
+    private static int[] append(int[] buffer, int count, int value) {
+        if (count == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        buffer[count] = value;
+        return buffer;
+    }
+
+    public void addTaxon(Taxon taxon) {
+        addTaxon(patterns.getTaxonIndex(taxon));
+    }
+
+    /**
+     * Makes a sequence available as a placement for subsequent queries.
+     */
+    public void addTaxon(int taxon) {
+        if (isReference[taxon]) {
+            return;
+        }
+        isReference[taxon] = true;
+        referenceCount++;
+
+        for (int code : mutations[taxon]) {
+            if (postings[code] == null) {
+                postings[code] = new int[4];
+            }
+            postings[code] = append(postings[code], postingCounts[code], taxon);
+            postingCounts[code]++;
+        }
+
+        // keep the reference sequences ordered by how far they are from the consensus
+        int position = 0;
+        int high = consensusOrder.size();
+        while (position < high) {
+            int middle = (position + high) >>> 1;
+            if (mutationWeights[consensusOrder.get(middle)] <= mutationWeights[taxon]) {
+                position = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        consensusOrder.add(position, taxon);
+    }
+
+    public int getReferenceCount() {
+        return referenceCount;
+    }
+
+    /**
+     * Finds the reference sequences that are likely to be closest to a sequence.
+     * @param taxon the index of the sequence in the patterns
+     * @return the indices of the candidates, closest first by p-distance
+     */
+    public int[] getCandidates(int taxon) {
+        // accumulate the weight of the mutations each reference sequence shares with this one
+        List<Integer> touched = new ArrayList<Integer>();
+        for (int code : mutations[taxon]) {
+            int count = postingCounts[code];
+            double weight = weights[code / stateCount];
+            for (int i = 0; i < count; i++) {
+                int other = postings[code][i];
+                if (sharedWeights[other] == 0.0) {
+                    touched.add(other);
+                }
+                sharedWeights[other] += weight;
+            }
+        }
+
+        // with no missing data the p-distance is the difference in mutations so rank by that
+        Integer[] sharing = touched.toArray(new Integer[0]);
+        Arrays.sort(sharing, (a, b) -> Double.compare(
+                mutationWeights[a] - 2.0 * sharedWeights[a], mutationWeights[b] - 2.0 * sharedWeights[b]));
+        for (int other : touched) {
+            sharedWeights[other] = 0.0;
+        }
+
+        List<Integer> candidates = new ArrayList<Integer>();
+        for (int i = 0; i < Math.min(candidateCount, sharing.length); i++) {
+            addCandidate(candidates, sharing[i], taxon);
+        }
+        for (int i = 0; i < Math.min(candidateCount, consensusOrder.size()); i++) {
+            addCandidate(candidates, consensusOrder.get(i), taxon);
+        }
+        for (int candidate : candidates) {
+            isCandidate[candidate] = false;
+        }
+
+        for (int candidate : candidates) {
+            candidateDistances[candidate] = getDistance(taxon, candidate);
+        }
+        Integer[] ordered = candidates.toArray(new Integer[0]);
+        Arrays.sort(ordered, (a, b) -> Double.compare(candidateDistances[a], candidateDistances[b]));
+
+        int[] result = new int[ordered.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ordered[i];
+        }
+        return result;
+    }
+
+    private void addCandidate(List<Integer> candidates, int candidate, int taxon) {
+        if (candidate != taxon && !isCandidate[candidate]) {
+            isCandidate[candidate] = true;
+            candidates.add(candidate);
+        }
+    }
+
+    /**
+     * The proportion of patterns (by weight) at which neither sequence is missing that differ.
+     */
+    public double getDistance(int taxon1, int taxon2) {
+        int[] mutations1 = mutations[taxon1];
+        int[] mutations2 = mutations[taxon2];
+
+        double mismatch = 0.0;
+        int i = 0;
+        int j = 0;
+        while (i < mutations1.length || j < mutations2.length) {
+            int pattern1 = i < mutations1.length ? mutations1[i] / stateCount : Integer.MAX_VALUE;
+            int pattern2 = j < mutations2.length ? mutations2[j] / stateCount : Integer.MAX_VALUE;
+            if (pattern1 == pattern2) {
+                if (mutations1[i] != mutations2[j]) {
+                    mismatch += weights[pattern1];
+                }
+                i++;
+                j++;
+            } else if (pattern1 < pattern2) {
+                // the second sequence has the consensus state here unless it is missing
+                if (Arrays.binarySearch(missing[taxon2], pattern1) < 0) {
+                    mismatch += weights[pattern1];
+                }
+                i++;
+            } else {
+                if (Arrays.binarySearch(missing[taxon1], pattern2) < 0) {
+                    mismatch += weights[pattern2];
+                }
+                j++;
+            }
+        }
+
+        // the weight of the patterns missing in either
+        double missingWeight = 0.0;
+        int[] missing1 = missing[taxon1];
+        int[] missing2 = missing[taxon2];
+        i = 0;
+        j = 0;
+        while (i < missing1.length || j < missing2.length) {
+            int pattern1 = i < missing1.length ? missing1[i] : Integer.MAX_VALUE;
+            int pattern2 = j < missing2.length ? missing2[j] : Integer.MAX_VALUE;
+            missingWeight += weights[Math.min(pattern1, pattern2)];
+            if (pattern1 <= pattern2) {
+                i++;
+            }
+            if (pattern2 <= pattern1) {
+                j++;
+            }
+        }
+
+        double validWeight = totalWeight - missingWeight;
+        return validWeight > 0.0 ? mismatch / validWeight : 0.0;
+    }
+
+    private final PatternList patterns;
+    private final int candidateCount;
+    private final int stateCount;
+
+    private final double[] weights;
+    private double totalWeight = 0.0;
+
+    private final int[][] mutations;
+    private final int[][] missing;
+    private final double[] mutationWeights;
+
+    private final int[][] postings;
+    private final int[] postingCounts;
+    private final boolean[] isReference;
+    private int referenceCount = 0;
+    private final List<Integer> consensusOrder = new ArrayList<Integer>();
+
+    // working storage for queries
+    private final double[] sharedWeights;
+    private final boolean[] isCandidate;
+    private final double[] candidateDistances;
+}
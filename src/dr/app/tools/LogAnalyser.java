@@ -31,6 +31,7 @@ import dr.app.beast.BeastVersion;
 import dr.app.util.Arguments;
 import dr.app.util.Utils;
 import dr.inference.trace.TraceAnalysis;
+import dr.inference.trace.TraceColumnStore;
 import dr.inference.trace.TraceException;
 import dr.util.Version;
 
@@ -199,6 +200,7 @@ public class LogAnalyser {
                         new Arguments.Option("ess", "use this option to produce ESSs for each trace"),
                         new Arguments.Option("stdErr", "use this option to produce standard Error"),
                         new Arguments.StringOption("marginal", "trace_name", "specify the trace to use to calculate the marginal likelihood"),
+                        new Arguments.Option("columnar", "keep the values in a memory mapped column file created next to the log (reused while the log is unchanged)"),
 //				new Arguments.Option("html", "format output as html"),
 //				new Arguments.Option("svg", "generate svg graphics"),
                         new Arguments.Option("help", "option to print this message")
@@ -227,6 +229,10 @@ public class LogAnalyser {
         boolean stdErr = arguments.hasOption("stdErr");
         boolean shortReport = arguments.hasOption("short");
 
+        if (arguments.hasOption("columnar")) {
+            System.setProperty(TraceColumnStore.COLUMN_STORE_PROPERTY, "true");
+        }
+
         String marginalLikelihood = null;
         if (arguments.hasOption("marginal")) {
             marginalLikelihood = arguments.getStringOption("marginal");
@@ -83,15 +83,7 @@ public class LogCombiner {
 
         System.out.println();
 
-        PrintWriter writer = new PrintWriter(new FileOutputStream(outputFileName));
-
-        boolean firstFile = true;
-        boolean firstTree = true;
-        long stateCount = (renumberOutput ? -1 : 0);
-        long stateStep = -1;
-        int columnCount = 0;
-
-        String[] titles = null;
+        File[] inputFiles = new File[inputFileNames.length];
 
         System.out.println();
         for (int i = 0; i < inputFileNames.length; i++) {
@@ -104,6 +96,7 @@ public class LogCombiner {
                 System.err.println(inputFileNames[i] + " is a directory.");
                 return;
             }
+            inputFiles[i] = inputFile;
 
             long burnin = burnins[0];
             if (burnins.length > i) {
@@ -125,301 +118,101 @@ public class LogCombiner {
             } else {
                 System.out.println();
             }
+        }
 
-            boolean processTrees = stripAnnotations || convertToDecimal;
-
-            if (treeFiles) {
+        boolean processTrees = treeFiles && (stripAnnotations || convertToDecimal);
 
-                if (processTrees) { // then we need to read each tree and write it.
-                    TreeImporter importer = new NexusImporter(new FileReader(inputFile), stripAnnotations);
-                    try {
-                        while (importer.hasTree()) {
-                            Tree tree = importer.importNextTree();
-                            if (firstTree) {
-                                startLog(tree, writer);
-                                firstTree = false;
-                            }
+        if (!processTrees) {
+            // log files and tree files that can be copied line by line
+            StreamingCombiner combiner = new StreamingCombiner(treeFiles, resample, renumberOutput,
+                    convertToDecimal, useScale, scale);
+            combiner.combine(inputFiles, burnins, new File(outputFileName));
+            return;
+        }
 
-                            String name = tree.getId();
-                            if (name == null) {
-                                System.err.println("ERROR: Trees do not give state numbers as tree attributes.");
-                                return;
-                            }
+        // otherwise we need to read each tree and write it.
+        PrintWriter writer = new PrintWriter(new FileOutputStream(outputFileName));
 
-                            // split on underscore in STATE_xxxx
-                            String[] bits = name.split("_");
-                            long state = Long.parseLong(bits[1]);
+        boolean firstTree = true;
+        long stateCount = (renumberOutput ? -1 : 0);
+        long stateStep = -1;
 
-                            if (stateStep < 0 && state > 0) {
-                                stateStep = state;
-                            }
+        for (int i = 0; i < inputFiles.length; i++) {
+            long burnin = burnins[0];
+            if (burnins.length > i) {
+                burnin = burnins[i];
+            }
 
-                            if (state >= burnin) {
-                                if (stateStep > 0) {
-                                    if (!renumberOutput) {
-                                        stateCount += stateStep;
-                                    } else {
-                                        stateCount += 1;
-                                    }
-                                }
-
-                                if (resample >= 0) {
-                                    if (resample % stateStep != 0) {
-                                        System.err.println("ERROR: Resampling frequency is not a multiple of existing sampling frequency");
-                                        return;
-                                    }
-                                }
-
-                                boolean logThis;
-                                if (resample < 0) {
-                                    // not resampling, log every state
-                                    logThis = true;
-                                } else if (!renumberOutput) {
-                                    // resampling but not renumbering
-                                    logThis = (stateCount % resample == 0);
-                                } else {
-                                    logThis = (stateCount * stateStep % resample == 0);
-                                }
-
-                                long stateLineEntry;
-                                if (!renumberOutput) {
-                                    stateLineEntry = stateCount;
-                                } else {
-                                    stateLineEntry = stateCount / (resample / stateStep);
-                                }
-
-                                if (logThis) {
-                                    writeTree(stateLineEntry, tree, convertToDecimal, writer);
-                                }
+            TreeImporter importer = new NexusImporter(new FileReader(inputFiles[i]), stripAnnotations);
+            try {
+                while (importer.hasTree()) {
+                    Tree tree = importer.importNextTree();
+                    if (firstTree) {
+                        startLog(tree, writer);
+                        firstTree = false;
+                    }
 
-                            }
-                        }
-                    } catch (Importer.ImportException e) {
-                        System.err.println("Error Parsing Input Tree: " + e.getMessage());
+                    String name = tree.getId();
+                    if (name == null) {
+                        System.err.println("ERROR: Trees do not give state numbers as tree attributes.");
                         return;
                     }
-                } else {
-                    BufferedReader reader = new BufferedReader(new FileReader(inputFile));
 
-                    String line = reader.readLine();
+                    // split on underscore in STATE_xxxx
+                    String[] bits = name.split("_");
+                    long state = Long.parseLong(bits[1]);
 
-                    // skip (or write) the headers
-                    while (line != null && !line.trim().startsWith("tree ")) {
-                        if (firstFile) {
-                            writer.println(line);
-                        }
-                        line = reader.readLine();
+                    if (stateStep < 0 && state > 0) {
+                        stateStep = state;
                     }
 
-                    Pattern pattern = Pattern.compile("tree STATE_(\\d+)(\\s.*)");
-
-                    while (line != null) {
-                        Matcher m = pattern.matcher(line);
-                        if (m.matches()) {
-
-                            long state = Long.parseLong(m.group(1));
-
-                            String treeString = m.group(2);
-
-                            boolean skip = false;
-                            if (!skip) {
-                                if (stateStep < 0 && state > 0) {
-                                    stateStep = state;
-                                }
-
-                                // if the columnCount is not the same then perhaps the line is corrupt so skip it.
-                                if (state >= burnin) {
-                                    if (stateStep > 0) {
-                                        if (!renumberOutput) {
-                                            stateCount += stateStep;
-                                        } else {
-                                            stateCount += 1;
-                                        }
-                                    }
-
-                                    if (resample >= 0) {
-                                        if (resample % stateStep != 0) {
-                                            System.err.println("ERROR: Resampling frequency is not a multiple of existing sampling frequency");
-                                            return;
-                                        }
-                                    }
-
-                                    boolean logThis;
-                                    if (resample < 0) {
-                                        logThis = true;
-                                    } else if (!renumberOutput) {
-                                        logThis = (stateCount % resample == 0);
-                                    } else {
-                                        logThis = ((stateCount * stateStep) % resample == 0);
-                                    }
-
-                                    long stateLineEntry;
-                                    if (!renumberOutput) {
-                                        stateLineEntry = stateCount;
-                                    } else {
-
-//                                	System.out.println("stateCount: " + stateCount);
-//                                	System.out.println("resample: " + resample);
-//                                	System.out.println("stateStep: " + stateStep);
-//                                	System.out.println("resample / stateStep: " + (resample / stateStep));
-
-                                        stateLineEntry = stateCount / (resample / stateStep);
-                                    }
-
-                                    if (logThis) {
-                                        writer.print("tree STATE_");
-                                        writer.print(stateLineEntry);
-                                        writer.println(treeString);
-                                    }
-                                }
+                    if (state >= burnin) {
+                        if (stateStep > 0) {
+                            if (!renumberOutput) {
+                                stateCount += stateStep;
+                            } else {
+                                stateCount += 1;
                             }
                         }
-                        line = reader.readLine();
-                        //lineCount++;
-                    }
-                }
-
-                firstFile = false;
-
-
-            } else {
-                BufferedReader reader = new BufferedReader(new FileReader(inputFile));
-                //int lineCount = 1;
-                String line = reader.readLine();
-
-                // lines starting with [ are ignored, assuming comments in MrBayes file
-                // lines starting with # are ignored, assuming comments in Migrate or BEAST file
-                while (line.startsWith("[") || line.startsWith("#")) {
-
-                    line = reader.readLine();
-                }
-
 
-                if (firstFile) {
-                    titles = line.split("\t");
-                    writer.println(line);
-                } else {
-                    String[] newTitles = line.split("\t");
-                    if (newTitles.length != titles.length) {
-                        System.err.println("ERROR: The number of columns in file, " + inputFileNames[i] + ", does not match that of the first file");
-                        return;
-                    }
-                    for (int k = 0; k < newTitles.length; k++) {
-                        if (!newTitles[k].equals(titles[k])) {
-                            System.err.println("WARNING: The column heading, " + newTitles[k] + " in file, " + inputFileNames[i] + ", does not match the first file's heading, " + titles[k]);
+                        if (resample >= 0) {
+                            if (resample % stateStep != 0) {
+                                System.err.println("ERROR: Resampling frequency is not a multiple of existing sampling frequency");
+                                return;
+                            }
                         }
-                    }
-                }
-                line = reader.readLine();
-                //lineCount++;
-
-                while (line != null) {
-                    String[] parts = line.split("\t");
 
-                    long state = -1;
-
-                    boolean skip = false;
-                    try {
-                        state = Long.parseLong(parts[0]);
-                    } catch (NumberFormatException nfe) {
-                        skip = true;
-                    }
-
-                    if (!skip) {
-                        if (stateStep < 0 && state > 0) {
-                            stateStep = state;
-                            columnCount = parts.length;
+                        boolean logThis;
+                        if (resample < 0) {
+                            // not resampling, log every state
+                            logThis = true;
+                        } else if (!renumberOutput) {
+                            // resampling but not renumbering
+                            logThis = (stateCount % resample == 0);
+                        } else {
+                            logThis = (stateCount * stateStep % resample == 0);
                         }
 
-                        // if the columnCount is not the same then perhaps the line is corrupt so skip it.
-                        if (state >= burnin && parts.length == columnCount) {
-                            for (int j = 1; j < parts.length; j++) {
-                                try {
-                                    if (!parts[j].startsWith("{")) {
-                                        // complex log values start with a curly bracket - otherwise attempt to parse
-                                        // it as a number. If it fails, skip the line as a possible corruption.
-
-                                        // attempt to convert the column value...
-                                        double value = Double.valueOf(parts[j]);
-                                    }
-                                } catch (NumberFormatException nfe) {
-                                    skip = true;
-                                    break;
-                                }
-                            }
-
-                            if (!skip) {
-
-                                if (stateStep > 0) {
-                                    if (!renumberOutput) {
-                                        stateCount += stateStep;
-                                    } else {
-                                        stateCount += 1;
-                                    }
-                                }
-
-                                if (resample >= 0) {
-                                    if (resample % stateStep != 0) {
-                                        System.err.println("ERROR: Resampling frequency is not a multiple of existing sampling frequency");
-                                        return;
-                                    }
-                                }
-
-                                boolean logThis;
-                                if (resample < 0) {
-                                    logThis = true;
-                                } else if (!renumberOutput){
-                                    logThis = (stateCount % resample == 0);
-                                } else {
-                                    logThis = ((stateCount * stateStep) % resample == 0);
-                                }
-
-                                long stateLineEntry;
-                                if (!renumberOutput){
-                                    stateLineEntry = stateCount;
-                                } else {
-
-//                                	System.out.println("stateCount: " + stateCount);
-//                                	System.out.println("resample: " + resample);
-//                                	System.out.println("stateStep: " + stateStep);
-//                                	System.out.println("resample / stateStep: " + (resample / stateStep));
-
-                                    stateLineEntry = stateCount / (resample / stateStep);
-                                }
-
-                                if (logThis) {
-                                    writer.print(stateLineEntry);
-                                    for (int j = 1; j < parts.length; j++) {
-                                        String value = parts[j];
-
-                                        if (useScale) {
-                                            if (titles[j].equals("clock.rate") || titles[j].startsWith("skyline.popSize")) {
-                                                value = reformatNumbers(value, convertToDecimal, true, 1.0 / scale);
-                                            } else if (titles[j].equals("treeModel.rootHeight")) {
-                                                value = reformatNumbers(value, convertToDecimal, true, scale);
-                                            }
-                                        } else  if (convertToDecimal) {
-                                            value = reformatNumbers(value, convertToDecimal, false, 1.0);
-                                        }
-                                        writer.print("\t" + value);
-                                    }
-                                    writer.println();
-                                }
-                            }
+                        long stateLineEntry;
+                        if (!renumberOutput || resample < 0) {
+                            stateLineEntry = stateCount;
+                        } else {
+                            stateLineEntry = stateCount / (resample / stateStep);
+                        }
 
+                        if (logThis) {
+                            writeTree(stateLineEntry, tree, convertToDecimal, writer);
                         }
+
                     }
-                    line = reader.readLine();
-                    //lineCount++;
                 }
+            } catch (Importer.ImportException e) {
+                System.err.println("Error Parsing Input Tree: " + e.getMessage());
+                return;
             }
-
-            firstFile = false;
         }
 
-        if (treeFiles) {
-            stopLog(writer);
-        }
+        stopLog(writer);
         writer.close();
     }
 
@@ -583,7 +376,7 @@ public class LogCombiner {
     private static final DecimalFormat decimalFormatter = new DecimalFormat("#.############", new DecimalFormatSymbols(Locale.US));
     private static final DecimalFormat scientificFormatter = new DecimalFormat("#.############E0", new DecimalFormatSymbols(Locale.US));
 
-    private String reformatNumbers(String line, boolean convertDecimal, boolean useScale, double scale) {
+    static String reformatNumbers(String line, boolean convertDecimal, boolean useScale, double scale) {
         StringBuilder outLine = new StringBuilder();
 
         Pattern pattern = Pattern.compile("\\d+\\.\\d+(E[\\-\\d\\.]+)?");
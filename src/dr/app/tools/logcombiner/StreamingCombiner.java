@@ -0,0 +1,795 @@
+/*
+ * StreamingCombiner.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.app.tools.logcombiner;
+
+import dr.util.TaskScheduler;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * The engine used by LogCombiner to combine log files or tree files (when the trees don't need to be
+ * parsed). Each input file is scanned concurrently (using the shared task scheduler) to find the lines
+ * that are kept after the burn-in. These are the lines from which the states to be written are chosen
+ * and, as that depends on the number of states kept from the preceding files, the choosing is done in
+ * file order as each scan finishes. Only the chosen lines are then read again (by seeking to them) and
+ * passed to a thread that writes the output. Lines are handled as bytes and only the state number (and,
+ * for log files, a check that the values are numbers) is parsed.
+ *
+ * The rules about which states are kept, resampled and how they are numbered are the same as LogCombiner
+ * has always used.
+ */
+final class StreamingCombiner {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final byte[] TREE_PREFIX = "tree STATE_".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NEW_LINE = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+
+    StreamingCombiner(boolean treeFiles, long resample, boolean renumberOutput,
+                      boolean convertToDecimal, boolean useScale, double scale) {
+        this.treeFiles = treeFiles;
+        this.resample = resample;
+        this.renumberOutput = renumberOutput;
+        this.convertToDecimal = convertToDecimal;
+        this.useScale = useScale;
+        this.scale = scale;
+    }
+
+    /**
+     * Combines the files into the output file.
+     * @return false if there was an error (which has been reported)
+     */
+    boolean combine(File[] inputFiles, long[] burnins, File outputFile) throws IOException {
+
+        // read the headers and find where the states start in each file
+        long[] dataStarts = new long[inputFiles.length];
+        List<byte[]> headerLines = new ArrayList<>();
+        for (int i = 0; i < inputFiles.length; i++) {
+            dataStarts[i] = readHeader(inputFiles[i], i == 0 ? headerLines : null);
+            if (dataStarts[i] < 0) {
+                return false;
+            }
+        }
+
+        // the sampling frequency comes from the first state after 0
+        findStateStep(inputFiles, dataStarts);
+
+        List<Future<FileScan>> scans = new ArrayList<>();
+        for (int i = 0; i < inputFiles.length; i++) {
+            long burnin = (burnins.length > i ? burnins[i] : burnins[0]);
+            scans.add(TaskScheduler.getPool().submit(new FileScan(i, inputFiles[i], dataStarts[i], burnin)));
+        }
+
+        try (OutputWriter writer = new OutputWriter(outputFile)) {
+            writer.start();
+
+            for (byte[] line : headerLines) {
+                writer.writeLine(line, 0, line.length);
+            }
+
+            long stateCount = (renumberOutput ? -1 : 0);
+
+            for (int i = 0; i < inputFiles.length; i++) {
+                FileScan scan = getScan(scans.get(i));
+
+                try (LineFetcher fetcher = new LineFetcher(inputFiles[i])) {
+                    for (int j = 0; j < scan.lineCount; j++) {
+
+                        // lines before the state step was found are not counted
+                        long step = (j < scan.preStepCount ? -1 : stateStep);
+
+                        if (step > 0) {
+                            if (!renumberOutput) {
+                                stateCount += step;
+                            } else {
+                                stateCount += 1;
+                            }
+                        }
+
+                        if (resample >= 0) {
+                            if (resample % step != 0) {
+                                System.err.println("ERROR: Resampling frequency is not a multiple of existing sampling frequency");
+                                for (int k = i + 1; k < scans.size(); k++) {
+                                    scans.get(k).cancel(true);
+                                }
+                                return false;
+                            }
+                        }
+
+                        boolean logThis;
+                        if (resample < 0) {
+                            // not resampling, log every state
+                            logThis = true;
+                        } else if (!renumberOutput) {
+                            // resampling but not renumbering
+                            logThis = (stateCount % resample == 0);
+                        } else {
+                            logThis = (stateCount * step % resample == 0);
+                        }
+
+                        if (logThis) {
+                            long stateLineEntry;
+                            if (!renumberOutput || resample < 0) {
+                                stateLineEntry = stateCount;
+                            } else {
+                                stateLineEntry = stateCount / (resample / step);
+                            }
+
+                            int length = fetcher.readLine(scan.lineOffsets[j]);
+                            writeState(writer, stateLineEntry, fetcher.buffer, fetcher.lineStart, length);
+                        }
+                    }
+                }
+            }
+
+            if (treeFiles) {
+                byte[] end = "End;".getBytes(StandardCharsets.US_ASCII);
+                writer.writeLine(end, 0, end.length);
+            }
+        }
+        return true;
+    }
+
+    // **************************************************************
+    // Headers and the state step
+    // **************************************************************
+
+    /**
+     * Reads the header of a file (up to the column titles for a log file or to the first tree). For the
+     * first file, the header lines to be written are added to headerLines.
+     * @return the offset of the first state's line or -1 if there was an error
+     */
+    private long readHeader(File file, List<byte[]> headerLines) throws IOException {
+        try (LineScanner scanner = new LineScanner(file, 0, Integer.MAX_VALUE)) {
+            if (treeFiles) {
+                while (scanner.nextLine()) {
+                    String line = scanner.toString();
+                    if (line.trim().startsWith("tree ")) {
+                        return scanner.lineOffset;
+                    }
+                    if (headerLines != null) {
+                        headerLines.add(Arrays.copyOf(scanner.line, scanner.lineLength));
+                    }
+                }
+                return scanner.lineOffset;
+            }
+
+            // lines starting with [ are ignored, assuming comments in MrBayes file
+            // lines starting with # are ignored, assuming comments in Migrate or BEAST file
+            String line = null;
+            while (scanner.nextLine()) {
+                line = scanner.toString();
+                if (!line.startsWith("[") && !line.startsWith("#")) {
+                    break;
+                }
+            }
+            if (line == null) {
+                System.err.println("ERROR: The file, " + file.getName() + ", contains no column headings");
+                return -1;
+            }
+
+            String[] newTitles = line.split("\t");
+            if (headerLines != null) {
+                titles = newTitles;
+                headerLines.add(Arrays.copyOf(scanner.line, scanner.lineLength));
+            } else {
+                if (newTitles.length != titles.length) {
+                    System.err.println("ERROR: The number of columns in file, " + file.getPath() + ", does not match that of the first file");
+                    return -1;
+                }
+                for (int k = 0; k < newTitles.length; k++) {
+                    if (!newTitles[k].equals(titles[k])) {
+                        System.err.println("WARNING: The column heading, " + newTitles[k] + " in file, " + file.getPath() + ", does not match the first file's heading, " + titles[k]);
+                    }
+                }
+            }
+            return scanner.lineOffset + scanner.lineSpan;
+        }
+    }
+
+    /**
+     * Finds the first state greater than zero - its state number is the sampling frequency (and for log
+     * files its number of columns is the number all the states should have).
+     */
+    private void findStateStep(File[] inputFiles, long[] dataStarts) throws IOException {
+        for (int i = 0; i < inputFiles.length; i++) {
+            try (LineScanner scanner = new LineScanner(inputFiles[i], dataStarts[i], Integer.MAX_VALUE)) {
+                while (scanner.nextLine()) {
+                    long state = parseState(scanner.line, scanner.lineLength);
+                    if (state > 0) {
+                        stateStep = state;
+                        stepFile = i;
+                        stepOffset = scanner.lineOffset;
+                        if (!treeFiles) {
+                            columnCount = countFields(scanner.line, scanner.lineLength);
+                        }
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    // **************************************************************
+    // Scanning
+    // **************************************************************
+
+    /**
+     * Finds the lines in a file that are kept after the burn-in.
+     */
+    private final class FileScan implements Callable<FileScan> {
+
+        FileScan(int fileIndex, File file, long dataStart, long burnin) {
+            this.fileIndex = fileIndex;
+            this.file = file;
+            this.dataStart = dataStart;
+            this.burnin = burnin;
+        }
+
+        public FileScan call() throws IOException {
+            // for trees only the start of the line is needed
+            int maxLength = treeFiles ? 64 : Integer.MAX_VALUE;
+
+            try (LineScanner scanner = new LineScanner(file, dataStart, maxLength)) {
+                while (scanner.nextLine()) {
+                    long state = parseState(scanner.line, scanner.lineLength);
+                    if (state < 0 || state < burnin) {
+                        continue;
+                    }
+
+                    boolean beforeStep = fileIndex < stepFile || (fileIndex == stepFile && scanner.lineOffset < stepOffset);
+
+                    if (!treeFiles) {
+                        // log lines before the step was found or with the wrong number of columns (perhaps
+                        // the line is corrupt) are skipped, as are any with values that are not numbers.
+                        if (beforeStep || !isValidLine(scanner.line, scanner.lineLength)) {
+                            continue;
+                        }
+                    }
+
+                    if (lineCount == lineOffsets.length) {
+                        lineOffsets = Arrays.copyOf(lineOffsets, lineCount * 2);
+                    }
+                    lineOffsets[lineCount] = scanner.lineOffset;
+                    lineCount++;
+                    if (beforeStep) {
+                        preStepCount++;
+                    }
+                }
+            }
+            return this;
+        }
+
+        private final int fileIndex;
+        private final File file;
+        private final long dataStart;
+        private final long burnin;
+
+        long[] lineOffsets = new long[1024];
+        int lineCount = 0;
+        int preStepCount = 0;
+    }
+
+    private FileScan getScan(Future<FileScan> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading input files");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * @return the state number of a line or -1 if it doesn't have one. For log files this is the first column
+     * and for tree files the number in 'tree STATE_xxx'.
+     */
+    private long parseState(byte[] line, int length) {
+        int start = 0;
+        int end;
+        if (treeFiles) {
+            if (length <= TREE_PREFIX.length) {
+                return -1;
+            }
+            for (int i = 0; i < TREE_PREFIX.length; i++) {
+                if (line[i] != TREE_PREFIX[i]) {
+                    return -1;
+                }
+            }
+            start = TREE_PREFIX.length;
+            end = start;
+            while (end < length && line[end] >= '0' && line[end] <= '9') {
+                end++;
+            }
+            // the number must be followed by white space
+            if (end == start || end == length || !isWhitespace(line[end])) {
+                return -1;
+            }
+        } else {
+            end = 0;
+            while (end < length && line[end] != '\t') {
+                end++;
+            }
+        }
+
+        int i = start;
+        boolean negative = false;
+        if (i < end && (line[i] == '-' || line[i] == '+')) {
+            negative = line[i] == '-';
+            i++;
+        }
+        if (i == end || end - i > 18) {
+            try {
+                return Long.parseLong(new String(line, start, end - start, StandardCharsets.US_ASCII));
+            } catch (NumberFormatException nfe) {
+                return -1;
+            }
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = line[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        // negative states are never kept
+        return negative ? -1 : value;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == 0x0B || b == '\f' || b == '\r';
+    }
+
+    /**
+     * @return the number of tab separated fields in the line (ignoring empty trailing fields as String.split does)
+     */
+    private static int countFields(byte[] line, int length) {
+        int end = length;
+        while (end > 0 && line[end - 1] == '\t') {
+            end--;
+        }
+        if (end == 0) {
+            return length == 0 ? 1 : 0;
+        }
+        int count = 1;
+        for (int i = 0; i < end; i++) {
+            if (line[i] == '\t') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return true if the line has the right number of columns and all the values are numbers (or complex
+     * values starting with '{').
+     */
+    private boolean isValidLine(byte[] line, int length) {
+        if (countFields(line, length) != columnCount) {
+            return false;
+        }
+        int end = length;
+        while (end > 0 && line[end - 1] == '\t') {
+            end--;
+        }
+        int start = 0;
+        while (start < end && line[start] != '\t') {
+            start++;
+        }
+        while (start < end) {
+            start++; // the tab
+            int fieldEnd = start;
+            while (fieldEnd < end && line[fieldEnd] != '\t') {
+                fieldEnd++;
+            }
+            if (fieldEnd == start || line[start] != '{') {
+                if (!isNumber(line, start, fieldEnd)) {
+                    return false;
+                }
+            }
+            start = fieldEnd;
+        }
+        return true;
+    }
+
+    /**
+     * @return true if Double.valueOf would accept this text (the common cases are checked without creating a String)
+     */
+    private static boolean isNumber(byte[] bytes, int start, int end) {
+        int i = start;
+        if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+            i++;
+        }
+        int digits = 0;
+        while (i < end && bytes[i] >= '0' && bytes[i] <= '9') {
+            i++;
+            digits++;
+        }
+        if (i < end && bytes[i] == '.') {
+            i++;
+            while (i < end && bytes[i] >= '0' && bytes[i] <= '9') {
+                i++;
+                digits++;
+            }
+        }
+        if (digits > 0 && i < end && (bytes[i] == 'e' || bytes[i] == 'E')) {
+            int j = i + 1;
+            if (j < end && (bytes[j] == '-' || bytes[j] == '+')) {
+                j++;
+            }
+            int exponentDigits = 0;
+            while (j < end && bytes[j] >= '0' && bytes[j] <= '9') {
+                j++;
+                exponentDigits++;
+            }
+            if (exponentDigits > 0) {
+                i = j;
+            }
+        }
+        if (digits > 0 && i == end) {
+            return true;
+        }
+
+        // anything else (NaN, Infinity, hexadecimal, white space...)
+        try {
+            Double.valueOf(new String(bytes, start, end - start, StandardCharsets.US_ASCII));
+            return true;
+        } catch (NumberFormatException nfe) {
+            return false;
+        }
+    }
+
+    // **************************************************************
+    // Writing
+    // **************************************************************
+
+    private void writeState(OutputWriter writer, long state, byte[] line, int start, int length) throws IOException {
+        byte[] stateBytes = Long.toString(state).getBytes(StandardCharsets.US_ASCII);
+
+        if (treeFiles) {
+            int numberEnd = start + TREE_PREFIX.length;
+            while (line[numberEnd] >= '0' && line[numberEnd] <= '9') {
+                numberEnd++;
+            }
+            writer.write(TREE_PREFIX, 0, TREE_PREFIX.length);
+            writer.write(stateBytes, 0, stateBytes.length);
+            writer.writeLine(line, numberEnd, start + length - numberEnd);
+            return;
+        }
+
+        if (useScale || convertToDecimal) {
+            String[] parts = new String(line, start, length, StandardCharsets.UTF_8).split("\t");
+            StringBuilder builder = new StringBuilder();
+            builder.append(state);
+            for (int j = 1; j < parts.length; j++) {
+                String value = parts[j];
+
+                if (useScale) {
+                    if (titles[j].equals("clock.rate") || titles[j].startsWith("skyline.popSize")) {
+                        value = LogCombiner.reformatNumbers(value, convertToDecimal, true, 1.0 / scale);
+                    } else if (titles[j].equals("treeModel.rootHeight")) {
+                        value = LogCombiner.reformatNumbers(value, convertToDecimal, true, scale);
+                    }
+                } else  if (convertToDecimal) {
+                    value = LogCombiner.reformatNumbers(value, convertToDecimal, false, 1.0);
+                }
+                builder.append("\t").append(value);
+            }
+            byte[] bytes = builder.toString().getBytes(StandardCharsets.UTF_8);
+            writer.writeLine(bytes, 0, bytes.length);
+            return;
+        }
+
+        // the line without its state number or any trailing tabs
+        int end = start + length;
+        while (end > start && line[end - 1] == '\t') {
+            end--;
+        }
+        int tab = start;
+        while (tab < end && line[tab] != '\t') {
+            tab++;
+        }
+        writer.write(stateBytes, 0, stateBytes.length);
+        writer.writeLine(line, tab, end - tab);
+    }
+
+    /**
+     * Writes the output on a separate thread. Bytes are collected into blocks which are passed to the
+     * thread when full.
+     */
+    private static final class OutputWriter extends Thread implements Closeable {
+
+        private static final byte[] END = new byte[0];
+
+        OutputWriter(File file) throws IOException {
+            super("LogCombiner output");
+            setDaemon(true);
+            output = new FileOutputStream(file);
+        }
+
+        void write(byte[] bytes, int offset, int length) throws IOException {
+            if (blockLength + length > block.length) {
+                flushBlock();
+                if (length > block.length) {
+                    block = new byte[length];
+                }
+            }
+            System.arraycopy(bytes, offset, block, blockLength, length);
+            blockLength += length;
+        }
+
+        void writeLine(byte[] bytes, int offset, int length) throws IOException {
+            write(bytes, offset, length);
+            write(NEW_LINE, 0, NEW_LINE.length);
+        }
+
+        private void flushBlock() throws IOException {
+            if (blockLength > 0) {
+                put(Arrays.copyOf(block, blockLength));
+                blockLength = 0;
+            }
+        }
+
+        private void put(byte[] bytes) throws IOException {
+            if (error != null) {
+                throw error;
+            }
+            try {
+                queue.put(bytes);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while writing output");
+            }
+        }
+
+        public void run() {
+            try {
+                while (true) {
+                    byte[] bytes = queue.take();
+                    if (bytes == END) {
+                        break;
+                    }
+                    if (error == null) {
+                        output.write(bytes);
+                    }
+                }
+            } catch (IOException e) {
+                error = e;
+            } catch (InterruptedException e) {
+                error = new IOException("Interrupted while writing output");
+            }
+        }
+
+        public void close() throws IOException {
+            try {
+                flushBlock();
+                put(END);
+                join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                output.close();
+            }
+            if (error != null) {
+                throw error;
+            }
+        }
+
+        private final OutputStream output;
+        private final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(16);
+        private byte[] block = new byte[BUFFER_SIZE];
+        private int blockLength = 0;
+        private volatile IOException error = null;
+    }
+
+    // **************************************************************
+    // Reading lines
+    // **************************************************************
+
+    /**
+     * Reads a file line by line as bytes (lines end with '\n' or '\r\n'). At most maxLength bytes of each
+     * line are kept - the rest is skipped over.
+     */
+    private static final class LineScanner implements Closeable {
+
+        LineScanner(File file, long start, int maxLength) throws IOException {
+            input = new FileInputStream(file);
+            long skipped = 0;
+            while (skipped < start) {
+                long n = input.skip(start - skipped);
+                if (n <= 0) {
+                    break;
+                }
+                skipped += n;
+            }
+            position = skipped;
+            this.maxLength = maxLength;
+        }
+
+        boolean nextLine() throws IOException {
+            lineOffset = position;
+            lineLength = 0;
+            long fullLength = 0;
+            boolean endOfLine = false;
+            while (!endOfLine) {
+                if (bufferPosition == bufferLimit) {
+                    bufferLimit = Math.max(input.read(buffer, 0, buffer.length), 0);
+                    bufferPosition = 0;
+                    if (bufferLimit == 0) {
+                        break;
+                    }
+                }
+                int end = bufferPosition;
+                while (end < bufferLimit && buffer[end] != '\n') {
+                    end++;
+                }
+                append(buffer, bufferPosition, end - bufferPosition);
+                fullLength += end - bufferPosition;
+                endOfLine = end < bufferLimit;
+                bufferPosition = (endOfLine ? end + 1 : end);
+            }
+            lineSpan = fullLength + (endOfLine ? 1 : 0);
+            position += lineSpan;
+            if (lineLength == fullLength && lineLength > 0 && line[lineLength - 1] == '\r') {
+                lineLength--;
+            }
+            return lineSpan > 0;
+        }
+
+        private void append(byte[] bytes, int offset, int length) {
+            int n = Math.min(length, maxLength - lineLength);
+            if (n <= 0) {
+                return;
+            }
+            if (lineLength + n > line.length) {
+                line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + n));
+            }
+            System.arraycopy(bytes, offset, line, lineLength, n);
+            lineLength += n;
+        }
+
+        public String toString() {
+            return new String(line, 0, lineLength, StandardCharsets.UTF_8);
+        }
+
+        public void close() throws IOException {
+            input.close();
+        }
+
+        private final InputStream input;
+        private final int maxLength;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int bufferPosition = 0;
+        private int bufferLimit = 0;
+        private long position;
+
+        byte[] line = new byte[1024];
+        int lineLength;
+        long lineOffset;
+        long lineSpan;
+    }
+
+    /**
+     * Reads whole lines at given (increasing) offsets in a file through a window so that lines close
+     * together are read with a single read.
+     */
+    private static final class LineFetcher implements Closeable {
+
+        LineFetcher(File file) throws IOException {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            fileSize = channel.size();
+        }
+
+        /**
+         * Reads the line starting at the offset - the line is in buffer starting at lineStart.
+         * @return the length of the line (without the line ending)
+         */
+        int readLine(long offset) throws IOException {
+            if (offset < windowStart || offset >= windowStart + windowLength) {
+                fill(offset);
+            }
+            lineStart = (int) (offset - windowStart);
+            int end = lineStart;
+            while (true) {
+                while (end < windowLength && buffer[end] != '\n') {
+                    end++;
+                }
+                if (end < windowLength || windowStart + windowLength >= fileSize) {
+                    break;
+                }
+                // the line continues beyond the window so move the window to the start of the line
+                // (making it bigger if the line is longer than it)
+                int scanned = end - lineStart;
+                if (lineStart == 0) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                fill(offset);
+                lineStart = 0;
+                end = scanned;
+            }
+            int length = end - lineStart;
+            if (length > 0 && buffer[lineStart + length - 1] == '\r') {
+                length--;
+            }
+            return length;
+        }
+
+        private void fill(long offset) throws IOException {
+            windowStart = offset;
+            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+            while (byteBuffer.hasRemaining()) {
+                int n = channel.read(byteBuffer, offset + byteBuffer.position());
+                if (n < 0) {
+                    break;
+                }
+            }
+            windowLength = byteBuffer.position();
+        }
+
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        private final FileChannel channel;
+        private final long fileSize;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        private long windowStart = -1;
+        private int windowLength = 0;
+        int lineStart;
+    }
+
+    private final boolean treeFiles;
+    private final long resample;
+    private final boolean renumberOutput;
+    private final boolean convertToDecimal;
+    private final boolean useScale;
+    private final double scale;
+
+    private String[] titles = null;
+
+    private long stateStep = -1;
+    private int stepFile = Integer.MAX_VALUE;
+    private long stepOffset = Long.MAX_VALUE;
+    private int columnCount = 0;
+}
@@ -164,6 +164,17 @@ class BiClade implements Clade {
         return key;
     }
 
+    /**
+     * @return a number unique to this clade within its CladeSystem (or -1 for a tip)
+     */
+    public int getNumber() {
+        return number;
+    }
+
+    void setNumber(int number) {
+        this.number = number;
+    }
+
     public static Object makeKey(Object key1, Object key2) {
         BitSet bits = new BitSet();
         if (key1 instanceof Integer) {
@@ -205,6 +216,7 @@ class BiClade implements Clade {
     private final int index;
 
     private final Object key;
+    private int number = -1;
 
     private final Taxon taxon;
 
@@ -0,0 +1,195 @@
+/*
+ * CladeCollector.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.app.tools.newtreeannotator;
+
+import dr.evolution.io.CompactTree;
+import dr.util.TaskScheduler;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Adds trees to a CladeSystem using the shared task scheduler. The thread reading the trees
+ * calls add() for each one which copies its topology into a batch; full batches are added to
+ * the clade system by the worker threads while the next trees are read. The clade numbers of
+ * each tree are collected (in the order the trees were read) into an optional TopologyCache.
+ */
+public final class CladeCollector {
+
+    /**
+     * The approximate number of nodes in a batch of trees
+     */
+    private static final int BATCH_NODE_COUNT = 1 << 16;
+
+    public CladeCollector(CladeSystem cladeSystem, TopologyCache topologyCache) {
+        this(cladeSystem, topologyCache, TaskScheduler.getPool());
+    }
+
+    /**
+     * @param pool the threads used to add the trees
+     */
+    public CladeCollector(CladeSystem cladeSystem, TopologyCache topologyCache, ForkJoinPool pool) {
+        this.cladeSystem = cladeSystem;
+        this.topologyCache = topologyCache;
+        this.pool = pool;
+        // enough batches to keep the workers busy without holding too many trees in memory
+        this.maxPendingBatches = 2 * pool.getParallelism() + 1;
+    }
+
+    /**
+     * Adds a tree. The tree is copied so it can be reused once this returns.
+     */
+    public void add(CompactTree tree) throws IOException {
+        if (batch == null) {
+            batch = new Batch(Math.max(BATCH_NODE_COUNT, tree.getNodeCount()));
+        }
+        if (!batch.add(tree)) {
+            submit();
+            batch = new Batch(Math.max(BATCH_NODE_COUNT, tree.getNodeCount()));
+            batch.add(tree);
+        }
+    }
+
+    /**
+     * Waits for all the trees to be added.
+     * @return the number of trees added
+     */
+    public int finish() throws IOException {
+        if (batch != null && batch.treeCount > 0) {
+            submit();
+        }
+        batch = null;
+        while (!pending.isEmpty()) {
+            complete(pending.poll());
+        }
+        cladeSystem.setTreeCount(treeCount);
+        return treeCount;
+    }
+
+    private void submit() throws IOException {
+        pending.add(pool.submit(batch));
+        batch = null;
+
+        // wait for the oldest batch if too many are waiting, and collect any that are finished
+        while (pending.size() > maxPendingBatches || (!pending.isEmpty() && pending.peek().isDone())) {
+            complete(pending.poll());
+        }
+    }
+
+    private void complete(Future<Batch> future) throws IOException {
+        Batch completed;
+        try {
+            completed = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while collecting clades");
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Error collecting clades: " + e.getCause().getMessage(), e.getCause());
+        }
+
+        if (topologyCache != null) {
+            int offset = 0;
+            for (int i = 0; i < completed.treeCount; i++) {
+                topologyCache.add(completed.cladeNumbers, offset, completed.cladeCounts[i]);
+                offset += completed.cladeCounts[i];
+            }
+        }
+        treeCount += completed.treeCount;
+    }
+
+    /**
+     * A set of tree topologies, each coded in post-order as tip numbers and (negative) child counts
+     */
+    private final class Batch implements Callable<Batch> {
+
+        Batch(int capacity) {
+            topology = new int[capacity];
+        }
+
+        /**
+         * @return false if the batch is full
+         */
+        boolean add(CompactTree tree) {
+            int nodeCount = tree.getNodeCount();
+            if (length + nodeCount > topology.length) {
+                return false;
+            }
+            for (int node = 0; node < nodeCount; node++) {
+                topology[length + node] = tree.isExternal(node) ? tree.getTaxonIndex(node) : -tree.getChildCount(node);
+            }
+            if (treeCount == treeLengths.length) {
+                treeLengths = Arrays.copyOf(treeLengths, treeCount * 2);
+            }
+            treeLengths[treeCount] = nodeCount;
+            treeCount++;
+            length += nodeCount;
+            maxNodeCount = Math.max(maxNodeCount, nodeCount);
+            return true;
+        }
+
+        public Batch call() {
+            Clade[] stack = new Clade[maxNodeCount];
+            boolean keepNumbers = topologyCache != null;
+            cladeNumbers = keepNumbers ? new int[length] : null;
+            cladeCounts = new int[treeCount];
+
+            int offset = 0;
+            int numberOffset = 0;
+            for (int i = 0; i < treeCount; i++) {
+                cladeCounts[i] = cladeSystem.addTopology(topology, offset, treeLengths[i], stack, cladeNumbers, numberOffset);
+                offset += treeLengths[i];
+                numberOffset += cladeCounts[i];
+            }
+            return this;
+        }
+
+        private final int[] topology;
+        private int length = 0;
+        private int[] treeLengths = new int[64];
+        private int treeCount = 0;
+        private int maxNodeCount = 0;
+
+        private int[] cladeNumbers;
+        private int[] cladeCounts;
+    }
+
+    private final CladeSystem cladeSystem;
+    private final TopologyCache topologyCache;
+    private final ForkJoinPool pool;
+    private final int maxPendingBatches;
+
+    private final Deque<Future<Batch>> pending = new ArrayDeque<>();
+    private Batch batch = null;
+    private int treeCount = 0;
+}
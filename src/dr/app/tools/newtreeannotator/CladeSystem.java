@@ -35,12 +35,14 @@ import dr.evolution.util.TaxonList;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author Andrew Rambaut
  * @version $
  */
-final class CladeSystem {
+public final class CladeSystem {
     private final boolean keepSubClades;
     private double treeCount = 0;
 
@@ -94,6 +96,82 @@ final class CladeSystem {
         return rootClade;
     }
 
+    /**
+     * Adds a tree's topology given in post-order as a sequence of tip numbers (>= 0) and
+     * internal nodes (the negative of the number of children, which are the preceding nodes
+     * left on the stack). This can be called concurrently by multiple threads once the tip
+     * clades have been created with addTipClades(TaxonList). The tip clade counts and the tree
+     * count are updated by setTreeCount once all the trees have been added.
+     *
+     * @param cladeNumbers if not null, the numbers of the internal clades (see getCladeNumber)
+     *                     are written here in post-order
+     * @return the number of internal clades written
+     */
+    int addTopology(int[] topology, int offset, int length, Clade[] stack, int[] cladeNumbers, int numberOffset) {
+        int stackSize = 0;
+        int cladeCount = 0;
+        for (int i = offset; i < offset + length; i++) {
+            int value = topology[i];
+            Clade clade;
+            if (value >= 0) {
+                clade = tipClades.get(value);
+            } else if (value == -1) {
+                // a node with a single child is the same clade as the child
+                continue;
+            } else {
+                // fold any polytomy into a ladder of pairs
+                clade = stack[stackSize + value];
+                for (int j = stackSize + value + 1; j < stackSize; j++) {
+                    clade = getOrAddClade(clade, stack[j]);
+                    synchronized (clade) {
+                        clade.setCount(clade.getCount() + 1);
+                    }
+                }
+                stackSize += value;
+                if (cladeNumbers != null) {
+                    cladeNumbers[numberOffset + cladeCount] = ((BiClade) clade).getNumber();
+                }
+                cladeCount++;
+            }
+            stack[stackSize] = clade;
+            stackSize++;
+        }
+        assert stackSize == 1;
+        rootClade = stack[0];
+        return cladeCount;
+    }
+
+    /**
+     * Sets the number of trees added by addTopology (and the counts of the tip clades).
+     */
+    void setTreeCount(int treeCount) {
+        this.treeCount = treeCount;
+        for (Clade clade : tipClades.values()) {
+            clade.setCount(treeCount);
+        }
+    }
+
+    /**
+     * create the tip clades for a list of taxa
+     */
+    public void addTipClades(TaxonList taxonList) {
+        setTaxonList(taxonList);
+        for (int i = 0; i < taxonList.getTaxonCount(); i++) {
+            tipClades.put(i, new BiClade(i, taxonList.getTaxon(i)));
+        }
+    }
+
+    /**
+     * @return the log credibilities of the (non-tip) clades indexed by their numbers
+     */
+    public double[] getLogCladeCredibilities() {
+        double[] logCredibilities = new double[nextCladeNumber.get()];
+        for (Clade clade : cladeMap.values()) {
+            logCredibilities[((BiClade) clade).getNumber()] = Math.log(clade.getCredibility());
+        }
+        return logCredibilities;
+    }
+
     /**
      * add all the tips in a tree
      */
@@ -138,20 +216,28 @@ final class CladeSystem {
     }
 
     /**
-     * see if a clade exists otherwise create it
+     * see if a clade exists otherwise create it (safe to call from multiple threads)
      */
     private Clade getOrAddClade(Clade child1, Clade child2) {
         Object key = BiClade.makeKey(child1.getKey(), child2.getKey());
         BiClade clade = (BiClade)cladeMap.get(key);
         if (clade == null) {
+            BiClade newClade;
             if (keepSubClades) {
-                clade = new BiClade(child1, child2);
+                newClade = new BiClade(child1, child2);
             } else {
-                clade = new BiClade(key, child1.getSize() + child2.getSize());
+                newClade = new BiClade(key, child1.getSize() + child2.getSize());
             }
-            cladeMap.put(clade.getKey(), clade);
-        } else {
-            if (keepSubClades) {
+            // numbered before it is visible to other threads (if another thread
+            // wins the race this number is just not used)
+            newClade.setNumber(nextCladeNumber.getAndIncrement());
+            clade = (BiClade)cladeMap.putIfAbsent(newClade.getKey(), newClade);
+            if (clade == null) {
+                return newClade;
+            }
+        }
+        if (keepSubClades) {
+            synchronized (clade) {
                 clade.addSubClades(child1, child2);
             }
         }
@@ -286,7 +372,9 @@ final class CladeSystem {
     Map<Taxon, Integer> taxonNumberMap = null;
 
     private final Map<Object, Clade> tipClades = new HashMap<>();
-   private final Map<Object, Clade> cladeMap = new HashMap<>();
+    // a concurrent (internally sharded) table so that trees can be added by several threads
+    private final Map<Object, Clade> cladeMap = new ConcurrentHashMap<>();
+    private final AtomicInteger nextCladeNumber = new AtomicInteger(0);
 
     Clade rootClade;
 }
@@ -0,0 +1,193 @@
+/*
+ * TopologyCache.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.app.tools.newtreeannotator;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Holds the topology of each tree read as the numbers of its clades (in post-order) so that later
+ * passes (e.g., scoring trees by clade credibility) don't have to parse the tree file again. The
+ * values are kept in memory in blocks until they reach a limit after which they are spilled to a
+ * temporary file.
+ */
+public final class TopologyCache implements Closeable {
+
+    public interface Visitor {
+        void visitTopology(int treeIndex, int[] cladeNumbers, int length);
+    }
+
+    /**
+     * @param memoryLimit the maximum number of values to hold in memory
+     */
+    public TopologyCache(long memoryLimit) {
+        this.memoryLimit = memoryLimit;
+    }
+
+    /**
+     * A cache using up to an eighth of the maximum heap size
+     */
+    public TopologyCache() {
+        this(Runtime.getRuntime().maxMemory() / 32);
+    }
+
+    /**
+     * Adds the next tree's clade numbers.
+     */
+    public void add(int[] cladeNumbers, int offset, int length) throws IOException {
+        if (treeCount == treeLengths.length) {
+            treeLengths = Arrays.copyOf(treeLengths, treeCount * 2);
+        }
+        treeLengths[treeCount] = length;
+        treeCount++;
+
+        if (output == null && valueCount + length > memoryLimit) {
+            spill();
+        }
+
+        if (output != null) {
+            for (int i = offset; i < offset + length; i++) {
+                output.writeInt(cladeNumbers[i]);
+            }
+        } else {
+            int copied = 0;
+            while (copied < length) {
+                int[] block = currentBlock();
+                int n = Math.min(length - copied, BLOCK_SIZE - blockPosition);
+                System.arraycopy(cladeNumbers, offset + copied, block, blockPosition, n);
+                blockPosition += n;
+                copied += n;
+            }
+        }
+        valueCount += length;
+    }
+
+    public int getTreeCount() {
+        return treeCount;
+    }
+
+    /**
+     * @return true if the values have been moved out to a temporary file
+     */
+    public boolean isSpilled() {
+        return output != null;
+    }
+
+    /**
+     * Passes each tree's clade numbers to the visitor in the order they were added.
+     */
+    public void visitTopologies(Visitor visitor) throws IOException {
+        int[] buffer = new int[64];
+        if (output != null) {
+            output.flush();
+            try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+                for (int t = 0; t < treeCount; t++) {
+                    int length = treeLengths[t];
+                    if (length > buffer.length) {
+                        buffer = new int[length];
+                    }
+                    for (int i = 0; i < length; i++) {
+                        buffer[i] = input.readInt();
+                    }
+                    visitor.visitTopology(t, buffer, length);
+                }
+            }
+        } else {
+            int blockIndex = 0;
+            int position = 0;
+            for (int t = 0; t < treeCount; t++) {
+                int length = treeLengths[t];
+                if (length > buffer.length) {
+                    buffer = new int[length];
+                }
+                int copied = 0;
+                while (copied < length) {
+                    if (position == BLOCK_SIZE) {
+                        blockIndex++;
+                        position = 0;
+                    }
+                    int n = Math.min(length - copied, BLOCK_SIZE - position);
+                    System.arraycopy(blocks.get(blockIndex), position, buffer, copied, n);
+                    position += n;
+                    copied += n;
+                }
+                visitor.visitTopology(t, buffer, length);
+            }
+        }
+    }
+
+    public void close() throws IOException {
+        blocks.clear();
+        if (output != null) {
+            output.close();
+            output = null;
+            file.delete();
+        }
+    }
+
+    private int[] currentBlock() {
+        if (blocks.isEmpty() || blockPosition == BLOCK_SIZE) {
+            blocks.add(new int[BLOCK_SIZE]);
+            blockPosition = 0;
+        }
+        return blocks.get(blocks.size() - 1);
+    }
+
+    /**
+     * Moves the values held in memory out to a temporary file
+     */
+    private void spill() throws IOException {
+        file = File.createTempFile("treeannotator", ".topologies");
+        file.deleteOnExit();
+        output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        for (int i = 0; i < blocks.size(); i++) {
+            int n = (i < blocks.size() - 1 ? BLOCK_SIZE : blockPosition);
+            int[] block = blocks.get(i);
+            for (int j = 0; j < n; j++) {
+                output.writeInt(block[j]);
+            }
+        }
+        blocks.clear();
+    }
+
+    private static final int BLOCK_SIZE = 1 << 20;
+
+    private final long memoryLimit;
+
+    private final List<int[]> blocks = new ArrayList<>();
+    private int blockPosition = 0;
+    private long valueCount = 0;
+
+    private int[] treeLengths = new int[1024];
+    private int treeCount = 0;
+
+    private File file = null;
+    private DataOutputStream output = null;
+}
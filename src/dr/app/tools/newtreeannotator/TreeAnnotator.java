@@ -32,16 +32,17 @@ import dr.app.tools.BaseTreeTool;
 import dr.app.tools.NexusExporter;
 import dr.app.tools.logcombiner.LogCombiner;
 import dr.app.util.Arguments;
+import dr.evolution.io.CompactTree;
 import dr.evolution.io.Importer;
 import dr.evolution.io.NewickImporter;
 import dr.evolution.io.NexusImporter;
-import dr.evolution.io.TreeImporter;
+import dr.evolution.io.StreamingTreeReader;
 import dr.evolution.tree.FlexibleTree;
 import dr.evolution.tree.MutableTree;
 import dr.evolution.tree.NodeRef;
 import dr.evolution.tree.Tree;
-import dr.evolution.util.Taxa;
 import dr.evolution.util.TaxonList;
+import dr.util.TaskScheduler;
 import dr.util.Version;
 import jam.console.ConsoleApplication;
 
@@ -72,6 +73,7 @@ public class TreeAnnotator extends BaseTreeTool {
     private final AnnotationAction annotationAction;
 
     private TaxonList taxa = null;
+    private TopologyCache topologyCache = null;
     private int totalTrees;
     private int totalTreesUsed;
     private long maxState;
@@ -156,6 +158,11 @@ public class TreeAnnotator extends BaseTreeTool {
                 progressStream.println("Reading trees (assuming 10,000 trees)...");
             }
 
+            if (targetOption == Target.MAX_CLADE_CREDIBILITY) {
+                // keep the topologies to score the trees without reading them again
+                topologyCache = new TopologyCache();
+            }
+
             burnin = readTrees(inputFileName, burninTrees, burninStates, cladeSystem);
 
             cladeSystem.calculateCladeCredibilities(totalTreesUsed);
@@ -200,6 +207,10 @@ public class TreeAnnotator extends BaseTreeTool {
 
         // Help garbage collector
         cladeSystem = null;
+        if (topologyCache != null) {
+            topologyCache.close();
+            topologyCache = null;
+        }
 
         CladeSystem targetCladeSystem = new CladeSystem(targetTree);
 
@@ -221,13 +232,19 @@ public class TreeAnnotator extends BaseTreeTool {
 
     private void countTrees(String inputFileName) throws IOException {
         progressStream.println("Counting trees...");
-        Reader reader = new BufferedReader(new FileReader(inputFileName));
-        TreeImporter importer = new BEASTTreesImporter(reader);
-        totalTrees = importer.countTrees();
+        try (StreamingTreeReader reader = new StreamingTreeReader(new File(inputFileName))) {
+            // skipping trees doesn't parse them
+            while (reader.skipNextTree()) {
+                // just counting
+            }
+            totalTrees = reader.getTreeCount();
+        } catch (Importer.ImportException e) {
+            System.err.println("Error Parsing Input Tree: " + e.getMessage());
+            System.exit(1);
+        }
         if (totalTrees == 0) {
             totalTrees = 10000;
         }
-        reader.close();
         progressStream.println("Total number of trees: " + totalTrees);
         progressStream.println();
     }
@@ -246,63 +263,59 @@ public class TreeAnnotator extends BaseTreeTool {
 
         startTime = System.currentTimeMillis();
 
-        try {
-            // read the first tree using NexusImport to get the taxon list and tip number to taxon mapping
-//            Reader reader = new BufferedReader(new FileReader(inputFileName));
-//            NexusImporter nexusImporter = new NexusImporter(reader, true);
-//            taxa = nexusImporter.importTree(null);
-//
-//            reader = new BufferedReader(new FileReader(inputFileName));
-//            BEASTTreesImporter importer = new BEASTTreesImporter(reader, false);
-//            importer.setTaxonList(taxa);
-
-            Reader reader = new BufferedReader(new FileReader(inputFileName));
-            NexusImporter importer = new NexusImporter(reader, true);
-
-            totalTrees = 0;
-            while (importer.hasTree()) {
-                Tree tree = importer.importNextTree();
-                long state = 0;
-
-                if (taxa == null) {
-                    taxa = new Taxa(tree);
-                }
-
-                if (burninStates > 0) {
-                    // if burnin has been specified in states, try to parse it out...
-                    String name = tree.getId().trim();
+        // One thread reads the trees while the workers of the task scheduler add them to the clade system
+        final CladeCollector collector = new CladeCollector(cladeSystem, topologyCache);
+        final long finalStepSize = stepSize;
+        final int[] burninTree = {-1};
+        try (StreamingTreeReader reader = new StreamingTreeReader(new File(inputFileName))) {
+            reader.readTrees(new StreamingTreeReader.Visitor() {
+                @Override
+                public boolean shouldParse(int treeIndex, String treeName) {
+                    long state = 0;
+
+                    if (burninStates > 0) {
+                        // if burnin has been specified in states, try to parse it out...
+                        String name = treeName != null ? treeName.trim() : "";
+
+                        if (name.startsWith("STATE_")) {
+                            state = Long.parseLong(name.split("_")[1]);
+                            maxState = state;
+                        } else {
+                            maxState = state;
+                            state += 1;
+                        }
+                    }
 
-                    if (name.startsWith("STATE_")) {
-                        state = Long.parseLong(name.split("_")[1]);
-                        maxState = state;
-                    } else {
-                        maxState = state;
-                        state += 1;
+                    if (treeIndex > 0 && treeIndex % finalStepSize == 0) {
+                        progressStream.print("*");
+                        progressStream.flush();
                     }
-                }
 
-                if (totalTrees >= burninTrees && state >= burninStates) {
                     // if either of the two burnin thresholds have been reached...
+                    return treeIndex >= burninTrees && state >= burninStates;
+                }
 
-                    if (burnin < 0) {
+                @Override
+                public boolean visitTree(int treeIndex, CompactTree tree) throws Importer.ImportException {
+                    if (burninTree[0] < 0) {
                         // if this is the first time this point has been reached,
                         // record the number of trees this represents for future use...
-                        burnin = totalTrees;
+                        burninTree[0] = treeIndex;
+                        taxa = reader.getTaxa();
+                        cladeSystem.addTipClades(taxa);
                     }
-
-                    cladeSystem.add(tree);
-
-                    totalTreesUsed += 1;
-                }
-
-                if (totalTrees > 0 && totalTrees % stepSize == 0) {
-                    progressStream.print("*");
-                    progressStream.flush();
+                    try {
+                        collector.add(tree);
+                    } catch (IOException e) {
+                        throw new Importer.ImportException("Error caching tree topology: " + e.getMessage());
+                    }
+                    return true;
                 }
-                totalTrees++;
-            }
+            });
 
-            reader.close();
+            totalTreesUsed = collector.finish();
+            totalTrees = reader.getTreeCount();
+            burnin = burninTree[0];
         } catch (Importer.ImportException e) {
             System.err.println("Error Parsing Input Tree: " + e.getMessage());
             System.exit(1);
@@ -332,35 +345,34 @@ public class TreeAnnotator extends BaseTreeTool {
         int stepSize = totalTrees / 60;
         if (stepSize < 1) stepSize = 1;
 
-        Reader reader = new BufferedReader(new FileReader(inputFileName));
-//         TreeImporter importer = new BEASTTreesImporter(reader, true);
-        TreeImporter importer = new NexusImporter(reader, true);
-
         long startTime = System.currentTimeMillis();
 
+        final int finalStepSize = stepSize;
         totalTreesUsed = 0;
-        try {
-            boolean firstTree = true;
-            int counter = 0;
-            while (importer.hasTree()) {
-                Tree tree = importer.importNextTree();
+        try (StreamingTreeReader reader = new StreamingTreeReader(new File(inputFileName))) {
+            reader.readTrees(new StreamingTreeReader.Visitor() {
+                @Override
+                public boolean shouldParse(int treeIndex, String treeName) {
+                    if (treeIndex > 0 && treeIndex % finalStepSize == 0) {
+                        progressStream.print("*");
+                        progressStream.flush();
+                    }
+                    return treeIndex >= burnin;
+                }
 
-                if (counter >= burnin) {
-                    if (firstTree) {
+                @Override
+                public boolean visitTree(int treeIndex, CompactTree compactTree) {
+                    // the node annotations are ignored (as they were with NexusImporter)
+                    Tree tree = compactTree.toFlexibleTree(taxa != null ? taxa : reader.getTaxa(), true);
+                    if (totalTreesUsed == 0) {
                         setupAttributes(tree);
-                        firstTree = false;
                     }
 
                     cladeSystem.traverseTree(tree, collectionAction);
                     totalTreesUsed += 1;
+                    return true;
                 }
-                if (counter > 0 && counter % stepSize == 0) {
-                    progressStream.print("*");
-                    progressStream.flush();
-                }
-                counter++;
-
-            }
+            });
             cladeSystem.calculateCladeCredibilities(totalTreesUsed);
         } catch (Importer.ImportException e) {
             System.err.println("Error Parsing Input Tree: " + e.getMessage());
@@ -369,7 +381,6 @@ public class TreeAnnotator extends BaseTreeTool {
         long timeElapsed =  (System.currentTimeMillis() - startTime) / 1000;
         progressStream.println("* [" + timeElapsed + " secs]");
         progressStream.println();
-        reader.close();
     }
 
     public void setupAttributes(Tree tree) {
@@ -432,29 +443,31 @@ public class TreeAnnotator extends BaseTreeTool {
         int stepSize = totalTrees / 60;
         if (stepSize < 1) stepSize = 1;
 
-        int counter = 0;
-        int bestTreeNumber = 0;
-//        TreeImporter importer = new BEASTTreesImporter(new FileReader(inputFileName), false);
-        TreeImporter importer = new NexusImporter(new FileReader(inputFileName), true);
-        try {
-            while (importer.hasTree()) {
-                Tree tree = importer.importNextTree();
-
-                if (counter >= burnin) {
-                    double score = scoreTree(tree, cladeSystem);
-//                    progressStream.println(score);
-                    if (score > bestScore) {
-                        bestTree = tree;
-                        bestScore = score;
-                        bestTreeNumber = counter + 1;
-                    }
-                }
-                if (counter > 0 && counter % stepSize == 0) {
-                    progressStream.print("*");
-                    progressStream.flush();
-                }
-                counter++;
+        // score the trees from the clade numbers cached when they were first read
+        final double[] logCladeCredibilities = cladeSystem.getLogCladeCredibilities();
+        final double[] best = {Double.NEGATIVE_INFINITY, -1};
+        final int finalStepSize = stepSize;
+        topologyCache.visitTopologies((treeIndex, cladeNumbers, length) -> {
+            double score = 0.0;
+            for (int i = 0; i < length; i++) {
+                score += logCladeCredibilities[cladeNumbers[i]];
             }
+            if (score > best[0]) {
+                best[0] = score;
+                best[1] = treeIndex;
+            }
+            int counter = burnin + treeIndex;
+            if (counter > 0 && counter % finalStepSize == 0) {
+                progressStream.print("*");
+                progressStream.flush();
+            }
+        });
+        bestScore = best[0];
+        int bestTreeNumber = burnin + (int) best[1] + 1;
+
+        // then read just the best tree
+        try {
+            bestTree = readTree(inputFileName, bestTreeNumber - 1);
         } catch (Importer.ImportException e) {
             System.err.println("Error Parsing Input Tree: " + e.getMessage());
             System.exit(1);
@@ -474,6 +487,28 @@ public class TreeAnnotator extends BaseTreeTool {
         return bestTree;
     }
 
+    /**
+     * Reads a single tree from the file (skipping over the others without parsing them)
+     */
+    private Tree readTree(String inputFileName, final int treeNumber) throws IOException, Importer.ImportException {
+        final Tree[] tree = {null};
+        try (StreamingTreeReader reader = new StreamingTreeReader(new File(inputFileName))) {
+            reader.readTrees(new StreamingTreeReader.Visitor() {
+                @Override
+                public boolean shouldParse(int treeIndex, String treeName) {
+                    return treeIndex == treeNumber;
+                }
+
+                @Override
+                public boolean visitTree(int treeIndex, CompactTree compactTree) {
+                    tree[0] = compactTree.toFlexibleTree(taxa, true);
+                    return false;
+                }
+            });
+        }
+        return tree[0];
+    }
+
     private MutableTree getHIPSTRTree(CladeSystem cladeSystem) {
 
         long startTime = System.currentTimeMillis();
@@ -723,7 +758,8 @@ public class TreeAnnotator extends BaseTreeTool {
                         new Arguments.Option("help", "option to print this message"),
                         new Arguments.Option("forceDiscrete", "forces integer traits to be treated as discrete traits."),
                         new Arguments.StringOption("hpd2D", "the HPD interval to be used for the bivariate traits", "specifies a (vector of comma separated) HPD proportion(s)"),
-                        new Arguments.Option("ess", "compute ess for branch parameters")
+                        new Arguments.Option("ess", "compute ess for branch parameters"),
+                        new Arguments.IntegerOption("threads", "the number of threads used to collect clades (defaults to the number of processors)")
                 });
 
         try {
@@ -744,6 +780,10 @@ public class TreeAnnotator extends BaseTreeTool {
             System.exit(0);
         }
 
+        if (arguments.hasOption("threads")) {
+            System.setProperty(TaskScheduler.THREAD_COUNT, Integer.toString(arguments.getIntegerOption("threads")));
+        }
+
         HeightsSummary heights = DEFAULT_HEIGHTS_SUMMARY;
         if (arguments.hasOption("heights")) {
             String value = arguments.getStringOption("heights");
@@ -36,6 +36,7 @@ import dr.evolution.util.TaxonList;
 import dr.util.Pair;
 
 import java.util.*;
+import java.util.stream.IntStream;
 
 import static dr.evolution.alignment.SitePatterns.CompressionType.*;
 
@@ -104,6 +105,15 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
 
     private boolean uncertainSites = false;
 
+    /**
+     * hash index of the unique patterns, only used during construction
+     */
+    private PatternIndex patternIndex = null;
+
+    private static final int MIN_SITES_PER_BLOCK = 4096;
+    private static final int BLOCKS_PER_THREAD = 4;
+    private static final int INITIAL_INDEX_CAPACITY = 64;
+
     /**
      * Constructor
      */
@@ -256,6 +266,10 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
             System.err.println("Creating SitePatterns using compression type: " + compression.toString());
         }
 
+        if (compression != UNCOMPRESSED) {
+            patternIndex = new PatternIndex();
+        }
+
         if (compression == AMBIGUOUS_CONSTANT || compression == AMBIGUOUS_UNIQUE) {
             // if the patterns are to be compressed then create the constant sites initially
             for (int i = 0; i < siteList.getStateCount(); i++) {
@@ -267,32 +281,24 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
             }
         }
 
-        int site = 0;
         int count = 0;
 
-        for (int i = from; i <= to; i += every) {
-            int[] pattern = siteList.getSitePattern(i);
-            double weight = siteList.getPatternWeight(i);
+        if (uncertainSites) {
+            int site = 0;
+            for (int i = from; i <= to; i += every) {
+                int[] pattern = siteList.getSitePattern(i);
+                double weight = siteList.getPatternWeight(i);
 
-            if (uncertainSites) {
                 sitePatternIndices[site] = addUncertainPattern(pattern, weight, siteList.getUncertainSitePattern(i));
-            } else{
-                // @todo - what is `strip` being used for?
-                if (!strip || !isInvariant(pattern, false) ||
-                        (!isGapped(pattern) &&
-                                !isAmbiguous(pattern) &&
-                                !isUnknown(pattern))) {
-
-                    sitePatternIndices[site] = addPattern(pattern, weight, compression);
-
-                    count += 1;
-                } else {
-                    sitePatternIndices[site] = -1;
-                }
+                site++;
             }
-            site++;
+        } else {
+            count = addSitePatterns(siteList, from, to, every, strip, compression);
         }
 
+        // only needed while adding patterns
+        patternIndex = null;
+
         if (DEBUG) {
             System.err.println("Added " + count + " site patterns");
 
@@ -352,13 +358,14 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
         if (compression != UNCOMPRESSED) {
             // this will compress unique patterns, further compression of ambiguously similar
             // patterns is done in a later step
-            for (int i = 0; i < patternCount; i++) {
-                if (comparePatterns(patterns[i], pattern, false)) {
-                    patterns[i] = pattern;
-                    weights[i] += weight;
-                    return i;
-                }
+            int hash = hashPattern(pattern);
+            int i = patternIndex.find(patterns, pattern, hash);
+            if (i != -1) {
+                patterns[i] = pattern;
+                weights[i] += weight;
+                return i;
             }
+            patternIndex.put(hash, patternCount);
         }
 
         // new pattern - add it
@@ -371,6 +378,199 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
         return index;
     }
 
+    /**
+     * Reads the sites from the site list and adds their patterns. For long alignments the sites are
+     * read and compressed in blocks in parallel and the blocks are then merged in order so the
+     * patterns, their order and their weights are the same as adding the sites one at a time.
+     *
+     * @return the number of sites added (i.e., not stripped)
+     */
+    private int addSitePatterns(SiteList siteList, int from, int to, int every, boolean strip, CompressionType compression) {
+        final int n = ((to - from) / every) + 1;
+
+        int blockCount = 1;
+        if (compression != UNCOMPRESSED) {
+            blockCount = Math.max(1, Math.min(n / MIN_SITES_PER_BLOCK,
+                    Runtime.getRuntime().availableProcessors() * BLOCKS_PER_THREAD));
+        }
+
+        final int blockSize = (n + blockCount - 1) / blockCount;
+
+        PatternBlock[] blocks = new PatternBlock[blockCount];
+        for (int b = 0; b < blockCount; b++) {
+            int start = b * blockSize;
+            blocks[b] = new PatternBlock(start, Math.min(start + blockSize, n));
+        }
+
+        if (blockCount == 1) {
+            blocks[0].compress(siteList, from, every, strip, compression);
+        } else {
+            IntStream.range(0, blockCount).parallel().forEach(
+                    b -> blocks[b].compress(siteList, from, every, strip, compression));
+        }
+
+        int count = 0;
+        for (PatternBlock block : blocks) {
+            // add the block's patterns in order of first occurrence
+            int[] globalIndices = new int[block.patternCount];
+            for (int k = 0; k < block.patternCount; k++) {
+                globalIndices[k] = addPattern(block.patterns[k], block.weights[k], compression);
+            }
+
+            for (int site = block.start; site < block.end; site++) {
+                int k = block.sitePatternIndices[site - block.start];
+                sitePatternIndices[site] = (k != -1 ? globalIndices[k] : -1);
+            }
+
+            count += block.siteCount;
+        }
+
+        return count;
+    }
+
+    /**
+     * @return true if the pattern should be excluded when stripping
+     */
+    private boolean isStripped(int[] pattern) {
+        // @todo - what is `strip` being used for?
+        return isInvariant(pattern, false) && (isGapped(pattern) || isAmbiguous(pattern) || isUnknown(pattern));
+    }
+
+    private static int hashPattern(int[] pattern) {
+        int hash = 1;
+        for (int state : pattern) {
+            hash = 31 * hash + state;
+        }
+        return hash;
+    }
+
+    /**
+     * A contiguous block of sites compressed to unique patterns independently of the other blocks.
+     */
+    private class PatternBlock {
+        final int start;
+        final int end;
+
+        int[][] patterns;
+        double[] weights;
+        int patternCount = 0;
+
+        int[] sitePatternIndices;
+        int siteCount = 0;
+
+        PatternBlock(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        void compress(SiteList siteList, int from, int every, boolean strip, CompressionType compression) {
+            final int n = end - start;
+            patterns = new int[n][];
+            weights = new double[n];
+            sitePatternIndices = new int[n];
+
+            PatternIndex index = (compression != UNCOMPRESSED ? new PatternIndex() : null);
+
+            for (int site = 0; site < n; site++) {
+                int i = from + (start + site) * every;
+                int[] pattern = siteList.getSitePattern(i);
+                double weight = siteList.getPatternWeight(i);
+
+                if (strip && isStripped(pattern)) {
+                    sitePatternIndices[site] = -1;
+                    continue;
+                }
+                siteCount++;
+
+                if (index != null) {
+                    int hash = hashPattern(pattern);
+                    int k = index.find(patterns, pattern, hash);
+                    if (k != -1) {
+                        weights[k] += weight;
+                        sitePatternIndices[site] = k;
+                        continue;
+                    }
+                    index.put(hash, patternCount);
+                }
+
+                patterns[patternCount] = pattern;
+                weights[patternCount] = weight;
+                sitePatternIndices[site] = patternCount;
+                patternCount++;
+            }
+        }
+    }
+
+    /**
+     * An open addressing hash table from patterns to their index in a pattern array. The patterns
+     * themselves are not held by the table, only their hashes and indices.
+     */
+    private class PatternIndex {
+        private int[] hashes = new int[INITIAL_INDEX_CAPACITY];
+        private int[] indices = new int[INITIAL_INDEX_CAPACITY];
+        private int size = 0;
+
+        PatternIndex() {
+            Arrays.fill(indices, -1);
+        }
+
+        /**
+         * @return the index of the pattern in patterns or -1 if it has not been added
+         */
+        int find(int[][] patterns, int[] pattern, int hash) {
+            final int mask = indices.length - 1;
+            int slot = mix(hash) & mask;
+            while (indices[slot] != -1) {
+                if (hashes[slot] == hash && comparePatterns(patterns[indices[slot]], pattern, false)) {
+                    return indices[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        /**
+         * Adds a pattern index - the pattern must not already be present.
+         */
+        void put(int hash, int index) {
+            if ((size + 1) * 2 > indices.length) {
+                grow();
+            }
+            insert(hash, index);
+            size++;
+        }
+
+        private void insert(int hash, int index) {
+            final int mask = indices.length - 1;
+            int slot = mix(hash) & mask;
+            while (indices[slot] != -1) {
+                slot = (slot + 1) & mask;
+            }
+            hashes[slot] = hash;
+            indices[slot] = index;
+        }
+
+        private void grow() {
+            int[] oldHashes = hashes;
+            int[] oldIndices = indices;
+
+            hashes = new int[oldIndices.length * 2];
+            indices = new int[oldIndices.length * 2];
+            Arrays.fill(indices, -1);
+
+            for (int slot = 0; slot < oldIndices.length; slot++) {
+                if (oldIndices[slot] != -1) {
+                    insert(oldHashes[slot], oldIndices[slot]);
+                }
+            }
+        }
+
+        private int mix(int hash) {
+            int h = hash * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+
     /**
      * adds an uncertain pattern (a matrix of probabilities) to the pattern list with the given weight
      *
@@ -108,6 +108,17 @@ public class DistanceMatrix extends Matrix.AbstractMatrix implements TaxonList {
         return distances[row][column];
     }
 
+    /**
+     * @return the distance between two taxa without calculating the full matrix
+     * if it is not already known
+     */
+    public double getDistance(int taxon1, int taxon2) {
+        if (distancesKnown) {
+            return distances[taxon1][taxon2];
+        }
+        return taxon1 == taxon2 ? 0.0 : calculatePairwiseDistance(taxon1, taxon2);
+    }
+
     /**
      * set an element - this overwrites any existing elements
      */
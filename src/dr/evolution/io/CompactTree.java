@@ -0,0 +1,442 @@
+/*
+ * CompactTree.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.evolution.io;
+
+import dr.evolution.tree.FlexibleNode;
+import dr.evolution.tree.FlexibleTree;
+import dr.evolution.tree.Tree;
+import dr.evolution.util.Taxon;
+import dr.evolution.util.TaxonList;
+import dr.util.Attributable;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * A rooted tree held in primitive arrays so that it can be refilled for each tree read by a
+ * StreamingTreeReader without allocating nodes. Nodes are numbered in post-order (children before
+ * their parent) so the root is always the last node and iterating backwards visits parents before
+ * children. Polytomies are allowed - the children of a node are a linked list (getFirstChild,
+ * getNextSibling).
+ *
+ * Annotations ([&name=value,...] comments) and internal node labels are kept as raw text and are
+ * only decoded (using the same rules as NexusImporter) when they are asked for.
+ */
+public class CompactTree {
+
+    public CompactTree() {
+        this(256);
+    }
+
+    public CompactTree(int initialNodeCapacity) {
+        allocate(Math.max(initialNodeCapacity, 4));
+        text = new byte[1024];
+    }
+
+    // **************************************************************
+    // Topology and times
+    // **************************************************************
+
+    /**
+     * @return the name of the tree (e.g., STATE_1000) or null if it didn't have one
+     */
+    public String getName() {
+        return name;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public int getExternalNodeCount() {
+        return externalNodeCount;
+    }
+
+    public int getRoot() {
+        return nodeCount - 1;
+    }
+
+    public int getParent(int node) {
+        return parent[node];
+    }
+
+    public int getChildCount(int node) {
+        return childCount[node];
+    }
+
+    /**
+     * @return the first child of the node or -1 if it is a tip
+     */
+    public int getFirstChild(int node) {
+        return firstChild[node];
+    }
+
+    /**
+     * @return the next child of this node's parent or -1 if it is the last
+     */
+    public int getNextSibling(int node) {
+        return nextSibling[node];
+    }
+
+    /**
+     * @return the i'th child of the node - this walks the list of children so use getFirstChild and
+     * getNextSibling when visiting all the children.
+     */
+    public int getChild(int node, int i) {
+        int child = firstChild[node];
+        for (int j = 0; j < i; j++) {
+            child = nextSibling[child];
+        }
+        return child;
+    }
+
+    public boolean isExternal(int node) {
+        return childCount[node] == 0;
+    }
+
+    public boolean isRoot(int node) {
+        return node == nodeCount - 1;
+    }
+
+    /**
+     * @return the index of the taxon in the reader's taxon list or -1 for an internal node
+     */
+    public int getTaxonIndex(int node) {
+        return taxonIndex[node];
+    }
+
+    public double getBranchLength(int node) {
+        return branchLength[node];
+    }
+
+    /**
+     * @return the node height calculated from the branch lengths as FlexibleTree does (the most distant
+     * tip from the root has height 0)
+     */
+    public double getHeight(int node) {
+        return height[node];
+    }
+
+    // **************************************************************
+    // Annotations
+    // **************************************************************
+
+    public boolean hasAnnotation(int node) {
+        return annotationLength[node] > 0 || labelLength[node] > 0;
+    }
+
+    /**
+     * @return the decoded value of the named node annotation or null. Internal node labels (e.g., support
+     * values) are returned as the attribute "label".
+     */
+    public Object getAttribute(int node, String attributeName) {
+        Attributable attributes = getAttributes(node);
+        return attributes != null ? attributes.getAttribute(attributeName) : null;
+    }
+
+    /**
+     * @return the decoded annotations of a node or null if it has none
+     */
+    public Attributable getAttributes(int node) {
+        if (!hasAnnotation(node)) {
+            return null;
+        }
+        if (decodedAttributes[node] == null) {
+            Attributable attributes = new Attributable.AttributeHelper();
+            decodeAnnotation(annotationStart[node], annotationLength[node], attributes);
+            if (labelLength[node] > 0) {
+                attributes.setAttribute("label", new String(text, labelStart[node], labelLength[node], StandardCharsets.UTF_8));
+            }
+            decodedAttributes[node] = attributes;
+        }
+        return decodedAttributes[node];
+    }
+
+    /**
+     * @return the raw text of a node's annotation (without the enclosing '[&' and ']') or null
+     */
+    public String getAnnotationText(int node) {
+        if (annotationLength[node] == 0) {
+            return null;
+        }
+        return new String(text, annotationStart[node], annotationLength[node], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the decoded value of a tree annotation (e.g., lnP, joint or posterior in BEAST tree logs)
+     */
+    public Object getTreeAttribute(String attributeName) {
+        if (treeAnnotationLength == 0) {
+            return null;
+        }
+        if (decodedTreeAttributes == null) {
+            decodedTreeAttributes = new Attributable.AttributeHelper();
+            decodeAnnotation(treeAnnotationStart, treeAnnotationLength, decodedTreeAttributes);
+        }
+        return decodedTreeAttributes.getAttribute(attributeName);
+    }
+
+    // **************************************************************
+    // Conversion
+    // **************************************************************
+
+    /**
+     * Builds a FlexibleTree equivalent to the one NexusImporter would have read with the same taxon list
+     * (external node numbers are the taxon indices). This is for tools that have not yet been adapted to
+     * use CompactTree directly.
+     */
+    public Tree toFlexibleTree(TaxonList taxa) {
+        return toFlexibleTree(taxa, false);
+    }
+
+    /**
+     * As toFlexibleTree(TaxonList) but, if ignoreMetaComments is true, leaves out the node annotations
+     * (keeping any internal node labels) as NexusImporter does with the same option.
+     */
+    public Tree toFlexibleTree(TaxonList taxa, boolean ignoreMetaComments) {
+        FlexibleNode[] nodes = new FlexibleNode[nodeCount];
+        Map<Taxon, Integer> taxonNumberMap = new HashMap<Taxon, Integer>();
+        for (int i = 0; i < nodeCount; i++) {
+            FlexibleNode node = new FlexibleNode();
+            if (isExternal(i)) {
+                Taxon taxon = taxa.getTaxon(taxonIndex[i]);
+                node.setTaxon(taxon);
+                taxonNumberMap.put(taxon, taxonIndex[i]);
+            } else {
+                for (int child = firstChild[i]; child != -1; child = nextSibling[child]) {
+                    node.addChild(nodes[child]);
+                }
+            }
+            node.setLength(isRoot(i) ? 0.0 : branchLength[i]);
+            if (ignoreMetaComments) {
+                if (labelLength[i] > 0) {
+                    node.setAttribute("label", new String(text, labelStart[i], labelLength[i], StandardCharsets.UTF_8));
+                }
+            } else {
+                Attributable attributes = getAttributes(i);
+                if (attributes != null) {
+                    for (Iterator<String> names = attributes.getAttributeNames(); names.hasNext(); ) {
+                        String attributeName = names.next();
+                        node.setAttribute(attributeName, attributes.getAttribute(attributeName));
+                    }
+                }
+            }
+            nodes[i] = node;
+        }
+
+        FlexibleTree tree = new FlexibleTree(nodes[getRoot()], false, true, taxonNumberMap);
+        tree.setId(name);
+        if (treeAnnotationLength > 0) {
+            getTreeAttribute("");
+            for (Iterator<String> names = decodedTreeAttributes.getAttributeNames(); names.hasNext(); ) {
+                String attributeName = names.next();
+                tree.setAttribute(attributeName, decodedTreeAttributes.getAttribute(attributeName));
+            }
+        }
+        return tree;
+    }
+
+    // **************************************************************
+    // Building (used by StreamingTreeReader)
+    // **************************************************************
+
+    void reset(String name) {
+        this.name = name;
+        nodeCount = 0;
+        externalNodeCount = 0;
+        textLength = 0;
+        treeAnnotationStart = 0;
+        treeAnnotationLength = 0;
+        decodedTreeAttributes = null;
+    }
+
+    int addExternalNode(int taxon) {
+        int node = addNode();
+        taxonIndex[node] = taxon;
+        externalNodeCount++;
+        return node;
+    }
+
+    /**
+     * Adds an internal node whose children are the given nodes.
+     */
+    int addInternalNode(int[] children, int from, int to) {
+        int node = addNode();
+        taxonIndex[node] = -1;
+        int previous = -1;
+        for (int i = from; i < to; i++) {
+            int child = children[i];
+            parent[child] = node;
+            if (previous == -1) {
+                firstChild[node] = child;
+            } else {
+                nextSibling[previous] = child;
+            }
+            previous = child;
+        }
+        childCount[node] = to - from;
+        return node;
+    }
+
+    void setBranchLength(int node, double length) {
+        branchLength[node] = length;
+    }
+
+    void setLabel(int node, byte[] bytes, int offset, int length) {
+        labelStart[node] = appendText(bytes, offset, length);
+        labelLength[node] = length;
+    }
+
+    void addAnnotation(int node, byte[] bytes, int offset, int length) {
+        if (annotationLength[node] > 0 && annotationStart[node] + annotationLength[node] == textLength) {
+            // another comment for the same node - combine them
+            appendText(COMMA, 0, 1);
+            appendText(bytes, offset, length);
+            annotationLength[node] += length + 1;
+        } else {
+            annotationStart[node] = appendText(bytes, offset, length);
+            annotationLength[node] = length;
+        }
+    }
+
+    void setTreeAnnotation(byte[] bytes, int offset, int length) {
+        treeAnnotationStart = appendText(bytes, offset, length);
+        treeAnnotationLength = length;
+    }
+
+    /**
+     * Completes the tree once all the nodes have been added: calculates the heights from the branch lengths.
+     */
+    void finish() {
+        int root = getRoot();
+        parent[root] = -1;
+        nextSibling[root] = -1;
+
+        // distance from the root (parents always come after their children)
+        double maxDistance = 0.0;
+        height[root] = 0.0;
+        for (int node = root - 1; node >= 0; node--) {
+            double length = branchLength[node];
+            height[node] = height[parent[node]] + (length > 0.0 ? length : 0.0);
+            if (childCount[node] == 0 && height[node] > maxDistance) {
+                maxDistance = height[node];
+            }
+        }
+        for (int node = 0; node <= root; node++) {
+            height[node] = maxDistance - height[node];
+        }
+    }
+
+    private int addNode() {
+        if (nodeCount == parent.length) {
+            allocate(parent.length * 2);
+        }
+        int node = nodeCount;
+        nodeCount++;
+        parent[node] = -1;
+        firstChild[node] = -1;
+        nextSibling[node] = -1;
+        childCount[node] = 0;
+        branchLength[node] = 0.0;
+        annotationLength[node] = 0;
+        labelLength[node] = 0;
+        decodedAttributes[node] = null;
+        return node;
+    }
+
+    private int appendText(byte[] bytes, int offset, int length) {
+        if (textLength + length > text.length) {
+            text = Arrays.copyOf(text, Math.max(text.length * 2, textLength + length));
+        }
+        int start = textLength;
+        System.arraycopy(bytes, offset, text, start, length);
+        textLength += length;
+        return start;
+    }
+
+    private void decodeAnnotation(int start, int length, Attributable attributes) {
+        if (length == 0) {
+            return;
+        }
+        try {
+            NexusImporter.parseMetaCommentPairs(new String(text, start, length, StandardCharsets.UTF_8), attributes);
+        } catch (Importer.BadFormatException bfe) {
+            // ignore it (as NexusImporter does)
+        }
+    }
+
+    private void allocate(int capacity) {
+        int oldCapacity = parent == null ? 0 : parent.length;
+        parent = grow(parent, capacity);
+        firstChild = grow(firstChild, capacity);
+        nextSibling = grow(nextSibling, capacity);
+        childCount = grow(childCount, capacity);
+        taxonIndex = grow(taxonIndex, capacity);
+        annotationStart = grow(annotationStart, capacity);
+        annotationLength = grow(annotationLength, capacity);
+        labelStart = grow(labelStart, capacity);
+        labelLength = grow(labelLength, capacity);
+        branchLength = oldCapacity == 0 ? new double[capacity] : Arrays.copyOf(branchLength, capacity);
+        height = oldCapacity == 0 ? new double[capacity] : Arrays.copyOf(height, capacity);
+        decodedAttributes = oldCapacity == 0 ? new Attributable[capacity] : Arrays.copyOf(decodedAttributes, capacity);
+    }
+
+    private static int[] grow(int[] array, int capacity) {
+        return array == null ? new int[capacity] : Arrays.copyOf(array, capacity);
+    }
+
+    private static final byte[] COMMA = { ',' };
+
+    private String name;
+    private int nodeCount;
+    private int externalNodeCount;
+
+    private int[] parent;
+    private int[] firstChild;
+    private int[] nextSibling;
+    private int[] childCount;
+    private int[] taxonIndex;
+    private double[] branchLength;
+    private double[] height;
+
+    // raw annotation and label text for all the nodes
+    private byte[] text;
+    private int textLength;
+    private int[] annotationStart;
+    private int[] annotationLength;
+    private int[] labelStart;
+    private int[] labelLength;
+    private int treeAnnotationStart;
+    private int treeAnnotationLength;
+
+    private Attributable[] decodedAttributes;
+    private Attributable decodedTreeAttributes;
+}
@@ -0,0 +1,801 @@
+/*
+ * StreamingTreeReader.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.evolution.io;
+
+import dr.evolution.util.Taxa;
+import dr.evolution.util.Taxon;
+import dr.evolution.util.TaxonList;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A fast reader for large NEXUS or Newick tree files (such as BEAST .trees logs). The file is read in
+ * large blocks of bytes and each tree is parsed directly into a reusable CompactTree so reading a tree
+ * allocates (almost) nothing: the translate table is parsed once, numeric taxon labels are looked up
+ * without creating strings, and annotations are kept as raw text until they are asked for.
+ *
+ * Trees can be pulled one at a time (readNextTree / skipNextTree) or pushed to a Visitor which can also
+ * decide which trees to parse (e.g., to skip a burn-in without building the trees).
+ */
+public class StreamingTreeReader implements Closeable {
+
+    public interface Visitor {
+
+        /**
+         * Called before a tree is parsed.
+         * @param treeIndex the index of the tree in the file
+         * @param treeName the name of the tree (e.g., STATE_1000) or null
+         * @return false if this tree should be skipped over without parsing it
+         */
+        default boolean shouldParse(int treeIndex, String treeName) {
+            return true;
+        }
+
+        /**
+         * Called for each tree parsed. The tree object is reused for the next tree so it should not be
+         * kept.
+         * @return false to stop reading
+         */
+        boolean visitTree(int treeIndex, CompactTree tree) throws Importer.ImportException;
+    }
+
+    public StreamingTreeReader(File file) throws IOException {
+        this(new FileInputStream(file));
+    }
+
+    public StreamingTreeReader(InputStream inputStream) {
+        this(inputStream, DEFAULT_BUFFER_SIZE);
+    }
+
+    public StreamingTreeReader(InputStream inputStream, int bufferSize) {
+        this.inputStream = inputStream;
+        this.buffer = new byte[bufferSize];
+    }
+
+    // **************************************************************
+    // Reading
+    // **************************************************************
+
+    /**
+     * Reads all the (remaining) trees passing them to the visitor.
+     * @return the number of trees visited
+     */
+    public int readTrees(Visitor visitor) throws IOException, Importer.ImportException {
+        CompactTree tree = new CompactTree();
+        int visited = 0;
+        while (findNextTree()) {
+            int index = treeIndex;
+            if (visitor.shouldParse(index, treeName)) {
+                parseTree(tree);
+                visited++;
+                if (!visitor.visitTree(index, tree)) {
+                    break;
+                }
+            } else {
+                skipTree();
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * Reads the next tree into the given tree object.
+     * @return false if there are no more trees
+     */
+    public boolean readNextTree(CompactTree tree) throws IOException, Importer.ImportException {
+        if (!findNextTree()) {
+            return false;
+        }
+        parseTree(tree);
+        return true;
+    }
+
+    /**
+     * Skips over the next tree without parsing it.
+     * @return false if there are no more trees
+     */
+    public boolean skipNextTree() throws IOException, Importer.ImportException {
+        if (!findNextTree()) {
+            return false;
+        }
+        skipTree();
+        return true;
+    }
+
+    /**
+     * @return the number of trees read or skipped so far
+     */
+    public int getTreeCount() {
+        return treeIndex + 1;
+    }
+
+    // **************************************************************
+    // Taxa
+    // **************************************************************
+
+    /**
+     * @return the number of taxa - from the translate table or (if there isn't one) the taxa seen in
+     * the trees so far
+     */
+    public int getTaxonCount() {
+        return taxonLabels.size();
+    }
+
+    public String getTaxonLabel(int index) {
+        return taxonLabels.get(index);
+    }
+
+    /**
+     * @return the taxa in the order of the indices returned by CompactTree.getTaxonIndex
+     */
+    public TaxonList getTaxa() {
+        if (taxa == null || taxa.getTaxonCount() != taxonLabels.size()) {
+            Taxa newTaxa = new Taxa();
+            for (int i = 0; i < taxonLabels.size(); i++) {
+                newTaxa.addTaxon(taxa != null && i < taxa.getTaxonCount() ? taxa.getTaxon(i) : new Taxon(taxonLabels.get(i)));
+            }
+            taxa = newTaxa;
+        }
+        return taxa;
+    }
+
+    public void close() throws IOException {
+        inputStream.close();
+    }
+
+    // **************************************************************
+    // File structure
+    // **************************************************************
+
+    /**
+     * Reads up to the start of the next tree's Newick string, recording its name and annotation.
+     */
+    private boolean findNextTree() throws IOException, Importer.ImportException {
+        headerAnnotationLength = 0;
+        treeName = null;
+
+        if (format == Format.UNKNOWN) {
+            int c = skipWhitespaceAndComments(false);
+            if (c == '#') {
+                String token = readWord();
+                if (!token.equalsIgnoreCase("#NEXUS")) {
+                    throw new Importer.BadFormatException("Unrecognised file format: " + token);
+                }
+                format = Format.NEXUS;
+            } else {
+                format = Format.NEWICK;
+            }
+        }
+
+        if (format == Format.NEWICK) {
+            int c = skipWhitespaceAndComments(true);
+            if (c == -1) {
+                return false;
+            }
+            if (c != '(') {
+                throw new Importer.BadFormatException("Expecting '(' at the start of a tree");
+            }
+            treeIndex++;
+            return true;
+        }
+
+        while (true) {
+            int c = skipWhitespaceAndComments(false);
+            if (c == -1) {
+                return false;
+            }
+            if (c == ';') {
+                read();
+                continue;
+            }
+            String command = readWord();
+            if (command.isEmpty()) {
+                // a stray delimiter
+                read();
+                continue;
+            }
+
+            if (!inTreesBlock) {
+                if (command.equalsIgnoreCase("BEGIN")) {
+                    skipWhitespaceAndComments(false);
+                    String block = readWord();
+                    if (block.equalsIgnoreCase("TREES")) {
+                        inTreesBlock = true;
+                    }
+                }
+                // anything else outside a trees block is skipped a word at a time
+                continue;
+            }
+
+            if (command.equalsIgnoreCase("TRANSLATE")) {
+                readTranslateTable();
+            } else if (command.equalsIgnoreCase("TREE") || command.equalsIgnoreCase("UTREE")) {
+                skipWhitespaceAndComments(false);
+                if (peek() == '*') {
+                    read();
+                    skipWhitespaceAndComments(false);
+                }
+                treeName = readWord();
+                c = skipWhitespaceAndComments(true);
+                if (c != '=') {
+                    throw new Importer.BadFormatException("Missing '=' in TREE command of TREES block");
+                }
+                read();
+                c = skipWhitespaceAndComments(true);
+                if (c != '(') {
+                    throw new Importer.BadFormatException("Missing tree definition in TREE command of TREES block");
+                }
+                treeIndex++;
+                return true;
+            } else if (command.equalsIgnoreCase("END") || command.equalsIgnoreCase("ENDBLOCK")) {
+                inTreesBlock = false;
+            } else {
+                skipCommand();
+            }
+        }
+    }
+
+    private void readTranslateTable() throws IOException, Importer.ImportException {
+        translation = new HashMap<String, Integer>();
+        taxonLabels.clear();
+        int maxNumber = -1;
+        boolean numeric = true;
+        List<String> keys = new ArrayList<String>();
+
+        while (true) {
+            int c = skipWhitespaceAndComments(false);
+            if (c == ';') {
+                read();
+                break;
+            }
+            if (c == -1) {
+                throw new Importer.BadFormatException("Unexpected end of file in TRANSLATE command");
+            }
+            String key = readWord();
+            skipWhitespaceAndComments(false);
+            String label = readWord();
+            if (translation.put(key, taxonLabels.size()) != null) {
+                throw new Importer.DuplicateFieldException("Duplicate key, " + key + ", in TRANSLATE command");
+            }
+            taxonLabels.add(label);
+            keys.add(key);
+            int number = parseKey(key);
+            if (number < 0) {
+                numeric = false;
+            } else {
+                maxNumber = Math.max(maxNumber, number);
+            }
+
+            c = skipWhitespaceAndComments(false);
+            if (c == ',') {
+                read();
+            }
+        }
+
+        numericTranslation = null;
+        if (numeric && maxNumber < 4 * keys.size() + 16) {
+            // look up the (usual) numeric keys without creating strings
+            numericTranslation = new int[maxNumber + 1];
+            Arrays.fill(numericTranslation, -1);
+            for (int i = 0; i < keys.size(); i++) {
+                numericTranslation[parseKey(keys.get(i))] = i;
+            }
+        }
+    }
+
+    /**
+     * Skips to the end of a command (the next ';' outside of a comment or quotes).
+     */
+    private void skipCommand() throws IOException, Importer.ImportException {
+        while (true) {
+            int c = skipWhitespaceAndComments(false);
+            if (c == -1 || c == ';') {
+                return;
+            }
+            if (c == '\'' || c == '"') {
+                readLabel();
+            } else {
+                read();
+            }
+        }
+    }
+
+    // **************************************************************
+    // Trees
+    // **************************************************************
+
+    private void parseTree(CompactTree tree) throws IOException, Importer.ImportException {
+        tree.reset(treeName);
+        if (headerAnnotationLength > 0) {
+            tree.setTreeAnnotation(headerAnnotation, 0, headerAnnotationLength);
+        }
+
+        int openCount = 0;
+        int childCount = 0;
+
+        while (true) {
+            int c = skipWhitespace();
+            if (c == '(') {
+                read();
+                if (openCount == openStack.length) {
+                    openStack = Arrays.copyOf(openStack, openCount * 2);
+                }
+                openStack[openCount++] = childCount;
+                continue;
+            }
+
+            // a tip
+            int node = tree.addExternalNode(readTaxon());
+            readNodeSuffix(tree, node, false);
+            childCount = pushChild(node, childCount);
+
+            // close as many clades as end here
+            while (true) {
+                c = skipWhitespace();
+                if (c == ',') {
+                    read();
+                    break;
+                }
+                if (c != ')') {
+                    throw new Importer.BadFormatException("Expecting ',' or ')' in tree" + (treeName != null ? " " + treeName : "") +
+                            " but found '" + (c == -1 ? "end of file" : (char) c) + "'");
+                }
+                read();
+                if (openCount == 0) {
+                    throw new Importer.BadFormatException("Unbalanced ')' in tree");
+                }
+                int first = openStack[--openCount];
+                node = tree.addInternalNode(childStack, first, childCount);
+                childCount = first;
+                readNodeSuffix(tree, node, openCount == 0);
+                if (openCount == 0) {
+                    c = skipWhitespaceAndComments(false);
+                    if (c == ';') {
+                        read();
+                    } else if (c != -1) {
+                        throw new Importer.BadFormatException("Expecting ';' after tree" + (treeName != null ? " " + treeName : ""));
+                    }
+                    tree.finish();
+                    return;
+                }
+                childCount = pushChild(node, childCount);
+            }
+        }
+    }
+
+    private int pushChild(int node, int childCount) {
+        if (childCount == childStack.length) {
+            childStack = Arrays.copyOf(childStack, childCount * 2);
+        }
+        childStack[childCount] = node;
+        return childCount + 1;
+    }
+
+    /**
+     * Reads anything following a node: a label, annotations and a branch length.
+     */
+    private void readNodeSuffix(CompactTree tree, int node, boolean isRoot) throws IOException, Importer.ImportException {
+        while (true) {
+            int c = skipWhitespace();
+            if (c == '[') {
+                int length = readComment();
+                if (length >= 0) {
+                    tree.addAnnotation(node, commentBuffer, 0, length);
+                }
+            } else if (c == ':') {
+                read();
+                skipWhitespace();
+                double length = readDouble();
+                // as with NexusImporter the root's branch length is ignored
+                tree.setBranchLength(node, isRoot ? 0.0 : length);
+            } else if (c == ',' || c == ')' || c == ';' || c == -1) {
+                return;
+            } else {
+                int length = readLabel();
+                if (length > 0) {
+                    tree.setLabel(node, labelBuffer, 0, length);
+                }
+            }
+        }
+    }
+
+    private void skipTree() throws IOException, Importer.ImportException {
+        while (true) {
+            int c = skipWhitespaceAndComments(false);
+            if (c == -1) {
+                return;
+            }
+            if (c == ';') {
+                read();
+                return;
+            }
+            if (c == '\'' || c == '"') {
+                readLabel();
+            } else {
+                read();
+            }
+        }
+    }
+
+    private int readTaxon() throws IOException, Importer.ImportException {
+        skipWhitespace();
+        int length = readLabel();
+        if (length == 0) {
+            throw new Importer.BadFormatException("Missing taxon label in tree");
+        }
+
+        if (numericTranslation != null) {
+            int number = parseKey(labelBuffer, length);
+            if (number >= 0 && number < numericTranslation.length && numericTranslation[number] >= 0) {
+                return numericTranslation[number];
+            }
+        }
+
+        String label = new String(labelBuffer, 0, length, StandardCharsets.UTF_8);
+        if (translation != null) {
+            Integer index = translation.get(label);
+            if (index == null) {
+                throw new Importer.UnknownTaxonException("Taxon in tree, '" + label + "' is unknown");
+            }
+            return index;
+        }
+
+        Integer index = labelIndices.get(label);
+        if (index == null) {
+            index = taxonLabels.size();
+            taxonLabels.add(label);
+            labelIndices.put(label, index);
+        }
+        return index;
+    }
+
+    // **************************************************************
+    // Tokens
+    // **************************************************************
+
+    /**
+     * Reads a label (quoted or unquoted) into the label buffer.
+     * @return the length of the label in bytes
+     */
+    private int readLabel() throws IOException, Importer.ImportException {
+        int length = 0;
+        int c = peek();
+        if (c == '\'' || c == '"') {
+            int quote = read();
+            while (true) {
+                c = read();
+                if (c == -1) {
+                    throw new Importer.BadFormatException("Missing closing quote for label");
+                }
+                if (c == quote) {
+                    if (peek() == quote) {
+                        // a doubled quote is a literal quote
+                        read();
+                    } else {
+                        break;
+                    }
+                }
+                length = appendLabel(c, length);
+            }
+        } else {
+            while (c != -1 && !isDelimiter(c)) {
+                length = appendLabel(read(), length);
+                c = peek();
+            }
+        }
+        return length;
+    }
+
+    private int appendLabel(int c, int length) {
+        if (length == labelBuffer.length) {
+            labelBuffer = Arrays.copyOf(labelBuffer, length * 2);
+        }
+        labelBuffer[length] = (byte) c;
+        return length + 1;
+    }
+
+    private String readWord() throws IOException, Importer.ImportException {
+        int length = readLabel();
+        return new String(labelBuffer, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads a comment starting at the current '['. A meta comment ([&...]) is copied into the comment buffer.
+     * @return the length of the meta comment or -1 if it was an ordinary comment
+     */
+    private int readComment() throws IOException, Importer.ImportException {
+        read(); // '['
+        boolean meta = peek() == '&';
+        if (meta) {
+            read();
+        }
+        int depth = 1;
+        int length = 0;
+        while (true) {
+            int c = read();
+            if (c == -1) {
+                throw new Importer.BadFormatException("Unterminated comment");
+            }
+            if (c == '[') {
+                depth++;
+            } else if (c == ']') {
+                depth--;
+                if (depth == 0) {
+                    break;
+                }
+            }
+            if (meta) {
+                if (length == commentBuffer.length) {
+                    commentBuffer = Arrays.copyOf(commentBuffer, length * 2);
+                }
+                commentBuffer[length++] = (byte) c;
+            }
+        }
+        return meta ? length : -1;
+    }
+
+    /**
+     * Skips whitespace but not comments.
+     * @return the next character (not consumed)
+     */
+    private int skipWhitespace() throws IOException {
+        int c = peek();
+        while (c != -1 && c <= ' ') {
+            read();
+            c = peek();
+        }
+        return c;
+    }
+
+    /**
+     * Skips whitespace and comments. If keepMeta is true then meta comments are kept as the annotation of
+     * the next tree (except for the [&R], [&U] and [&W ...] rooting and weight comments).
+     * @return the next character (not consumed)
+     */
+    private int skipWhitespaceAndComments(boolean keepMeta) throws IOException, Importer.ImportException {
+        while (true) {
+            int c = skipWhitespace();
+            if (c != '[') {
+                return c;
+            }
+            int length = readComment();
+            if (keepMeta && length > 0 && !isRootingComment(commentBuffer, length)) {
+                if (headerAnnotationLength + length + 1 > headerAnnotation.length) {
+                    headerAnnotation = Arrays.copyOf(headerAnnotation, (headerAnnotationLength + length + 1) * 2);
+                }
+                if (headerAnnotationLength > 0) {
+                    headerAnnotation[headerAnnotationLength++] = ',';
+                }
+                System.arraycopy(commentBuffer, 0, headerAnnotation, headerAnnotationLength, length);
+                headerAnnotationLength += length;
+            }
+        }
+    }
+
+    private static boolean isRootingComment(byte[] comment, int length) {
+        char first = (char) Character.toUpperCase(comment[0]);
+        return (length == 1 && (first == 'R' || first == 'U')) || (first == 'W' && (length == 1 || comment[1] == ' '));
+    }
+
+    private static boolean isDelimiter(int c) {
+        return c <= ' ' || c == '(' || c == ')' || c == ',' || c == ':' || c == ';' || c == '=' || c == '[' || c == ']';
+    }
+
+    /**
+     * Parses a decimal number from the input. Numbers with up to 15 significant digits and small exponents
+     * are converted exactly with a single multiplication or division, anything else uses Double.parseDouble.
+     */
+    private double readDouble() throws IOException, Importer.ImportException {
+        int length = 0;
+        int c = peek();
+        while (c != -1 && (c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E' || (c >= '0' && c <= '9') ||
+                Character.isLetter(c))) {
+            length = appendLabel(read(), length);
+            c = peek();
+        }
+        if (length == 0) {
+            throw new Importer.BadFormatException("Missing branch length");
+        }
+
+        int i = 0;
+        boolean negative = false;
+        if (labelBuffer[0] == '-' || labelBuffer[0] == '+') {
+            negative = labelBuffer[0] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean point = false;
+        boolean simple = i < length;
+        for (; i < length; i++) {
+            byte b = labelBuffer[i];
+            if (b >= '0' && b <= '9') {
+                if (mantissa == 0 && b == '0') {
+                    // leading zeros are not significant
+                } else {
+                    mantissa = mantissa * 10 + (b - '0');
+                    digits++;
+                }
+                if (point) {
+                    scale--;
+                }
+            } else if (b == '.' && !point) {
+                point = true;
+            } else if (b == 'e' || b == 'E') {
+                int exponent = parseExponent(labelBuffer, i + 1, length);
+                if (exponent == Integer.MIN_VALUE) {
+                    simple = false;
+                } else {
+                    scale += exponent;
+                }
+                break;
+            } else {
+                simple = false;
+                break;
+            }
+        }
+
+        if (simple && digits <= 15 && scale >= -22 && scale <= 22) {
+            double value = scale < 0 ? mantissa / POWERS_OF_TEN[-scale] : mantissa * POWERS_OF_TEN[scale];
+            return negative ? -value : value;
+        }
+
+        try {
+            return Double.parseDouble(new String(labelBuffer, 0, length, StandardCharsets.US_ASCII));
+        } catch (NumberFormatException nfe) {
+            throw new Importer.BadFormatException("Badly formatted branch length: " +
+                    new String(labelBuffer, 0, length, StandardCharsets.US_ASCII));
+        }
+    }
+
+    private static int parseExponent(byte[] bytes, int from, int to) {
+        if (from >= to) {
+            return Integer.MIN_VALUE;
+        }
+        int i = from;
+        boolean negative = false;
+        if (bytes[i] == '-' || bytes[i] == '+') {
+            negative = bytes[i] == '-';
+            i++;
+        }
+        if (i >= to || to - i > 3) {
+            return Integer.MIN_VALUE;
+        }
+        int exponent = 0;
+        for (; i < to; i++) {
+            if (bytes[i] < '0' || bytes[i] > '9') {
+                return Integer.MIN_VALUE;
+            }
+            exponent = exponent * 10 + (bytes[i] - '0');
+        }
+        return negative ? -exponent : exponent;
+    }
+
+    /**
+     * @return the value of a non-negative integer key or -1 if it isn't one
+     */
+    private static int parseKey(String key) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        return parseKey(bytes, bytes.length);
+    }
+
+    private static int parseKey(byte[] bytes, int length) {
+        if (length == 0 || length > 9) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = 0; i < length; i++) {
+            if (bytes[i] < '0' || bytes[i] > '9') {
+                return -1;
+            }
+            value = value * 10 + (bytes[i] - '0');
+        }
+        return value;
+    }
+
+    // **************************************************************
+    // Buffered input
+    // **************************************************************
+
+    private int peek() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position] & 0xFF;
+    }
+
+    private int read() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    private boolean fill() throws IOException {
+        if (endOfFile) {
+            return false;
+        }
+        int count = inputStream.read(buffer, 0, buffer.length);
+        if (count <= 0) {
+            endOfFile = true;
+            return false;
+        }
+        position = 0;
+        limit = count;
+        return true;
+    }
+
+    private enum Format {
+        UNKNOWN,
+        NEXUS,
+        NEWICK
+    }
+
+    private static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final InputStream inputStream;
+    private final byte[] buffer;
+    private int position = 0;
+    private int limit = 0;
+    private boolean endOfFile = false;
+
+    private Format format = Format.UNKNOWN;
+    private boolean inTreesBlock = false;
+
+    private final List<String> taxonLabels = new ArrayList<String>();
+    private final Map<String, Integer> labelIndices = new HashMap<String, Integer>();
+    private Map<String, Integer> translation = null;
+    private int[] numericTranslation = null;
+    private TaxonList taxa = null;
+
+    private int treeIndex = -1;
+    private String treeName;
+    private byte[] headerAnnotation = new byte[256];
+    private int headerAnnotationLength = 0;
+
+    private int[] openStack = new int[64];
+    private int[] childStack = new int[256];
+    private byte[] labelBuffer = new byte[256];
+    private byte[] commentBuffer = new byte[1024];
+}
@@ -333,6 +333,7 @@ public class BigFastTreeIntervals extends AbstractModel implements Units, TreeIn
                 lastTime = time;
             }
             intervalsKnown = true;
+            lastUpdate = null;
 
         } else if (onlyUpdateTimes) {
             for (int i = 0; i < events.size(); i++) {
@@ -340,17 +341,54 @@ public class BigFastTreeIntervals extends AbstractModel implements Units, TreeIn
                 events.updateEventTime(newTime, i);
             }
             onlyUpdateTimes = false;
+            lastUpdate = null;
         } else {
+            // keep track of the range of events that have moved or had their interval or lineage count changed
+            int firstEvent = events.size();
+            int lastEvent = -1;
             for (int node : updatedNodes) {
+                int oldPosition = events.getNodePosition(node);
                 events.updateForChangedNode(node, tree.getNodeHeight(tree.getNode(node)));
+                int newPosition = events.getNodePosition(node);
+                firstEvent = Math.min(firstEvent, Math.min(oldPosition, newPosition));
+                lastEvent = Math.max(lastEvent, Math.min(Math.max(oldPosition, newPosition) + 1, events.size() - 1));
+            }
+            if (firstEvent == 0) {
+                // the start time has changed so all the intervals are shifted
+                lastUpdate = null;
+            } else {
+                // interval i ends with event i + 1
+                lastUpdate = new IntervalChangedEvent.AffectedIntervals(firstEvent - 1, lastEvent - 1);
             }
         }
 
+        updateCount++;
         intervalsKnown = true;
         dirty = false;
         updatedNodes = new ArrayList<>();
     }
 
+    /**
+     * The number of times the intervals have been recalculated. This is stored and restored with the
+     * intervals so a listener that has seen count - 1 can use getLastUpdate() to update incrementally.
+     */
+    public int getUpdateCount() {
+        if (!intervalsKnown) {
+            calculateIntervals();
+        }
+        return updateCount;
+    }
+
+    /**
+     * @return the range of intervals changed by the last recalculation or null if they all may have changed.
+     */
+    public IntervalChangedEvent getLastUpdate() {
+        if (!intervalsKnown) {
+            calculateIntervals();
+        }
+        return lastUpdate;
+    }
+
     private Type units = Type.GENERATIONS;
 
     public final Type getUnits() {
@@ -414,6 +452,8 @@ public class BigFastTreeIntervals extends AbstractModel implements Units, TreeIn
         storedIntervalsKnown = intervalsKnown;
         storedEvents.copyEvents(events);
         storedOnlyUpdateTimes = onlyUpdateTimes;
+        storedUpdateCount = updateCount;
+        storedLastUpdate = lastUpdate;
     }
 
     @Override
@@ -426,7 +466,8 @@ public class BigFastTreeIntervals extends AbstractModel implements Units, TreeIn
         intervalsKnown = storedIntervalsKnown;
 
         onlyUpdateTimes = storedOnlyUpdateTimes;
-
+        updateCount = storedUpdateCount;
+        lastUpdate = storedLastUpdate;
     }
 
     @Override
@@ -694,5 +735,10 @@ public class BigFastTreeIntervals extends AbstractModel implements Units, TreeIn
     protected boolean dirty;
     private int intervalCount = 0;
 
+    private int updateCount = 0;
+    private int storedUpdateCount;
+    private IntervalChangedEvent lastUpdate = null;
+    private IntervalChangedEvent storedLastUpdate;
+
 
 }
\ No newline at end of file
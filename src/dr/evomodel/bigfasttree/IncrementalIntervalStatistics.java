@@ -0,0 +1,212 @@
+/*
+ * IncrementalIntervalStatistics.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.evomodel.bigfasttree;
+
+import dr.evolution.coalescent.IntervalType;
+import dr.math.Binomial;
+
+/**
+ * Keeps the coalescent sufficient statistics of a BigFastTreeIntervals (the lineage-pair area, sum of
+ * k choose 2 times the interval length, and the coalescent events) in segment trees so they can be
+ * summed over any time window in O(log n). When the intervals report which range changed only those
+ * intervals are updated, otherwise the trees are rebuilt.
+ */
+public class IncrementalIntervalStatistics {
+
+    public IncrementalIntervalStatistics(BigFastTreeIntervals intervals) {
+        this.intervals = intervals;
+        int intervalCount = intervals.getIntervalCount();
+        lineageAreas = new IntervalSumTree(intervalCount);
+        coalescentEvents = new IntervalSumTree(intervalCount);
+        areaBuffer = new double[intervalCount];
+        eventBuffer = new double[intervalCount];
+    }
+
+    /**
+     * @return true if the incremental statistics can be used for these intervals (and haven't been switched off
+     * with the system property beast.coalescent.incremental=false)
+     */
+    public static boolean isApplicable(Object intervals) {
+        return USE_INCREMENTAL_STATISTICS && intervals instanceof BigFastTreeIntervals;
+    }
+
+    public BigFastTreeIntervals getIntervals() {
+        return intervals;
+    }
+
+    /**
+     * Brings the statistics up to date with the intervals.
+     * @return the intervals that have changed since the last call, or null if all of them may have changed.
+     */
+    public IntervalChangedEvent update() {
+        int count = intervals.getUpdateCount();
+        IntervalChangedEvent changed;
+        if (known && count == updateCount) {
+            changed = NO_CHANGE;
+        } else if (known && count == updateCount + 1 && intervals.getLastUpdate() != null) {
+            changed = intervals.getLastUpdate();
+            for (int i = changed.getFirstInterval(); i <= changed.getLastInterval(); i++) {
+                lineageAreas.setValue(i, getLineageArea(i));
+                coalescentEvents.setValue(i, getCoalescentEvent(i));
+            }
+        } else {
+            for (int i = 0; i < areaBuffer.length; i++) {
+                areaBuffer[i] = getLineageArea(i);
+                eventBuffer[i] = getCoalescentEvent(i);
+            }
+            lineageAreas.setValues(areaBuffer);
+            coalescentEvents.setValues(eventBuffer);
+            changed = null;
+        }
+        updateCount = count;
+        known = true;
+        return changed;
+    }
+
+    /**
+     * @return the sum over all intervals of k choose 2 times the interval length
+     */
+    public double getTotalLineageArea() {
+        return lineageAreas.getTotal();
+    }
+
+    public int getTotalCoalescentEvents() {
+        return (int) coalescentEvents.getTotal();
+    }
+
+    /**
+     * @return the integral of k(t) choose 2 between two absolute times
+     */
+    public double getLineageArea(double from, double to) {
+        int n = areaBuffer.length;
+        from = Math.max(from, intervals.getIntervalTime(0));
+        to = Math.min(to, intervals.getIntervalTime(n));
+        if (from >= to) {
+            return 0.0;
+        }
+
+        // the intervals containing each end of the window
+        int first = lastTimeNotAfter(from);
+        int last = firstTimeNotBefore(to) - 1;
+
+        if (first == last) {
+            return Binomial.choose2(intervals.getLineageCount(first)) * (to - from);
+        }
+        return Binomial.choose2(intervals.getLineageCount(first)) * (intervals.getIntervalTime(first + 1) - from) +
+                lineageAreas.getSum(first + 1, last - 1) +
+                Binomial.choose2(intervals.getLineageCount(last)) * (to - intervals.getIntervalTime(last));
+    }
+
+    /**
+     * @return the number of coalescent events at times from <= t < to
+     */
+    public int getCoalescentEvents(double from, double to) {
+        // interval i ends with event i + 1
+        int first = firstTimeNotBefore(from) - 1;
+        int last = firstTimeNotBefore(to) - 2;
+        return (int) coalescentEvents.getSum(Math.max(first, 0), Math.min(last, areaBuffer.length - 1));
+    }
+
+    public void store() {
+        lineageAreas.store();
+        coalescentEvents.store();
+        storedUpdateCount = updateCount;
+        storedKnown = known;
+    }
+
+    public void restore() {
+        lineageAreas.restore();
+        coalescentEvents.restore();
+        updateCount = storedUpdateCount;
+        known = storedKnown;
+    }
+
+    public void makeDirty() {
+        known = false;
+    }
+
+    private double getLineageArea(int i) {
+        return Binomial.choose2(intervals.getLineageCount(i)) * intervals.getInterval(i);
+    }
+
+    private double getCoalescentEvent(int i) {
+        return intervals.getIntervalType(i) == IntervalType.COALESCENT ? 1.0 : 0.0;
+    }
+
+    /**
+     * @return the index of the first event with a time >= t (the number of events if there is none)
+     */
+    private int firstTimeNotBefore(double t) {
+        int low = 0;
+        int high = areaBuffer.length + 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (intervals.getIntervalTime(mid) < t) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the index of the last interval starting at or before t
+     */
+    private int lastTimeNotAfter(double t) {
+        int low = 0;
+        int high = areaBuffer.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (intervals.getIntervalTime(mid) <= t) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private static final boolean USE_INCREMENTAL_STATISTICS =
+            Boolean.parseBoolean(System.getProperty("beast.coalescent.incremental", "true"));
+
+    private static final IntervalChangedEvent NO_CHANGE = new IntervalChangedEvent.AffectedIntervals(0, -1);
+
+    private final BigFastTreeIntervals intervals;
+
+    private final IntervalSumTree lineageAreas;
+    private final IntervalSumTree coalescentEvents;
+
+    private final double[] areaBuffer;
+    private final double[] eventBuffer;
+
+    private boolean known = false;
+    private boolean storedKnown = false;
+    private int updateCount;
+    private int storedUpdateCount;
+}
@@ -0,0 +1,191 @@
+/*
+ * IntervalSumTree.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.evomodel.bigfasttree;
+
+import java.util.Arrays;
+
+/**
+ * A segment tree of per-interval values which gives the total, and the sum over any range of intervals, in
+ * O(log n) after a single value has been changed. Internal nodes are always recomputed from their children
+ * (rather than adjusted by differences) so the sums do not drift over a long run and infinite values are
+ * handled correctly.
+ *
+ * Changes are journaled so that restore() only has to undo the values set since the last store(). If more
+ * values are changed than the journal can hold then a full copy of the stored values is used instead.
+ */
+public class IntervalSumTree {
+
+    public IntervalSumTree(int size) {
+        this.size = size;
+        int leaves = 1;
+        while (leaves < size) {
+            leaves <<= 1;
+        }
+        this.leafCount = leaves;
+        this.sums = new double[2 * leaves];
+
+        int journalLength = Math.max(16, size / 8);
+        journalIndices = new int[journalLength];
+        journalValues = new double[journalLength];
+        storedValues = new double[size];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public double getValue(int i) {
+        return sums[leafCount + i];
+    }
+
+    /**
+     * Sets the value for interval i and updates the partial sums above it.
+     */
+    public void setValue(int i, double value) {
+        int node = leafCount + i;
+        if (sums[node] == value) {
+            return;
+        }
+        journal(i, sums[node]);
+        sums[node] = value;
+        node >>= 1;
+        while (node > 0) {
+            sums[node] = sums[2 * node] + sums[2 * node + 1];
+            node >>= 1;
+        }
+    }
+
+    /**
+     * Sets all the values at once and rebuilds the partial sums in O(n).
+     */
+    public void setValues(double[] values) {
+        snapshot();
+        System.arraycopy(values, 0, sums, leafCount, size);
+        rebuild();
+    }
+
+    public double getTotal() {
+        return sums[1];
+    }
+
+    /**
+     * @return the sum of the values of intervals from..to inclusive
+     */
+    public double getSum(int from, int to) {
+        if (from > to) {
+            return 0.0;
+        }
+        if (from == 0 && to == size - 1) {
+            return sums[1];
+        }
+        double left = 0.0;
+        double right = 0.0;
+        int lo = leafCount + from;
+        int hi = leafCount + to + 1;
+        while (lo < hi) {
+            if ((lo & 1) == 1) {
+                left += sums[lo++];
+            }
+            if ((hi & 1) == 1) {
+                right = sums[--hi] + right;
+            }
+            lo >>= 1;
+            hi >>= 1;
+        }
+        return left + right;
+    }
+
+    public void store() {
+        journalSize = 0;
+        journalOverflowed = false;
+    }
+
+    public void restore() {
+        if (journalOverflowed) {
+            System.arraycopy(storedValues, 0, sums, leafCount, size);
+            rebuild();
+        } else {
+            for (int k = journalSize - 1; k >= 0; k--) {
+                int node = leafCount + journalIndices[k];
+                sums[node] = journalValues[k];
+                node >>= 1;
+                while (node > 0) {
+                    sums[node] = sums[2 * node] + sums[2 * node + 1];
+                    node >>= 1;
+                }
+            }
+        }
+        journalSize = 0;
+        journalOverflowed = false;
+    }
+
+    private void journal(int i, double oldValue) {
+        if (journalOverflowed) {
+            return;
+        }
+        if (journalSize == journalIndices.length) {
+            snapshot();
+            return;
+        }
+        journalIndices[journalSize] = i;
+        journalValues[journalSize] = oldValue;
+        journalSize++;
+    }
+
+    /**
+     * Keeps a full copy of the values as they were at the last store() (the current values with the
+     * journal undone).
+     */
+    private void snapshot() {
+        if (journalOverflowed) {
+            return;
+        }
+        System.arraycopy(sums, leafCount, storedValues, 0, size);
+        for (int k = journalSize - 1; k >= 0; k--) {
+            storedValues[journalIndices[k]] = journalValues[k];
+        }
+        journalOverflowed = true;
+    }
+
+    private void rebuild() {
+        Arrays.fill(sums, leafCount + size, sums.length, 0.0);
+        for (int node = leafCount - 1; node > 0; node--) {
+            sums[node] = sums[2 * node] + sums[2 * node + 1];
+        }
+    }
+
+    private final int size;
+    private final int leafCount;
+    private final double[] sums;
+
+    private final int[] journalIndices;
+    private final double[] journalValues;
+    private int journalSize = 0;
+    private boolean journalOverflowed = false;
+    private final double[] storedValues;
+}
@@ -0,0 +1,121 @@
+/*
+ * PartialSumTree.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.evomodel.bigfasttree.thorney;
+
+import java.util.Arrays;
+
+/**
+ * A binary tree of partial sums over a fixed number of terms so that changing one term updates the
+ * total in O(log n). Each internal node holds the sum of its children together with the rounding
+ * error of that addition (Knuth's TwoSum) so the total is accurate to about twice double precision
+ * however many terms there are. Internal sums depend only on the current terms, not on the order of
+ * updates, so setting terms back to earlier values restores the earlier total exactly.
+ */
+public class PartialSumTree {
+
+    public PartialSumTree(int termCount) {
+        this.termCount = termCount;
+        int capacity = 1;
+        while (capacity < termCount) {
+            capacity <<= 1;
+        }
+        this.capacity = capacity;
+        sums = new double[2 * capacity];
+        errors = new double[2 * capacity];
+    }
+
+    public int getTermCount() {
+        return termCount;
+    }
+
+    public double getTerm(int index) {
+        return sums[capacity + index];
+    }
+
+    /**
+     * Sets a term and updates the sums on the path to the root.
+     */
+    public void setTerm(int index, double value) {
+        int node = capacity + index;
+        sums[node] = value;
+        node >>= 1;
+        while (node > 0) {
+            combine(node);
+            node >>= 1;
+        }
+    }
+
+    /**
+     * Sets a term without updating the sums; call update() once all the changes have been made.
+     */
+    public void setTermQuietly(int index, double value) {
+        sums[capacity + index] = value;
+    }
+
+    /**
+     * Recomputes all the partial sums from the terms, O(n).
+     */
+    public void update() {
+        for (int node = capacity - 1; node > 0; node--) {
+            combine(node);
+        }
+    }
+
+    public double getSum() {
+        final double sum = sums[1];
+        if (Double.isInfinite(sum) || Double.isNaN(sum)) {
+            return sum;
+        }
+        return sum + errors[1];
+    }
+
+    public void clear() {
+        Arrays.fill(sums, 0.0);
+        Arrays.fill(errors, 0.0);
+    }
+
+    private void combine(int node) {
+        final int left = node << 1;
+        final double a = sums[left];
+        final double b = sums[left + 1];
+        final double s = a + b;
+        sums[node] = s;
+        if (Double.isInfinite(s) || Double.isNaN(s)) {
+            errors[node] = 0.0;
+        } else {
+            final double bb = s - a;
+            final double error = (a - (s - bb)) + (b - bb);
+            errors[node] = errors[left] + errors[left + 1] + error;
+        }
+    }
+
+    private final int termCount;
+    private final int capacity;
+    private final double[] sums;
+    private final double[] errors;
+}
@@ -27,8 +27,9 @@
 
 package dr.evomodel.bigfasttree.thorney;
 
-import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import dr.evolution.tree.NodeRef;
 import dr.evolution.tree.Tree;
@@ -41,18 +42,36 @@ import dr.inference.model.AbstractModel;
 import dr.inference.model.Model;
 import dr.inference.model.Variable;
 import dr.inference.model.Variable.ChangeType;
+import dr.util.TaskScheduler;
 
 
 //mutationbranch map is akin to patterns list
 // branch length likelihood delegate is like a substitution model.
 // 
 
+/**
+ * The likelihood of a tree given the number of mutations along each branch. Each branch contributes an
+ * independent term so the terms are held in a partial-sum tree indexed by node number: changing a
+ * branch updates the total in O(log n) without visiting its ancestors, nothing is recursive over the
+ * tree (so deep, ladderized trees are fine) and the total is accumulated with compensated summation.
+ * The terms for changed branches are evaluated together and, with more than one thread, in parallel
+ * blocks. Store and restore only touch the branches that changed.
+ */
 public class ThorneyDataLikelihoodDelegate extends AbstractModel implements DataLikelihoodDelegate {
     final static String NAME="ThorneyDataLikelihoodDelegate";
 
 
 
+    // Fewest changed branches worth evaluating in parallel and the blocks per thread they are divided into
+    private static final int MIN_BRANCHES_PER_TASK = 1024;
+    private static final int BLOCKS_PER_THREAD = 4;
+
     public ThorneyDataLikelihoodDelegate(Tree tree, MutationBranchMap mutationMap, BranchLengthLikelihoodDelegate branchLengthLikelihoodDelegate) {
+        this(tree, mutationMap, branchLengthLikelihoodDelegate, 1);
+    }
+
+    public ThorneyDataLikelihoodDelegate(Tree tree, MutationBranchMap mutationMap, BranchLengthLikelihoodDelegate branchLengthLikelihoodDelegate,
+                                         int threadCount) {
         super(NAME);
         this.tree = tree;
 
@@ -61,16 +80,24 @@ public class ThorneyDataLikelihoodDelegate extends AbstractModel implements Data
         this.branchLengthLikelihoodDelegate = branchLengthLikelihoodDelegate;
         totalCalculationCount=0;
 
-        updateNode = new boolean[tree.getNodeCount()];
-        Arrays.fill(updateNode, true);
+        final int nodeCount = tree.getNodeCount();
+
+        updateNode = new boolean[nodeCount];
+        dirtyNodes = new int[nodeCount];
+        dirtyMutations = new MutationList[nodeCount];
+        dirtyLogL = new double[nodeCount];
+        makeDirty();
+
+        branchLengths = new double[nodeCount];
+        branchLogL = new PartialSumTree(nodeCount);
 
-        storedUpdateNode  = new boolean[tree.getNodeCount()];
-        
-        branchLengths = new double[tree.getNodeCount()];
-        storedBranchLengths = new double[tree.getNodeCount()];
+        changedSinceStore = new boolean[nodeCount];
+        changedNodes = new int[nodeCount];
+        storedBranchLengths = new double[nodeCount];
+        storedBranchLogL = new double[nodeCount];
 
-        branchLogL = new double[tree.getNodeCount()];
-        storedBranchLogL = new double[tree.getNodeCount()];
+        this.threadCount = Math.max(1, threadCount);
+        this.forkJoinPool = this.threadCount > 1 ? TaskScheduler.getPool() : null;
     }
 
     @Override
@@ -95,92 +122,175 @@ public class ThorneyDataLikelihoodDelegate extends AbstractModel implements Data
      * Forces a complete recalculation of the likelihood next time getLikelihood is called
      */
     public void makeDirty() {
-        //check the substitution model
+        for (int i = 0; i < updateNode.length; i++) {
+            updateNode(i);
+        }
     }
 
     @Override
     public void storeState() {
-        // TODO Auto-generated method stub
-
-        System.arraycopy(branchLogL, 0, storedBranchLogL, 0, branchLogL.length);
-        System.arraycopy(branchLengths, 0, storedBranchLengths, 0, storedBranchLengths.length);    }
+        for (int i = 0; i < changedCount; i++) {
+            changedSinceStore[changedNodes[i]] = false;
+        }
+        changedCount = 0;
+        storedRootNodeNumber = rootNodeNumber;
+    }
 
     @Override
     public void restoreState() {
-        double[] tmp = storedBranchLogL;
-        storedBranchLogL=branchLogL;
-        branchLogL=tmp;
-    
-        double[] tmp1 = storedBranchLengths;
-        storedBranchLengths = branchLengths;
-        branchLengths = tmp1;
+        // put back the terms for the branches that have changed since the last store
+        final boolean rebuild = changedCount > getRebuildThreshold();
+        for (int i = 0; i < changedCount; i++) {
+            final int nodeNumber = changedNodes[i];
+            branchLengths[nodeNumber] = storedBranchLengths[nodeNumber];
+            if (rebuild) {
+                branchLogL.setTermQuietly(nodeNumber, storedBranchLogL[nodeNumber]);
+            } else {
+                branchLogL.setTerm(nodeNumber, storedBranchLogL[nodeNumber]);
+            }
+            changedSinceStore[nodeNumber] = false;
+        }
+        if (rebuild) {
+            branchLogL.update();
+        }
+        changedCount = 0;
+        rootNodeNumber = storedRootNodeNumber;
     }
 
     @Override
     public double calculateLikelihood(List<BranchOperation> branchOperations, List<NodeOperation> nodeOperations,
             int rootNodeNumber) throws LikelihoodException {
-                // summing this way accounts for numerical stability but feels like over kill
-                for (BranchOperation branchOperation : branchOperations) {
-                    NodeRef node = tree.getNode(branchOperation.getBranchNumber());
-                    updateNode(node);
-                    branchLengths[node.getNumber()] = branchOperation.getBranchLength();
-                }
-                NodeRef root = tree.getNode(rootNodeNumber);
-                int rootChild1 = tree.getChild(root, 0).getNumber();
-                int rootChild2 = tree.getChild(root, 1).getNumber();
-                updateNode[rootChild1] = updateNode[rootChild1] || updateNode[rootChild2] ;
 
-                totalCalculationCount+=1;
+        for (BranchOperation branchOperation : branchOperations) {
+            final int nodeNumber = branchOperation.getBranchNumber();
+            recordChange(nodeNumber);
+            branchLengths[nodeNumber] = branchOperation.getBranchLength();
+            updateNode(nodeNumber);
+        }
+
+        if (rootNodeNumber != this.rootNodeNumber) {
+            // the old root now has a branch and the new one doesn't
+            if (this.rootNodeNumber >= 0) {
+                updateNode(this.rootNodeNumber);
+            }
+            updateNode(rootNodeNumber);
+            this.rootNodeNumber = rootNodeNumber;
+        }
 
-                return calculateLogLikelihood(root, rootNodeNumber, rootChild1,rootChild2);
+        NodeRef root = tree.getNode(rootNodeNumber);
+        int rootChild1 = tree.getChild(root, 0).getNumber();
+        int rootChild2 = tree.getChild(root, 1).getNumber();
+        if (updateNode[rootChild2]) {
+            updateNode(rootChild1);
+        }
 
+        totalCalculationCount+=1;
 
+        return calculateLogLikelihood(rootNodeNumber);
     }
 
-    public double calculateLogLikelihood(NodeRef node, int root, int rootChild1, int rootChild2){
-        int nodeIndex = node.getNumber();
-
-        if (updateNode[nodeIndex]) {
-            double logL;
-            if(nodeIndex==root){
-                logL=0;
-            }else{
-                MutationList mutations = mutationMap.getMutations(node); //TODO make branchMutations
-                double branchLength = branchLengths[nodeIndex];
-//                    if (nodeIndex == rootChild1) {
-//                        // sum the branches on both sides of the root
-//                        NodeRef node2 = tree.getNode(rootChild2);
-//                        time += tree.getBranchLength(node2);
-//                        mutations += branchLengthProvider.getBranchLength(tree, node2);
-//                    }
-//                gamma.setScale(1.0);
-//                branchLogL[i] = gamma.logPdf(x);
-// get mutations/ get branch length / have substitution model handy and return the likelihood of seeing all this mutations 
-                logL = branchLengthLikelihoodDelegate.getLogLikelihood(mutations, branchLength);  // Substitution model
+    /**
+     * Evaluates the terms of the branches that are flagged for update and returns the total.
+     */
+    private double calculateLogLikelihood(int root) {
+        final int count = dirtyCount;
+
+        // the mutations are collected on this thread as the maps may consult the tree
+        for (int i = 0; i < count; i++) {
+            final int nodeNumber = dirtyNodes[i];
+            dirtyMutations[i] = nodeNumber == root ? null : mutationMap.getMutations(tree.getNode(nodeNumber));
+        }
 
+        if (forkJoinPool != null && count >= 2 * MIN_BRANCHES_PER_TASK) {
+            final int blockSize = Math.max(MIN_BRANCHES_PER_TASK, count / (threadCount * BLOCKS_PER_THREAD) + 1);
+            forkJoinPool.invoke(new BranchBlockAction(0, count, blockSize));
+        } else {
+            calculateBranchLogLikelihoods(0, count);
+        }
+
+        final boolean rebuild = count > getRebuildThreshold();
+        for (int i = 0; i < count; i++) {
+            final int nodeNumber = dirtyNodes[i];
+            recordChange(nodeNumber);
+            if (rebuild) {
+                branchLogL.setTermQuietly(nodeNumber, dirtyLogL[i]);
+            } else {
+                branchLogL.setTerm(nodeNumber, dirtyLogL[i]);
             }
-            for (int i = 0; i < tree.getChildCount(node); i++) {
-                logL += this.calculateLogLikelihood(tree.getChild(node, i),root,rootChild1,rootChild2);
+            updateNode[nodeNumber] = false;
+            dirtyMutations[i] = null;
+        }
+        if (rebuild) {
+            branchLogL.update();
+        }
+        dirtyCount = 0;
+
+        return branchLogL.getSum();
+    }
+
+    private void calculateBranchLogLikelihoods(int start, int end) {
+        for (int i = start; i < end; i++) {
+            final MutationList mutations = dirtyMutations[i];
+            // the root has no branch
+            dirtyLogL[i] = mutations == null ? 0.0 :
+                    branchLengthLikelihoodDelegate.getLogLikelihood(mutations, branchLengths[dirtyNodes[i]]);
+        }
+    }
+
+    private class BranchBlockAction extends RecursiveAction {
+
+        BranchBlockAction(int start, int end, int blockSize) {
+            this.start = start;
+            this.end = end;
+            this.blockSize = blockSize;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= blockSize) {
+                calculateBranchLogLikelihoods(start, end);
+            } else {
+                int middle = (start + end) >>> 1;
+                invokeAll(new BranchBlockAction(start, middle, blockSize),
+                        new BranchBlockAction(middle, end, blockSize));
             }
-            branchLogL[nodeIndex] = logL;
-            updateNode[nodeIndex] = false;
         }
-        return branchLogL[nodeIndex];
+
+        private final int start;
+        private final int end;
+        private final int blockSize;
     }
+
     /**
-     * Set update flag for node and remove it's old contribution to the likelihood.
-     * Also handle the root and children so that the 1 branch between children is marked as updated.
-     * @param node
+     * Set update flag for a node so its branch term is recomputed. Unlike a tree traversal the
+     * ancestors don't need updating as each branch contributes its own term to the sum.
+     * @param nodeNumber
      */
-    protected void updateNode(NodeRef node) {
+    protected void updateNode(int nodeNumber) {
+        if (!updateNode[nodeNumber]) {
+            updateNode[nodeNumber] = true;
+            dirtyNodes[dirtyCount] = nodeNumber;
+            dirtyCount++;
+        }
+    }
 
-        updateNode[node.getNumber()] = true;
-        NodeRef parent = tree.getParent(node);
-        if (parent != null && !updateNode[parent.getNumber()]) {
-            updateNode(parent);
+    /**
+     * Saves the branch length and term for a node the first time it changes after a store.
+     */
+    private void recordChange(int nodeNumber) {
+        if (!changedSinceStore[nodeNumber]) {
+            changedSinceStore[nodeNumber] = true;
+            storedBranchLengths[nodeNumber] = branchLengths[nodeNumber];
+            storedBranchLogL[nodeNumber] = branchLogL.getTerm(nodeNumber);
+            changedNodes[changedCount] = nodeNumber;
+            changedCount++;
         }
     }
 
+    // updating k terms one at a time costs k log n, rebuilding the partial sums costs n
+    private int getRebuildThreshold() {
+        return updateNode.length / (32 - Integer.numberOfLeadingZeros(Math.max(1, updateNode.length)));
+    }
 
     @Override
     public int getTraitCount() {
@@ -256,15 +366,30 @@ public class ThorneyDataLikelihoodDelegate extends AbstractModel implements Data
     private final Tree tree;
     private BranchLengthLikelihoodDelegate branchLengthLikelihoodDelegate;
 
-        /**
-     * Flags to specify which nodes are to be updated
+    /**
+     * Flags to specify which nodes are to be updated and a list of them
      */
-    protected boolean[] updateNode;
-    protected boolean[] storedUpdateNode;
+    protected final boolean[] updateNode;
+    private final int[] dirtyNodes;
+    private int dirtyCount = 0;
+    private final MutationList[] dirtyMutations;
+    private final double[] dirtyLogL;
+
+    private final double[] branchLengths;
+    private final PartialSumTree branchLogL;
 
-    private double[] branchLengths;
-    private double[] storedBranchLengths;
+    private int rootNodeNumber = -1;
+    private int storedRootNodeNumber = -1;
 
-    private double[] branchLogL;
-    private double[] storedBranchLogL;
+    /**
+     * The nodes changed since the last store and their stored branch lengths and terms
+     */
+    private final boolean[] changedSinceStore;
+    private final int[] changedNodes;
+    private int changedCount = 0;
+    private final double[] storedBranchLengths;
+    private final double[] storedBranchLogL;
+
+    private final int threadCount;
+    private final ForkJoinPool forkJoinPool;
 }
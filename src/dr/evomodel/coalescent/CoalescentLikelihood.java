@@ -27,12 +27,18 @@
 
 package dr.evomodel.coalescent;
 
+import dr.evolution.coalescent.ConstantPopulation;
 import dr.evolution.coalescent.DemographicFunction;
 import dr.evolution.coalescent.IntervalList;
 import dr.evolution.coalescent.IntervalType;
 import dr.evolution.util.Units;
+import dr.evomodel.bigfasttree.BigFastTreeIntervals;
+import dr.evomodel.bigfasttree.IncrementalIntervalStatistics;
+import dr.evomodel.bigfasttree.IntervalChangedEvent;
+import dr.evomodel.bigfasttree.IntervalSumTree;
 import dr.evomodel.coalescent.demographicmodel.DemographicModel;
 import dr.evomodelxml.coalescent.CoalescentLikelihoodParser;
+import dr.inference.model.Model;
 import dr.math.Binomial;
 
 import java.util.logging.Logger;
@@ -65,6 +71,14 @@ public final class CoalescentLikelihood extends AbstractCoalescentLikelihood imp
 
 		this.coalescentEventStatisticValues = new double[getNumberOfCoalescentEvents()];
 
+		if (IncrementalIntervalStatistics.isApplicable(intervalList)) {
+			// keep the per-interval contributions so only the intervals affected by a node height change are
+			// recalculated
+			this.intervalStatistics = new IncrementalIntervalStatistics((BigFastTreeIntervals) intervalList);
+			this.intervalContributions = new IntervalSumTree(intervalList.getIntervalCount());
+			this.contributionBuffer = new double[intervalList.getIntervalCount()];
+		}
+
 		addModel(demographicModel);
 	}
 
@@ -119,6 +133,10 @@ public final class CoalescentLikelihood extends AbstractCoalescentLikelihood imp
 	 */
 	protected double calculateLogLikelihood(DemographicModel demographicModel) {
 
+		if (intervalStatistics != null) {
+			return calculateIncrementalLogLikelihood(demographicModel);
+		}
+
 		double logL = 0.0;
 
 		IntervalList intervals = getIntervalList();
@@ -177,6 +195,78 @@ public final class CoalescentLikelihood extends AbstractCoalescentLikelihood imp
 		return logL;
 	}
 
+	/**
+	 * Calculates the log likelihood keeping the contribution of each interval in a segment tree so that
+	 * after a node height change only the intervals that have moved need to be recalculated. For a
+	 * constant population size the likelihood only depends on the total lineage-pair area and the number
+	 * of coalescent events so a change in the population size is O(1).
+	 */
+	private double calculateIncrementalLogLikelihood(DemographicModel demographicModel) {
+
+		IntervalList intervals = getIntervalList();
+
+		final int n = intervals.getIntervalCount();
+
+		if (n == 0) {
+			return 0.0;
+		}
+
+		IntervalChangedEvent changed = intervalStatistics.update();
+
+		double absoluteStartTime = intervals.getStartTime();
+		demographicModel.setTimeOffset(absoluteStartTime);
+
+		DemographicFunction demographicFunction = demographicModel.getDemographicFunction();
+
+		if (demographicFunction.getClass() == ConstantPopulation.class) {
+			final double N0 = ((ConstantPopulation) demographicFunction).getN0();
+			contributionsKnown = false;
+			return -intervalStatistics.getTotalLineageArea() / N0 -
+					intervalStatistics.getTotalCoalescentEvents() * Math.log(N0);
+		}
+
+		if (!contributionsKnown || changed == null) {
+			for (int i = 0; i < n; i++) {
+				contributionBuffer[i] = getIntervalContribution(intervals, i, absoluteStartTime, demographicFunction);
+			}
+			intervalContributions.setValues(contributionBuffer);
+			contributionsKnown = true;
+		} else {
+			for (int i = changed.getFirstInterval(); i <= changed.getLastInterval(); i++) {
+				intervalContributions.setValue(i, getIntervalContribution(intervals, i, absoluteStartTime, demographicFunction));
+			}
+		}
+
+		return intervalContributions.getTotal();
+	}
+
+	/**
+	 * The log likelihood contribution of a single interval (as summed in calculateLogLikelihood)
+	 */
+	private double getIntervalContribution(IntervalList intervals, int i, double absoluteStartTime,
+										   DemographicFunction demographicFunction) {
+		final double duration = intervals.getInterval(i);
+		final double startTime = intervals.getIntervalTime(i) - absoluteStartTime;
+		final double finishTime = startTime + duration;
+
+		final double intervalArea = demographicFunction.getIntegral(startTime, finishTime);
+		if( intervalArea == 0 && duration != 0 ) {
+			return Double.NEGATIVE_INFINITY;
+		}
+
+		double logL = -Binomial.choose2(intervals.getLineageCount(i)) * intervalArea;
+
+		if (intervals.getIntervalType(i) == IntervalType.COALESCENT) {
+			final double demographicAtCoalPoint = demographicFunction.getDemographic(finishTime);
+			if( duration == 0.0 || demographicAtCoalPoint * (intervalArea/duration) >= demographicFunction.getThreshold() ) {
+				logL -= Math.log(demographicAtCoalPoint);
+			} else {
+				return Double.NEGATIVE_INFINITY;
+			}
+		}
+		return logL;
+	}
+
 	protected double calculateLogLikelihood(PopulationSizeFunction populationSizeFunction) {
 
 		double logL = 0.0;
@@ -224,6 +314,43 @@ public final class CoalescentLikelihood extends AbstractCoalescentLikelihood imp
 	}
 
 
+	// **************************************************************
+	// Model IMPLEMENTATION
+	// **************************************************************
+
+	protected void handleModelChangedEvent(Model model, Object object, int index) {
+		super.handleModelChangedEvent(model, object, index);
+		if (model != getIntervalList()) {
+			contributionsKnown = false;
+		}
+	}
+
+	protected void storeState() {
+		super.storeState();
+		if (intervalStatistics != null) {
+			intervalStatistics.store();
+			intervalContributions.store();
+			storedContributionsKnown = contributionsKnown;
+		}
+	}
+
+	protected void restoreState() {
+		super.restoreState();
+		if (intervalStatistics != null) {
+			intervalStatistics.restore();
+			intervalContributions.restore();
+			contributionsKnown = storedContributionsKnown;
+		}
+	}
+
+	public void makeDirty() {
+		super.makeDirty();
+		if (intervalStatistics != null) {
+			intervalStatistics.makeDirty();
+			contributionsKnown = false;
+		}
+	}
+
 	public DemographicModel getDemoModel() {
 		return demographicModel;
 	}
@@ -296,4 +423,10 @@ public final class CoalescentLikelihood extends AbstractCoalescentLikelihood imp
 
 	private double[] coalescentEventStatisticValues;
 
+	private IncrementalIntervalStatistics intervalStatistics = null;
+	private IntervalSumTree intervalContributions;
+	private double[] contributionBuffer;
+	private boolean contributionsKnown = false;
+	private boolean storedContributionsKnown = false;
+
 }
\ No newline at end of file
@@ -29,6 +29,8 @@ package dr.evomodel.coalescent;
 
 import dr.evolution.coalescent.IntervalList;
 import dr.evolution.coalescent.IntervalType;
+import dr.evomodel.bigfasttree.BigFastTreeIntervals;
+import dr.evomodel.bigfasttree.IncrementalIntervalStatistics;
 import dr.evomodelxml.coalescent.GMRFSkyrideLikelihoodParser;
 import dr.inference.hmc.GradientWrtParameterProvider;
 import dr.inference.model.Likelihood;
@@ -65,6 +67,9 @@ public class GMRFSkygridLikelihood extends GMRFSkyrideLikelihood
     private double[] storedNumCoalEvents;
     private double[] gridPoints;
 
+    private IncrementalIntervalStatistics[] intervalStatistics = null;
+    private boolean intervalStatisticsChecked = false;
+
     // sortedPoints[i][0] is the time of the i-th grid point or sampling or coalescent event
     // sortedPoints[i][1] is 0 if the i-th point is a grid point, 1 if it's a sampling point, and 2 if it's a coalescent point
     // sortedPoints[i][2] is the number of lineages present in the interval starting at time sortedPoints[i][0]
@@ -500,6 +505,10 @@ public class GMRFSkygridLikelihood extends GMRFSkyrideLikelihood
 
     protected void setupSufficientStatistics() {
 
+        if (setupSufficientStatisticsIncrementally()) {
+            return;
+        }
+
         //numCoalEvents = new double[fieldLength];
         //sufficientStatistics = new double[fieldLength];
 
@@ -727,6 +736,108 @@ public class GMRFSkygridLikelihood extends GMRFSkyrideLikelihood
 
     }
 
+    /**
+     * Fills in the sufficient statistics from segment trees of the lineage-pair areas and coalescent events
+     * of each tree (see IncrementalIntervalStatistics) so each grid cell costs O(log n) and a node height
+     * change only updates the intervals it affects. Gives the same values as the traversal in
+     * setupSufficientStatistics().
+     * @return false if the intervals don't support this
+     */
+    private boolean setupSufficientStatisticsIncrementally() {
+        if (!intervalStatisticsChecked) {
+            intervalStatistics = new IncrementalIntervalStatistics[numTrees];
+            for (int i = 0; i < numTrees; i++) {
+                if (!IncrementalIntervalStatistics.isApplicable(intervalsList.get(i))) {
+                    intervalStatistics = null;
+                    break;
+                }
+                intervalStatistics[i] = new IncrementalIntervalStatistics((BigFastTreeIntervals) intervalsList.get(i));
+            }
+            intervalStatisticsChecked = true;
+        }
+
+        if (intervalStatistics == null || fieldLength != numGridPoints + 1) {
+            return false;
+        }
+        // the range of grid cells in which the traversal adds the ploidy terms for each tree
+        int[] firstPloidyCell = new int[numTrees];
+        int[] lastPloidyCell = new int[numTrees];
+        // the traversal only includes the final (root) interval if it spans the last grid point below the root
+        int[] rootIntervalCell = new int[numTrees];
+
+        for (int i = 0; i < numTrees; i++) {
+            double firstTime = intervalsList.get(i).getIntervalTime(0);
+            int minGridIndex = 0;
+            while (minGridIndex < numGridPoints - 1 && gridPoints[minGridIndex] <= firstTime) {
+                minGridIndex++;
+            }
+            double lastCoalescentTime = intervalsList.get(i).getTotalDuration();
+            int maxGridIndex = numGridPoints - 1;
+            while ((maxGridIndex >= 0) && (gridPoints[maxGridIndex] >= lastCoalescentTime)) {
+                maxGridIndex--;
+            }
+
+            int lastInterval = intervalsList.get(i).getIntervalCount() - 1;
+            if (maxGridIndex < 0 || intervalsList.get(i).getIntervalTime(lastInterval) >= gridPoints[maxGridIndex]) {
+                rootIntervalCell[i] = maxGridIndex + 1;
+            } else {
+                rootIntervalCell[i] = -1;
+            }
+
+            if (firstTime >= gridPoints[minGridIndex]) {
+                // sampling starts after the last grid point - leave this to the traversal
+                return false;
+            } else if (maxGridIndex < 0) {
+                // the tree doesn't overlap any grid points
+                firstPloidyCell[i] = minGridIndex;
+                lastPloidyCell[i] = minGridIndex;
+            } else if (minGridIndex <= maxGridIndex) {
+                firstPloidyCell[i] = minGridIndex;
+                lastPloidyCell[i] = maxGridIndex;
+            } else {
+                // the tree lies between two grid points other than the first - leave this to the traversal
+                return false;
+            }
+        }
+
+        Arrays.fill(numCoalEvents, 0);
+        Arrays.fill(sufficientStatistics, 0);
+        Arrays.fill(ploidySums, 0);
+
+        for (int i = 0; i < numTrees; i++) {
+            IncrementalIntervalStatistics statistics = intervalStatistics[i];
+            statistics.update();
+
+            double ploidyFactor = 1 / getPopulationFactor(i);
+            double logPloidyFactor = Math.log(ploidyFactor);
+
+            double from = Double.NEGATIVE_INFINITY;
+            for (int cell = 0; cell < fieldLength; cell++) {
+                double to = (cell < numGridPoints ? gridPoints[cell] : Double.POSITIVE_INFINITY);
+
+                numCoalEvents[cell] += statistics.getCoalescentEvents(from, to);
+                sufficientStatistics[cell] += statistics.getLineageArea(from, to) * ploidyFactor;
+
+                from = to;
+            }
+
+            if (rootIntervalCell[i] >= 0) {
+                IntervalList intervals = intervalsList.get(i);
+                int lastInterval = intervals.getIntervalCount() - 1;
+                int lineages = intervals.getLineageCount(lastInterval);
+                sufficientStatistics[rootIntervalCell[i]] -= intervals.getInterval(lastInterval) * lineages * (lineages - 1) * 0.5 * ploidyFactor;
+                numCoalEvents[rootIntervalCell[i]] -= intervals.getCoalescentEvents(lastInterval);
+            }
+
+            // as in the traversal this uses the coalescent events summed over the trees so far
+            for (int cell = firstPloidyCell[i]; cell <= lastPloidyCell[i]; cell++) {
+                ploidySums[cell] += logPloidyFactor * numCoalEvents[cell];
+            }
+        }
+
+        return true;
+    }
+
     public double[] getNumCoalEvents() {
         return numCoalEvents;
     }
@@ -959,6 +1070,11 @@ public class GMRFSkygridLikelihood extends GMRFSkyrideLikelihood
         System.arraycopy(numCoalEvents, 0, storedNumCoalEvents, 0, numCoalEvents.length);
         // storedPrecMatrix = precMatrix.copy();
         System.arraycopy(ploidySums, 0, storedPloidySums, 0, ploidySums.length);
+        if (intervalStatistics != null) {
+            for (IncrementalIntervalStatistics statistics : intervalStatistics) {
+                statistics.store();
+            }
+        }
     }
 
 
@@ -972,6 +1088,11 @@ public class GMRFSkygridLikelihood extends GMRFSkyrideLikelihood
         double[] tmp2 = ploidySums;
         ploidySums = storedPloidySums;
         storedPloidySums = tmp2;
+        if (intervalStatistics != null) {
+            for (IncrementalIntervalStatistics statistics : intervalStatistics) {
+                statistics.restore();
+            }
+        }
     }
 
     // Implementation of GradientWrtParameterProvider
@@ -69,6 +69,7 @@ public abstract class BaseSubstitutionModel extends AbstractModel
         // For a wrapper model (KroneckerSumSM), most computation is handled in the wrapped classes
         eigenSystem = null;
         q = null;
+        transitionMatrixCache = null;
     }
 
     public BaseSubstitutionModel(String name, DataType dataType, FrequencyModel freqModel) {
@@ -106,6 +107,15 @@ public abstract class BaseSubstitutionModel extends AbstractModel
         q = new double[stateCount][stateCount];
 
         updateMatrix = true;
+
+        int cacheSize = TransitionMatrixCache.getRequestedCacheSize();
+        if (cacheSize > 0) {
+            transitionMatrixCache = new TransitionMatrixCache(cacheSize);
+            addModelListener(transitionMatrixCache);
+            addModelRestoreListener(transitionMatrixCache);
+        } else {
+            transitionMatrixCache = null;
+        }
     }
 
     protected EigenSystem getDefaultEigenSystem(int stateCount) {
@@ -202,6 +212,14 @@ public abstract class BaseSubstitutionModel extends AbstractModel
     public void getTransitionProbabilities(double distance, double[] matrix) {
         double temp;
 
+        if (transitionMatrixCache != null) {
+            if (updateMatrix) {
+                transitionMatrixCache.invalidate();
+            } else if (transitionMatrixCache.get(distance, matrix)) {
+                return;
+            }
+        }
+
         EigenDecomposition eigen = getEigenDecomposition();
 
         if (eigen == null) {
@@ -235,6 +253,17 @@ public abstract class BaseSubstitutionModel extends AbstractModel
                 u++;
             }
         }
+
+        if (transitionMatrixCache != null) {
+            transitionMatrixCache.put(distance, matrix);
+        }
+    }
+
+    /**
+     * @return the cache of transition probability matrices (or null if caching is off)
+     */
+    public TransitionMatrixCache getTransitionMatrixCache() {
+        return transitionMatrixCache;
     }
 
     /**
@@ -413,6 +442,7 @@ public abstract class BaseSubstitutionModel extends AbstractModel
     }
 
     private final double q[][];
+    private final TransitionMatrixCache transitionMatrixCache;
     protected EigenDecomposition eigenDecomposition;
     private EigenDecomposition storedEigenDecomposition;
 
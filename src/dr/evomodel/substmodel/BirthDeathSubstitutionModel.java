@@ -30,6 +30,7 @@ package dr.evomodel.substmodel;
 import dr.evolution.datatype.DataType;
 import dr.inference.model.Bounds;
 import dr.inference.model.Parameter;
+import dr.math.matrixAlgebra.CompressedSparseRowMatrix;
 import dr.math.matrixAlgebra.WrappedMatrix;
 
 import java.util.List;
@@ -37,7 +38,8 @@ import java.util.List;
 /**
  * @author Marc Suchard
  */
-public class BirthDeathSubstitutionModel extends ComplexSubstitutionModelAtStationarity {
+public class BirthDeathSubstitutionModel extends ComplexSubstitutionModelAtStationarity
+        implements SparseInfinitesimalMatrixProvider {
 
     private final List<Parameter> parameters;
     private final BirthDeathParameterization parameterization;
@@ -101,6 +103,31 @@ public class BirthDeathSubstitutionModel extends ComplexSubstitutionModelAtStati
         return 1.0;
     }
 
+    @Override
+    public CompressedSparseRowMatrix getSparseInfinitesimalMatrix() {
+
+        final double[] perCapitaRate = getRates();
+
+        // the diagonal entries are accumulated from each off-diagonal rate
+        final int entryCount = 4 * (stateCount - 1);
+        int[] rows = new int[entryCount];
+        int[] columns = new int[entryCount];
+        double[] values = new double[entryCount];
+
+        int k = 0;
+        for (int i = 1; i < stateCount; i++) {
+            final double birth = parameterization.birthRate(i, perCapitaRate);
+            final double death = parameterization.deathRate(i + 1, perCapitaRate);
+
+            rows[k] = i - 1; columns[k] = i; values[k++] = birth;
+            rows[k] = i - 1; columns[k] = i - 1; values[k++] = -birth;
+            rows[k] = i; columns[k] = i - 1; values[k++] = death;
+            rows[k] = i; columns[k] = i; values[k++] = -death;
+        }
+
+        return new CompressedSparseRowMatrix(stateCount, rows, columns, values, entryCount);
+    }
+
     @Override
     public double getLogLikelihood() {
         return 0.0;
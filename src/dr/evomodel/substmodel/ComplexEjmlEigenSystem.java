@@ -0,0 +1,54 @@
+/*
+ * ComplexEjmlEigenSystem.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.evomodel.substmodel;
+
+/**
+ * An EJML eigen system for irreversible models that may have complex conjugate eigenvalues.
+ * The eigenvalues and eigenvectors are in the same block form as ComplexColtEigenSystem.
+ */
+public class ComplexEjmlEigenSystem extends EjmlEigenSystem {
+
+    public ComplexEjmlEigenSystem(int stateCount) {
+        super(stateCount);
+    }
+
+    public ComplexEjmlEigenSystem(int stateCount, boolean checkConditioning, int maxConditionNumber, int maxIterations) {
+        super(stateCount, checkConditioning, maxConditionNumber, maxIterations);
+    }
+
+    @Override
+    protected ColtEigenSystem createFallbackSystem(int stateCount, boolean checkConditioning,
+                                                   int maxConditionNumber, int maxIterations) {
+        return new ComplexColtEigenSystem(stateCount, checkConditioning, maxConditionNumber, maxIterations);
+    }
+
+    @Override
+    protected boolean allowsComplexEigenValues() {
+        return true;
+    }
+}
@@ -50,7 +50,12 @@ import java.util.*;
 public class ComplexSubstitutionModel extends GeneralSubstitutionModel implements Likelihood, Citable {
 
     public ComplexSubstitutionModel(String name, DataType dataType, FrequencyModel freqModel, Parameter parameter) {
-        super(name, dataType, freqModel, parameter, -1);
+        this(name, dataType, freqModel, parameter, null);
+    }
+
+    public ComplexSubstitutionModel(String name, DataType dataType, FrequencyModel freqModel, Parameter parameter,
+                                    EigenSystem eigenSystem) {
+        super(name, dataType, freqModel, parameter, -1, eigenSystem);
         probability = new double[stateCount * stateCount];
     }
 
@@ -47,7 +47,12 @@ import java.util.*;
 public class ComplexSubstitutionModelAtStationarity extends ComplexSubstitutionModel {
 
     public ComplexSubstitutionModelAtStationarity(String name, DataType dataType, Parameter parameter) {
-        super(name, dataType, null, parameter);
+        this(name, dataType, parameter, null);
+    }
+
+    public ComplexSubstitutionModelAtStationarity(String name, DataType dataType, Parameter parameter,
+                                                  EigenSystem eigenSystem) {
+        super(name, dataType, null, parameter, eigenSystem);
 
         stationaryDistribution = new double[stateCount];
         storedStationaryDistribution = new double[stateCount];
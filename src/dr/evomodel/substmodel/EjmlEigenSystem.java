@@ -0,0 +1,426 @@
+/*
+ * EjmlEigenSystem.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.evomodel.substmodel;
+
+import org.ejml.alg.dense.decomposition.hessenberg.HessenbergSimilarDecomposition_D64;
+import org.ejml.data.Complex64F;
+import org.ejml.data.DenseMatrix64F;
+import org.ejml.factory.DecompositionFactory;
+import org.ejml.factory.LinearSolverFactory;
+import org.ejml.interfaces.linsol.LinearSolver;
+import org.ejml.ops.NormOps;
+
+/**
+ * An eigen system for general (non-symmetric) rate matrices using EJML. The decomposer, the
+ * Hessenberg reduction and the linear solver are created once and reused so repeated
+ * decompositions of the same sized matrix don't allocate workspaces.
+ *
+ * EJML finds the eigenvalues and each eigenvector is then found by inverse iteration on the
+ * Hessenberg form of the matrix, which is O(n^2) per eigenvector rather than the O(n^3) of
+ * EJML's own eigenvectors (which are also only given for real eigenvalues). For a complex
+ * conjugate pair the real and imaginary parts of the eigenvector make up the two columns for
+ * the pair giving the same real block diagonal form as ComplexColtEigenSystem. Repeated
+ * eigenvalues (e.g., equal rates) give a singular set of eigenvectors and are left to the
+ * fallback.
+ *
+ * The last two matrices decomposed are remembered so restoring a model after a rejected move
+ * finds its decomposition without recomputing it. If the decomposition fails or the
+ * eigenvectors are too badly conditioned this falls back to ColtEigenSystem.
+ */
+public class EjmlEigenSystem implements EigenSystem {
+
+    public EjmlEigenSystem(int stateCount) {
+        this(stateCount, ColtEigenSystem.defaultCheckConditioning, ColtEigenSystem.defaultMaxConditionNumber,
+                ColtEigenSystem.defaultMaxIterations);
+    }
+
+    public EjmlEigenSystem(int stateCount, boolean checkConditioning, int maxConditionNumber, int maxIterations) {
+        this.stateCount = stateCount;
+        this.checkConditioning = checkConditioning;
+        this.maxConditionNumber = maxConditionNumber;
+        this.fallback = createFallbackSystem(stateCount, checkConditioning, maxConditionNumber, maxIterations);
+    }
+
+    /**
+     * @return the eigen system used if this one fails to decompose a matrix
+     */
+    protected ColtEigenSystem createFallbackSystem(int stateCount, boolean checkConditioning,
+                                                   int maxConditionNumber, int maxIterations) {
+        return new ColtEigenSystem(stateCount, checkConditioning, maxConditionNumber, maxIterations);
+    }
+
+    /**
+     * @return true if complex conjugate eigenvalues can be returned (as a second half of the
+     *         eigenvalue array holding the imaginary parts)
+     */
+    protected boolean allowsComplexEigenValues() {
+        return false;
+    }
+
+    public synchronized EigenDecomposition decomposeMatrix(double[][] matrix) {
+
+        final int dim = matrix.length;
+
+        for (CachedDecomposition cached : cache) {
+            if (cached != null && cached.matches(matrix)) {
+                // the caller may normalize the eigenvalues in place so return a copy
+                return cached.decomposition.copy();
+            }
+        }
+
+        EigenDecomposition decomposition = decompose(matrix, dim);
+        if (decomposition == null) {
+            decomposition = fallback.decomposeMatrix(matrix);
+        }
+
+        CachedDecomposition oldest = cache[cache.length - 1];
+        System.arraycopy(cache, 0, cache, 1, cache.length - 1);
+        cache[0] = (oldest != null && oldest.matrix.length == dim * dim) ? oldest : new CachedDecomposition(dim);
+        cache[0].set(matrix, decomposition);
+
+        return decomposition.copy();
+    }
+
+    /**
+     * @return the decomposition or null if it fails or is too poorly conditioned
+     */
+    private EigenDecomposition decompose(double[][] matrix, int dim) {
+        setupWorkspace(dim);
+
+        for (int i = 0; i < dim; i++) {
+            System.arraycopy(matrix[i], 0, A.data, i * dim, dim);
+        }
+
+        if (!eigen.decompose(A)) {
+            return null;
+        }
+
+        double[] realEval = new double[dim];
+        double[] imagEval = new double[dim];
+        boolean hasComplex = false;
+        for (int i = 0; i < dim; i++) {
+            Complex64F value = eigen.getEigenvalue(i);
+            realEval[i] = value.getReal();
+            imagEval[i] = value.getImaginary();
+            if (imagEval[i] != 0.0) {
+                hasComplex = true;
+            }
+        }
+        if (hasComplex && !allowsComplexEigenValues()) {
+            return null;
+        }
+
+        for (int i = 0; i < dim; i++) {
+            System.arraycopy(matrix[i], 0, A.data, i * dim, dim);
+        }
+        if (!hessenberg.decompose(A)) {
+            return null;
+        }
+        hessenberg.getH(H);
+        hessenberg.getQ(Q);
+
+        for (int k = 0; k < dim; k++) {
+            boolean pair = imagEval[k] != 0.0;
+            if (pair) {
+                // a conjugate pair - make sure the positive imaginary part is first
+                if (k + 1 >= dim || imagEval[k + 1] != -imagEval[k]) {
+                    return null;
+                }
+                if (imagEval[k] < 0.0) {
+                    imagEval[k] = -imagEval[k];
+                    imagEval[k + 1] = -imagEval[k + 1];
+                }
+            }
+            if (!findEigenVector(dim, realEval[k], imagEval[k])) {
+                return null;
+            }
+            // eigenvector of A = Q * eigenvector of H
+            for (int i = 0; i < dim; i++) {
+                double re = 0.0;
+                double im = 0.0;
+                for (int j = 0; j < dim; j++) {
+                    double q = Q.unsafe_get(i, j);
+                    re += q * vectorReal[j];
+                    im += q * vectorImag[j];
+                }
+                V.unsafe_set(i, k, re);
+                if (pair) {
+                    V.unsafe_set(i, k + 1, im);
+                }
+            }
+            if (pair) {
+                k++; // processed both columns of the pair
+            }
+        }
+
+        if (!solver.setA(V)) {
+            return null;
+        }
+        solver.invert(Vinv);
+        for (int i = 0; i < Vinv.data.length; i++) {
+            if (Double.isNaN(Vinv.data[i]) || Double.isInfinite(Vinv.data[i])) {
+                // the eigenvectors are singular
+                return null;
+            }
+        }
+
+        if (checkConditioning) {
+            // the 1-norm condition number is cheap once the inverse is known
+            double condition = NormOps.normP1(V) * NormOps.normP1(Vinv);
+            if (Double.isNaN(condition) || condition > maxConditionNumber) {
+                return null;
+            }
+        }
+
+        double[] eval;
+        if (allowsComplexEigenValues()) {
+            eval = new double[2 * dim];
+            System.arraycopy(realEval, 0, eval, 0, dim);
+            System.arraycopy(imagEval, 0, eval, dim, dim);
+        } else {
+            eval = realEval;
+        }
+
+        if (checkConditioning) {
+            for (int i = 0; i < eval.length; i++) {
+                if (Double.isNaN(eval[i]) || Double.isInfinite(eval[i])) {
+                    return null;
+                } else if (Math.abs(eval[i]) < 1e-10) {
+                    eval[i] = 0.0;
+                }
+            }
+        }
+
+        return new EigenDecomposition(V.data.clone(), Vinv.data.clone(), eval);
+    }
+
+    /**
+     * Inverse iteration for the eigenvector of the Hessenberg matrix H with the eigenvalue
+     * a + bi (b may be zero). (H - (a + bi)I) is factorised once by Gaussian elimination with pivoting between
+     * adjacent rows, which keeps it O(n^2). The result is left in vectorReal/vectorImag.
+     */
+    private boolean findEigenVector(int dim, double a, double b) {
+        double norm = NormOps.normP1(H);
+        double small = Math.max(norm, 1.0) * 1E-14;
+
+        // M = H - (a + bi)I
+        for (int i = 0; i < dim; i++) {
+            for (int j = 0; j < dim; j++) {
+                mReal[i][j] = H.unsafe_get(i, j);
+                mImag[i][j] = 0.0;
+            }
+            mReal[i][i] -= a;
+            mImag[i][i] -= b;
+        }
+
+        // factorise
+        for (int k = 0; k < dim - 1; k++) {
+            swapped[k] = abs(mReal[k + 1][k], mImag[k + 1][k]) > abs(mReal[k][k], mImag[k][k]);
+            if (swapped[k]) {
+                double[] tmp = mReal[k];
+                mReal[k] = mReal[k + 1];
+                mReal[k + 1] = tmp;
+                tmp = mImag[k];
+                mImag[k] = mImag[k + 1];
+                mImag[k + 1] = tmp;
+            }
+            if (abs(mReal[k][k], mImag[k][k]) < small) {
+                mReal[k][k] = small;
+                mImag[k][k] = 0.0;
+            }
+            // l = M[k+1][k] / M[k][k]
+            double denominator = mReal[k][k] * mReal[k][k] + mImag[k][k] * mImag[k][k];
+            double lReal = (mReal[k + 1][k] * mReal[k][k] + mImag[k + 1][k] * mImag[k][k]) / denominator;
+            double lImag = (mImag[k + 1][k] * mReal[k][k] - mReal[k + 1][k] * mImag[k][k]) / denominator;
+            multiplierReal[k] = lReal;
+            multiplierImag[k] = lImag;
+            for (int j = k; j < dim; j++) {
+                double re = mReal[k][j];
+                double im = mImag[k][j];
+                mReal[k + 1][j] -= lReal * re - lImag * im;
+                mImag[k + 1][j] -= lReal * im + lImag * re;
+            }
+        }
+        if (abs(mReal[dim - 1][dim - 1], mImag[dim - 1][dim - 1]) < small) {
+            mReal[dim - 1][dim - 1] = small;
+            mImag[dim - 1][dim - 1] = 0.0;
+        }
+
+        for (int i = 0; i < dim; i++) {
+            vectorReal[i] = 1.0;
+            vectorImag[i] = 0.0;
+        }
+
+        for (int iteration = 0; iteration < INVERSE_ITERATIONS; iteration++) {
+            // forward elimination of the right hand side
+            for (int k = 0; k < dim - 1; k++) {
+                if (swapped[k]) {
+                    double tmp = vectorReal[k];
+                    vectorReal[k] = vectorReal[k + 1];
+                    vectorReal[k + 1] = tmp;
+                    tmp = vectorImag[k];
+                    vectorImag[k] = vectorImag[k + 1];
+                    vectorImag[k + 1] = tmp;
+                }
+                double re = vectorReal[k];
+                double im = vectorImag[k];
+                vectorReal[k + 1] -= multiplierReal[k] * re - multiplierImag[k] * im;
+                vectorImag[k + 1] -= multiplierReal[k] * im + multiplierImag[k] * re;
+            }
+
+            // back substitution
+            for (int i = dim - 1; i >= 0; i--) {
+                double re = vectorReal[i];
+                double im = vectorImag[i];
+                for (int j = i + 1; j < dim; j++) {
+                    re -= mReal[i][j] * vectorReal[j] - mImag[i][j] * vectorImag[j];
+                    im -= mReal[i][j] * vectorImag[j] + mImag[i][j] * vectorReal[j];
+                }
+                double denominator = mReal[i][i] * mReal[i][i] + mImag[i][i] * mImag[i][i];
+                vectorReal[i] = (re * mReal[i][i] + im * mImag[i][i]) / denominator;
+                vectorImag[i] = (im * mReal[i][i] - re * mImag[i][i]) / denominator;
+            }
+
+            // scale so the largest element is 1 + 0i
+            int largest = 0;
+            double max = 0.0;
+            for (int i = 0; i < dim; i++) {
+                double value = abs(vectorReal[i], vectorImag[i]);
+                if (value > max) {
+                    max = value;
+                    largest = i;
+                }
+            }
+            if (!(max > 0.0) || Double.isInfinite(max)) {
+                return false;
+            }
+            double denominator = vectorReal[largest] * vectorReal[largest] + vectorImag[largest] * vectorImag[largest];
+            double sReal = vectorReal[largest] / denominator;
+            double sImag = -vectorImag[largest] / denominator;
+            for (int i = 0; i < dim; i++) {
+                double re = vectorReal[i];
+                double im = vectorImag[i];
+                vectorReal[i] = re * sReal - im * sImag;
+                vectorImag[i] = re * sImag + im * sReal;
+            }
+        }
+        return true;
+    }
+
+    private static double abs(double re, double im) {
+        return Math.abs(re) + Math.abs(im);
+    }
+
+    private void setupWorkspace(int dim) {
+        if (A != null && A.numRows == dim) {
+            return;
+        }
+        A = new DenseMatrix64F(dim, dim);
+        H = new DenseMatrix64F(dim, dim);
+        Q = new DenseMatrix64F(dim, dim);
+        V = new DenseMatrix64F(dim, dim);
+        Vinv = new DenseMatrix64F(dim, dim);
+        eigen = DecompositionFactory.eig(dim, false);
+        hessenberg = new HessenbergSimilarDecomposition_D64(dim);
+        solver = LinearSolverFactory.linear(dim);
+        mReal = new double[dim][dim];
+        mImag = new double[dim][dim];
+        multiplierReal = new double[dim];
+        multiplierImag = new double[dim];
+        swapped = new boolean[dim];
+        vectorReal = new double[dim];
+        vectorImag = new double[dim];
+    }
+
+    public double computeExponential(EigenDecomposition ed, double time, int i, int j) {
+        return fallback.computeExponential(ed, time, i, j);
+    }
+
+    public void computeExponential(EigenDecomposition ed, double time, double[] matrix) {
+        fallback.computeExponential(ed, time, matrix);
+    }
+
+    private static final class CachedDecomposition {
+        CachedDecomposition(int dim) {
+            this.matrix = new double[dim * dim];
+        }
+
+        boolean matches(double[][] other) {
+            final int dim = other.length;
+            if (matrix.length != dim * dim) {
+                return false;
+            }
+            for (int i = 0; i < dim; i++) {
+                for (int j = 0; j < dim; j++) {
+                    if (matrix[i * dim + j] != other[i][j]) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        void set(double[][] other, EigenDecomposition decomposition) {
+            final int dim = other.length;
+            for (int i = 0; i < dim; i++) {
+                System.arraycopy(other[i], 0, matrix, i * dim, dim);
+            }
+            this.decomposition = decomposition.copy();
+        }
+
+        private final double[] matrix;
+        private EigenDecomposition decomposition;
+    }
+
+    private static final int INVERSE_ITERATIONS = 2;
+    private static final int CACHE_SIZE = 2;
+
+    protected final int stateCount;
+    private final boolean checkConditioning;
+    private final int maxConditionNumber;
+    private final ColtEigenSystem fallback;
+
+    private final CachedDecomposition[] cache = new CachedDecomposition[CACHE_SIZE];
+
+    private transient DenseMatrix64F A;
+    private transient DenseMatrix64F H;
+    private transient DenseMatrix64F Q;
+    private transient DenseMatrix64F V;
+    private transient DenseMatrix64F Vinv;
+    private transient org.ejml.interfaces.decomposition.EigenDecomposition<DenseMatrix64F> eigen;
+    private transient HessenbergSimilarDecomposition_D64 hessenberg;
+    private transient LinearSolver<DenseMatrix64F> solver;
+
+    private transient double[][] mReal;
+    private transient double[][] mImag;
+    private transient double[] multiplierReal;
+    private transient double[] multiplierImag;
+    private transient boolean[] swapped;
+    private transient double[] vectorReal;
+    private transient double[] vectorImag;
+}
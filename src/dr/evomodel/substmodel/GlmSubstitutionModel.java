@@ -50,11 +50,22 @@ public class GlmSubstitutionModel extends ComplexSubstitutionModel
 
     public GlmSubstitutionModel(String name, DataType dataType, FrequencyModel rootFreqModel,
                                 LogAdditiveCtmcRateProvider glm) {
+        this(name, dataType, rootFreqModel, glm, false);
+    }
+
+    /**
+     * @param useEjml use an EJML eigen decomposition rather than Colt (each model has its own
+     *                as it caches recent decompositions)
+     */
+    public GlmSubstitutionModel(String name, DataType dataType, FrequencyModel rootFreqModel,
+                                LogAdditiveCtmcRateProvider glm, boolean useEjml) {
 
-        super(name, dataType, rootFreqModel, null);
+        super(name, dataType, rootFreqModel, null,
+                useEjml ? new ComplexEjmlEigenSystem(dataType.getStateCount()) : null);
         this.glm = glm;
         addModel(glm);
         testProbabilities = new double[stateCount*stateCount];
+        this.useEjml = useEjml;
 
     }
 
@@ -125,12 +136,13 @@ public class GlmSubstitutionModel extends ComplexSubstitutionModel
 
     private final LogAdditiveCtmcRateProvider glm;
     private final double[] testProbabilities;
+    private final boolean useEjml;
 
     @Override
     public ParameterReplaceableSubstitutionModel factory(List<Parameter> oldParameters, List<Parameter> newParameters) {
 
         LogLinearModel newGLM = ((LogLinearModel)glm).factory(oldParameters, newParameters);
-        return new GlmSubstitutionModel(getModelName(), dataType, freqModel, newGLM);
+        return new GlmSubstitutionModel(getModelName(), dataType, freqModel, newGLM, useEjml);
     }
 
     @Override
@@ -41,7 +41,13 @@ public class SVSComplexSubstitutionModel extends ComplexSubstitutionModel implem
 
     public SVSComplexSubstitutionModel(String name, DataType dataType, FrequencyModel freqModel,
                                        Parameter ratesParameter, Parameter indicatorsParameter) {
-        super(name, dataType, freqModel, ratesParameter);
+        this(name, dataType, freqModel, ratesParameter, indicatorsParameter, null);
+    }
+
+    public SVSComplexSubstitutionModel(String name, DataType dataType, FrequencyModel freqModel,
+                                       Parameter ratesParameter, Parameter indicatorsParameter,
+                                       EigenSystem eigenSystem) {
+        super(name, dataType, freqModel, ratesParameter, eigenSystem);
 
         if (indicatorsParameter == null) {
             this.indicatorsParameter = new Parameter.Default(ratesParameter.getDimension(), 1.0);
@@ -0,0 +1,157 @@
+/*
+ * SparseTransitionProbabilities.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.evomodel.substmodel;
+
+import dr.inference.model.AbstractModel;
+import dr.inference.model.Model;
+import dr.inference.model.ModelListener;
+import dr.math.SparseMatrixExponential;
+import dr.math.matrixAlgebra.CompressedSparseRowMatrix;
+
+/**
+ * Applies the transition probabilities of a substitution model to vectors without forming the
+ * dense matrix P(t) = exp(tQ). The infinitesimal matrix is held in compressed sparse row form
+ * and exponentiated against each vector with SparseMatrixExponential, so the cost of each
+ * propagation scales with the number of non-zero rates rather than the square of the state
+ * count. This suits large, sparse state spaces (e.g., birth-death or stepwise models over counts,
+ * or products of small chains) where neither the eigen decomposition nor P(t) is affordable.
+ *
+ * The sparse matrix is rebuilt lazily after the model changes. Models that implement
+ * SparseInfinitesimalMatrixProvider supply it directly; for any other model the dense
+ * infinitesimal matrix is requested and compressed, which costs O(stateCount^2) per rebuild.
+ */
+public class SparseTransitionProbabilities implements ModelListener {
+
+    public SparseTransitionProbabilities(SubstitutionModel substitutionModel) {
+        this.substitutionModel = substitutionModel;
+        this.stateCount = substitutionModel.getDataType().getStateCount();
+        this.inVector = new double[stateCount];
+        this.outVector = new double[stateCount];
+
+        substitutionModel.addModelListener(this);
+        if (substitutionModel instanceof AbstractModel) {
+            ((AbstractModel) substitutionModel).addModelRestoreListener(this);
+        }
+    }
+
+    /**
+     * Computes the partial likelihoods at the top of a branch from those at the bottom,
+     * parent[i] = sum_j P_ij(distance) child[j].
+     *
+     * @param distance       the expected number of substitutions along the branch
+     * @param childPartials  partials at the bottom of the branch
+     * @param childOffset    offset of the state vector in childPartials
+     * @param parentPartials array to receive the partials at the top of the branch
+     * @param parentOffset   offset of the state vector in parentPartials
+     */
+    public void getPartials(double distance, double[] childPartials, int childOffset,
+                            double[] parentPartials, int parentOffset) {
+        System.arraycopy(childPartials, childOffset, inVector, 0, stateCount);
+        getExponential().expmv(distance, inVector, outVector);
+        System.arraycopy(outVector, 0, parentPartials, parentOffset, stateCount);
+    }
+
+    /**
+     * Evolves a distribution over states forward in time, out[j] = sum_i in[i] P_ij(distance).
+     */
+    public void getProbabilities(double distance, double[] distribution, double[] out) {
+        getTransposedExponential().expmv(distance, distribution, out);
+    }
+
+    /**
+     * @return P_ij(distance), computed as one sparse matrix-vector exponential
+     */
+    public double getTransitionProbability(int i, int j, double distance) {
+        return getExponential().getExponentialEntry(j, i, distance);
+    }
+
+    public SparseMatrixExponential getExponential() {
+        update();
+        return exponential;
+    }
+
+    public SparseMatrixExponential getTransposedExponential() {
+        update();
+        if (transposedExponential == null) {
+            transposedExponential = new SparseMatrixExponential(exponential.getMatrix().transpose());
+        } else if (transposeStale) {
+            transposedExponential.setMatrix(exponential.getMatrix().transpose());
+        }
+        transposeStale = false;
+        return transposedExponential;
+    }
+
+    private void update() {
+        if (matrixKnown) {
+            return;
+        }
+        CompressedSparseRowMatrix matrix;
+        if (substitutionModel instanceof SparseInfinitesimalMatrixProvider) {
+            matrix = ((SparseInfinitesimalMatrixProvider) substitutionModel).getSparseInfinitesimalMatrix();
+        } else {
+            if (rates == null) {
+                rates = new double[stateCount * stateCount];
+            }
+            substitutionModel.getInfinitesimalMatrix(rates);
+            matrix = CompressedSparseRowMatrix.fromDense(rates, stateCount);
+        }
+        if (exponential == null) {
+            exponential = new SparseMatrixExponential(matrix);
+        } else {
+            exponential.setMatrix(matrix);
+        }
+        transposeStale = true;
+        matrixKnown = true;
+    }
+
+    // **************************************************************
+    // ModelListener IMPLEMENTATION
+    // **************************************************************
+
+    @Override
+    public void modelChangedEvent(Model model, Object object, int index) {
+        matrixKnown = false;
+    }
+
+    @Override
+    public void modelRestored(Model model) {
+        matrixKnown = false;
+    }
+
+    private final SubstitutionModel substitutionModel;
+    private final int stateCount;
+    private final double[] inVector;
+    private final double[] outVector;
+
+    private double[] rates;
+
+    private SparseMatrixExponential exponential;
+    private SparseMatrixExponential transposedExponential;
+    private boolean matrixKnown = false;
+    private boolean transposeStale = true;
+}
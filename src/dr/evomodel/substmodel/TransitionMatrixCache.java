@@ -0,0 +1,208 @@
+/*
+ * TransitionMatrixCache.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.evomodel.substmodel;
+
+import dr.inference.model.Model;
+import dr.inference.model.ModelListener;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, least recently used cache of transition probability matrices for a substitution
+ * model. Matrices are keyed on the distance (branch length times the rate of the category) and
+ * are only valid for the current eigen system - any change to the model moves the cache on to a
+ * new version and the old matrices age out. This pays off when many branches share a length
+ * (e.g., zero length or clamped tips) and when proposals leave the substitution model unchanged.
+ *
+ * Looking up a matrix costs more than computing a small one that isn't there, so this is off by
+ * default and turned on by setting the system property 'beast.transition.cache.size' to the number
+ * of matrices to hold (e.g., a few hundred).
+ */
+public class TransitionMatrixCache implements ModelListener {
+
+    public static final String CACHE_SIZE_PROPERTY = "beast.transition.cache.size";
+    public static final int DEFAULT_CACHE_SIZE = 0;
+
+    /**
+     * @return the size of cache requested in the system properties (0 if disabled)
+     */
+    public static int getRequestedCacheSize() {
+        return Math.max(0, Integer.getInteger(CACHE_SIZE_PROPERTY, DEFAULT_CACHE_SIZE));
+    }
+
+    public TransitionMatrixCache(final int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("The transition matrix cache must have a size of at least 1");
+        }
+        this.maxSize = maxSize;
+        this.matrices = new LinkedHashMap<Key, double[]>(16, 0.75f, true);
+    }
+
+    /**
+     * Copies a matrix for the given distance from the cache if one is held.
+     *
+     * @param distance the expected number of substitutions
+     * @param matrix   an array to copy the matrix into
+     * @return true if the matrix was found
+     */
+    public synchronized boolean get(double distance, double[] matrix) {
+        double[] cached = matrices.get(new Key(version, distance));
+        if (cached == null) {
+            missCount++;
+            return false;
+        }
+        System.arraycopy(cached, 0, matrix, 0, cached.length);
+        hitCount++;
+        return true;
+    }
+
+    /**
+     * Stores a copy of a matrix computed with the current eigen system.
+     *
+     * @param distance the expected number of substitutions
+     * @param matrix   the transition probability matrix
+     */
+    public synchronized void put(double distance, double[] matrix) {
+        double[] copy = null;
+        if (matrices.size() >= maxSize) {
+            // evict the least recently used and reuse its array
+            Iterator<Map.Entry<Key, double[]>> iterator = matrices.entrySet().iterator();
+            copy = iterator.next().getValue();
+            iterator.remove();
+            evictionCount++;
+        }
+        if (copy == null || copy.length != matrix.length) {
+            copy = new double[matrix.length];
+        }
+        System.arraycopy(matrix, 0, copy, 0, matrix.length);
+        matrices.put(new Key(version, distance), copy);
+    }
+
+    /**
+     * Invalidates all the cached matrices, for example when the rate matrix has changed.
+     */
+    public synchronized void invalidate() {
+        version++;
+    }
+
+    public synchronized void clear() {
+        matrices.clear();
+        version++;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public synchronized int getSize() {
+        return matrices.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * @return the proportion of requests found in the cache (NaN if none have been made)
+     */
+    public synchronized double getHitRate() {
+        long total = hitCount + missCount;
+        return total > 0 ? (double) hitCount / total : Double.NaN;
+    }
+
+    public synchronized String toString() {
+        return "transition matrix cache: " + hitCount + " hits, " + missCount + " misses (hit rate = " +
+                String.format("%.3f", getHitRate()) + "), " + evictionCount + " evictions";
+    }
+
+    // **************************************************************
+    // ModelListener IMPLEMENTATION
+    // **************************************************************
+
+    @Override
+    public synchronized void modelChangedEvent(Model model, Object object, int index) {
+        version++;
+        changedSinceRestore = true;
+    }
+
+    @Override
+    public synchronized void modelRestored(Model model) {
+        // all models are restored after a rejected move but the matrices only need to be
+        // invalidated if this model was changed by it
+        if (changedSinceRestore) {
+            version++;
+            changedSinceRestore = false;
+        }
+    }
+
+    private static final class Key {
+        Key(long version, double distance) {
+            this.version = version;
+            this.distance = distance;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return version == key.version &&
+                    Double.doubleToLongBits(distance) == Double.doubleToLongBits(key.distance);
+        }
+
+        @Override
+        public int hashCode() {
+            long bits = Double.doubleToLongBits(distance);
+            return 31 * (int) (version ^ (version >>> 32)) + (int) (bits ^ (bits >>> 32));
+        }
+
+        private final long version;
+        private final double distance;
+    }
+
+    private final int maxSize;
+    private final LinkedHashMap<Key, double[]> matrices;
+
+    private long version = 0;
+    private boolean changedSinceRestore = false;
+
+    private long hitCount = 0;
+    private long missCount = 0;
+    private long evictionCount = 0;
+}
@@ -30,6 +30,11 @@ package dr.evomodel.tree;
 import dr.evolution.tree.*;
 import dr.evolution.util.Taxon;
 import dr.inference.model.*;
+import dr.inference.parallel.RemoteSerializable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -42,7 +47,7 @@ import java.util.Map;
  * @author Andrew Rambaut
  * @author Alexei Drummond
  */
-public class DefaultTreeModel extends TreeModel {
+public class DefaultTreeModel extends TreeModel implements RemoteSerializable {
 
     //
     // Public stuff
@@ -52,6 +57,12 @@ public class DefaultTreeModel extends TreeModel {
 
     private static final boolean TEST_NODE_BOUNDS = false;
 
+    // record the nodes touched after a storeState and roll back only those on restoreState,
+    // rather than copying the whole node structure on every store (-Dbeast.tree.journal=false
+    // goes back to copying)
+    private static final boolean JOURNAL_STORE_RESTORE =
+            Boolean.parseBoolean(System.getProperty("beast.tree.journal", "true"));
+
     public DefaultTreeModel(String name) {
         super(name, true);
         nodeCount = 0;
@@ -98,7 +109,9 @@ public class DefaultTreeModel extends TreeModel {
         nodeCount = internalNodeCount + externalNodeCount;
 
         nodes = new Node[nodeCount];
-        storedNodes = new Node[nodeCount];
+        if (!JOURNAL_STORE_RESTORE) {
+            storedNodes = new Node[nodeCount];
+        }
 
         int i = 0;
         int j = externalNodeCount;
@@ -112,22 +125,39 @@ public class DefaultTreeModel extends TreeModel {
                 node.number = i;
 
                 nodes[i] = node;
-                storedNodes[i] = new Node();
-                storedNodes[i].taxon = node.taxon;
-                storedNodes[i].number = i;
+                if (!JOURNAL_STORE_RESTORE) {
+                    storedNodes[i] = new Node();
+                    storedNodes[i].taxon = node.taxon;
+                    storedNodes[i].number = i;
+                }
 
                 i++;
             } else {
                 node.number = j;
 
                 nodes[j] = node;
-                storedNodes[j] = new Node();
-                storedNodes[j].number = j;
+                if (!JOURNAL_STORE_RESTORE) {
+                    storedNodes[j] = new Node();
+                    storedNodes[j].number = j;
+                }
 
                 j++;
             }
         } while (node != root);
 
+        if (JOURNAL_STORE_RESTORE) {
+            journal = new int[nodeCount];
+            journaled = new boolean[nodeCount];
+            storedParents = new Node[nodeCount];
+            storedLeftChildren = new Node[nodeCount];
+            storedRightChildren = new Node[nodeCount];
+            storedHeightParameters = new Parameter[nodeCount];
+            storedRateParameters = new Parameter[nodeCount];
+            @SuppressWarnings("unchecked")
+            Map<String, Parameter>[] traitParameters = new Map[nodeCount];
+            storedTraitParameters = traitParameters;
+        }
+
         // must be done here to allow programmatic running of BEAST
         setupHeightBounds();
     }
@@ -479,7 +509,11 @@ public class DefaultTreeModel extends TreeModel {
      */
     protected void storeState() {
 
-        copyNodeStructure(storedNodes);
+        if (JOURNAL_STORE_RESTORE) {
+            clearJournal();
+        } else {
+            copyNodeStructure(storedNodes);
+        }
         storedRootNumber = root.getNumber();
 
     }
@@ -489,9 +523,26 @@ public class DefaultTreeModel extends TreeModel {
      */
     protected void restoreState() {
 
-        Node[] tmp = storedNodes;
-        storedNodes = nodes;
-        nodes = tmp;
+        if (JOURNAL_STORE_RESTORE) {
+            for (int i = 0; i < journalSize; i++) {
+                final int n = journal[i];
+                final Node node = nodes[n];
+
+                // the parameter values are automatically stored and restored
+                // just need to put back the links
+                node.parent = storedParents[n];
+                node.leftChild = storedLeftChildren[n];
+                node.rightChild = storedRightChildren[n];
+                node.heightParameter = storedHeightParameters[n];
+                node.rateParameter = storedRateParameters[n];
+                node.traitParameters = storedTraitParameters[n];
+            }
+            clearJournal();
+        } else {
+            Node[] tmp = storedNodes;
+            storedNodes = nodes;
+            nodes = tmp;
+        }
 
         root = nodes[storedRootNumber];
     }
@@ -502,6 +553,45 @@ public class DefaultTreeModel extends TreeModel {
     protected void acceptState() {
     } // nothing to do
 
+    /**
+     * Records the links of a node the first time it is changed after a storeState so that
+     * restoreState only needs to roll back the nodes that were actually touched.
+     */
+    private void journalNode(Node node) {
+        if (!JOURNAL_STORE_RESTORE || journaled == null) {
+            // still building the tree
+            return;
+        }
+
+        final int n = node.number;
+        if (!journaled[n]) {
+            journaled[n] = true;
+            journal[journalSize] = n;
+            journalSize++;
+
+            storedParents[n] = node.parent;
+            storedLeftChildren[n] = node.leftChild;
+            storedRightChildren[n] = node.rightChild;
+            storedHeightParameters[n] = node.heightParameter;
+            storedRateParameters[n] = node.rateParameter;
+            storedTraitParameters[n] = node.traitParameters;
+        }
+    }
+
+    private void clearJournal() {
+        for (int i = 0; i < journalSize; i++) {
+            final int n = journal[i];
+            journaled[n] = false;
+            storedParents[n] = null;
+            storedLeftChildren[n] = null;
+            storedRightChildren[n] = null;
+            storedHeightParameters[n] = null;
+            storedRateParameters[n] = null;
+            storedTraitParameters[n] = null;
+        }
+        journalSize = 0;
+    }
+
     /**
      * Copies the node connections from this TreeModel's nodes array to the
      * destination array. Basically it connects up the nodes in destination
@@ -714,6 +804,80 @@ public class DefaultTreeModel extends TreeModel {
 //        return TREE_MODEL;
 //    }
 
+    // **************************************************************
+    // RemoteSerializable IMPLEMENTATION
+    // **************************************************************
+
+    /**
+     * Writes the root, the children of each internal node in order and the node heights (and
+     * rates if present) by node number.
+     */
+    public void writeRemoteState(DataOutput out) throws IOException {
+        out.writeInt(root.getNumber());
+        for (int i = externalNodeCount; i < nodeCount; i++) {
+            Node node = nodes[i];
+            out.writeInt(node.getChildCount());
+            for (int j = 0; j < node.getChildCount(); j++) {
+                out.writeInt(node.getChild(j).getNumber());
+            }
+        }
+        for (int i = 0; i < nodeCount; i++) {
+            out.writeDouble(nodes[i].getHeight());
+            if (hasRates) {
+                out.writeDouble(nodes[i].getRate());
+            }
+        }
+    }
+
+    /**
+     * Adopts a state written by writeRemoteState from a copy of this tree. The topology is only
+     * rebuilt, and heights only set, where they differ.
+     */
+    public void readRemoteState(DataInput in) throws IOException {
+        int rootNumber = in.readInt();
+        boolean topologyChanged = rootNumber != root.getNumber();
+        int[][] children = new int[nodeCount][];
+        for (int i = externalNodeCount; i < nodeCount; i++) {
+            children[i] = new int[in.readInt()];
+            topologyChanged |= children[i].length != nodes[i].getChildCount();
+            for (int j = 0; j < children[i].length; j++) {
+                children[i][j] = in.readInt();
+                topologyChanged |= j >= nodes[i].getChildCount() || nodes[i].getChild(j).getNumber() != children[i][j];
+            }
+        }
+
+        beginTreeEdit();
+        if (topologyChanged) {
+            for (int i = externalNodeCount; i < nodeCount; i++) {
+                for (int j = 1; j >= 0; j--) {
+                    Node child = nodes[i].getChild(j);
+                    if (child != null) {
+                        removeChild(nodes[i], child);
+                    }
+                }
+            }
+            for (int i = externalNodeCount; i < nodeCount; i++) {
+                for (int child : children[i]) {
+                    addChild(nodes[i], nodes[child]);
+                }
+            }
+            setRoot(nodes[rootNumber]);
+        }
+        for (int i = 0; i < nodeCount; i++) {
+            double height = in.readDouble();
+            if (height != nodes[i].getHeight()) {
+                setNodeHeight(nodes[i], height);
+            }
+            if (hasRates) {
+                double rate = in.readDouble();
+                if (rate != nodes[i].getRate()) {
+                    setNodeRate(nodes[i], rate);
+                }
+            }
+        }
+        endTreeEdit();
+    }
+
     // **************************************************************
     // TaxonList IMPLEMENTATION
     // **************************************************************
@@ -953,6 +1117,9 @@ public class DefaultTreeModel extends TreeModel {
      */
     private void swapParameterObjects(Node n1, Node n2) {
 
+        journalNode(n1);
+        journalNode(n2);
+
         double height1 = n1.getHeight();
         double height2 = n2.getHeight();
 
@@ -1199,6 +1366,8 @@ public class DefaultTreeModel extends TreeModel {
          * @param node new child node
          */
         public void addChild(Node node) {
+            journalNode(this);
+            journalNode(node);
             if (leftChild == null) {
                 leftChild = node;
             } else if (rightChild == null) {
@@ -1215,6 +1384,8 @@ public class DefaultTreeModel extends TreeModel {
          * @param node child to be removed
          */
         public Node removeChild(Node node) {
+            journalNode(this);
+            journalNode(node);
             if (leftChild == node) {
                 leftChild = null;
             } else if (rightChild == node) {
@@ -1232,6 +1403,7 @@ public class DefaultTreeModel extends TreeModel {
          * @param n number of child to be removed
          */
         public Node removeChild(int n) {
+            journalNode(this);
             Node node;
             if (n == 0) {
                 node = leftChild;
@@ -1242,6 +1414,7 @@ public class DefaultTreeModel extends TreeModel {
             } else {
                 throw new IllegalArgumentException("TreeModel.Nodes can only have 2 children");
             }
+            journalNode(node);
             node.parent = null;
             return node;
         }
@@ -1326,6 +1499,19 @@ public class DefaultTreeModel extends TreeModel {
     private Node[] nodes = null;
     private Node[] storedNodes = null;
 
+    /**
+     * the numbers of the nodes changed since the last store and their stored links
+     */
+    private int[] journal = null;
+    private int journalSize = 0;
+    private boolean[] journaled = null;
+    private Node[] storedParents = null;
+    private Node[] storedLeftChildren = null;
+    private Node[] storedRightChildren = null;
+    private Parameter[] storedHeightParameters = null;
+    private Parameter[] storedRateParameters = null;
+    private Map<String, Parameter>[] storedTraitParameters = null;
+
     /**
      * number of nodes (including root and tips)
      */
@@ -180,6 +180,8 @@ public class TreeLogger extends MCLogger {
                 logLine("\t\t;");
             }
         }
+
+        startAsynchronousLogging();
     }
 
     private String cleanTaxonName(String taxaId) {
@@ -233,6 +235,22 @@ public class TreeLogger extends MCLogger {
 
             buffer.append(" = [&R] ");
 
+            if (isWritingAsynchronously() && !substitutions &&
+                    (treeTraitProviders == null || treeTraitProviders.length == 0)) {
+                // the Newick string is built by the writer thread from a copy of the tree
+                final Tree copy = new SimpleTree(tree);
+                final List<LogFormatter> targets = getFormatters();
+                writeRecord(() -> {
+                    TreeUtils.newick(copy, copy.getRoot(), !mapNames, TreeUtils.BranchLengthType.LENGTHS_AS_TIME,
+                            format, null, null, idMap, buffer);
+                    buffer.append(";");
+                    for (LogFormatter formatter : targets) {
+                        formatter.logLine(buffer.toString());
+                    }
+                });
+                return;
+            }
+
             if (substitutions) {
                 TreeUtils.newick(tree, tree.getRoot(), false, TreeUtils.BranchLengthType.LENGTHS_AS_SUBSTITUTIONS,
                         format, branchRates, treeTraitProviders, idMap, buffer);
@@ -0,0 +1,890 @@
+/*
+ * JavaDataLikelihoodDelegate.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.evomodel.treedatalikelihood;
+
+import dr.evolution.alignment.PatternList;
+import dr.evolution.alignment.UncertainSiteList;
+import dr.evolution.datatype.DataType;
+import dr.evolution.tree.Tree;
+import dr.evolution.util.TaxonList;
+import dr.evomodel.branchmodel.BranchModel;
+import dr.evomodel.siteratemodel.SiteRateModel;
+import dr.evomodel.substmodel.SubstitutionModel;
+import dr.evomodel.treelikelihood.PartialsRescalingScheme;
+import dr.inference.model.AbstractModel;
+import dr.inference.model.Model;
+import dr.inference.model.Parameter;
+import dr.inference.model.Variable;
+import dr.util.TaskScheduler;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.Logger;
+
+/**
+ * JavaDataLikelihoodDelegate
+ *
+ * A DataLikelihoodDelegate that computes the peeling recursion in pure Java, so that it can be used
+ * when the native BEAGLE library is not available. Site patterns are divided into blocks that are
+ * evaluated in parallel on a shared work-stealing pool; each block runs the complete set of node
+ * operations for its patterns so no synchronisation is needed between operations.
+ */
+
+public class JavaDataLikelihoodDelegate extends AbstractModel implements DataLikelihoodDelegate {
+
+    private static final boolean COUNT_CALCULATIONS = true; // keep a cumulative total of number of computations
+
+    public static final int OPERATION_TUPLE_SIZE = 5;
+
+    // The smallest number of patterns that is worth handing to a separate task
+    private static final int MIN_PATTERNS_PER_TASK = 64;
+
+    // Number of blocks per thread - more than one so that work-stealing can balance the load
+    private static final int BLOCKS_PER_THREAD = 4;
+
+    // count the number of partial likelihood and matrix updates
+    private long totalMatrixUpdateCount = 0;
+    private long totalPartialsUpdateCount = 0;
+    private long totalEvaluationCount = 0;
+
+    /**
+     * @param tree Used for configuration - shouldn't be watched for changes
+     * @param patternList List of patterns
+     * @param branchModel Specifies substitution model for each branch
+     * @param siteRateModel Specifies rates per site
+     * @param useAmbiguities Whether to respect state ambiguities in data
+     * @param rescalingScheme the partials rescaling scheme
+     * @param threadCount the number of threads to divide the patterns between
+     */
+    public JavaDataLikelihoodDelegate(Tree tree,
+                                      PatternList patternList,
+                                      BranchModel branchModel,
+                                      SiteRateModel siteRateModel,
+                                      boolean useAmbiguities,
+                                      PartialsRescalingScheme rescalingScheme,
+                                      int threadCount) {
+
+        super("JavaDataLikelihoodDelegate");
+        final Logger logger = Logger.getLogger("dr.evomodel");
+
+        logger.info("\nCreating Java DataLikelihood Delegate");
+        setId(patternList.getId());
+
+        this.tree = tree;
+        this.dataType = patternList.getDataType();
+        this.patternList = patternList;
+        patternCount = patternList.getPatternCount();
+        stateCount = dataType.getStateCount();
+
+        // Check for matching state counts
+        int stateCount2 = branchModel.getRootFrequencyModel().getFrequencyCount();
+        if (stateCount != stateCount2) {
+            throw new IllegalArgumentException("Pattern state count (" + stateCount
+                    + ") does not match substitution model state count (" + stateCount2 + ")");
+        }
+
+        patternWeights = patternList.getPatternWeights();
+
+        this.branchModel = branchModel;
+        addModel(this.branchModel);
+
+        this.siteRateModel = siteRateModel;
+        addModel(this.siteRateModel);
+
+        this.categoryCount = this.siteRateModel.getCategoryCount();
+
+        nodeCount = tree.getNodeCount();
+        tipCount = tree.getExternalNodeCount();
+        internalNodeCount = nodeCount - tipCount;
+
+        branchUpdateIndices = new int[nodeCount];
+        branchLengths = new double[nodeCount];
+
+        operations = new int[internalNodeCount * OPERATION_TUPLE_SIZE];
+
+        matrixSize = stateCount * stateCount;
+        partialsSize = categoryCount * patternCount * stateCount;
+
+        // one partials buffer for each tip and two for each internal node (for store restore)
+        partialBufferHelper = new BufferIndexHelper(nodeCount, tipCount);
+
+        // two transition probability matrices for each branch (for store restore)
+        matrixBufferHelper = new BufferIndexHelper(nodeCount, 0);
+
+        partials = new double[partialBufferHelper.getBufferCount()][];
+        scaleFactors = new double[partialBufferHelper.getBufferCount()][];
+        for (int i = tipCount; i < partials.length; i++) {
+            partials[i] = new double[partialsSize];
+        }
+
+        matrices = new double[matrixBufferHelper.getBufferCount()][categoryCount * matrixSize];
+        tmpMatrix = new double[matrixSize];
+        convolutionMatrix = new double[matrixSize];
+
+        tipStates = new int[tipCount][];
+
+        siteLogLikelihoods = new double[patternCount];
+
+        // uncertain sites can only be represented as tip partials (see setPartials)
+        if (patternList instanceof UncertainSiteList) {
+            useAmbiguities = true;
+        }
+
+        try {
+            for (int i = 0; i < tipCount; i++) {
+                // Find the id of tip i in the patternList
+                String id = tree.getTaxonId(i);
+                int index = patternList.getTaxonIndex(id);
+
+                if (index == -1) {
+                    throw new TaxonList.MissingTaxonException("Taxon, " + id + ", in tree, " + tree.getId() +
+                            ", is not found in patternList, " + patternList.getId());
+                } else {
+                    if (useAmbiguities) {
+                        setPartials(index, i);
+                    } else {
+                        setStates(index, i);
+                    }
+                }
+            }
+        } catch (TaxonList.MissingTaxonException mte) {
+            throw new RuntimeException(mte.toString());
+        }
+
+        if (rescalingScheme == PartialsRescalingScheme.ALWAYS) {
+            allocateScaleFactors();
+        } else if (rescalingScheme == PartialsRescalingScheme.NONE) {
+            rescaleOnUnderflow = false;
+        }
+        // every other scheme starts unscaled and switches scaling on at the first underflow
+        this.rescalingScheme = rescalingScheme;
+
+        this.threadCount = Math.max(1, threadCount);
+        blockSize = Math.max(MIN_PATTERNS_PER_TASK, patternCount / (this.threadCount * BLOCKS_PER_THREAD) + 1);
+        if (this.threadCount > 1 && patternCount > blockSize) {
+            // use the shared pool so this nests with any parallel evaluation of the compound likelihoods
+            forkJoinPool = TaskScheduler.getPool();
+        } else {
+            forkJoinPool = null;
+        }
+
+        logger.info("    " + (useAmbiguities ? "Using" : "Ignoring") + " ambiguities in tree likelihood.");
+        logger.info("    With " + patternCount + " unique site patterns.");
+        logger.info("    Using rescaling scheme : " + (useScaleFactors ? "always" :
+                (rescaleOnUnderflow ? "delay rescaling until first underflow" : "none")));
+        if (forkJoinPool != null) {
+            logger.info("    Using " + this.threadCount + " threads (pattern blocks of " + blockSize + ").");
+        } else {
+            logger.info("    Using a single thread.");
+        }
+
+        updateSiteModel = true;
+        updateRootFrequency = true;
+    }
+
+    /**
+     * Switches scaling on. Buffers computed before this point are left unscaled which is
+     * consistent with a log scale factor of zero.
+     */
+    private void allocateScaleFactors() {
+        for (int i = tipCount; i < scaleFactors.length; i++) {
+            scaleFactors[i] = new double[patternCount];
+        }
+        useScaleFactors = true;
+    }
+
+    @Override
+    public String getReport() {
+        return null;
+    }
+
+    @Override
+    public TreeTraversal.TraversalType getOptimalTraversalType() {
+        return TreeTraversal.TraversalType.POST_ORDER;
+    }
+
+    @Override
+    public int getTraitCount() {
+        return 1;
+    }
+
+    @Override
+    public int getTraitDim() {
+        return patternCount;
+    }
+
+    @Override
+    public RateRescalingScheme getRateRescalingScheme() {
+        return RateRescalingScheme.NONE;
+    }
+
+    public final BranchModel getBranchModel() {
+        return branchModel;
+    }
+
+    public final SiteRateModel getSiteRateModel() {
+        return siteRateModel;
+    }
+
+    public PatternList getPatternList() {
+        return this.patternList;
+    }
+
+    public PartialsRescalingScheme getRescalingScheme() {
+        return rescalingScheme;
+    }
+
+    /**
+     * Sets the partials from a sequence in an alignment. Only a single category is stored for
+     * the tips as the partials are the same for all rate categories.
+     *
+     * @param sequenceIndex sequenceIndex
+     * @param nodeIndex     nodeIndex
+     */
+    private void setPartials(int sequenceIndex, int nodeIndex) {
+        double[] tipPartials = new double[patternCount * stateCount];
+
+        int v = 0;
+        for (int i = 0; i < patternCount; i++) {
+
+            if (patternList instanceof UncertainSiteList) {
+                ((UncertainSiteList) patternList).fillPartials(sequenceIndex, i, tipPartials, v);
+                v += stateCount;
+            } else if (patternList.areUncertain()) {
+
+                double[] prob = patternList.getUncertainPatternState(sequenceIndex, i);
+                System.arraycopy(prob, 0, tipPartials, v, stateCount);
+                v += stateCount;
+
+            } else {
+                int state = patternList.getPatternState(sequenceIndex, i);
+                boolean[] stateSet = dataType.getStateSet(state);
+
+                for (int j = 0; j < stateCount; j++) {
+                    tipPartials[v] = stateSet[j] ? 1.0 : 0.0;
+                    v++;
+                }
+            }
+        }
+
+        partials[nodeIndex] = tipPartials;
+    }
+
+    /**
+     * Sets the states from a sequence in an alignment.
+     *
+     * @param sequenceIndex sequenceIndex
+     * @param nodeIndex     nodeIndex
+     */
+    private void setStates(int sequenceIndex, int nodeIndex) {
+        int[] states = new int[patternCount];
+
+        for (int i = 0; i < patternCount; i++) {
+            states[i] = patternList.getPatternState(sequenceIndex, i);
+        }
+
+        tipStates[nodeIndex] = states;
+    }
+
+    /**
+     * Calculate the log likelihood of the current state.
+     *
+     * @return the log likelihood.
+     */
+    @Override
+    public double calculateLikelihood(List<BranchOperation> branchOperations, List<NodeOperation> nodeOperations,
+                                      int rootNodeNumber) throws LikelihoodException {
+
+        if (updateSiteModel) {
+            categoryRates = this.siteRateModel.getCategoryRates();
+            if (categoryRates == null) {
+                // If this returns null then there was a numerical error calculating the category rates
+                // (probably a very small alpha) so reject the move.
+                return Double.NEGATIVE_INFINITY;
+            }
+            categoryWeights = this.siteRateModel.getCategoryProportions();
+        }
+
+        if (updateRootFrequency) {
+            rootFrequencies = branchModel.getRootFrequencyModel().getFrequencies();
+        }
+
+        int branchUpdateCount = 0;
+        for (BranchOperation op : branchOperations) {
+            branchUpdateIndices[branchUpdateCount] = op.getBranchNumber();
+            branchLengths[branchUpdateCount] = op.getBranchLength();
+            branchUpdateCount++;
+        }
+
+        if (branchUpdateCount > 0) {
+            updateTransitionMatrices(branchUpdateIndices, branchLengths, branchUpdateCount);
+        }
+
+        if (COUNT_CALCULATIONS) {
+            totalMatrixUpdateCount += branchUpdateCount;
+        }
+
+        // Flip all the buffers to be written to first...
+        for (NodeOperation op : nodeOperations) {
+            partialBufferHelper.flipOffset(op.getNodeNumber());
+        }
+
+        int operationCount = vectorizeNodeOperations(nodeOperations, operations);
+
+        int rootIndex = partialBufferHelper.getOffsetIndex(rootNodeNumber);
+
+        if (forkJoinPool != null) {
+            forkJoinPool.invoke(new PatternBlockAction(operationCount, rootIndex, 0, patternCount));
+        } else {
+            updatePartials(operationCount, rootIndex, 0, patternCount);
+        }
+
+        if (COUNT_CALCULATIONS) {
+            totalEvaluationCount += 1;
+            totalPartialsUpdateCount += operationCount;
+        }
+
+        // sum in pattern order so the result doesn't depend on how the blocks were scheduled
+        double logL = 0.0;
+        for (int k = 0; k < patternCount; k++) {
+            logL += siteLogLikelihoods[k] * patternWeights[k];
+        }
+
+        if (Double.isNaN(logL) || Double.isInfinite(logL)) {
+
+            if (rescaleOnUnderflow && !useScaleFactors) {
+                Logger.getLogger("dr.evomodel").info("Underflow calculating likelihood. Attempting a rescaling... (" + getId() + ")");
+
+                allocateScaleFactors();
+
+                // TreeDataLikelihood will request a full update of all nodes and try again
+                throw new LikelihoodUnderflowException();
+            }
+
+            return Double.NEGATIVE_INFINITY;
+        }
+
+        updateSiteModel = false;
+        updateRootFrequency = false;
+
+        return logL;
+    }
+
+    private void updateTransitionMatrices(int[] branchIndices, double[] edgeLengths, int updateCount) {
+
+        final List<SubstitutionModel> substitutionModels = branchModel.getSubstitutionModels();
+
+        for (int i = 0; i < updateCount; i++) {
+
+            matrixBufferHelper.flipOffset(branchIndices[i]);
+            final double[] matrix = matrices[matrixBufferHelper.getOffsetIndex(branchIndices[i])];
+
+            BranchModel.Mapping mapping = branchModel.getBranchModelMapping(tree.getNode(branchIndices[i]));
+            int[] order = mapping.getOrder();
+
+            if (order.length == 1) {
+                SubstitutionModel substitutionModel = substitutionModels.get(order[0]);
+                for (int l = 0; l < categoryCount; l++) {
+                    substitutionModel.getTransitionProbabilities(edgeLengths[i] * categoryRates[l], tmpMatrix);
+                    System.arraycopy(tmpMatrix, 0, matrix, l * matrixSize, matrixSize);
+                }
+            } else {
+                double[] weights = mapping.getWeights();
+                double sum = 0.0;
+                for (double w : weights) {
+                    sum += w;
+                }
+
+                for (int l = 0; l < categoryCount; l++) {
+                    // models are in order from rootward to tipward so multiply on the right
+                    for (int j = 0; j < order.length; j++) {
+                        double distance = weights[j] * edgeLengths[i] / sum * categoryRates[l];
+                        substitutionModels.get(order[j]).getTransitionProbabilities(distance, tmpMatrix);
+                        if (j == 0) {
+                            System.arraycopy(tmpMatrix, 0, convolutionMatrix, 0, matrixSize);
+                        } else {
+                            convolveMatrices(convolutionMatrix, tmpMatrix, matrix, l * matrixSize);
+                            System.arraycopy(matrix, l * matrixSize, convolutionMatrix, 0, matrixSize);
+                        }
+                    }
+                    System.arraycopy(convolutionMatrix, 0, matrix, l * matrixSize, matrixSize);
+                }
+            }
+        }
+    }
+
+    private void convolveMatrices(double[] first, double[] second, double[] result, int offset) {
+        for (int i = 0; i < stateCount; i++) {
+            for (int j = 0; j < stateCount; j++) {
+                double sum = 0.0;
+                for (int k = 0; k < stateCount; k++) {
+                    sum += first[i * stateCount + k] * second[k * stateCount + j];
+                }
+                result[offset + i * stateCount + j] = sum;
+            }
+        }
+    }
+
+    /**
+     * Runs all the vectorized operations followed by the root integration for the patterns
+     * in [startPattern, endPattern). Distinct pattern ranges touch disjoint parts of every
+     * buffer so they can be computed concurrently.
+     */
+    private void updatePartials(int operationCount, int rootIndex, int startPattern, int endPattern) {
+
+        int k = 0;
+        for (int op = 0; op < operationCount; op++) {
+            final int destination = operations[k];
+            final int child1 = operations[k + 1];
+            final int matrix1 = operations[k + 2];
+            final int child2 = operations[k + 3];
+            final int matrix2 = operations[k + 4];
+
+            final int[] states1 = child1 < tipCount ? tipStates[child1] : null;
+            final int[] states2 = child2 < tipCount ? tipStates[child2] : null;
+
+            if (states1 != null && states2 != null) {
+                calculateStatesStatesPruning(states1, matrices[matrix1], states2, matrices[matrix2],
+                        partials[destination], startPattern, endPattern);
+            } else if (states1 != null) {
+                calculateStatesPartialsPruning(states1, matrices[matrix1], child2, matrices[matrix2],
+                        partials[destination], startPattern, endPattern);
+            } else if (states2 != null) {
+                calculateStatesPartialsPruning(states2, matrices[matrix2], child1, matrices[matrix1],
+                        partials[destination], startPattern, endPattern);
+            } else {
+                calculatePartialsPartialsPruning(child1, matrices[matrix1], child2, matrices[matrix2],
+                        partials[destination], startPattern, endPattern);
+            }
+
+            if (useScaleFactors) {
+                scalePartials(destination, child1, child2, startPattern, endPattern);
+            }
+
+            k += OPERATION_TUPLE_SIZE;
+        }
+
+        calculateRootLogLikelihoods(rootIndex, startPattern, endPattern);
+    }
+
+    private void calculateStatesStatesPruning(int[] states1, double[] matrices1,
+                                              int[] states2, double[] matrices2,
+                                              double[] partials3, int startPattern, int endPattern) {
+        for (int l = 0; l < categoryCount; l++) {
+            final int w = l * matrixSize;
+            int v = (l * patternCount + startPattern) * stateCount;
+
+            for (int k = startPattern; k < endPattern; k++) {
+                final int state1 = states1[k];
+                final int state2 = states2[k];
+
+                for (int i = 0; i < stateCount; i++) {
+                    final double sum1 = state1 < stateCount ? matrices1[w + i * stateCount + state1] : 1.0;
+                    final double sum2 = state2 < stateCount ? matrices2[w + i * stateCount + state2] : 1.0;
+                    partials3[v++] = sum1 * sum2;
+                }
+            }
+        }
+    }
+
+    private void calculateStatesPartialsPruning(int[] states1, double[] matrices1,
+                                                int child2, double[] matrices2,
+                                                double[] partials3, int startPattern, int endPattern) {
+        final double[] partials2 = partials[child2];
+        final boolean compact2 = child2 < tipCount;
+
+        for (int l = 0; l < categoryCount; l++) {
+            final int w = l * matrixSize;
+            int v = (l * patternCount + startPattern) * stateCount;
+            int u = ((compact2 ? 0 : l * patternCount) + startPattern) * stateCount;
+
+            for (int k = startPattern; k < endPattern; k++) {
+                final int state1 = states1[k];
+
+                int m = w;
+                for (int i = 0; i < stateCount; i++) {
+                    final double sum1 = state1 < stateCount ? matrices1[m + state1] : 1.0;
+
+                    double sum2 = 0.0;
+                    for (int j = 0; j < stateCount; j++) {
+                        sum2 += matrices2[m + j] * partials2[u + j];
+                    }
+                    m += stateCount;
+
+                    partials3[v++] = sum1 * sum2;
+                }
+                u += stateCount;
+            }
+        }
+    }
+
+    private void calculatePartialsPartialsPruning(int child1, double[] matrices1,
+                                                  int child2, double[] matrices2,
+                                                  double[] partials3, int startPattern, int endPattern) {
+        final double[] partials1 = partials[child1];
+        final double[] partials2 = partials[child2];
+        final boolean compact1 = child1 < tipCount;
+        final boolean compact2 = child2 < tipCount;
+
+        for (int l = 0; l < categoryCount; l++) {
+            final int w = l * matrixSize;
+            int v = (l * patternCount + startPattern) * stateCount;
+            int u1 = ((compact1 ? 0 : l * patternCount) + startPattern) * stateCount;
+            int u2 = ((compact2 ? 0 : l * patternCount) + startPattern) * stateCount;
+
+            for (int k = startPattern; k < endPattern; k++) {
+
+                int m = w;
+                for (int i = 0; i < stateCount; i++) {
+                    double sum1 = 0.0;
+                    double sum2 = 0.0;
+                    for (int j = 0; j < stateCount; j++) {
+                        sum1 += matrices1[m + j] * partials1[u1 + j];
+                        sum2 += matrices2[m + j] * partials2[u2 + j];
+                    }
+                    m += stateCount;
+
+                    partials3[v++] = sum1 * sum2;
+                }
+                u1 += stateCount;
+                u2 += stateCount;
+            }
+        }
+    }
+
+    /**
+     * Scales the partials at a node by the largest value for each pattern and stores the log of
+     * the scale factor accumulated with those of the children, so the root holds the total.
+     */
+    private void scalePartials(int destination, int child1, int child2, int startPattern, int endPattern) {
+        final double[] partials3 = partials[destination];
+
+        final double[] scale3 = scaleFactors[destination];
+        final double[] scale1 = scaleFactors[child1];
+        final double[] scale2 = scaleFactors[child2];
+
+        for (int k = startPattern; k < endPattern; k++) {
+            double max = 0.0;
+            for (int l = 0; l < categoryCount; l++) {
+                int v = (l * patternCount + k) * stateCount;
+                for (int i = 0; i < stateCount; i++) {
+                    if (partials3[v + i] > max) {
+                        max = partials3[v + i];
+                    }
+                }
+            }
+
+            double logScale = 0.0;
+            if (max > 0.0) {
+                for (int l = 0; l < categoryCount; l++) {
+                    int v = (l * patternCount + k) * stateCount;
+                    for (int i = 0; i < stateCount; i++) {
+                        partials3[v + i] /= max;
+                    }
+                }
+                logScale = Math.log(max);
+            }
+
+            if (scale1 != null) {
+                logScale += scale1[k];
+            }
+            if (scale2 != null) {
+                logScale += scale2[k];
+            }
+            scale3[k] = logScale;
+        }
+    }
+
+    private void calculateRootLogLikelihoods(int rootIndex, int startPattern, int endPattern) {
+        final double[] rootPartials = partials[rootIndex];
+        final double[] rootScale = useScaleFactors ? scaleFactors[rootIndex] : null;
+
+        for (int k = startPattern; k < endPattern; k++) {
+            double sum = 0.0;
+            for (int l = 0; l < categoryCount; l++) {
+                int v = (l * patternCount + k) * stateCount;
+                double sumOverStates = 0.0;
+                for (int i = 0; i < stateCount; i++) {
+                    sumOverStates += rootFrequencies[i] * rootPartials[v + i];
+                }
+                sum += sumOverStates * categoryWeights[l];
+            }
+
+            siteLogLikelihoods[k] = Math.log(sum) + (rootScale != null ? rootScale[k] : 0.0);
+        }
+    }
+
+    private class PatternBlockAction extends RecursiveAction {
+
+        PatternBlockAction(int operationCount, int rootIndex, int startPattern, int endPattern) {
+            this.operationCount = operationCount;
+            this.rootIndex = rootIndex;
+            this.startPattern = startPattern;
+            this.endPattern = endPattern;
+        }
+
+        @Override
+        protected void compute() {
+            if (endPattern - startPattern <= blockSize) {
+                updatePartials(operationCount, rootIndex, startPattern, endPattern);
+            } else {
+                int midPattern = (startPattern + endPattern) >>> 1;
+                invokeAll(new PatternBlockAction(operationCount, rootIndex, startPattern, midPattern),
+                        new PatternBlockAction(operationCount, rootIndex, midPattern, endPattern));
+            }
+        }
+
+        private final int operationCount;
+        private final int rootIndex;
+        private final int startPattern;
+        private final int endPattern;
+    }
+
+    /**
+     * Copies the partials for a node into the given array (laid out as for BEAGLE, categories then
+     * patterns then states). These are unscaled when scaling is not in use.
+     */
+    public void getPartials(int number, double[] destination) {
+        int index = partialBufferHelper.getOffsetIndex(number);
+        if (number < tipCount && partials[index] == null) {
+            throw new IllegalArgumentException("Tip partials are not stored when using compact states");
+        }
+        if (number < tipCount) {
+            for (int l = 0; l < categoryCount; l++) {
+                System.arraycopy(partials[index], 0, destination, l * patternCount * stateCount, patternCount * stateCount);
+            }
+        } else {
+            System.arraycopy(partials[index], 0, destination, 0, partialsSize);
+        }
+    }
+
+    public double[] getSiteLogLikelihoods() {
+        double[] result = new double[patternCount];
+        System.arraycopy(siteLogLikelihoods, 0, result, 0, patternCount);
+        return result;
+    }
+
+    @Override
+    public void makeDirty() {
+        updateSiteModel = true;
+        updateRootFrequency = true;
+        fireModelChanged();
+    }
+
+    @Override
+    protected void handleModelChangedEvent(Model model, Object object, int index) {
+        if (model == siteRateModel) {
+            updateSiteModel = true;
+        } else if (model == branchModel) {
+            updateRootFrequency = true;
+        }
+
+        // Tell TreeDataLikelihood to update all nodes
+        fireModelChanged();
+    }
+
+    @Override
+    protected void handleVariableChangedEvent(Variable variable, int index, Parameter.ChangeType type) {
+
+    }
+
+    /**
+     * Stores the additional state other than model components
+     */
+    @Override
+    public void storeState() {
+        partialBufferHelper.storeState();
+        matrixBufferHelper.storeState();
+    }
+
+    /**
+     * Restore the additional stored state
+     */
+    @Override
+    public void restoreState() {
+        updateSiteModel = true;
+        updateRootFrequency = true;
+
+        partialBufferHelper.restoreState();
+        matrixBufferHelper.restoreState();
+    }
+
+    @Override
+    public void setCallback(TreeDataLikelihood treeDataLikelihood) {
+        // Do nothing
+    }
+
+    @Override
+    public void setComputePostOrderStatisticsOnly(boolean computePostOrderStatistic) {
+        // Do nothing
+    }
+
+    @Override
+    public boolean providesPostOrderStatisticsOnly() { return false; }
+
+    @Override
+    public int vectorizeNodeOperations(List<NodeOperation> nodeOperations, int[] operations) {
+
+        int k = 0;
+        for (NodeOperation op : nodeOperations) {
+
+            operations[k] = partialBufferHelper.getOffsetIndex(op.getNodeNumber());
+            operations[k + 1] = partialBufferHelper.getOffsetIndex(op.getLeftChild());  // source node 1
+            operations[k + 2] = matrixBufferHelper.getOffsetIndex(op.getLeftChild());   // source matrix 1
+            operations[k + 3] = partialBufferHelper.getOffsetIndex(op.getRightChild()); // source node 2
+            operations[k + 4] = matrixBufferHelper.getOffsetIndex(op.getRightChild());  // source matrix 2
+
+            k += OPERATION_TUPLE_SIZE;
+        }
+
+        return nodeOperations.size();
+    }
+
+    @Override
+    protected void acceptState() {
+    }
+
+    // **************************************************************
+    // INSTANCE PROFILEABLE
+    // **************************************************************
+
+    @Override
+    public long getTotalCalculationCount() {
+        // Can only return one count at the moment so return the number of partials updated
+        return totalPartialsUpdateCount;
+    }
+
+    // **************************************************************
+    // INSTANCE VARIABLES
+    // **************************************************************
+
+    private final Tree tree;
+
+    private final int nodeCount;
+    private final int tipCount;
+    private final int internalNodeCount;
+
+    private final int[] branchUpdateIndices;
+    private final double[] branchLengths;
+
+    private final int[] operations;
+
+    private final BufferIndexHelper partialBufferHelper;
+    private final BufferIndexHelper matrixBufferHelper;
+
+    /**
+     * the partials indexed by buffer; tips have a single category or are null if compact states are used
+     */
+    private final double[][] partials;
+
+    /**
+     * the log scale factors indexed by partials buffer, accumulated over the subtree
+     */
+    private final double[][] scaleFactors;
+
+    /**
+     * the transition probability matrices indexed by buffer, for all categories
+     */
+    private final double[][] matrices;
+
+    private final double[] tmpMatrix;
+    private final double[] convolutionMatrix;
+
+    /**
+     * the tip states (null for tips with partials)
+     */
+    private final int[][] tipStates;
+
+    private final double[] siteLogLikelihoods;
+
+    private final int matrixSize;
+    private final int partialsSize;
+
+    private final PartialsRescalingScheme rescalingScheme;
+    private boolean useScaleFactors = false;
+    private boolean rescaleOnUnderflow = true;
+
+    private final int threadCount;
+    private final int blockSize;
+    private final ForkJoinPool forkJoinPool;
+
+    private double[] categoryRates;
+    private double[] categoryWeights;
+    private double[] rootFrequencies;
+
+    /**
+     * the patternList
+     */
+    private final PatternList patternList;
+
+    /**
+     * the data type
+     */
+    private final DataType dataType;
+
+    /**
+     * the pattern weights
+     */
+    private final double[] patternWeights;
+
+    /**
+     * the number of patterns
+     */
+    private final int patternCount;
+
+    /**
+     * the number of states in the data
+     */
+    private final int stateCount;
+
+    /**
+     * the branch-site model for these sites
+     */
+    private final BranchModel branchModel;
+
+    /**
+     * the site model for these sites
+     */
+    private final SiteRateModel siteRateModel;
+
+    /**
+     * the number of rate categories
+     */
+    private final int categoryCount;
+
+    /**
+     * Flag to specify that the site model has changed
+     */
+    private boolean updateSiteModel;
+
+    /**
+     * Flag to specify that the root frequencies has changed
+     */
+    private boolean updateRootFrequency;
+}
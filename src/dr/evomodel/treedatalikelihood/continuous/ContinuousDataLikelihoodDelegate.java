@@ -227,7 +227,7 @@ public class ContinuousDataLikelihoodDelegate extends AbstractModel implements D
                             );
                         } else {
                             if (allowSingular) {
-                                base = new SafeMultivariateIntegrator(
+                                base = CDIFactory.loadSafeMultivariateInstance(
                                         precisionType,
                                         numTraits,
                                         dimTrait,
@@ -38,6 +38,12 @@ import java.util.logging.Logger;
  */
 public class CDIFactory {
 
+    /**
+     * System property for the number of threads across which the traits of a SafeMultivariateIntegrator
+     * are divided (defaults to 1, a single serial integrator)
+     */
+    public static final String THREAD_COUNT_PROPERTY = "beast.cdi.threads";
+
     private static Map<Integer, ResourceDetails> resourceDetailsMap = new HashMap<Integer, ResourceDetails>();
 
     public static String getVersionInformation() {
@@ -119,6 +125,36 @@ public class CDIFactory {
         );
     }
 
+    public static int getRequestedThreadCount() {
+        return Math.max(1, Integer.getInteger(THREAD_COUNT_PROPERTY, 1));
+    }
+
+    /**
+     * Creates a pure-Java integrator for Brownian diffusion that tolerates missing data and singular
+     * precisions. If more than one thread is requested (see THREAD_COUNT_PROPERTY) and there is more
+     * than one trait then the traits are divided between threads.
+     */
+    public static ContinuousDiffusionIntegrator loadSafeMultivariateInstance(
+            final PrecisionType precisionType,
+            final int numTraits,
+            final int dimTrait,
+            final int dimProcess,
+            final int bufferCount,
+            final int diffusionCount
+    ) {
+        final int threadCount = getRequestedThreadCount();
+
+        if (threadCount > 1 && numTraits > 1) {
+            return new ParallelSafeMultivariateIntegrator(
+                    precisionType, numTraits, dimTrait, dimProcess, bufferCount, diffusionCount, threadCount
+            );
+        }
+
+        return new SafeMultivariateIntegrator(
+                precisionType, numTraits, dimTrait, dimProcess, bufferCount, diffusionCount
+        );
+    }
+
     private static CDIJNIWrapper getCDIJNIWrapper() {
         if (CDIJNIWrapper.INSTANCE == null) {
             try {
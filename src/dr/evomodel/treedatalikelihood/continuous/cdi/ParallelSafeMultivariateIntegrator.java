@@ -0,0 +1,392 @@
+/*
+ * ParallelSafeMultivariateIntegrator.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.evomodel.treedatalikelihood.continuous.cdi;
+
+import dr.util.TaskScheduler;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A SafeMultivariateIntegrator that divides the traits into contiguous blocks and integrates each
+ * block on its own thread. Traits are conditionally independent given the tree and the diffusion
+ * so each block is held by a separate SafeMultivariateIntegrator with its own partials, remainders
+ * and preallocated workspace matrices; no state is shared between threads during a traversal.
+ * Branch-level quantities (diffusion precisions and branch variances) are small and are computed by
+ * every block so that each is self-contained. Partials are passed in and out in the usual layout
+ * (all traits for a buffer, trait by trait) and are split or gathered at the block boundaries.
+ */
+public class ParallelSafeMultivariateIntegrator implements ContinuousDiffusionIntegrator {
+
+    public ParallelSafeMultivariateIntegrator(PrecisionType precisionType, int numTraits, int dimTrait, int dimProcess,
+                                              int bufferCount, int diffusionCount, int threadCount) {
+
+        assert (precisionType == PrecisionType.FULL);
+
+        this.numTraits = numTraits;
+        this.dimTrait = dimTrait;
+        this.dimPartialForTrait = precisionType.getPartialsDimension(dimTrait);
+        this.dimPartial = numTraits * dimPartialForTrait;
+
+        final int blockCount = Math.max(1, Math.min(numTraits, threadCount));
+        blocks = new SafeMultivariateIntegrator[blockCount];
+        firstTrait = new int[blockCount + 1];
+
+        for (int b = 0; b < blockCount; ++b) {
+            firstTrait[b + 1] = (int) (((long) numTraits * (b + 1)) / blockCount);
+            blocks[b] = new SafeMultivariateIntegrator(precisionType, firstTrait[b + 1] - firstTrait[b],
+                    dimTrait, dimProcess, bufferCount, diffusionCount);
+        }
+
+        blockPartials = new double[blockCount][];
+        blockLogLikelihoods = new double[blockCount][];
+        blockDegreesOfFreedom = new int[blockCount][];
+        blockOuterProducts = new double[blockCount][];
+        for (int b = 0; b < blockCount; ++b) {
+            final int traits = getTraitCount(b);
+            blockPartials[b] = new double[traits * dimPartialForTrait];
+            blockLogLikelihoods[b] = new double[traits];
+            blockDegreesOfFreedom[b] = new int[traits];
+            blockOuterProducts[b] = new double[traits * dimTrait * dimTrait];
+        }
+
+        forkJoinPool = blockCount > 1 ? TaskScheduler.getPool() : null;
+
+        System.err.println("Trying ParallelSafeMultivariateIntegrator with " + blockCount + " trait blocks");
+    }
+
+    private int getTraitCount(int block) {
+        return firstTrait[block + 1] - firstTrait[block];
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    /// Running the blocks
+    ///////////////////////////////////////////////////////////////////////////
+
+    private interface BlockTask {
+        void run(int block);
+    }
+
+    private void forEachBlock(final BlockTask task) {
+        if (forkJoinPool == null) {
+            for (int b = 0; b < blocks.length; ++b) {
+                task.run(b);
+            }
+        } else {
+            forkJoinPool.invoke(new BlockAction(task, 0, blocks.length));
+        }
+    }
+
+    private static class BlockAction extends RecursiveAction {
+
+        BlockAction(BlockTask task, int startBlock, int endBlock) {
+            this.task = task;
+            this.startBlock = startBlock;
+            this.endBlock = endBlock;
+        }
+
+        @Override
+        protected void compute() {
+            if (endBlock - startBlock == 1) {
+                task.run(startBlock);
+            } else {
+                int midBlock = (startBlock + endBlock) >>> 1;
+                invokeAll(new BlockAction(task, startBlock, midBlock),
+                        new BlockAction(task, midBlock, endBlock));
+            }
+        }
+
+        private final BlockTask task;
+        private final int startBlock;
+        private final int endBlock;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    /// Partials, split and gathered by trait block
+    ///////////////////////////////////////////////////////////////////////////
+
+    @Override
+    public void setPostOrderPartial(int bufferIndex, final double[] partial) {
+        assert (partial.length >= dimPartial);
+
+        for (int b = 0; b < blocks.length; ++b) {
+            final double[] slice = blockPartials[b];
+            System.arraycopy(partial, firstTrait[b] * dimPartialForTrait, slice, 0, slice.length);
+            blocks[b].setPostOrderPartial(bufferIndex, slice);
+        }
+    }
+
+    @Override
+    public void getPostOrderPartial(int bufferIndex, final double[] partial) {
+        assert (partial.length >= dimPartial);
+
+        for (int b = 0; b < blocks.length; ++b) {
+            final double[] slice = blockPartials[b];
+            blocks[b].getPostOrderPartial(bufferIndex, slice);
+            System.arraycopy(slice, 0, partial, firstTrait[b] * dimPartialForTrait, slice.length);
+        }
+    }
+
+    @Override
+    public void setPreOrderPartial(int bufferIndex, final double[] partial) {
+        assert (partial.length >= dimPartial);
+
+        for (int b = 0; b < blocks.length; ++b) {
+            final double[] slice = blockPartials[b];
+            System.arraycopy(partial, firstTrait[b] * dimPartialForTrait, slice, 0, slice.length);
+            blocks[b].setPreOrderPartial(bufferIndex, slice);
+        }
+    }
+
+    @Override
+    public void getPreOrderPartial(int bufferIndex, final double[] partial) {
+        assert (partial.length >= dimPartial);
+
+        for (int b = 0; b < blocks.length; ++b) {
+            final double[] slice = blockPartials[b];
+            blocks[b].getPreOrderPartial(bufferIndex, slice);
+            System.arraycopy(slice, 0, partial, firstTrait[b] * dimPartialForTrait, slice.length);
+        }
+    }
+
+    @Override
+    public void setWishartStatistics(final int[] degreesOfFreedom, final double[] outerProducts) {
+        final int matrixSize = dimTrait * dimTrait;
+        for (int b = 0; b < blocks.length; ++b) {
+            System.arraycopy(degreesOfFreedom, firstTrait[b], blockDegreesOfFreedom[b], 0, getTraitCount(b));
+            System.arraycopy(outerProducts, firstTrait[b] * matrixSize, blockOuterProducts[b], 0,
+                    getTraitCount(b) * matrixSize);
+            blocks[b].setWishartStatistics(blockDegreesOfFreedom[b], blockOuterProducts[b]);
+        }
+    }
+
+    @Override
+    public void getWishartStatistics(final int[] degreesOfFreedom, final double[] outerProducts) {
+        final int matrixSize = dimTrait * dimTrait;
+        for (int b = 0; b < blocks.length; ++b) {
+            blocks[b].getWishartStatistics(blockDegreesOfFreedom[b], blockOuterProducts[b]);
+            System.arraycopy(blockDegreesOfFreedom[b], 0, degreesOfFreedom, firstTrait[b], getTraitCount(b));
+            System.arraycopy(blockOuterProducts[b], 0, outerProducts, firstTrait[b] * matrixSize,
+                    getTraitCount(b) * matrixSize);
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    /// Diffusion and branch matrices, computed by every block
+    ///////////////////////////////////////////////////////////////////////////
+
+    @Override
+    public void setDiffusionPrecision(final int diffusionIndex, final double[] matrix, final double logDeterminant) {
+        for (SafeMultivariateIntegrator block : blocks) {
+            block.setDiffusionPrecision(diffusionIndex, matrix, logDeterminant);
+        }
+    }
+
+    @Override
+    public void setDiffusionStationaryVariance(int precisionIndex, final double[] alpha, final double[] rotation) {
+        for (SafeMultivariateIntegrator block : blocks) {
+            block.setDiffusionStationaryVariance(precisionIndex, alpha, rotation);
+        }
+    }
+
+    @Override
+    public void updateBrownianDiffusionMatrices(final int precisionIndex, final int[] probabilityIndices,
+                                                final double[] edgeLengths, final double[] driftRates,
+                                                final int updateCount) {
+        forEachBlock(b -> blocks[b].updateBrownianDiffusionMatrices(precisionIndex, probabilityIndices,
+                edgeLengths, driftRates, updateCount));
+    }
+
+    @Override
+    public void updateOrnsteinUhlenbeckDiffusionMatrices(final int precisionIndex, final int[] probabilityIndices,
+                                                         final double[] edgeLengths, final double[] optimalRates,
+                                                         final double[] strengthOfSelectionMatrix,
+                                                         final double[] rotation,
+                                                         final int updateCount) {
+        forEachBlock(b -> blocks[b].updateOrnsteinUhlenbeckDiffusionMatrices(precisionIndex, probabilityIndices,
+                edgeLengths, optimalRates, strengthOfSelectionMatrix, rotation, updateCount));
+    }
+
+    @Override
+    public void updateIntegratedOrnsteinUhlenbeckDiffusionMatrices(final int precisionIndex,
+                                                                   final int[] probabilityIndices,
+                                                                   final double[] edgeLengths,
+                                                                   final double[] optimalRates,
+                                                                   final double[] strengthOfSelectionMatrix,
+                                                                   final double[] rotation,
+                                                                   final int updateCount) {
+        forEachBlock(b -> blocks[b].updateIntegratedOrnsteinUhlenbeckDiffusionMatrices(precisionIndex,
+                probabilityIndices, edgeLengths, optimalRates, strengthOfSelectionMatrix, rotation, updateCount));
+    }
+
+    @Override
+    public double getBranchLength(int bufferIndex) {
+        return blocks[0].getBranchLength(bufferIndex);
+    }
+
+    @Override
+    public void getBranchMatrices(int bufferIndex, int precisionIndex,
+                                  final double[] precision, final double[] displacement, final double[] actualization) {
+        blocks[0].getBranchMatrices(bufferIndex, precisionIndex, precision, displacement, actualization);
+    }
+
+    @Override
+    public void getBranchPrecision(int bufferIndex, int precisionIndex, double[] precision) {
+        blocks[0].getBranchPrecision(bufferIndex, precisionIndex, precision);
+    }
+
+    @Override
+    public void getBranchVariance(int bufferIndex, int precisionIndex, double[] variance) {
+        blocks[0].getBranchVariance(bufferIndex, precisionIndex, variance);
+    }
+
+    @Override
+    public void getBranchDisplacement(int bufferIndex, double[] displacement) {
+        blocks[0].getBranchDisplacement(bufferIndex, displacement);
+    }
+
+    @Override
+    public void getBranchActualization(int bufferIndex, double[] actualization) {
+        blocks[0].getBranchActualization(bufferIndex, actualization);
+    }
+
+    @Override
+    public void getBranch1mActualization(int bufferIndex, double[] actualization) {
+        blocks[0].getBranch1mActualization(bufferIndex, actualization);
+    }
+
+    @Override
+    public void getBranchExpectation(double[] actualization, double[] parentValue, double[] displacement,
+                                     double[] expectation) {
+        blocks[0].getBranchExpectation(actualization, parentValue, displacement, expectation);
+    }
+
+    @Override
+    public void getRootMatrices(int priorBufferIndex, int precisionIndex,
+                                final double[] precision, final double[] displacement, final double[] actualization) {
+        blocks[0].getRootMatrices(priorBufferIndex, precisionIndex, precision, displacement, actualization);
+    }
+
+    @Override
+    public void getRootPrecision(int priorBufferIndex, int precisionIndex, double[] precision) {
+        blocks[0].getRootPrecision(priorBufferIndex, precisionIndex, precision);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    /// Tree-traversal functions, trait blocks in parallel
+    ///////////////////////////////////////////////////////////////////////////
+
+    @Override
+    public void updatePostOrderPartials(final int[] operations, final int operationCount, final int precisionIndex,
+                                        final boolean computeRemainders, final boolean incrementOuterProducts) {
+        forEachBlock(b -> blocks[b].updatePostOrderPartials(operations, operationCount, precisionIndex,
+                computeRemainders, incrementOuterProducts));
+    }
+
+    @Override
+    public void updatePreOrderPartials(final int[] operations, final int operationCount) {
+        forEachBlock(b -> blocks[b].updatePreOrderPartials(operations, operationCount));
+    }
+
+    @Override
+    public void updatePreOrderPartial(final int kp, final int ip, final int im, final int jp, final int jm) {
+        forEachBlock(b -> blocks[b].updatePreOrderPartial(kp, ip, im, jp, jm));
+    }
+
+    @Override
+    public void calculatePreOrderRoot(final int priorBufferIndex, final int rootNodeIndex, final int precisionIndex) {
+        forEachBlock(b -> blocks[b].calculatePreOrderRoot(priorBufferIndex, rootNodeIndex, precisionIndex));
+    }
+
+    @Override
+    public void calculateRootLogLikelihood(final int rootBufferIndex, final int priorBufferIndex,
+                                           final int precisionIndex, final double[] logLike,
+                                           final boolean incrementOuterProducts, final boolean isIntegratedProcess) {
+        assert (logLike.length == numTraits);
+
+        forEachBlock(b -> blocks[b].calculateRootLogLikelihood(rootBufferIndex, priorBufferIndex, precisionIndex,
+                blockLogLikelihoods[b], incrementOuterProducts, isIntegratedProcess));
+
+        for (int b = 0; b < blocks.length; ++b) {
+            System.arraycopy(blockLogLikelihoods[b], 0, logLike, firstTrait[b], getTraitCount(b));
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    /// Details
+    ///////////////////////////////////////////////////////////////////////////
+
+    @Override
+    public InstanceDetails getDetails() {
+        return blocks[0].getDetails();
+    }
+
+    @Override
+    public int getBufferCount() {
+        return blocks[0].getBufferCount();
+    }
+
+    @Override
+    public int getDimTrait() {
+        return dimTrait;
+    }
+
+    @Override
+    public int getDimProcess() {
+        return blocks[0].getDimProcess();
+    }
+
+    public int getBlockCount() {
+        return blocks.length;
+    }
+
+    @Override
+    public String getReport() {
+        return "Parallel integrator with " + blocks.length + " trait blocks\n" + blocks[0].getReport();
+    }
+
+    @Override
+    public void finalize() throws Throwable {
+        super.finalize();
+    }
+
+    private final int numTraits;
+    private final int dimTrait;
+    private final int dimPartialForTrait;
+    private final int dimPartial;
+
+    private final SafeMultivariateIntegrator[] blocks;
+    private final int[] firstTrait;
+
+    private final double[][] blockPartials;
+    private final double[][] blockLogLikelihoods;
+    private final int[][] blockDegreesOfFreedom;
+    private final double[][] blockOuterProducts;
+
+    private final ForkJoinPool forkJoinPool;
+}
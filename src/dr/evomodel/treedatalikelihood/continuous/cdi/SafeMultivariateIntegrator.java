@@ -121,17 +121,19 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
                 precision, 0, dimTrait * dimTrait);
     }
 
-    private double getEffectiveDimension(int iBuffer) {
-        return partials[iBuffer * dimPartial + effectiveDimensionOffset];
+    // The effective dimension and determinant are held for each trait so these take the offset of the
+    // trait's partial (buffer and trait) rather than the buffer index
+    private double getEffectiveDimension(int bo) {
+        return partials[bo + effectiveDimensionOffset];
     }
 
     @SuppressWarnings("unused")
-    private void setEffectiveDimension(int iBuffer, double effDim) {
-        partials[iBuffer * dimPartial + effectiveDimensionOffset] = effDim;
+    private void setEffectiveDimension(int bo, double effDim) {
+        partials[bo + effectiveDimensionOffset] = effDim;
     }
 
-    private double getPartialDeterminant(int iBuffer) {
-        return partials[iBuffer * dimPartial + determinantOffset];
+    private double getPartialDeterminant(int bo) {
+        return partials[bo + determinantOffset];
     }
 
     ///////////////////////////////////////////////////////////////////////////
@@ -457,7 +459,7 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
                     }
                 } // End if remainder
 
-                double effectiveDimension = getEffectiveDimension(iBuffer) + getEffectiveDimension(jBuffer);
+                double effectiveDimension = getEffectiveDimension(ibo) + getEffectiveDimension(jbo);
                 remainder += -effectiveDimension * LOG_SQRT_2_PI;
 
                 double deti = 0;
@@ -549,11 +551,11 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
             idMinusA(tmp1);
             if (getDeterminant) ci = safeDeterminant(tmp1, true);
             CommonOps.mult(Pi, tmp1, Pip);
-            int effDim = (int) Math.round(getEffectiveDimension(iBuffer));
+            int effDim = (int) Math.round(getEffectiveDimension(ibo));
             if (getDeterminant && effDim > 0) {
                 // effectiveDimension > 0 => a tip node & determinant not included earlier
                 final InversionResult cP;
-                double preCalculatedDeterminant = getPartialDeterminant(iBuffer);
+                double preCalculatedDeterminant = getPartialDeterminant(ibo);
 
                 if (PrecisionType.FULL.isMissingDeterminantValue(preCalculatedDeterminant)) {
                     cP = safeDeterminant(Pi, true);
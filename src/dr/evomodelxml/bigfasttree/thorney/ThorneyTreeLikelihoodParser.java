@@ -47,6 +47,7 @@ import dr.xml.*;
 public class ThorneyTreeLikelihoodParser extends AbstractXMLObjectParser {
 
     public static final String THORNEY_DATA_LIKELIHOOD_DELEGATE = "thorneyTreeLikelihood";
+    public static final String THREAD_COUNT = "threadCount";
 
     public String getParserName() {
         return THORNEY_DATA_LIKELIHOOD_DELEGATE;
@@ -59,7 +60,8 @@ public class ThorneyTreeLikelihoodParser extends AbstractXMLObjectParser {
         MutationBranchMap branchLengthProvider = (MutationBranchMap) xo.getChild(MutationBranchMap.class);
         BranchLengthLikelihoodDelegate branchLengthLikelihoodDelegate = (BranchLengthLikelihoodDelegate) xo.getChild(BranchLengthLikelihoodDelegate.class);
         BranchRateModel branchRateModel = (BranchRateModel) xo.getChild(BranchRateModel.class);
-        ThorneyDataLikelihoodDelegate  dataLikelihoodDelegate = new ThorneyDataLikelihoodDelegate( treeModel, branchLengthProvider, branchLengthLikelihoodDelegate);
+        int threadCount = xo.getAttribute(THREAD_COUNT, 1);
+        ThorneyDataLikelihoodDelegate  dataLikelihoodDelegate = new ThorneyDataLikelihoodDelegate( treeModel, branchLengthProvider, branchLengthLikelihoodDelegate, threadCount);
         
         return new TreeDataLikelihood(dataLikelihoodDelegate, treeModel, branchRateModel);
     }
@@ -80,7 +82,8 @@ public class ThorneyTreeLikelihoodParser extends AbstractXMLObjectParser {
             new ElementRule(TreeModel.class),
             new ElementRule(MutationBranchMap.class),
             new ElementRule(BranchLengthLikelihoodDelegate.class),
-            new ElementRule(BranchRateModel.class)
+            new ElementRule(BranchRateModel.class),
+            AttributeRule.newIntegerRule(THREAD_COUNT, true, "The number of threads used to evaluate the changed branches")
     };
 
     public XMLSyntaxRule[] getSyntaxRules() {
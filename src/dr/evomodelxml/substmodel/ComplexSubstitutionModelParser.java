@@ -54,6 +54,9 @@ public class ComplexSubstitutionModelParser extends AbstractXMLObjectParser {
     public static final String CHECK_CONDITIONING = "checkConditioning";
     public static final String NORMALIZED = "normalized";
     public static final String COMPUTE_STATIONARY = "computeStationary";
+    public static final String DIAGONALIZATION = "diagonalization";
+    public static final String COLT = "colt";
+    public static final String EJML = "ejml";
 
     public static final int maxRandomizationTries = 100;
 
@@ -106,33 +109,16 @@ public class ComplexSubstitutionModelParser extends AbstractXMLObjectParser {
         }
 
         boolean checkConditioning = xo.getAttribute(CHECK_CONDITIONING, true);
-        
+
+        EigenSystem eigenSystem = parseEigenSystem(xo, states, checkConditioning);
+
         ComplexSubstitutionModel model;
 
         if (!xo.hasChildNamed(INDICATOR)) {
-            if (!checkConditioning) {
-
-                if (computeStationaryDistribution) {
-                    model = new ComplexSubstitutionModelAtStationarity(COMPLEX_SUBSTITUTION_MODEL, dataType, ratesParameter) {
-                        protected EigenSystem getDefaultEigenSystem(int stateCount) {
-                            return new ComplexColtEigenSystem(stateCount, false,
-                                    ColtEigenSystem.defaultMaxConditionNumber, ColtEigenSystem.defaultMaxIterations);
-                        }
-                    };
-                } else {
-                    model = new ComplexSubstitutionModel(COMPLEX_SUBSTITUTION_MODEL, dataType, freqModel, ratesParameter) {
-                        protected EigenSystem getDefaultEigenSystem(int stateCount) {
-                            return new ComplexColtEigenSystem(stateCount, false,
-                                    ColtEigenSystem.defaultMaxConditionNumber, ColtEigenSystem.defaultMaxIterations);
-                        }
-                    };
-                }
+            if (computeStationaryDistribution) {
+                model = new ComplexSubstitutionModelAtStationarity(COMPLEX_SUBSTITUTION_MODEL, dataType, ratesParameter, eigenSystem);
             } else {
-                if (computeStationaryDistribution) {
-                    model = new ComplexSubstitutionModelAtStationarity(COMPLEX_SUBSTITUTION_MODEL, dataType, ratesParameter);
-                } else {
-                    model = new ComplexSubstitutionModel(COMPLEX_SUBSTITUTION_MODEL, dataType, freqModel, ratesParameter);
-                }
+                model = new ComplexSubstitutionModel(COMPLEX_SUBSTITUTION_MODEL, dataType, freqModel, ratesParameter, eigenSystem);
             }
         } else {
             
@@ -161,15 +147,7 @@ public class ComplexSubstitutionModelParser extends AbstractXMLObjectParser {
                 }
             }
 
-            if (!checkConditioning) {
-                model = new SVSComplexSubstitutionModel(SVS_COMPLEX_SUBSTITUTION_MODEL, dataType, freqModel, ratesParameter, indicatorParameter) {
-                    protected EigenSystem getDefaultEigenSystem(int stateCount) {
-                        return new ComplexColtEigenSystem(stateCount, false, ColtEigenSystem.defaultMaxConditionNumber, ColtEigenSystem.defaultMaxIterations);
-                    }
-                };
-            } else {
-                model = new SVSComplexSubstitutionModel(SVS_COMPLEX_SUBSTITUTION_MODEL, dataType, freqModel, ratesParameter, indicatorParameter);
-            }
+            model = new SVSComplexSubstitutionModel(SVS_COMPLEX_SUBSTITUTION_MODEL, dataType, freqModel, ratesParameter, indicatorParameter, eigenSystem);
             boolean randomize = xo.getAttribute(RANDOMIZE, false);
             if (randomize) {
                 // Randomization may need multiple tries
@@ -194,6 +172,38 @@ public class ComplexSubstitutionModelParser extends AbstractXMLObjectParser {
         return model;
     }
 
+    /**
+     * Chooses the eigen system for an irreversible model from the 'diagonalization' attribute.
+     *
+     * @return the eigen system or null for the model's default
+     */
+    static EigenSystem parseEigenSystem(XMLObject xo, int stateCount, boolean checkConditioning) throws XMLParseException {
+        if (parseUseEjml(xo)) {
+            return new ComplexEjmlEigenSystem(stateCount, checkConditioning,
+                    ColtEigenSystem.defaultMaxConditionNumber, ColtEigenSystem.defaultMaxIterations);
+        }
+        if (!checkConditioning) {
+            return new ComplexColtEigenSystem(stateCount, false,
+                    ColtEigenSystem.defaultMaxConditionNumber, ColtEigenSystem.defaultMaxIterations);
+        }
+        return null;
+    }
+
+    /**
+     * @return true if the diagonalization attribute asks for EJML rather than Colt
+     */
+    static boolean parseUseEjml(XMLObject xo) throws XMLParseException {
+        String diagonalization = xo.getAttribute(DIAGONALIZATION, COLT);
+        if (diagonalization.equalsIgnoreCase(EJML)) {
+            Logger.getLogger("dr.app.beagle.evomodel").info("\tUsing EJML for the eigen decomposition");
+            return true;
+        } else if (!diagonalization.equalsIgnoreCase(COLT)) {
+            throw new XMLParseException("Unknown " + DIAGONALIZATION + " '" + diagonalization + "' in " +
+                    xo.getName() + " element (should be '" + COLT + "' or '" + EJML + "')");
+        }
+        return false;
+    }
+
     //************************************************************************
     // AbstractXMLObjectParser implementation
     //************************************************************************
@@ -234,5 +244,6 @@ public class ComplexSubstitutionModelParser extends AbstractXMLObjectParser {
             AttributeRule.newBooleanRule(CHECK_CONDITIONING, true),
             AttributeRule.newBooleanRule(NORMALIZED, true),
             AttributeRule.newBooleanRule(COMPUTE_STATIONARY, true),
+            new StringAttributeRule(DIAGONALIZATION, "The eigen decomposition to use", new String[]{COLT, EJML}, true),
     };
 }
@@ -79,7 +79,9 @@ public class GlmSubstitutionModelParser extends AbstractXMLObjectParser {
 
         boolean normalize = xo.getAttribute(NORMALIZE, true);
 
-        GlmSubstitutionModel model = new GlmSubstitutionModel(xo.getId(), dataType, rootFreq, glm);
+        boolean useEjml = ComplexSubstitutionModelParser.parseUseEjml(xo);
+
+        GlmSubstitutionModel model = new GlmSubstitutionModel(xo.getId(), dataType, rootFreq, glm, useEjml);
         model.setNormalization(normalize);
 
         return model;
@@ -112,5 +114,7 @@ public class GlmSubstitutionModelParser extends AbstractXMLObjectParser {
                     new ElementRule(GeneralizedLinearModel.class),
                     new ElementRule(LOG_RATES, Parameter.class)),
             AttributeRule.newBooleanRule(NORMALIZE, true),
+            new StringAttributeRule(ComplexSubstitutionModelParser.DIAGONALIZATION, "The eigen decomposition to use",
+                    new String[]{ComplexSubstitutionModelParser.COLT, ComplexSubstitutionModelParser.EJML}, true),
     };
 }
@@ -32,6 +32,7 @@ import dr.evolution.tree.*;
 import dr.evomodel.tree.TreeLogger;
 import dr.inference.loggers.LogFormatter;
 import dr.inference.loggers.Loggable;
+import dr.inference.loggers.MCLogger;
 import dr.inference.loggers.TabDelimitedFormatter;
 import dr.inference.model.Likelihood;
 import dr.inference.model.Model;
@@ -357,6 +358,8 @@ public class TreeLoggerParser extends LoggerParser {
             logger.setTitle(title);
         }
 
+        logger.setAsynchronous(Boolean.getBoolean(MCLogger.ASYNC_LOGGING));
+
         return logger;
     }
 
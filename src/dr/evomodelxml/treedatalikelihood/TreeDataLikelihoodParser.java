@@ -27,6 +27,7 @@
 
 package dr.evomodelxml.treedatalikelihood;
 
+import beagle.BeagleFactory;
 import dr.evolution.alignment.PatternList;
 import dr.evolution.alignment.Patterns;
 import dr.evolution.tree.Tree;
@@ -124,8 +125,18 @@ public class TreeDataLikelihoodParser extends AbstractXMLObjectParser {
         }
 
         boolean useJava = Boolean.parseBoolean(System.getProperty("java.only", "false"));
+        if (settings.isUsePreOrder()) {
+            if (useJava) {
+                logger.warning("  Java-only computation is not available with pre-order traversal - ignoring this option.");
+            }
+            useJava = false;
+        } else if (!useJava && BeagleFactory.getResourceDetails().isEmpty()) {
+            logger.info("  BEAGLE library not available - using Java implementation.");
+            useJava = true;
+        }
+
         if (useJava) {
-            logger.warning("  Java-only computation is not available - ignoring this option.");
+            useBeagle3MultiPartition = false;
         }
 
         int beagleThreadCount = -1;
@@ -189,7 +200,10 @@ public class TreeDataLikelihoodParser extends AbstractXMLObjectParser {
 
         logger.info("\nCreating tree data likelihood" + plural + " for " + patternLists.size() + " partition" + plural);
 
-        if (beagleInstanceCount > 1) {
+        if (useJava) {
+            // the Java delegate divides the patterns between threads itself
+            beagleInstanceCount = 1;
+        } else if (beagleInstanceCount > 1) {
             logger.info("  dividing each partition between " + beagleInstanceCount + " BEAGLE instances:");
         }
 
@@ -200,16 +214,28 @@ public class TreeDataLikelihoodParser extends AbstractXMLObjectParser {
 
             for (int j = 0; j < bic; j++) {
                 PatternList subPatterns = new Patterns(partitionPatterns, j, bic);
-                DataLikelihoodDelegate dataLikelihoodDelegate = new BeagleDataLikelihoodDelegate(
-                        treeModel,
-                        subPatterns,
-                        branchModels.get(i),
-                        siteRateModels.get(i),
-                        useAmbiguities,
-                        preferGPU,
-                        scalingScheme,
-                        delayRescalingUntilUnderflow,
-                        settings);
+                DataLikelihoodDelegate dataLikelihoodDelegate;
+                if (useJava) {
+                    dataLikelihoodDelegate = new JavaDataLikelihoodDelegate(
+                            treeModel,
+                            subPatterns,
+                            branchModels.get(i),
+                            siteRateModels.get(i),
+                            useAmbiguities,
+                            scalingScheme,
+                            beagleThreadCount);
+                } else {
+                    dataLikelihoodDelegate = new BeagleDataLikelihoodDelegate(
+                            treeModel,
+                            subPatterns,
+                            branchModels.get(i),
+                            siteRateModels.get(i),
+                            useAmbiguities,
+                            preferGPU,
+                            scalingScheme,
+                            delayRescalingUntilUnderflow,
+                            settings);
+                }
 
                 TreeDataLikelihood treeDataLikelihood = new TreeDataLikelihood(
                         dataLikelihoodDelegate,
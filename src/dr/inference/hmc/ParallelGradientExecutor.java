@@ -27,6 +27,8 @@
 
 package dr.inference.hmc;
 
+import dr.util.TaskScheduler;
+
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.*;
@@ -37,8 +39,8 @@ import java.util.concurrent.*;
 
 public class ParallelGradientExecutor {
 
-    private final ExecutorService pool;
     private final List<DerivativeCaller> derivativeCaller;
+    private final long[] estimatedCosts;
 
     interface Reducer {
         double[] reduce(List<Future<double[]>> gradients, int length) throws ExecutionException, InterruptedException;
@@ -48,30 +50,29 @@ public class ParallelGradientExecutor {
 
         assert derivativeList.size() > 1;
 
-        if (threads <= 0) {
-            pool = Executors.newCachedThreadPool();
-        } else {
-            int threadCount = Math.min(threads, derivativeList.size());
-            pool = Executors.newFixedThreadPool(threadCount);
-        }
+        // the gradients are computed by the shared work-stealing scheduler so the number of
+        // threads is no longer set here
 
         derivativeCaller = new ArrayList<>(derivativeList.size());
         for (int i = 0; i < derivativeList.size(); ++i) {
             derivativeCaller.add(new DerivativeCaller(derivativeList.get(i), i));
         }
+        estimatedCosts = new long[derivativeList.size()];
     }
 
     public double[] getDerivativeLogDensityInParallel(JointGradient.DerivativeType derivativeType,
                                                       Reducer reducer, int length) {
 
-        for (DerivativeCaller caller : derivativeCaller) {
+        for (int i = 0; i < derivativeCaller.size(); ++i) {
+            DerivativeCaller caller = derivativeCaller.get(i);
             caller.setDerivativeType(derivativeType);
+            estimatedCosts[i] = caller.getMeanTime();
         }
 
         double[] derivative = null;
 
         try {
-            List<Future<double[]>> results = pool.invokeAll(derivativeCaller);
+            List<Future<double[]>> results = TaskScheduler.invokeAll(derivativeCaller, estimatedCosts);
             derivative = reducer.reduce(results, length);
         } catch (InterruptedException | ExecutionException e) {
             e.printStackTrace();
@@ -93,7 +94,16 @@ public class ParallelGradientExecutor {
                         " with type " + type + " in executor");
             }
 
-            return type.getDerivativeLogDensity(gradient);
+            long time = System.nanoTime();
+            double[] derivative = type.getDerivativeLogDensity(gradient);
+            totalTime += System.nanoTime() - time;
+            count++;
+
+            return derivative;
+        }
+
+        public long getMeanTime() {
+            return count > 0 ? totalTime / count : Long.MAX_VALUE;
         }
 
         public void setDerivativeType(JointGradient.DerivativeType type) {
@@ -104,6 +114,9 @@ public class ParallelGradientExecutor {
         private final int index;
 
         private JointGradient.DerivativeType type;
+
+        private long totalTime = 0;
+        private int count = 0;
     }
 
     public static final boolean DEBUG_PARALLEL_EVALUATION = false;
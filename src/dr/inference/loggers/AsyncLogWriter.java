@@ -0,0 +1,147 @@
+/*
+ * AsyncLogWriter.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.inference.loggers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writes log records on a background thread. The chain thread submits records, which capture
+ * the values to be logged, into a bounded queue and a writer thread formats and writes them in
+ * batches, flushing the output once per batch. When the queue is full the chain waits for the
+ * writer to catch up.
+ */
+public class AsyncLogWriter {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private static final Runnable STOP = () -> { };
+
+    private final BlockingQueue<Runnable> queue;
+    private final List<LogFormatter> formatters;
+    private final Thread thread;
+
+    private volatile Throwable error = null;
+
+    public AsyncLogWriter(String name, List<LogFormatter> formatters) {
+        this(name, formatters, DEFAULT_CAPACITY);
+    }
+
+    public AsyncLogWriter(String name, List<LogFormatter> formatters, int capacity) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.formatters = formatters;
+
+        for (LogFormatter formatter : formatters) {
+            if (formatter instanceof TabDelimitedFormatter) {
+                ((TabDelimitedFormatter) formatter).setAutoFlush(false);
+            }
+        }
+
+        thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queues a record to be written, waiting if the queue is full.
+     */
+    public void submit(Runnable record) {
+        checkError();
+        try {
+            queue.put(record);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting to write log");
+        }
+    }
+
+    /**
+     * Writes any queued records and stops the writer thread.
+     */
+    public void close() {
+        submit(STOP);
+        try {
+            thread.join();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting to write log");
+        }
+
+        for (LogFormatter formatter : formatters) {
+            if (formatter instanceof TabDelimitedFormatter) {
+                ((TabDelimitedFormatter) formatter).setAutoFlush(true);
+            }
+        }
+        checkError();
+    }
+
+    private void checkError() {
+        if (error != null) {
+            throw new RuntimeException("Error writing log: " + error.getMessage(), error);
+        }
+    }
+
+    private void run() {
+        List<Runnable> batch = new ArrayList<>();
+        boolean running = true;
+
+        while (running) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException ie) {
+                return;
+            }
+            queue.drainTo(batch);
+
+            for (Runnable record : batch) {
+                if (record == STOP) {
+                    running = false;
+                    break;
+                }
+                if (error == null) {
+                    try {
+                        record.run();
+                    } catch (Throwable t) {
+                        // keep taking records so the chain doesn't block - the error is
+                        // reported on the chain thread
+                        error = t;
+                    }
+                }
+            }
+            batch.clear();
+
+            for (LogFormatter formatter : formatters) {
+                if (formatter instanceof TabDelimitedFormatter) {
+                    ((TabDelimitedFormatter) formatter).flush();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * ESSLogger.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.inference.loggers;
+
+import dr.inference.trace.BatchMeansESS;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps a running estimate of the effective sample size of each numerical column of the given
+ * loggables using batch means (see BatchMeansESS). The values are sampled every logEvery states
+ * after the burn-in and the estimates are available as log columns (labelled with the source
+ * column's label followed by ".ESS") so they can be written to the screen or a log file while
+ * the chain is running.
+ */
+public class ESSLogger implements Logger, Loggable {
+
+    public ESSLogger(List<Loggable> loggables, long logEvery, long burnin) {
+        this.logEvery = logEvery;
+        this.burnin = burnin;
+
+        for (Loggable loggable : loggables) {
+            for (LogColumn column : loggable.getColumns()) {
+                if (column instanceof NumberColumn) {
+                    sourceColumns.add((NumberColumn) column);
+                    estimators.add(new BatchMeansESS());
+                }
+            }
+        }
+    }
+
+    public int getColumnCount() {
+        return sourceColumns.size();
+    }
+
+    public BatchMeansESS getEstimator(int index) {
+        return estimators.get(index);
+    }
+
+    // **************************************************************
+    // Logger IMPLEMENTATION
+    // **************************************************************
+
+    public void startLogging() {
+        for (BatchMeansESS estimator : estimators) {
+            estimator.reset();
+        }
+        lastState = -1;
+    }
+
+    public void log(long state) {
+        // the final state can be reported twice
+        if (state <= lastState) {
+            return;
+        }
+        lastState = state;
+
+        if (state >= burnin && logEvery > 0 && state % logEvery == 0) {
+            for (int i = 0; i < sourceColumns.size(); i++) {
+                estimators.get(i).add(sourceColumns.get(i).getDoubleValue());
+            }
+        }
+    }
+
+    public void stopLogging() {
+    }
+
+    // **************************************************************
+    // Loggable IMPLEMENTATION
+    // **************************************************************
+
+    public LogColumn[] getColumns() {
+        LogColumn[] columns = new LogColumn[sourceColumns.size()];
+        for (int i = 0; i < columns.length; i++) {
+            final BatchMeansESS estimator = estimators.get(i);
+            columns[i] = new NumberColumn(sourceColumns.get(i).getLabel() + ".ESS") {
+                public double getDoubleValue() {
+                    return estimator.getESS();
+                }
+            };
+        }
+        return columns;
+    }
+
+    private final long logEvery;
+    private final long burnin;
+
+    private final List<NumberColumn> sourceColumns = new ArrayList<NumberColumn>();
+    private final List<BatchMeansESS> estimators = new ArrayList<BatchMeansESS>();
+
+    private long lastState = -1;
+}
@@ -45,6 +45,11 @@ import java.util.stream.Collectors;
 public class MCLogger implements Logger {
 
     private static final int PERFORMANCE_SAMPLE_SIZE = 100;
+
+    /**
+     * System property to write file logs on a background thread
+     */
+    public static final String ASYNC_LOGGING = "log.async";
     /**
      * Output performance stats in this log
      */
@@ -168,28 +173,95 @@ public class MCLogger implements Logger {
         return columns.get(index).getFormatted();
     }
 
-    protected void logHeading(String heading) {
-        for (LogFormatter formatter : formatters) {
-            formatter.logHeading(heading);
+    /**
+     * Sets whether this logger writes on a background thread. Must be called before startLogging.
+     */
+    public void setAsynchronous(boolean asynchronous) {
+        this.asynchronous = asynchronous;
+    }
+
+    public boolean isAsynchronous() {
+        return asynchronous;
+    }
+
+    /**
+     * Starts the background writer if this logger is asynchronous. Anything logged before this
+     * is called is written directly.
+     */
+    protected void startAsynchronousLogging() {
+        if (asynchronous && asyncWriter == null) {
+            final int columnCount = getColumnCount();
+            fullPrecisionColumns = new boolean[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                fullPrecisionColumns[i] = isFullPrecisionColumn(getColumn(i));
+            }
+
+            asyncWriter = new AsyncLogWriter("log-writer" + (title != null ? ": " + title.split("\n")[0] : ""), formatters);
         }
     }
 
-    protected void logLine(String line) {
-        for (LogFormatter formatter : formatters) {
-            formatter.logLine(line);
+    /**
+     * Queues a record to be written by the background writer or, if this logger is not
+     * writing asynchronously, writes it immediately.
+     */
+    protected void writeRecord(Runnable record) {
+        if (asyncWriter != null) {
+            asyncWriter.submit(record);
+        } else {
+            record.run();
         }
     }
 
+    protected boolean isWritingAsynchronously() {
+        return asyncWriter != null;
+    }
+
+    /**
+     * A column whose value can be captured as a double and formatted later on another thread
+     * giving the same text (see NumberColumn.canFormatLater()).
+     */
+    private static boolean isFullPrecisionColumn(LogColumn column) {
+        return column instanceof NumberColumn && ((NumberColumn) column).canFormatLater();
+    }
+
+    protected void logHeading(String heading) {
+        // the destinations are those at the time of logging, not when the record is written
+        final List<LogFormatter> targets = formatters;
+        writeRecord(() -> {
+            for (LogFormatter formatter : targets) {
+                formatter.logHeading(heading);
+            }
+        });
+    }
+
+    protected void logLine(String line) {
+        // the destinations are those at the time of logging, not when the record is written
+        final List<LogFormatter> targets = formatters;
+        writeRecord(() -> {
+            for (LogFormatter formatter : targets) {
+                formatter.logLine(line);
+            }
+        });
+    }
+
     protected void logLabels(String[] labels) {
-        for (LogFormatter formatter : formatters) {
-            formatter.logLabels(labels);
-        }
+        // the destinations are those at the time of logging, not when the record is written
+        final List<LogFormatter> targets = formatters;
+        writeRecord(() -> {
+            for (LogFormatter formatter : targets) {
+                formatter.logLabels(labels);
+            }
+        });
     }
 
     protected void logValues(String[] values) {
-        for (LogFormatter formatter : formatters) {
-            formatter.logValues(values);
-        }
+        // the destinations are those at the time of logging, not when the record is written
+        final List<LogFormatter> targets = formatters;
+        writeRecord(() -> {
+            for (LogFormatter formatter : targets) {
+                formatter.logValues(values);
+            }
+        });
     }
 
     public void startLogging() {
@@ -222,6 +294,8 @@ public class MCLogger implements Logger {
 
             logLabels(labels);
         }
+
+        startAsynchronousLogging();
     }
 
     public final void log(int state) {
@@ -245,8 +319,15 @@ public class MCLogger implements Logger {
 
             values[0] = Long.toString(state);
 
+            // when writing asynchronously full precision numbers are formatted by the writer
+            final double[] numbers = (asyncWriter != null ? new double[columnCount] : null);
+
             for (int i = 0; i < columnCount; i++) {
-                values[i + 1] = getColumnFormatted(i);
+                if (numbers != null && fullPrecisionColumns[i]) {
+                    numbers[i] = ((NumberColumn) getColumn(i)).getDoubleValue();
+                } else {
+                    values[i + 1] = getColumnFormatted(i);
+                }
             }
 
             if (performanceReport) {
@@ -276,7 +357,21 @@ public class MCLogger implements Logger {
                 }
             }
 
-            logValues(values);
+            if (numbers != null) {
+                final List<LogFormatter> targets = formatters;
+                asyncWriter.submit(() -> {
+                    for (int i = 0; i < columnCount; i++) {
+                        if (fullPrecisionColumns[i]) {
+                            values[i + 1] = Double.toString(numbers[i]);
+                        }
+                    }
+                    for (LogFormatter formatter : targets) {
+                        formatter.logValues(values);
+                    }
+                });
+            } else {
+                logValues(values);
+            }
         }
 
         if (performanceReport && !performanceReportStarted && state >= performanceReportDelay) {
@@ -287,6 +382,12 @@ public class MCLogger implements Logger {
 
     public void stopLogging() {
 
+        if (asyncWriter != null) {
+            // write everything still queued
+            asyncWriter.close();
+            asyncWriter = null;
+        }
+
         for (LogFormatter formatter : formatters) {
             formatter.stopLogging();
         }
@@ -300,12 +401,31 @@ public class MCLogger implements Logger {
 
     protected long logEvery = 0;
 
+    private boolean asynchronous = false;
+    private AsyncLogWriter asyncWriter = null;
+    private boolean[] fullPrecisionColumns = null;
+
     public List<LogFormatter> getFormatters() {
         return formatters;
     }
 
+    /**
+     * Changes the destinations of this logger (used by MCMCMC to move the output between chains).
+     * If writing asynchronously, everything queued for the current destinations is written and
+     * the writer stopped first so the destinations are never written by two threads. A new writer
+     * is started if there are new destinations.
+     */
     public void setFormatters(List<LogFormatter> formatters) {
+        if (asyncWriter != null) {
+            asyncWriter.close();
+            asyncWriter = null;
+        }
+
         this.formatters = formatters;
+
+        if (asynchronous && !formatters.isEmpty()) {
+            startAsynchronousLogging();
+        }
     }
 
     protected List<LogFormatter> formatters = new ArrayList<LogFormatter>();
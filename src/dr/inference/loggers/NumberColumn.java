@@ -100,6 +100,15 @@ public abstract class NumberColumn extends LogColumn.Abstract {
 	 * Returns -1 if maximum d.p. are to be used.
 	 */
 	public int getDecimalPlaces() { return dp; }
+
+	/**
+	 * Whether the value can be captured as a double and formatted later (possibly on another
+	 * thread) giving the same text, i.e. the column is at full precision with no minimum width.
+	 * Subclasses that change the formatting must override this to return false.
+	 */
+	public boolean canFormatLater() {
+		return sf < 0 && dp < 0 && getMinimumWidth() <= 0;
+	}
 	
 
     public String formatValue(double value) {
@@ -60,6 +60,10 @@ public class PercentColumn extends NumberColumn {
         return column.getMinimumWidth();
     }
 
+    public boolean canFormatLater() {
+        return false;
+    }
+
     public String getFormattedValue() {
         double val = column.getDoubleValue();
         if( val >= 0 && val <= 1 ) {
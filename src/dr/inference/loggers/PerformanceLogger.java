@@ -0,0 +1,274 @@
+/*
+ * PerformanceLogger.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.inference.loggers;
+
+import dr.inference.model.CompoundLikelihood;
+import dr.inference.model.Likelihood;
+import dr.inference.operators.MCMCOperator;
+import dr.inference.operators.OperatorSchedule;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Reports where the time is being spent in a run: the evaluation time and count for each of the
+ * components of the given compound likelihoods and the evaluation, store/restore time and acceptance
+ * rate of each operator. All times are recorded in nanoseconds. These are available as log columns
+ * and can be periodically written to a JSON file (a snapshot replaced at each report) or a CSV file
+ * (a row per component appended at each report).
+ */
+public class PerformanceLogger implements Logger, Loggable {
+
+    public enum Format {
+        JSON,
+        CSV
+    }
+
+    public PerformanceLogger(OperatorSchedule schedule, List<Likelihood> likelihoods,
+                             String fileName, Format format, long logEvery) {
+        this.schedule = schedule;
+        this.fileName = fileName;
+        this.format = format;
+        this.logEvery = logEvery;
+
+        for (Likelihood likelihood : likelihoods) {
+            if (likelihood instanceof CompoundLikelihood) {
+                addComponents((CompoundLikelihood) likelihood);
+            }
+        }
+    }
+
+    private void addComponents(CompoundLikelihood compoundLikelihood) {
+        if (compoundLikelihood.getEvaluationTimes() == null) {
+            // evaluation timers are switched off
+            return;
+        }
+        for (int i = 0; i < compoundLikelihood.getLikelihoodCount(); i++) {
+            Likelihood likelihood = compoundLikelihood.getLikelihood(i);
+            components.add(new LikelihoodComponent(compoundLikelihood, i));
+            if (likelihood instanceof CompoundLikelihood) {
+                addComponents((CompoundLikelihood) likelihood);
+            }
+        }
+    }
+
+    // **************************************************************
+    // Logger IMPLEMENTATION
+    // **************************************************************
+
+    public void startLogging() {
+        startTime = System.nanoTime();
+        if (fileName != null && format == Format.CSV) {
+            try (PrintWriter writer = new PrintWriter(new FileWriter(fileName))) {
+                writer.println("state,elapsed,type,name,count,total_time,mean_time,store_restore_time,acceptance");
+            } catch (IOException ioe) {
+                throw new RuntimeException("Unable to write performance report: " + ioe.getMessage());
+            }
+        }
+    }
+
+    public void log(long state) {
+        if (fileName != null && logEvery > 0 && state % logEvery == 0) {
+            writeReport(state);
+        }
+        lastState = state;
+    }
+
+    public void stopLogging() {
+        if (fileName != null) {
+            writeReport(lastState);
+        }
+    }
+
+    private void writeReport(long state) {
+        try {
+            if (format == Format.JSON) {
+                // written to a temporary file and moved so the report is never seen half written
+                File file = new File(fileName);
+                File tempFile = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+                try (PrintWriter writer = new PrintWriter(new FileWriter(tempFile))) {
+                    writeJSON(writer, state);
+                }
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                try (PrintWriter writer = new PrintWriter(new FileWriter(fileName, true))) {
+                    writeCSV(writer, state);
+                }
+            }
+        } catch (IOException ioe) {
+            throw new RuntimeException("Unable to write performance report: " + ioe.getMessage());
+        }
+    }
+
+    private void writeJSON(PrintWriter writer, long state) {
+        writer.println("{");
+        writer.println("  \"state\": " + state + ",");
+        writer.println("  \"elapsed\": " + getElapsedTime() + ",");
+        writer.println("  \"likelihoods\": [");
+        for (int i = 0; i < components.size(); i++) {
+            LikelihoodComponent component = components.get(i);
+            writer.print(String.format(Locale.US,
+                    "    {\"name\": \"%s\", \"count\": %d, \"total_time\": %d, \"mean_time\": %.1f}",
+                    escape(component.getName()), component.getCount(), component.getTime(), component.getMeanTime()));
+            writer.println(i < components.size() - 1 ? "," : "");
+        }
+        writer.println("  ],");
+        writer.println("  \"operators\": [");
+        int operatorCount = (schedule != null ? schedule.getOperatorCount() : 0);
+        for (int i = 0; i < operatorCount; i++) {
+            MCMCOperator op = schedule.getOperator(i);
+            writer.print(String.format(Locale.US,
+                    "    {\"name\": \"%s\", \"count\": %d, \"total_time\": %d, \"mean_time\": %.1f, \"store_restore_time\": %d, \"acceptance\": %s}",
+                    escape(op.getOperatorName()), op.getCount(), op.getTotalEvaluationTime(), getMeanTime(op),
+                    op.getTotalStoreRestoreTime(), formatAcceptance(op)));
+            writer.println(i < operatorCount - 1 ? "," : "");
+        }
+        writer.println("  ]");
+        writer.println("}");
+    }
+
+    private void writeCSV(PrintWriter writer, long state) {
+        long elapsed = getElapsedTime();
+        for (LikelihoodComponent component : components) {
+            writer.println(String.format(Locale.US, "%d,%d,likelihood,\"%s\",%d,%d,%.1f,,",
+                    state, elapsed, component.getName().replace("\"", "\"\""), component.getCount(),
+                    component.getTime(), component.getMeanTime()));
+        }
+        int operatorCount = (schedule != null ? schedule.getOperatorCount() : 0);
+        for (int i = 0; i < operatorCount; i++) {
+            MCMCOperator op = schedule.getOperator(i);
+            writer.println(String.format(Locale.US, "%d,%d,operator,\"%s\",%d,%d,%.1f,%d,%s",
+                    state, elapsed, op.getOperatorName().replace("\"", "\"\""), op.getCount(),
+                    op.getTotalEvaluationTime(), getMeanTime(op), op.getTotalStoreRestoreTime(), formatAcceptance(op)));
+        }
+    }
+
+    private long getElapsedTime() {
+        return startTime > 0 ? System.nanoTime() - startTime : 0;
+    }
+
+    private static double getMeanTime(MCMCOperator op) {
+        return op.getCount() > 0 ? (double) op.getTotalEvaluationTime() / op.getCount() : 0.0;
+    }
+
+    private static String formatAcceptance(MCMCOperator op) {
+        return op.getCount() > 0 ? String.format(Locale.US, "%.4f", op.getAcceptanceProbability()) : "0";
+    }
+
+    private static String escape(String name) {
+        return name.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    // **************************************************************
+    // Loggable IMPLEMENTATION
+    // **************************************************************
+
+    public LogColumn[] getColumns() {
+        List<LogColumn> columns = new ArrayList<LogColumn>();
+        for (final LikelihoodComponent component : components) {
+            columns.add(new NumberColumn(component.getName() + ".time") {
+                public double getDoubleValue() {
+                    return component.getMeanTime();
+                }
+            });
+            columns.add(new NumberColumn(component.getName() + ".count") {
+                public double getDoubleValue() {
+                    return component.getCount();
+                }
+            });
+        }
+        int operatorCount = (schedule != null ? schedule.getOperatorCount() : 0);
+        for (int i = 0; i < operatorCount; i++) {
+            final MCMCOperator op = schedule.getOperator(i);
+            columns.add(new NumberColumn(op.getOperatorName() + ".time") {
+                public double getDoubleValue() {
+                    return getMeanTime(op);
+                }
+            });
+            columns.add(new NumberColumn(op.getOperatorName() + ".storeRestoreTime") {
+                public double getDoubleValue() {
+                    return op.getCount() > 0 ? (double) op.getTotalStoreRestoreTime() / op.getCount() : 0.0;
+                }
+            });
+            columns.add(new NumberColumn(op.getOperatorName() + ".acceptance") {
+                public double getDoubleValue() {
+                    return op.getCount() > 0 ? op.getAcceptanceProbability() : 0.0;
+                }
+            });
+        }
+        return columns.toArray(new LogColumn[columns.size()]);
+    }
+
+    /**
+     * A component of a compound likelihood using its evaluation timers.
+     */
+    private static class LikelihoodComponent {
+
+        LikelihoodComponent(CompoundLikelihood parent, int index) {
+            this.parent = parent;
+            this.index = index;
+            Likelihood likelihood = parent.getLikelihood(index);
+            this.name = (likelihood.getId() != null ? likelihood.getId() : likelihood.prettyName());
+        }
+
+        String getName() {
+            return name;
+        }
+
+        int getCount() {
+            return parent.getEvaluationCounts()[index];
+        }
+
+        long getTime() {
+            return parent.getEvaluationTimes()[index];
+        }
+
+        double getMeanTime() {
+            int count = getCount();
+            return count > 0 ? (double) getTime() / count : 0.0;
+        }
+
+        private final CompoundLikelihood parent;
+        private final int index;
+        private final String name;
+    }
+
+    private final OperatorSchedule schedule;
+    private final List<LikelihoodComponent> components = new ArrayList<LikelihoodComponent>();
+
+    private final String fileName;
+    private final Format format;
+    private final long logEvery;
+
+    private long startTime = 0;
+    private long lastState = 0;
+}
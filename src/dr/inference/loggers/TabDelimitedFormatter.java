@@ -43,6 +43,9 @@ public class TabDelimitedFormatter implements LogFormatter {
     private final boolean outputLabels;
     private final boolean closeFile;
 
+    // when false the caller is responsible for flushing
+    private boolean autoFlush = true;
+
 
     public TabDelimitedFormatter(PrintWriter printWriter) {
         this.printWriter = printWriter;
@@ -79,7 +82,9 @@ public class TabDelimitedFormatter implements LogFormatter {
 
     public void logLine(String line) {
         printWriter.println(line);
-        printWriter.flush();
+        if (autoFlush) {
+            printWriter.flush();
+        }
     }
 
     public void logLabels(String[] labels) {
@@ -110,6 +115,16 @@ public class TabDelimitedFormatter implements LogFormatter {
         }
 
         printWriter.println();
+        if (autoFlush) {
+            printWriter.flush();
+        }
+    }
+
+    public void setAutoFlush(boolean autoFlush) {
+        this.autoFlush = autoFlush;
+    }
+
+    public void flush() {
         printWriter.flush();
     }
 
@@ -63,6 +63,8 @@ public final class MarkovChain implements Serializable {
     private double bestScore, currentScore, initialScore;
     private long currentLength;
 
+    private ModelGraph modelGraph = ModelGraph.CONNECTED;
+
     private final boolean useAdaptation;
     private boolean isCurrentlyAdapting;
 
@@ -204,7 +206,13 @@ public final class MarkovChain implements Serializable {
 
             // The current model is stored here in case the proposal fails
             if (currentModel != null) {
-                currentModel.storeModelState();
+                if (PROFILE) {
+                    long storeTime = System.nanoTime();
+                    currentModel.storeModelState();
+                    mcmcOperator.addStoreRestoreTime(System.nanoTime() - storeTime);
+                } else {
+                    currentModel.storeModelState();
+                }
             }
 
             // assert Profiler.stopProfile("Store");
@@ -253,7 +261,7 @@ public final class MarkovChain implements Serializable {
                 long elapsedTime = 0;
                 long calculationCount = 0;
                 if (PROFILE) {
-                    elapsedTime = System.currentTimeMillis();
+                    elapsedTime = System.nanoTime();
                     if (likelihood instanceof Profileable) {
                         calculationCount = ((Profileable) likelihood).getTotalCalculationCount();
                     }
@@ -263,7 +271,7 @@ public final class MarkovChain implements Serializable {
                 score = evaluate(likelihood);
 
                 if (PROFILE) {
-                    long duration = System.currentTimeMillis() - elapsedTime;
+                    long duration = System.nanoTime() - elapsedTime;
                     mcmcOperator.addEvaluationTime(duration);
                     long newCalculationCount = (likelihood instanceof Profileable) ?
                             ((Profileable) likelihood).getTotalCalculationCount() : 1;
@@ -401,7 +409,13 @@ public final class MarkovChain implements Serializable {
 
                 // assert Profiler.startProfile("Restore");
 
-                currentModel.restoreModelState();
+                if (PROFILE) {
+                    long restoreTime = System.nanoTime();
+                    currentModel.restoreModelState();
+                    mcmcOperator.addStoreRestoreTime(System.nanoTime() - restoreTime);
+                } else {
+                    currentModel.restoreModelState();
+                }
 
                 if (usingFullEvaluation) {
                     // This is a test that the state is correctly restored. The
@@ -490,6 +504,21 @@ public final class MarkovChain implements Serializable {
         return schedule;
     }
 
+    /**
+     * @return the parameters and models that make up the state of this chain
+     */
+    public ModelGraph getModelGraph() {
+        return modelGraph;
+    }
+
+    /**
+     * Sets the parameters and models that make up the state of this chain (by default everything
+     * connected in the process).
+     */
+    public void setModelGraph(ModelGraph modelGraph) {
+        this.modelGraph = modelGraph;
+    }
+
     public Acceptor getAcceptor() {
         return acceptor;
     }
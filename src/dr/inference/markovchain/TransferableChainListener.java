@@ -0,0 +1,43 @@
+/*
+ * TransferableChainListener.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.inference.markovchain;
+
+/**
+ * A chain listener that accumulates something over the run which should stay with the cold
+ * chain. When MCMCMC changes which chain is cold, the listener of the old cold chain swaps
+ * what it has accumulated with the corresponding listener of the new one.
+ */
+public interface TransferableChainListener extends MarkovChainListener {
+
+    /**
+     * Exchanges the accumulated state with the corresponding listener of another chain.
+     *
+     * @param other a listener of the same type (and for the same targets) in another chain
+     */
+    void swapState(TransferableChainListener other);
+}
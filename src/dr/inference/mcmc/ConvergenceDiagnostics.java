@@ -0,0 +1,427 @@
+/*
+ * ConvergenceDiagnostics.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.inference.mcmc;
+
+import dr.inference.loggers.LogColumn;
+import dr.inference.loggers.Loggable;
+import dr.inference.loggers.NumberColumn;
+import dr.inference.markovchain.MarkovChain;
+import dr.inference.markovchain.TransferableChainListener;
+import dr.inference.model.Model;
+import dr.inference.trace.BatchMeansESS;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * Convergence diagnostics computed while the chain is running. The numerical columns of the
+ * target loggables are sampled every sampleEvery states after the burn-in and a running mean,
+ * variance, batch means ESS (see BatchMeansESS) and split-R-hat (the samples are divided into
+ * segments which are compared as if they were separate chains) are kept for each.
+ *
+ * Every checkEvery states a summary is written to a file (if given). The summaries written by
+ * independent replicates of the same analysis can be given as replicate files, in which case
+ * the ESSs are summed over the replicates and the R-hat is computed using the segments of all
+ * of them. Replicate files that were last written before this run started are left over from
+ * a previous analysis and are ignored. If stopEarly is set, the chain is stopped once every target has reached the ESS
+ * threshold and (if given) is below the R-hat threshold.
+ *
+ * Under MCMCMC the diagnostics follow the cold chain, in the same way as the loggers do.
+ */
+public class ConvergenceDiagnostics implements TransferableChainListener, Loggable {
+
+    public static final int DEFAULT_SEGMENT_COUNT = 4;
+
+    public ConvergenceDiagnostics(List<Loggable> targets, long sampleEvery, long burnin, int segmentCount,
+                                  long checkEvery, double essThreshold, double rHatThreshold,
+                                  boolean stopEarly, String fileName, List<String> replicateFileNames) {
+        this.sampleEvery = sampleEvery;
+        this.burnin = burnin;
+        this.segmentCount = segmentCount;
+        this.checkEvery = checkEvery;
+        this.essThreshold = essThreshold;
+        this.rHatThreshold = rHatThreshold;
+        this.stopEarly = stopEarly;
+        this.fileName = fileName;
+        this.replicateFileNames = replicateFileNames;
+
+        for (Loggable loggable : targets) {
+            for (LogColumn column : loggable.getColumns()) {
+                if (column instanceof NumberColumn) {
+                    columns.add((NumberColumn) column);
+                }
+            }
+        }
+        state = new DiagnosticState(columns.size());
+
+        // file times may only be kept to the second
+        startTime = System.currentTimeMillis() / 1000 * 1000;
+    }
+
+    public int getTargetCount() {
+        return columns.size();
+    }
+
+    public String getTargetName(int index) {
+        return columns.get(index).getLabel();
+    }
+
+    public BatchMeansESS getEstimator(int index) {
+        return state.estimators[index];
+    }
+
+    /**
+     * @return the ESS of the target (summed over the replicates) at the last check
+     */
+    public double getESS(int index) {
+        return state.ess[index];
+    }
+
+    /**
+     * @return the split-R-hat of the target (over all the replicates) at the last check
+     */
+    public double getRHat(int index) {
+        return state.rHat[index];
+    }
+
+    /**
+     * @return true if all the targets had converged at the last check
+     */
+    public boolean hasConverged() {
+        return state.converged;
+    }
+
+    // **************************************************************
+    // TransferableChainListener IMPLEMENTATION
+    // **************************************************************
+
+    /**
+     * Exchanges the accumulated samples with another instance (for the same targets of a
+     * different chain). Used by MCMCMC when the cold chain changes.
+     */
+    public void swapState(TransferableChainListener other) {
+        if (!(other instanceof ConvergenceDiagnostics) ||
+                ((ConvergenceDiagnostics) other).columns.size() != columns.size()) {
+            throw new IllegalArgumentException("Diagnostics have different targets");
+        }
+        ConvergenceDiagnostics diagnostics = (ConvergenceDiagnostics) other;
+        DiagnosticState tmp = state;
+        state = diagnostics.state;
+        diagnostics.state = tmp;
+    }
+
+    // **************************************************************
+    // MarkovChainListener IMPLEMENTATION
+    // **************************************************************
+
+    public void currentState(long currentState, MarkovChain markovChain, Model currentModel) {
+        if (currentState <= state.lastState) {
+            return;
+        }
+        state.lastState = currentState;
+
+        if (currentState >= burnin && currentState % sampleEvery == 0) {
+            for (int i = 0; i < columns.size(); i++) {
+                state.estimators[i].add(columns.get(i).getDoubleValue());
+            }
+        }
+
+        if (checkEvery > 0 && currentState > 0 && currentState % checkEvery == 0) {
+            check(currentState);
+            if (stopEarly && state.converged && !markovChain.isStopped()) {
+                Logger.getLogger("dr.inference").info("All convergence targets have been reached at state " +
+                        currentState + ": stopping the chain");
+                markovChain.pleaseStop();
+            }
+        }
+    }
+
+    public void bestState(long state, MarkovChain markovChain, Model bestModel) {
+    }
+
+    public void finished(long chainLength, MarkovChain markovChain) {
+        check(chainLength);
+    }
+
+    /**
+     * Updates the diagnostics (combining with any replicates) and writes the summary
+     */
+    public void check(long currentState) {
+        List<Map<String, Summary>> replicates = readReplicates();
+
+        boolean converged = true;
+        for (int i = 0; i < columns.size(); i++) {
+            String name = columns.get(i).getLabel();
+            BatchMeansESS estimator = state.estimators[i];
+            double[][] segments = estimator.getSegmentStatistics(segmentCount);
+
+            double ess = estimator.getESS();
+            List<double[]> allSegments = new ArrayList<double[]>();
+            if (segments != null) {
+                allSegments.addAll(Arrays.asList(segments));
+            }
+            for (Map<String, Summary> replicate : replicates) {
+                Summary summary = replicate.get(name);
+                if (summary != null) {
+                    ess += summary.ess;
+                    allSegments.addAll(summary.segments);
+                }
+            }
+            state.ess[i] = ess;
+            state.rHat[i] = getRHat(allSegments);
+
+            boolean isConstant = estimator.getSampleCount() > 1 && estimator.getVariance() == 0.0;
+            if (!isConstant) {
+                if (!(ess >= essThreshold)) {
+                    converged = false;
+                }
+                if (rHatThreshold > 0.0 && !(state.rHat[i] <= rHatThreshold)) {
+                    converged = false;
+                }
+            }
+        }
+        state.converged = converged;
+
+        if (fileName != null) {
+            writeSummary(currentState);
+        }
+    }
+
+    /**
+     * Computes the potential scale reduction factor (Gelman et al. 2013, BDA3) treating each
+     * segment as a separate chain. If the segments are different lengths the mean length is used.
+     *
+     * @param segments the number of samples, mean and sum of squared deviations of each segment
+     * @return R-hat or NaN if there are fewer than two segments
+     */
+    public static double getRHat(List<double[]> segments) {
+        int m = segments.size();
+        if (m < 2) {
+            return Double.NaN;
+        }
+        double n = 0.0;
+        double grandMean = 0.0;
+        double w = 0.0;
+        for (double[] segment : segments) {
+            if (segment[0] < 2) {
+                return Double.NaN;
+            }
+            n += segment[0];
+            grandMean += segment[1];
+            w += segment[2] / (segment[0] - 1);
+        }
+        n /= m;
+        grandMean /= m;
+        w /= m;
+
+        double betweenVariance = 0.0;
+        for (double[] segment : segments) {
+            double delta = segment[1] - grandMean;
+            betweenVariance += delta * delta;
+        }
+        betweenVariance /= (m - 1);
+
+        if (w == 0.0) {
+            return betweenVariance == 0.0 ? 1.0 : Double.POSITIVE_INFINITY;
+        }
+        double varPlus = ((n - 1) / n) * w + betweenVariance;
+        return Math.sqrt(varPlus / w);
+    }
+
+    // **************************************************************
+    // Summary files
+    // **************************************************************
+
+    private static final String HEADER = "statistic\tsamples\tmean\tvariance\tESS\tRhat";
+
+    private void writeSummary(long currentState) {
+        try {
+            // written to a temporary file and moved so a replicate never reads it half written
+            File file = new File(fileName);
+            File tempFile = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+            try (PrintWriter writer = new PrintWriter(new FileWriter(tempFile))) {
+                writer.println("# state " + currentState + (state.converged ? " converged" : ""));
+                StringBuilder header = new StringBuilder(HEADER);
+                for (int k = 0; k < segmentCount; k++) {
+                    header.append("\tsegment").append(k + 1).append(".samples");
+                    header.append("\tsegment").append(k + 1).append(".mean");
+                    header.append("\tsegment").append(k + 1).append(".ss");
+                }
+                writer.println(header);
+
+                for (int i = 0; i < columns.size(); i++) {
+                    BatchMeansESS estimator = state.estimators[i];
+                    StringBuilder line = new StringBuilder(columns.get(i).getLabel());
+                    line.append("\t").append(estimator.getSampleCount());
+                    line.append("\t").append(estimator.getMean());
+                    line.append("\t").append(estimator.getVariance());
+                    // the ESS and segments of this chain alone so the replicates can combine them
+                    line.append("\t").append(estimator.getESS());
+                    line.append("\t").append(state.rHat[i]);
+                    double[][] segments = estimator.getSegmentStatistics(segmentCount);
+                    if (segments != null) {
+                        for (double[] segment : segments) {
+                            line.append("\t").append((long) segment[0]);
+                            line.append("\t").append(segment[1]);
+                            line.append("\t").append(segment[2]);
+                        }
+                    }
+                    writer.println(line);
+                }
+            }
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ioe) {
+            throw new RuntimeException("Unable to write convergence diagnostics: " + ioe.getMessage());
+        }
+    }
+
+    private List<Map<String, Summary>> readReplicates() {
+        List<Map<String, Summary>> replicates = new ArrayList<Map<String, Summary>>();
+        if (replicateFileNames != null) {
+            for (String replicateFileName : replicateFileNames) {
+                Map<String, Summary> summaries = readSummary(new File(replicateFileName));
+                if (summaries != null) {
+                    replicates.add(summaries);
+                }
+            }
+        }
+        return replicates;
+    }
+
+    /**
+     * @return the summaries in the file or null if it doesn't exist or was written before this
+     * run started (i.e., the replicate hasn't got as far as writing one) or can't be read
+     */
+    private Map<String, Summary> readSummary(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        if (file.lastModified() < startTime) {
+            if (staleFileNames.add(file.getPath())) {
+                Logger.getLogger("dr.inference").warning("Ignoring convergence diagnostics of replicate " +
+                        file.getName() + " which were written before this run started");
+            }
+            return null;
+        }
+        Map<String, Summary> summaries = new HashMap<String, Summary>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("#") || line.startsWith(HEADER) || line.trim().length() == 0) {
+                    continue;
+                }
+                String[] fields = line.split("\t");
+                Summary summary = new Summary();
+                summary.ess = Double.parseDouble(fields[4]);
+                if (Double.isNaN(summary.ess)) {
+                    summary.ess = 0.0;
+                }
+                for (int j = 6; j + 2 < fields.length; j += 3) {
+                    summary.segments.add(new double[]{
+                            Double.parseDouble(fields[j]),
+                            Double.parseDouble(fields[j + 1]),
+                            Double.parseDouble(fields[j + 2])});
+                }
+                summaries.put(fields[0], summary);
+            }
+        } catch (IOException | RuntimeException e) {
+            Logger.getLogger("dr.inference").warning("Unable to read convergence diagnostics of replicate " +
+                    file.getName() + ": " + e.getMessage());
+            return null;
+        }
+        return summaries;
+    }
+
+    private static class Summary {
+        double ess;
+        final List<double[]> segments = new ArrayList<double[]>();
+    }
+
+    // **************************************************************
+    // Loggable IMPLEMENTATION
+    // **************************************************************
+
+    public LogColumn[] getColumns() {
+        LogColumn[] logColumns = new LogColumn[columns.size() * 2];
+        for (int i = 0; i < columns.size(); i++) {
+            final int index = i;
+            logColumns[i * 2] = new NumberColumn(columns.get(i).getLabel() + ".ESS") {
+                public double getDoubleValue() {
+                    return getESS(index);
+                }
+            };
+            logColumns[i * 2 + 1] = new NumberColumn(columns.get(i).getLabel() + ".Rhat") {
+                public double getDoubleValue() {
+                    return getRHat(index);
+                }
+            };
+        }
+        return logColumns;
+    }
+
+    /**
+     * Everything that is accumulated over the run (so it can be swapped between chains)
+     */
+    private static class DiagnosticState {
+        DiagnosticState(int targetCount) {
+            estimators = new BatchMeansESS[targetCount];
+            for (int i = 0; i < targetCount; i++) {
+                estimators[i] = new BatchMeansESS();
+            }
+            ess = new double[targetCount];
+            rHat = new double[targetCount];
+            Arrays.fill(ess, Double.NaN);
+            Arrays.fill(rHat, Double.NaN);
+        }
+
+        final BatchMeansESS[] estimators;
+        final double[] ess;
+        final double[] rHat;
+        long lastState = -1;
+        boolean converged = false;
+    }
+
+    private final List<NumberColumn> columns = new ArrayList<NumberColumn>();
+
+    private final long sampleEvery;
+    private final long burnin;
+    private final int segmentCount;
+    private final long checkEvery;
+    private final double essThreshold;
+    private final double rHatThreshold;
+    private final boolean stopEarly;
+    private final String fileName;
+    private final List<String> replicateFileNames;
+    private final long startTime;
+    private final Set<String> staleFileNames = new HashSet<String>();
+
+    private DiagnosticState state;
+}
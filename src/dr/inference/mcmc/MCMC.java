@@ -45,6 +45,8 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * An MCMC analysis that estimates parameters of a probabilistic model.
@@ -125,6 +127,18 @@ public class MCMC implements Identifiable, Spawnable, Loggable {
         return loggers;
     }
 
+    /**
+     * Adds a listener that will be attached to the Markov chain while this MCMC is running
+     * (or to the cold chain when run as part of an MCMCMC).
+     */
+    public void addMarkovChainListener(MarkovChainListener listener) {
+        chainListeners.add(listener);
+    }
+
+    public List<MarkovChainListener> getMarkovChainListeners() {
+        return chainListeners;
+    }
+
     public MCMCOptions getOptions() {
         return options;
     }
@@ -173,6 +187,9 @@ public class MCMC implements Identifiable, Spawnable, Loggable {
             }
 
             mc.addMarkovChainListener(chainListener);
+            for (MarkovChainListener listener : chainListeners) {
+                mc.addMarkovChainListener(listener);
+            }
 
             long chainLength = getChainLength();
 
@@ -191,11 +208,17 @@ public class MCMC implements Identifiable, Spawnable, Loggable {
                 }
             }
 
-            mc.runChain(chainLength, false);
+            // a listener may have stopped the chain during the adaptation
+            if (!mc.isStopped()) {
+                mc.runChain(chainLength, false);
+            }
 
             mc.terminateChain();
 
             mc.removeMarkovChainListener(chainListener);
+            for (MarkovChainListener listener : chainListeners) {
+                mc.removeMarkovChainListener(listener);
+            }
 
         }
         timer.stop();
@@ -402,6 +425,7 @@ public class MCMC implements Identifiable, Spawnable, Loggable {
     //private FileLogger operatorLogger = null;
     protected final boolean isAdapting = true;
     protected boolean stopping = false;
+    protected final List<MarkovChainListener> chainListeners = new ArrayList<MarkovChainListener>();
     protected boolean showOperatorAnalysis = Boolean.parseBoolean(System.getProperty(OperatorSchedule.SHOW_OPERATORS));
     protected File operatorAnalysisFile = null;
     protected final dr.util.Timer timer = new dr.util.Timer();
@@ -32,6 +32,7 @@ import dr.inference.loggers.Logger;
 import dr.inference.loggers.MCLogger;
 import dr.inference.markovchain.MarkovChain;
 import dr.inference.markovchain.MarkovChainListener;
+import dr.inference.markovchain.TransferableChainListener;
 import dr.inference.mcmc.MCMC;
 import dr.inference.mcmc.MCMCCriterion;
 import dr.inference.mcmc.MCMCOptions;
@@ -44,8 +45,11 @@ import dr.inference.operators.OperatorSchedule;
 import dr.math.MathUtils;
 import dr.util.NumberFormatter;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
 
 /**
  * An MCMC analysis that estimates parameters of a probabilistic model.
@@ -83,6 +87,12 @@ public class MCMCMC implements Runnable {
             }
         }
 
+        // Get the other listeners of each chain. Only those of the cold chain are attached.
+        chainListeners = new List[mcmcs.length];
+        for (int i = 0; i < mcmcs.length; i++) {
+            chainListeners[i] = mcmcs[i].getMarkovChainListeners();
+        }
+
         // Get all the operator schedules. The tuning values of these must be swapped
         // around as the temperatures are swapped.
         schedules = new OperatorSchedule[mcmcs.length];
@@ -102,8 +112,10 @@ public class MCMCMC implements Runnable {
 
         if (USE_PARALLEL_TEMPERING_SCHEME) {
             scheme = mcmcmcOptions.getSwapScheme().factory(chains, schedules, mcmcmcOptions);
+            statistics = ((ParallelTempering.Base) scheme).statistics;
         } else {
             scheme = null;
+            statistics = new ParallelTemperingStatistics(mcmcmcOptions);
         }
     }
 
@@ -127,7 +139,7 @@ public class MCMCMC implements Runnable {
 //        }
 
         MCLogger[] coldChainLoggers = mcLoggers[coldChain];
-        List<LogFormatter>[] logFormatters = new List[coldChainLoggers.length];
+        logFormatters = new List[coldChainLoggers.length];
 
         for (int i = 0; i < coldChainLoggers.length; i++) {
             // Start the logging for the cold chain
@@ -147,81 +159,234 @@ public class MCMCMC implements Runnable {
         }
 
         chains[coldChain].addMarkovChainListener(chainListener);
-
-        MCMCMCRunner[] threads = new MCMCMCRunner[chains.length];
-        for (int i = 0; i < chains.length; i++) {
-            threads[i] = new MCMCMCRunner(chains[i], mcmcmcOptions.getSwapChainsEvery(), getChainLength(), false);
-            if (!DEBUG_IN_SERIES) {
-                threads[i].start();
-            }
+        for (MarkovChainListener listener : chainListeners[coldChain]) {
+            chains[coldChain].addMarkovChainListener(listener);
         }
 
-        while (chains[coldChain].getCurrentLength() < getChainLength()) {
-
-            if (DEBUG_IN_SERIES) {
+        if (DEBUG_IN_SERIES) {
+            MCMCMCRunner[] runners = new MCMCMCRunner[chains.length];
+            for (int i = 0; i < chains.length; i++) {
+                runners[i] = new MCMCMCRunner(chains[i], mcmcmcOptions.getSwapChainsEvery(), getChainLength(), false);
+            }
+            while (chains[coldChain].getCurrentLength() < getChainLength() && !finishing) {
                 for (int i = 0; i < chains.length; ++i) {
-                    threads[i].runSubChain();
+                    runners[i].runSubChain();
                 }
+                swapRound();
+            }
+        } else {
+            final MCMCMCRunner.SwapPoint swapPoint;
+            if (mcmcmcOptions.useAsynchronousSwaps()) {
+                swapPoint = asynchronousSwapPoint = new AsynchronousSwapPoint();
             } else {
-                // wait for all the threads to complete their alloted chain length
-                boolean allDone;
-                do {
-                    try {
-                        Thread.sleep(10);
-                    } catch (InterruptedException e) {
-                        //
+                // All the chains wait at the barrier after each sub-chain and the last to arrive
+                // does the swap while the others are held, then they are all released together.
+                // It also decides whether to finish early so all the chains see the same decision.
+                final CyclicBarrier barrier = new CyclicBarrier(chains.length, this::swapRound);
+                swapPoint = new MCMCMCRunner.SwapPoint() {
+                    public void subChainDone(int chainIndex, long step) throws InterruptedException, BrokenBarrierException {
+                        barrier.await();
+                    }
+
+                    public void chainFailed(int chainIndex) {
+                        barrier.reset();
                     }
 
-                    allDone = true;
-                    for (int i = 0; i < chains.length; i++) {
-                        if (!threads[i].isChainDone()) {
-                            allDone = false;
-                        }
+                    public boolean isFinished() {
+                        return finishing;
                     }
-                } while (!allDone);
+                };
             }
 
-            if (chains[coldChain].getCurrentLength() < getChainLength()) {
-                int oldColdChain = coldChain;
+            MCMCMCRunner[] runners = new MCMCMCRunner[chains.length];
+            for (int i = 0; i < chains.length; i++) {
+                runners[i] = new MCMCMCRunner(chains[i], mcmcmcOptions.getSwapChainsEvery(), getChainLength(), false,
+                        swapPoint, i);
+                runners[i].start();
+            }
 
-                // attempt to swap two or more chains' temperatures
-                if (USE_PARALLEL_TEMPERING_SCHEME) {
-                    coldChain = scheme.swapChainTemperatures(coldChain);
-                } else {
-                    coldChain = swapChainTemperatures();
+            // the runners persist for the whole analysis so just wait for them to finish
+            for (MCMCMCRunner runner : runners) {
+                while (runner.isAlive()) {
+                    try {
+                        runner.join();
+                    } catch (InterruptedException ie) {
+                        // DO NOTHING
+                    }
                 }
+            }
 
-                // if the cold chain was involved in a swap then we need to change the
-                // listener that does the logging and the destinations for the coldChainLoggers.
-                if (coldChain != oldColdChain) {
+            for (MCMCMCRunner runner : runners) {
+                if (runner.getError() != null) {
+                    throw new RuntimeException("A chain failed: " + runner.getError().getMessage(), runner.getError());
+                }
+            }
+        }
 
-                    chains[oldColdChain].removeMarkovChainListener(chainListener);
+        finish();
 
-                    // Set the new cold chain's loggers with the formatters (destinations) of
-                    // the original cold chain
-                    for (int i = 0; i < mcLoggers[coldChain].length; i++) {
-                        mcLoggers[coldChain][i].setFormatters(logFormatters[i]);
-                    }
+        timer.stop();
+    }
 
-                    // Set the old cold chain to have null log formatters...
-                    for (int i = 0; i < mcLoggers[oldColdChain].length; i++) {
-                        mcLoggers[oldColdChain][i].setFormatters(Collections.EMPTY_LIST);
-                    }
+    /**
+     * Attempts to swap the temperatures of chains. All the chains must be paused.
+     */
+    private void swapRound() {
+        if (stopping || chains[coldChain].isStopped()) {
+            // stop requested either by a listener of the cold chain or from outside
+            finishing = true;
+            return;
+        }
+        if (chains[coldChain].getCurrentLength() < getChainLength()) {
+            int oldColdChain = coldChain;
 
-                    chains[coldChain].addMarkovChainListener(chainListener);
+            // attempt to swap two or more chains' temperatures
+            int newColdChain;
+            if (USE_PARALLEL_TEMPERING_SCHEME) {
+                newColdChain = scheme.swapChainTemperatures(coldChain);
+            } else {
+                newColdChain = swapChainTemperatures();
+            }
 
-                }
+            changeColdChain(oldColdChain, newColdChain);
 
-                for (int i = 0; i < chains.length; i++) {
-                    threads[i].continueChain();
+            statistics.recordSwapRound();
+        }
+    }
+
+    /**
+     * If the cold chain was involved in a swap then we need to change the listener that
+     * does the logging and the destinations for the loggers. Both chains must be paused.
+     */
+    private void changeColdChain(int oldColdChain, int newColdChain) {
+        if (newColdChain != oldColdChain) {
+
+            chains[oldColdChain].removeMarkovChainListener(chainListener);
+
+            // move the other listeners to the new cold chain taking any accumulated diagnostics with them
+            for (int i = 0; i < chainListeners[oldColdChain].size(); i++) {
+                MarkovChainListener oldListener = chainListeners[oldColdChain].get(i);
+                MarkovChainListener newListener = chainListeners[newColdChain].get(i);
+                chains[oldColdChain].removeMarkovChainListener(oldListener);
+                if (oldListener instanceof TransferableChainListener) {
+                    ((TransferableChainListener) newListener).swapState((TransferableChainListener) oldListener);
                 }
+                chains[newColdChain].addMarkovChainListener(newListener);
             }
 
+            // Set the old cold chain to have null log formatters. This is done first so that
+            // anything it has queued to write is written before the new cold chain takes over...
+            for (int i = 0; i < mcLoggers[oldColdChain].length; i++) {
+                mcLoggers[oldColdChain][i].setFormatters(Collections.EMPTY_LIST);
+            }
+
+            // Set the new cold chain's loggers with the formatters (destinations) of
+            // the original cold chain
+            for (int i = 0; i < mcLoggers[newColdChain].length; i++) {
+                mcLoggers[newColdChain][i].setFormatters(logFormatters[i]);
+            }
+
+            chains[newColdChain].addMarkovChainListener(chainListener);
+
+            coldChain = newColdChain;
         }
+    }
 
-        finish();
+    /**
+     * Lets the chains run without a global barrier. When a chain completes a sub-chain it is
+     * swapped with any (not necessarily adjacent) chain that is waiting having completed the
+     * same number of sub-chains, so the chains being swapped are always at the same state.
+     * The cold chain never waits: if there is no partner it just carries on. A hot chain
+     * waits for a partner only while some other chain may still reach the same step.
+     */
+    private class AsynchronousSwapPoint implements MCMCMCRunner.SwapPoint {
 
-        timer.stop();
+        private final long[] completedSteps = new long[chains.length];
+        private final long[] waitingStep = new long[chains.length];
+
+        AsynchronousSwapPoint() {
+            Arrays.fill(waitingStep, -1);
+        }
+
+        public synchronized void subChainDone(int chainIndex, long step) throws InterruptedException {
+            completedSteps[chainIndex] = step;
+            notifyAll();
+
+            if (chainIndex == coldChain && chains[chainIndex].isStopped()) {
+                // a listener of the cold chain has asked to stop
+                stopping = true;
+            }
+            if (stopping) {
+                finishing = true;
+                return;
+            }
+
+            if (chains[chainIndex].getCurrentLength() >= getChainLength()) {
+                return;
+            }
+
+            int partner = findWaitingPartner(chainIndex, step);
+            if (partner >= 0) {
+                waitingStep[partner] = -1;
+                swapPair(chainIndex, partner);
+                notifyAll();
+                return;
+            }
+
+            if (chainIndex == coldChain) {
+                return;
+            }
+
+            waitingStep[chainIndex] = step;
+            while (waitingStep[chainIndex] == step && isPartnerPossible(chainIndex, step) && !stopping) {
+                wait();
+            }
+            waitingStep[chainIndex] = -1;
+        }
+
+        public synchronized void chainFailed(int chainIndex) {
+            completedSteps[chainIndex] = Long.MAX_VALUE;
+            notifyAll();
+        }
+
+        public boolean isFinished() {
+            return stopping;
+        }
+
+        synchronized void wakeAll() {
+            notifyAll();
+        }
+
+        private int findWaitingPartner(int chainIndex, long step) {
+            int count = 0;
+            int partner = -1;
+            for (int i = 0; i < chains.length; i++) {
+                if (i != chainIndex && waitingStep[i] == step) {
+                    // pick one of the waiting chains uniformly
+                    count++;
+                    if (MathUtils.nextInt(count) == 0) {
+                        partner = i;
+                    }
+                }
+            }
+            return partner;
+        }
+
+        private boolean isPartnerPossible(int chainIndex, long step) {
+            for (int i = 0; i < chains.length; i++) {
+                if (i != chainIndex && completedSteps[i] < step) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void swapPair(int index1, int index2) {
+            int oldColdChain = coldChain;
+            int newColdChain = swapChains(index1, index2, coldChain);
+            changeColdChain(oldColdChain, newColdChain);
+            statistics.recordSwapRound();
+        }
     }
 
     private void runChains(long length, boolean disableCoerce) {
@@ -263,14 +428,24 @@ public class MCMCMC implements Runnable {
             System.out.println();
         }
 
-        int newColdChain = coldChain;
-
         int index1 = MathUtils.nextInt(chains.length);
         int index2 = MathUtils.nextInt(chains.length);
         while (index1 == index2) {
             index2 = MathUtils.nextInt(chains.length);
         }
 
+        return swapChains(index1, index2, coldChain);
+    }
+
+    /**
+     * Attempts to swap the temperatures of a pair of chains.
+     *
+     * @return the index of the cold chain after the attempt
+     */
+    private int swapChains(int index1, int index2, int coldChain) {
+
+        int newColdChain = coldChain;
+
         double score1 = chains[index1].getCurrentScore();
         MCMCCriterion acceptor1 = ((MCMCCriterion) chains[index1].getAcceptor());
         double temperature1 = acceptor1.getTemperature();
@@ -281,6 +456,8 @@ public class MCMCMC implements Runnable {
         double logRatio = ((score2 - score1) * temperature1) + ((score1 - score2) * temperature2);
         boolean swap = (Math.log(MathUtils.nextDouble()) < logRatio);
 
+        statistics.recordSwapAttempt(swap);
+
         if (swap) {
             if(DEBUG){
                 System.out.println("Swapping chain "+index1+" and chain "+index2);
@@ -345,8 +522,14 @@ public class MCMCMC implements Runnable {
             logger.stopLogging();
         }
 
+        for (MarkovChainListener listener : chainListeners[coldChain]) {
+            listener.finished(currentState, chains[coldChain]);
+            chains[coldChain].removeMarkovChainListener(listener);
+        }
+
         System.out.println();
         System.out.println("Time taken: " + timer.toString());
+        System.out.println(statistics.getReport());
 
         if (showOperatorAnalysis) {
             System.out.println();
@@ -422,6 +605,13 @@ public class MCMCMC implements Runnable {
     public int getColdChain() {
         return coldChain;
     }
+
+    /**
+     * @return the record of the swaps attempted between the chains
+     */
+    public ParallelTemperingStatistics getStatistics() {
+        return statistics;
+    }
     
     /**
      * @return the likelihood function.
@@ -464,9 +654,13 @@ public class MCMCMC implements Runnable {
      * Requests that the MCMC chain stop prematurely.
      */
     public void pleaseStop() {
+        stopping = true;
         for (MarkovChain chain : chains) {
             chain.pleaseStop();
         }
+        if (asynchronousSwapPoint != null) {
+            asynchronousSwapPoint.wakeAll();
+        }
     }
 
     public void setShowOperatorAnalysis(boolean soa) {
@@ -485,9 +679,16 @@ public class MCMCMC implements Runnable {
     private final MarkovChain[] chains;
     private final MCLogger[][] mcLoggers;
     private final OperatorSchedule[] schedules;
-    private int coldChain;
+    private volatile int coldChain;
+    private List<LogFormatter>[] logFormatters;
+    private final List<MarkovChainListener>[] chainListeners;
+
+    private volatile boolean stopping = false;
+    private volatile boolean finishing = false;
+    private AsynchronousSwapPoint asynchronousSwapPoint = null;
 
     private final ParallelTempering scheme;
+    private final ParallelTemperingStatistics statistics;
     private static final boolean USE_PARALLEL_TEMPERING_SCHEME = false;
 }
 
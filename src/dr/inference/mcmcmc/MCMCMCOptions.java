@@ -44,9 +44,15 @@ public class MCMCMCOptions {
 
     public MCMCMCOptions(final double[] temperatures, final int swapChainsEvery,
                          final SwapScheme swapScheme) {
+        this(temperatures, swapChainsEvery, swapScheme, false);
+    }
+
+    public MCMCMCOptions(final double[] temperatures, final int swapChainsEvery,
+                         final SwapScheme swapScheme, final boolean asynchronousSwaps) {
         this.temperatures = temperatures;
         this.swapChainsEvery = swapChainsEvery;
         this.swapScheme = swapScheme;
+        this.asynchronousSwaps = asynchronousSwaps;
     }
 
     public double[] getChainTemperatures() {
@@ -59,6 +65,14 @@ public class MCMCMCOptions {
 
     public SwapScheme getSwapScheme() {  return swapScheme; }
 
+    /**
+     * @return true if chains should be swapped as they become ready rather than all waiting
+     * for each other between swaps
+     */
+    public boolean useAsynchronousSwaps() {
+        return asynchronousSwaps;
+    }
+
     public enum SwapScheme {
 
         ORIGINAL_FLAVOR("original") {
@@ -120,4 +134,5 @@ public class MCMCMCOptions {
     private final double[] temperatures;
     private final int swapChainsEvery;
     private final SwapScheme swapScheme;
+    private final boolean asynchronousSwaps;
 }
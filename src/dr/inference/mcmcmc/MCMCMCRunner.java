@@ -29,6 +29,8 @@ package dr.inference.mcmcmc;
 
 import dr.inference.markovchain.MarkovChain;
 
+import java.util.concurrent.BrokenBarrierException;
+
 /**
  * @author rambaut
  *         Date: Jan 5, 2005
@@ -36,62 +38,80 @@ import dr.inference.markovchain.MarkovChain;
  */
 public class MCMCMCRunner extends Thread {
 
+    /**
+     * Called by the runner each time it completes a sub-chain. This is where the chain
+     * waits to be swapped with others.
+     */
+    interface SwapPoint {
+        void subChainDone(int chainIndex, long step) throws InterruptedException, BrokenBarrierException;
+
+        void chainFailed(int chainIndex);
+
+        /**
+         * @return true if the chains should stop before reaching the total length
+         */
+        boolean isFinished();
+    }
+
     public MCMCMCRunner(MarkovChain markovChain, long length, long totalLength, boolean disableCoerce) {
+        this(markovChain, length, totalLength, disableCoerce, null, 0);
+    }
+
+    MCMCMCRunner(MarkovChain markovChain, long length, long totalLength, boolean disableCoerce,
+                 SwapPoint swapPoint, int chainIndex) {
 
         this.markovChain = markovChain;
         this.length = length;
         this.totalLength = totalLength;
         this.disableCoerce = disableCoerce;
+        this.swapPoint = swapPoint;
+        this.chainIndex = chainIndex;
     }
 
     public void runSubChain() {
         markovChain.runChain(length, disableCoerce);
     }
 
-	public void run() {
-        long i = 0;
-        while (i < totalLength) {
-            runSubChain();
-
-            i += length;
-
-	        chainDone();
-
-            if (i < totalLength) {
-                synchronized(this) {
-                    while (isChainDone()) { //DM. This test needs to be synchronized too. Otherwise, there is a nonzero chance that the MCMCMC.run thread calls continueChain, setting this.chainDone=false and notifies the thread to continue right before it starts listening, making the MC3 hang forever 
-                        try {
-                            //synchronized(this) {
-                                wait();
-                            //}
-                        } catch (InterruptedException e) {
-                            // continue...
-                        }
-                    }
+    public void run() {
+        try {
+            long i = 0;
+            long step = 0;
+            while (i < totalLength && (swapPoint == null || !swapPoint.isFinished())) {
+                runSubChain();
+
+                i += length;
+                step++;
+
+                if (swapPoint != null) {
+                    swapPoint.subChainDone(chainIndex, step);
                 }
             }
+        } catch (BrokenBarrierException bbe) {
+            // another chain has failed and will report the error
+        } catch (InterruptedException ie) {
+            error = ie;
+        } catch (RuntimeException | Error e) {
+            error = e;
+            if (swapPoint != null) {
+                swapPoint.chainFailed(chainIndex);
+            }
         }
     }
 
-	private synchronized void chainDone() {
-		chainDone = true;
-	}
-
-	public synchronized boolean isChainDone() {
-		return chainDone;
-	}
-
-    public synchronized void continueChain() {
-        this.chainDone = false;
-	    notify();
+    /**
+     * @return the exception that stopped this chain or null if it completed
+     */
+    public Throwable getError() {
+        return error;
     }
 
-
-	private final MarkovChain markovChain;
-	private final long length;
+    private final MarkovChain markovChain;
+    private final long length;
     private final long totalLength;
     private final boolean disableCoerce;
 
-	private boolean chainDone;
-}
+    private final SwapPoint swapPoint;
+    private final int chainIndex;
 
+    private volatile Throwable error = null;
+}
@@ -127,6 +127,7 @@ public interface ParallelTempering {
                     rank1, rank2,
                     temperature1, temperature2,
                     logRatio, success);
+            statistics.recordSwapAttempt(success);
 
             return success;
         }
@@ -39,6 +39,12 @@ public class ParallelTemperingStatistics {
     private final StatisticsList[][] allStatistics;
     private final double[] temperatures;
 
+    private long swapRounds = 0;
+    private long swapAttempts = 0;
+    private long swapsAccepted = 0;
+    private long startTime = 0;
+    private long lastTime = 0;
+
     public ParallelTemperingStatistics(MCMCMCOptions options) {
         double[] temp = options.getChainTemperatures();
         final int length = temp.length;
@@ -68,8 +74,53 @@ public class ParallelTemperingStatistics {
         }
     }
 
-    public String getReport() {
-        return "Parallel tempering report"; // TODO
+    /**
+     * Records the attempt to swap a pair of chains
+     */
+    synchronized void recordSwapAttempt(boolean success) {
+        swapAttempts++;
+        if (success) {
+            swapsAccepted++;
+        }
+    }
+
+    /**
+     * Records a round of swapping (one or more attempted swaps while the chains are paused)
+     */
+    synchronized void recordSwapRound() {
+        if (swapRounds == 0) {
+            startTime = System.nanoTime();
+        }
+        swapRounds++;
+        lastTime = System.nanoTime();
+    }
+
+    public synchronized long getSwapRounds() {
+        return swapRounds;
+    }
+
+    public synchronized long getSwapAttempts() {
+        return swapAttempts;
+    }
+
+    public synchronized long getSwapsAccepted() {
+        return swapsAccepted;
+    }
+
+    /**
+     * @return the number of swap rounds per second of elapsed time since the first round
+     */
+    public synchronized double getSwapRoundsPerSecond() {
+        if (swapRounds < 2) {
+            return 0.0;
+        }
+        return (swapRounds - 1) / ((lastTime - startTime) / 1.0E9);
+    }
+
+    public synchronized String getReport() {
+        return "Parallel tempering: " + swapRounds + " swap rounds (" +
+                String.format("%.1f", getSwapRoundsPerSecond()) + " per second), " +
+                swapsAccepted + " of " + swapAttempts + " swaps accepted";
     }
 
     static class Statistics {
@@ -185,6 +185,10 @@ public class AdaptableSizeFastMatrixParameter extends FastMatrixParameter {
             super(label);
         }
 
+        public boolean canFormatLater() {
+            return false;
+        }
+
         protected String getFormattedValue(){
             String fullMatrix = "{";
             for (int i = 0; i <getRowDimension() ; i++) {
@@ -29,6 +29,7 @@ package dr.inference.model;
 
 import dr.util.Keywordable;
 import dr.util.NumberFormatter;
+import dr.util.TaskScheduler;
 import dr.xml.Reportable;
 
 import java.util.*;
@@ -67,15 +68,9 @@ public class CompoundLikelihood implements Likelihood, Profileable, Reportable,
             threadCount = 0;
         }
 
-        if (threadCount > 0) {
-            pool = Executors.newFixedThreadPool(threadCount);
-        } else if (threadCount < 0) {
-            // create a cached thread pool which should create one thread per likelihood...
-            pool = Executors.newCachedThreadPool();
-        } else {
-            // don't use a threadpool (i.e., compute serially)
-            pool = null;
-        }
+        // the likelihoods are evaluated by the shared work-stealing scheduler so the thread
+        // count only decides whether they are evaluated in parallel or serially
+        useScheduler = threadCount != 0;
 
         if (EVALUATION_TIMERS) {
             evaluationTimes = new long[this.likelihoods.size()];
@@ -88,7 +83,7 @@ public class CompoundLikelihood implements Likelihood, Profileable, Reportable,
 
     public CompoundLikelihood(Collection<Likelihood> likelihoods) {
 
-        pool = null;
+        useScheduler = false;
         threadCount = 0;
 
         int i = 0;
@@ -128,6 +123,8 @@ public class CompoundLikelihood implements Likelihood, Profileable, Reportable,
 
             if (!likelihoods.contains(likelihood)) {
 
+                // the position in the full list is used to index the evaluation timers
+                int position = likelihoods.size();
                 likelihoods.add(likelihood);
                 if (likelihood.getModel() != null) {
                     compoundModel.addModel(likelihood.getModel());
@@ -136,14 +133,16 @@ public class CompoundLikelihood implements Likelihood, Profileable, Reportable,
                 if (likelihood.evaluateEarly()) {
 
                     earlyLikelihoods.add(likelihood);
+                    earlyIndices.add(position);
 
                 } else {
 
                     // late likelihood list is used to evaluate them if the thread pool is not being used...
                     lateLikelihoods.add(likelihood);
+                    lateIndices.add(position);
 
                     if (addToPool) {
-                        likelihoodCallers.add(new LikelihoodCaller(likelihood, index));
+                        likelihoodCallers.add(new LikelihoodCaller(likelihood, position));
                     }
                 }
 
@@ -177,7 +176,7 @@ public class CompoundLikelihood implements Likelihood, Profileable, Reportable,
     }
 
     public List<Callable<Double>> getLikelihoodCallers() {
-        return likelihoodCallers;
+        return new ArrayList<Callable<Double>>(likelihoodCallers);
     }
 
     // **************************************************************
@@ -193,30 +192,17 @@ public class CompoundLikelihood implements Likelihood, Profileable, Reportable,
 
     public double getLogLikelihood() {
 
-        double logLikelihood = evaluateLikelihoods(earlyLikelihoods);
+        double logLikelihood = evaluateLikelihoods(earlyLikelihoods, earlyIndices);
 
         if( logLikelihood == Double.NEGATIVE_INFINITY ) {
             return Double.NEGATIVE_INFINITY;
         }
 
-        if (pool == null) {
+        if (!useScheduler) {
             // Single threaded
-            logLikelihood += evaluateLikelihoods(lateLikelihoods);
+            logLikelihood += evaluateLikelihoods(lateLikelihoods, lateIndices);
         } else {
-
-            try {
-                List<Future<Double>> results = pool.invokeAll(likelihoodCallers);
-
-                for (Future<Double> result : results) {
-                    double logL = result.get();
-                    logLikelihood += logL;
-                }
-
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            } catch (ExecutionException e) {
-                e.printStackTrace();
-            }
+            logLikelihood += evaluateLikelihoodsInParallel();
         }
 
 //        if( DEBUG > 0 ) {
@@ -231,23 +217,29 @@ public class CompoundLikelihood implements Likelihood, Profileable, Reportable,
         return logLikelihood;
     }
 
-    private double evaluateLikelihoods(ArrayList<Likelihood> likelihoods) {
+    private double evaluateLikelihoods(ArrayList<Likelihood> likelihoods, ArrayList<Integer> indices) {
         double logLikelihood = 0.0;
-        int i = 0;
+        int k = 0;
         for (Likelihood likelihood : likelihoods) {
             if (EVALUATION_TIMERS) {
                 // this code is only compiled if EVALUATION_TIMERS is true
-                long time = System.nanoTime();
-                double l = likelihood.getLogLikelihood();
-                evaluationTimes[i] += System.nanoTime() - time;
-                evaluationCounts[i] ++;
+                final int i = indices.get(k);
+                k++;
+
+                double l;
+                if (likelihood.isLikelihoodKnown()) {
+                    l = likelihood.getLogLikelihood();
+                } else {
+                    long time = System.nanoTime();
+                    l = likelihood.getLogLikelihood();
+                    evaluationTimes[i] += System.nanoTime() - time;
+                    evaluationCounts[i]++;
+                }
 
                 if( l == Double.NEGATIVE_INFINITY )
                     return Double.NEGATIVE_INFINITY;
 
                 logLikelihood += l;
-
-                i++;
             } else {
                 final double l = likelihood.getLogLikelihood();
                 // if the likelihood is zero then short cut the rest of the likelihoods
@@ -262,6 +254,69 @@ public class CompoundLikelihood implements Likelihood, Profileable, Reportable,
         return logLikelihood;
     }
 
+    /**
+     * Evaluates the late likelihoods using the shared scheduler. Only the likelihoods that
+     * need recalculating are scheduled, longest first (using the mean of their previous
+     * evaluation times), and the results are summed in a fixed order so the total doesn't
+     * depend on the order in which the tasks complete.
+     */
+    private double evaluateLikelihoodsInParallel() {
+        final int callerCount = likelihoodCallers.size();
+
+        if (lateValues == null) {
+            lateValues = new double[callerCount];
+            dirtyCosts = new long[callerCount];
+        }
+
+        dirtyCallers.clear();
+        for (int k = 0; k < callerCount; k++) {
+            LikelihoodCaller caller = likelihoodCallers.get(k);
+            if (caller.likelihood.isLikelihoodKnown()) {
+                lateValues[k] = caller.likelihood.getLogLikelihood();
+            } else {
+                if (EVALUATION_TIMERS) {
+                    int count = evaluationCounts[caller.index];
+                    dirtyCosts[dirtyCallers.size()] = (count > 0 ? evaluationTimes[caller.index] / count : Long.MAX_VALUE);
+                }
+                dirtyCallers.add(caller);
+            }
+        }
+
+        if (dirtyCallers.size() > 0) {
+            try {
+                List<Future<Double>> results = TaskScheduler.invokeAll(dirtyCallers, EVALUATION_TIMERS ? dirtyCosts : null);
+
+                int j = 0;
+                for (int k = 0; k < callerCount; k++) {
+                    if (j < dirtyCallers.size() && likelihoodCallers.get(k) == dirtyCallers.get(j)) {
+                        lateValues[k] = results.get(j).get();
+                        j++;
+                    }
+                }
+
+            } catch (InterruptedException e) {
+                // don't carry on with stale values for the components that weren't evaluated
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while evaluating likelihoods");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new RuntimeException("Error evaluating likelihoods: " + cause.getMessage(), cause);
+            }
+        }
+
+        double logLikelihood = 0.0;
+        for (int k = 0; k < callerCount; k++) {
+            logLikelihood += lateValues[k];
+        }
+        return logLikelihood;
+    }
+
     public void makeDirty() {
         for( Likelihood likelihood : likelihoods ) {
             likelihood.makeDirty();
@@ -535,7 +590,7 @@ public class CompoundLikelihood implements Likelihood, Profileable, Reportable,
 
     private final int threadCount;
 
-    private final ExecutorService pool;
+    private final boolean useScheduler;
 
     private final ArrayList<Likelihood> likelihoods = new ArrayList<Likelihood>();
     private final CompoundModel compoundModel = new CompoundModel("compoundModel");
@@ -543,7 +598,15 @@ public class CompoundLikelihood implements Likelihood, Profileable, Reportable,
     private final ArrayList<Likelihood> earlyLikelihoods = new ArrayList<Likelihood>();
     private final ArrayList<Likelihood> lateLikelihoods = new ArrayList<Likelihood>();
 
-    private final List<Callable<Double>> likelihoodCallers = new ArrayList<Callable<Double>>();
+    private final ArrayList<Integer> earlyIndices = new ArrayList<Integer>();
+    private final ArrayList<Integer> lateIndices = new ArrayList<Integer>();
+
+    private final List<LikelihoodCaller> likelihoodCallers = new ArrayList<LikelihoodCaller>();
+
+    // working storage for the parallel evaluation
+    private final List<LikelihoodCaller> dirtyCallers = new ArrayList<LikelihoodCaller>();
+    private long[] dirtyCosts = null;
+    private double[] lateValues = null;
 
     class LikelihoodCaller implements Callable<Double> {
 
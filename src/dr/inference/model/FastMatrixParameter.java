@@ -257,8 +257,7 @@ public class FastMatrixParameter extends CompoundParameter implements MatrixPara
 
     @Override
     public void setAllParameterValuesQuietly(double[] values, int offset) {
-        final double[] destination = ((Parameter.Default) singleParameter).inspectParameterValues();
-        System.arraycopy(values, offset, destination, 0, destination.length);
+        ((Parameter.Default) singleParameter).setAllParameterValuesQuietly(values, offset);
     }
 
     @Override
@@ -87,6 +87,15 @@ public interface Likelihood extends Loggable, Identifiable {
      */
     boolean evaluateEarly();
 
+    /**
+     * @return true if the current log likelihood is known and getLogLikelihood() will not need to
+     * recalculate it. This is used to avoid scheduling work for likelihoods that haven't changed.
+     * By default this returns false so the likelihood is always treated as needing evaluation.
+     */
+    default boolean isLikelihoodKnown() {
+        return false;
+    }
+
     /**
      * A simple abstract base class for likelihood functions
      */
@@ -143,6 +152,10 @@ public interface Likelihood extends Loggable, Identifiable {
             return likelihoodKnown;
         }
 
+        public boolean isLikelihoodKnown() {
+            return getLikelihoodKnown();
+        }
+
         protected abstract double calculateLogLikelihood();
 
         public Set<Likelihood> getLikelihoodSet() {
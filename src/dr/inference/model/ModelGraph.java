@@ -0,0 +1,90 @@
+/*
+ * ModelGraph.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.inference.model;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * The parameters and models that make up the state of a chain, in the order they were created.
+ * Normally this is everything connected in the process (Parameter.CONNECTED_PARAMETER_SET and
+ * Model.CONNECTED_MODEL_SET). Where the XML is parsed more than once to give separate copies of
+ * the model that run at the same time (e.g., the workers of a parallel SMC), each extra copy is
+ * taken out of the connected sets into its own graph so that a state is only ever taken from,
+ * or put into, one copy.
+ */
+public class ModelGraph {
+
+    /**
+     * Everything connected in the process
+     */
+    public static final ModelGraph CONNECTED = new ModelGraph(Parameter.CONNECTED_PARAMETER_SET, Model.CONNECTED_MODEL_SET);
+
+    private ModelGraph(Set<Parameter> parameters, Set<Model> models) {
+        this.parameters = parameters;
+        this.models = models;
+    }
+
+    public Collection<Parameter> getParameters() {
+        return parameters;
+    }
+
+    public Collection<Model> getModels() {
+        return models;
+    }
+
+    /**
+     * @return a copy of what is connected now, to be given to disconnectSince after parsing another copy
+     */
+    public static ModelGraph getConnected() {
+        return new ModelGraph(new LinkedHashSet<Parameter>(Parameter.CONNECTED_PARAMETER_SET),
+                new LinkedHashSet<Model>(Model.CONNECTED_MODEL_SET));
+    }
+
+    /**
+     * Takes everything that has been connected since the earlier copy out of the connected sets.
+     *
+     * @param earlier what was connected before the copy of the model was created
+     * @return the graph of the new copy
+     */
+    public static ModelGraph disconnectSince(ModelGraph earlier) {
+        Set<Parameter> parameters = new LinkedHashSet<Parameter>(Parameter.CONNECTED_PARAMETER_SET);
+        parameters.removeAll(earlier.parameters);
+        Set<Model> models = new LinkedHashSet<Model>(Model.CONNECTED_MODEL_SET);
+        models.removeAll(earlier.models);
+
+        Parameter.CONNECTED_PARAMETER_SET.removeAll(parameters);
+        Model.CONNECTED_MODEL_SET.removeAll(models);
+
+        return new ModelGraph(parameters, models);
+    }
+
+    private final Set<Parameter> parameters;
+    private final Set<Model> models;
+}
@@ -27,7 +27,7 @@
 
 package dr.inference.model;
 
-import dr.inference.parallel.MPIServices;
+import dr.inference.parallel.RemoteLikelihood;
 import dr.xml.*;
 
 import java.util.*;
@@ -58,8 +58,15 @@ public class ParallelCompoundLikelihood extends CompoundLikelihood {
 
 			logLikelihood = getLogLikelihoodRemote();
 			if (checkLocal) {
-				super.makeDirty();
-				double logLikelihoodLocal = super.getLogLikelihood();
+				double logLikelihoodLocal = 0.0;
+				for (int i = 0; i < getLikelihoodCount(); i++) {
+					Likelihood likelihood = getLikelihood(i);
+					if (likelihood instanceof RemoteLikelihood) {
+						likelihood = ((RemoteLikelihood) likelihood).getLocalLikelihood();
+						likelihood.makeDirty();
+					}
+					logLikelihoodLocal += likelihood.getLogLikelihood();
+				}
 				System.err.printf("Local: %5.4f  Remote: %5.4f\n", logLikelihoodLocal, logLikelihood);
 			}
 
@@ -70,56 +77,30 @@ public class ParallelCompoundLikelihood extends CompoundLikelihood {
 	}
 
 	private double getLogLikelihoodRemote() {
-		double logLikelihood = 0.0;
-
 		final int N = getLikelihoodCount();
 
-		List<ParallelLikelihood> likelihoodsDistributed = new ArrayList<ParallelLikelihood>();
-		List<Integer> processorList = new ArrayList<Integer>();
-
+		// Distribute calculations: all the requests go out before any result is collected so
+		// the workers compute concurrently
 		for (int i = 0; i < N; i++) {
-			ParallelLikelihood likelihood = (ParallelLikelihood) getLikelihood(i);
-			if (!likelihood.getLikelihoodKnown()) {
-				//    if (true) {
-				final int processor = i + 1;
-//				MPIServices.requestLikelihood(processor);
-//				((AbstractModel) getLikelihood(i).getModel()).sendState(processor);
-				likelihoodsDistributed.add(likelihood);
-				processorList.add(processor);
-			} else {
-				logLikelihood += likelihood.getLogLikelihood();
+			Likelihood likelihood = getLikelihood(i);
+			if (likelihood instanceof RemoteLikelihood) {
+				((RemoteLikelihood) likelihood).requestLogLikelihood();
 			}
 		}
 
-		final int size = likelihoodsDistributed.size();
-
-		if (size == 1) { // only one, so do locally
-
-			logLikelihood += likelihoodsDistributed.get(0).getLogLikelihood();
-
-		} else if (size > 1) {
-
-			// Distribute calculations
-			int index = 0;
-			for (ParallelLikelihood likelihood : likelihoodsDistributed) {
-				int processor = processorList.get(index++);
-				MPIServices.requestLikelihood(processor);
-				((AbstractModel) likelihood.getModel()).sendState(processor);
+		// Collect calculations (local likelihoods are computed here while the workers run)
+		double logLikelihood = 0.0;
+		for (int i = 0; i < N; i++) {
+			Likelihood likelihood = getLikelihood(i);
+			if (!(likelihood instanceof RemoteLikelihood)) {
+				logLikelihood += likelihood.getLogLikelihood();
 			}
-
-			// Implicit barrier
-
-			// Collect calculations
-			index = 0;
-			for (ParallelLikelihood likelihood : likelihoodsDistributed) {
-				int processor = processorList.get(index++);
-				double l = MPIServices.receiveDouble(processor);
-				logLikelihood += l;
-				likelihood.setLikelihood(l);         // todo don't we need to set all of the submodels ????
+		}
+		for (int i = 0; i < N; i++) {
+			Likelihood likelihood = getLikelihood(i);
+			if (likelihood instanceof RemoteLikelihood) {
+				logLikelihood += likelihood.getLogLikelihood();
 			}
-
-			// todo Use Gather instead of blocking loop
-
 		}
 
 		return logLikelihood;
@@ -700,6 +700,10 @@ public interface Parameter extends Statistic, Variable<Double> {
         public void addDimension(int index, double value) {
             assert bounds == null;
 
+            if (journaling) {
+                storeAllValues();
+            }
+
             final int n = values.length;
             double[] newValues = new double[n + 1];
             System.arraycopy(values, 0, newValues, 0, index);
@@ -718,6 +722,10 @@ public interface Parameter extends Statistic, Variable<Double> {
         public double removeDimension(int index) {
             assert bounds == null;
 
+            if (journaling) {
+                storeAllValues();
+            }
+
             final int n = values.length;
             final double value = values[index];
 
@@ -731,6 +739,9 @@ public interface Parameter extends Statistic, Variable<Double> {
 
 
         public void setParameterValue(int i, double val) {
+            if (journaling) {
+                journalValue(i);
+            }
             values[i] = val;
             fireParameterChangedEvent(i, Parameter.ChangeType.VALUE_CHANGED);
         }
@@ -742,9 +753,37 @@ public interface Parameter extends Statistic, Variable<Double> {
          * @param value the value to set
          */
         public void setParameterValueQuietly(int dim, double value) {
+            if (journaling) {
+                journalValue(dim);
+            }
             values[dim] = value;
         }
 
+        /**
+         * Sets all the values of the parameter without firing a changed event.
+         *
+         * @param values the new values
+         */
+        public void setAllParameterValuesQuietly(double[] values) {
+            setAllParameterValuesQuietly(values, 0);
+        }
+
+        /**
+         * Sets all the values of the parameter from a buffer without firing a changed event.
+         *
+         * @param values the buffer holding the new values
+         * @param offset the position of the first value in the buffer
+         */
+        public void setAllParameterValuesQuietly(double[] values, int offset) {
+            if (values.length - offset < this.values.length) {
+                throw new IllegalArgumentException("supplied values must be of same dimension as parameter");
+            }
+            if (journaling) {
+                storeAllValues();
+            }
+            System.arraycopy(values, offset, this.values, 0, this.values.length);
+        }
+
 
         /**
          * Sets the values of the parameter and notify that all values of the parameter have changed.
@@ -753,6 +792,9 @@ public interface Parameter extends Statistic, Variable<Double> {
          * @param val to value to set
          */
         public void setParameterValueNotifyChangedAll(int i, double val) {
+            if (journaling) {
+                journalValue(i);
+            }
             values[i] = val;
             fireParameterChangedEvent(-1, Parameter.ChangeType.ALL_VALUES_CHANGED);
         }
@@ -763,25 +805,84 @@ public interface Parameter extends Statistic, Variable<Double> {
             if (storedValues == null || storedValues.length != values.length) {
                 storedValues = new double[values.length];
             }
-            System.arraycopy(values, 0, storedValues, 0, storedValues.length);
+
+            if (values.length < MIN_JOURNAL_DIMENSION) {
+                System.arraycopy(values, 0, storedValues, 0, storedValues.length);
+            } else {
+                // defer the copy: values are saved one at a time as they are first changed
+                if (dirty == null || dirty.length != values.length) {
+                    dirty = new boolean[values.length];
+                    dirtyIndices = new int[values.length / 2];
+                }
+                dirtyCount = 0;
+                journaling = true;
+            }
         }
 
         protected final void restoreValues() {
 
-            //swap the arrays
-            double[] temp = storedValues;
-            storedValues = values;
-            values = temp;
+            if (journaling) {
+                for (int k = 0; k < dirtyCount; k++) {
+                    final int i = dirtyIndices[k];
+                    values[i] = storedValues[i];
+                    dirty[i] = false;
+                }
+                dirtyCount = 0;
+                journaling = false;
+            } else {
+                //swap the arrays
+                double[] temp = storedValues;
+                storedValues = values;
+                values = temp;
+            }
 
             //if (storedValues != null) {
             //	System.arraycopy(storedValues, 0, values, 0, values.length);
             //} else throw new RuntimeException("restore called before store!");
         }
 
+        protected final void acceptValues() {
+            if (journaling) {
+                clearJournal();
+            }
+        }
+
         /**
-         * Nothing to do
+         * Saves the stored value of dimension i the first time it is changed after a store.
+         * If more than half the dimensions have changed then falls back to storing all of them.
          */
-        protected final void acceptValues() {
+        private void journalValue(int i) {
+            if (!dirty[i]) {
+                if (dirtyCount == dirtyIndices.length) {
+                    storeAllValues();
+                    return;
+                }
+                dirty[i] = true;
+                dirtyIndices[dirtyCount] = i;
+                dirtyCount++;
+                storedValues[i] = values[i];
+            }
+        }
+
+        /**
+         * Completes the deferred store by copying all the values that have not yet changed.
+         * Restore then swaps the arrays as if the whole parameter had been stored.
+         */
+        private void storeAllValues() {
+            for (int i = 0; i < values.length; i++) {
+                if (!dirty[i]) {
+                    storedValues[i] = values[i];
+                }
+            }
+            clearJournal();
+        }
+
+        private void clearJournal() {
+            for (int k = 0; k < dirtyCount; k++) {
+                dirty[dirtyIndices[k]] = false;
+            }
+            dirtyCount = 0;
+            journaling = false;
         }
 
         protected final void adoptValues(Parameter source) {
@@ -791,6 +892,10 @@ public interface Parameter extends Statistic, Variable<Double> {
                 throw new RuntimeException("The two parameters don't have the same number of dimensions");
             }
 
+            if (journaling) {
+                storeAllValues();
+            }
+
             for (int i = 0, n = getDimension(); i < n; i++) {
                 values[i] = source.getParameterValue(i);
             }
@@ -800,6 +905,15 @@ public interface Parameter extends Statistic, Variable<Double> {
 
         private double[] storedValues;
 
+        // parameters smaller than this are always stored with a single array copy
+        private static final int MIN_JOURNAL_DIMENSION = 16;
+
+        // dimensions changed since the last store while journaling
+        private boolean journaling = false;
+        private boolean[] dirty;
+        private int[] dirtyIndices;
+        private int dirtyCount;
+
         // same as !storedValues && !bounds
         //private boolean hasBeenStored = false;
         private Bounds<Double> bounds = null;
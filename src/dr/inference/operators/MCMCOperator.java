@@ -127,14 +127,33 @@ public interface MCMCOperator extends Serializable {
 
     /**
      * get the average time to evaluate the likelihood after this operator
-     * @return
+     * @return the mean time in nanoseconds
      */
     double getMeanEvaluationTime();
 
+    /**
+     * @param time the time taken to evaluate the likelihood after this operator in nanoseconds
+     */
     void addEvaluationTime(long time);
 
+    /**
+     * @return the total time spent evaluating the likelihood after this operator in nanoseconds
+     */
     long getTotalEvaluationTime();
 
+    /**
+     * @param time the time taken to store or restore the model state around this operator in nanoseconds
+     */
+    default void addStoreRestoreTime(long time) {
+    }
+
+    /**
+     * @return the total time spent storing and restoring the model state around this operator in nanoseconds
+     */
+    default long getTotalStoreRestoreTime() {
+        return 0;
+    }
+
     /**
      * get the average number of granular calculations per operation
      * What this actually is will depend on the likelihood calculator.
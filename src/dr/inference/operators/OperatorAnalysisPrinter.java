@@ -113,12 +113,13 @@ public class OperatorAnalysisPrinter {
     }
 
     private static String formattedTimeString(MCMCOperator op) {
-        final long time = op.getTotalEvaluationTime();
+        // evaluation times are recorded in nanoseconds but reported in milliseconds
+        final long time = op.getTotalEvaluationTime() / 1000000L;
         return formatter.formatToFieldWidth(Long.toString(time), 8) + " ";
     }
 
     private static String formattedTimePerOpString(MCMCOperator op) {
-        final double time = op.getMeanEvaluationTime();
+        final double time = op.getMeanEvaluationTime() / 1.0E6;
         return formatter.formatToFieldWidth(formatter.formatDecimal(time, 2), 8) + " ";
     }
 
@@ -209,6 +209,16 @@ public abstract class SimpleMCMCOperator implements MCMCOperator {
         sumEvaluationTime += time;
     }
 
+    @Override
+    public void addStoreRestoreTime(long time) {
+        sumStoreRestoreTime += time;
+    }
+
+    @Override
+    public long getTotalStoreRestoreTime() {
+        return sumStoreRestoreTime;
+    }
+
     @Override
     public double getMeanCalculationCount() {
         return (double) sumCalculationCount / (double) (acceptCount + rejectCount);
@@ -245,6 +255,7 @@ public abstract class SimpleMCMCOperator implements MCMCOperator {
     private boolean operateAllowed = true;
 
     private long sumEvaluationTime = 0;
+    private long sumStoreRestoreTime = 0;
     private long sumCalculationCount = 0;
 
     private Deque<Integer> windowAcceptance = new ArrayDeque<>();
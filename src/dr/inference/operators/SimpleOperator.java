@@ -159,6 +159,16 @@ public abstract class SimpleOperator implements MCMCOperator {
         sumEvaluationTime += time;
     }
 
+    @Override
+    public void addStoreRestoreTime(long time) {
+        sumStoreRestoreTime += time;
+    }
+
+    @Override
+    public long getTotalStoreRestoreTime() {
+        return sumStoreRestoreTime;
+    }
+
     @Override
     public double getMeanCalculationCount() {
         return (double) sumCalculationCount / (double) (accepted + rejected);
@@ -175,6 +185,7 @@ public abstract class SimpleOperator implements MCMCOperator {
     }
 
     private long sumEvaluationTime = 0;
+    private long sumStoreRestoreTime = 0;
     private long sumCalculationCount = 0;
 
     private double[] spanDeviation = {Double.MAX_VALUE,-Double.MAX_VALUE};
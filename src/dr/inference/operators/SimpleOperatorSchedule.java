@@ -232,7 +232,8 @@ public class SimpleOperatorSchedule implements OperatorSchedule, Loggable {
 		}
 
 		public double getDoubleValue() {
-			return op.getTotalEvaluationTime();
+			// recorded in nanoseconds, logged in milliseconds
+			return op.getTotalEvaluationTime() / 1.0E6;
 		}
 	}
 
@@ -38,7 +38,9 @@ import java.util.ArrayList;
 
 /**
  * @author Marc A. Suchard
+ * @deprecated requires the MPJ runtime; use RemoteLikelihoodWorker with RemoteLikelihood
  */
+@Deprecated
 
 public class MPILikelihoodRunner implements Runnable, Identifiable {
 
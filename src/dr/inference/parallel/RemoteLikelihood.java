@@ -0,0 +1,234 @@
+/*
+ * RemoteLikelihood.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.inference.parallel;
+
+import dr.inference.model.*;
+import dr.xml.*;
+
+import java.io.IOException;
+
+/**
+ * A likelihood computed by a RemoteLikelihoodWorker in another process. This side holds its own
+ * copy of the model, which the MCMC operates on, and sends the values that have changed since
+ * the last request to the worker. Requests don't wait for the result so a ParallelCompoundLikelihood
+ * can have several workers computing at once.
+ */
+public class RemoteLikelihood extends AbstractModelLikelihood implements ParallelLikelihood {
+
+    public static final String REMOTE_LIKELIHOOD = "remoteLikelihood";
+    public static final String HOST = "host";
+    public static final String PORT = "port";
+    public static final String TIMEOUT = "timeout";
+
+    public RemoteLikelihood(Likelihood likelihood, RemoteLikelihoodConnection connection) throws IOException {
+        super(REMOTE_LIKELIHOOD);
+
+        this.likelihood = likelihood;
+        this.connection = connection;
+        this.state = new RemoteState(likelihood);
+
+        connection.handshake(state);
+
+        if (likelihood.getModel() != null) {
+            addModel(likelihood.getModel());
+        }
+    }
+
+    /**
+     * Sends the current state to the worker if the likelihood isn't known and a request isn't
+     * already outstanding.
+     */
+    public void requestLogLikelihood() {
+        if (!likelihoodKnown && !requestPending) {
+            try {
+                connection.requestLikelihood(state);
+            } catch (IOException ioe) {
+                throw new RuntimeException("Unable to send the state to the remote likelihood: " + ioe.getMessage());
+            }
+            requestPending = true;
+        }
+    }
+
+    /**
+     * Waits for the result of an outstanding request.
+     */
+    public void receiveLogLikelihood() {
+        if (requestPending) {
+            try {
+                logLikelihood = connection.receiveLikelihood();
+            } catch (IOException ioe) {
+                throw new RuntimeException("Unable to receive the remote likelihood: " + ioe.getMessage());
+            }
+            requestPending = false;
+            likelihoodKnown = true;
+        }
+    }
+
+    /**
+     * Asks the worker to stop and closes the connection.
+     */
+    public void terminate() {
+        try {
+            connection.requestTermination();
+            connection.close();
+        } catch (IOException ioe) {
+            // the worker may already have gone
+        }
+    }
+
+    public Likelihood getLocalLikelihood() {
+        return likelihood;
+    }
+
+    // **************************************************************
+    // ParallelLikelihood IMPLEMENTATION
+    // **************************************************************
+
+    public boolean getLikelihoodKnown() {
+        return likelihoodKnown;
+    }
+
+    public void setLikelihood(double likelihood) {
+        logLikelihood = likelihood;
+        likelihoodKnown = true;
+    }
+
+    // **************************************************************
+    // Likelihood IMPLEMENTATION
+    // **************************************************************
+
+    public Model getModel() {
+        return this;
+    }
+
+    public double getLogLikelihood() {
+        if (!likelihoodKnown) {
+            requestLogLikelihood();
+            receiveLogLikelihood();
+        }
+        return logLikelihood;
+    }
+
+    public void makeDirty() {
+        likelihoodKnown = false;
+    }
+
+    // **************************************************************
+    // Model IMPLEMENTATION
+    // **************************************************************
+
+    protected void handleModelChangedEvent(Model model, Object object, int index) {
+        likelihoodKnown = false;
+    }
+
+    protected void handleVariableChangedEvent(Variable variable, int index, Parameter.ChangeType type) {
+        likelihoodKnown = false;
+    }
+
+    protected void storeState() {
+        storedLogLikelihood = logLikelihood;
+        storedLikelihoodKnown = likelihoodKnown;
+    }
+
+    protected void restoreState() {
+        // the worker is brought back in step with the next request
+        logLikelihood = storedLogLikelihood;
+        likelihoodKnown = storedLikelihoodKnown;
+    }
+
+    protected void acceptState() {
+        // nothing to do
+    }
+
+    /**
+     * XML Parser
+     */
+
+    public static XMLObjectParser PARSER = new AbstractXMLObjectParser() {
+
+        public String getParserName() {
+            return REMOTE_LIKELIHOOD;
+        }
+
+        public Object parseXMLObject(XMLObject xo) throws XMLParseException {
+
+            Likelihood likelihood = (Likelihood) xo.getChild(Likelihood.class);
+            String host = xo.getAttribute(HOST, "localhost");
+            int port = xo.getIntegerAttribute(PORT);
+            double timeout = xo.getAttribute(TIMEOUT, 60.0);
+
+            RemoteLikelihood remoteLikelihood;
+            try {
+                RemoteLikelihoodConnection connection =
+                        RemoteLikelihoodConnection.connect(host, port, (long) (timeout * 1000));
+                remoteLikelihood = new RemoteLikelihood(likelihood, connection);
+            } catch (IOException ioe) {
+                throw new XMLParseException("Unable to connect to the remote likelihood at " + host + ":" + port +
+                        ": " + ioe.getMessage());
+            }
+
+            java.util.logging.Logger.getLogger("dr.inference").info("Using a remote likelihood worker at " +
+                    host + ":" + port + " for " + likelihood.prettyName());
+
+            return remoteLikelihood;
+        }
+
+        //************************************************************************
+        // AbstractXMLObjectParser implementation
+        //************************************************************************
+
+        public String getParserDescription() {
+            return "A likelihood computed by a remoteLikelihoodWorker element in another BEAST process.";
+        }
+
+        public Class getReturnType() {
+            return RemoteLikelihood.class;
+        }
+
+        public XMLSyntaxRule[] getSyntaxRules() {
+            return rules;
+        }
+
+        private final XMLSyntaxRule[] rules = {
+                AttributeRule.newStringRule(HOST, true, "The host the worker is running on (default localhost)"),
+                AttributeRule.newIntegerRule(PORT, false, "The port the worker is listening on"),
+                AttributeRule.newDoubleRule(TIMEOUT, true, "Seconds to keep trying to connect (default 60)"),
+                new ElementRule(Likelihood.class)
+        };
+    };
+
+    private final Likelihood likelihood;
+    private final RemoteLikelihoodConnection connection;
+    private final RemoteState state;
+
+    private double logLikelihood;
+    private double storedLogLikelihood;
+    private boolean likelihoodKnown = false;
+    private boolean storedLikelihoodKnown = false;
+    private boolean requestPending = false;
+}
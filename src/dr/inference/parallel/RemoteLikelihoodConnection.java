@@ -0,0 +1,160 @@
+/*
+ * RemoteLikelihoodConnection.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.inference.parallel;
+
+import java.io.*;
+import java.net.Socket;
+
+/**
+ * The messages passed between a RemoteLikelihood and a RemoteLikelihoodWorker. The connection
+ * only needs a pair of streams so, although normally a socket (to another host or to a worker
+ * process on the same machine), any transport will do.
+ */
+public class RemoteLikelihoodConnection {
+
+    private static final int MAGIC = 0x4245414c; // "BEAL"
+
+    public RemoteLikelihoodConnection(InputStream inputStream, OutputStream outputStream) {
+        this.in = new DataInputStream(new BufferedInputStream(inputStream));
+        this.out = new DataOutputStream(new BufferedOutputStream(outputStream));
+        this.socket = null;
+    }
+
+    public RemoteLikelihoodConnection(Socket socket) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        this.socket = socket;
+    }
+
+    /**
+     * Connects to a worker, retrying until it is listening or the timeout passes.
+     * @param host the host name
+     * @param port the port the worker is listening on
+     * @param timeout the time to keep trying in milliseconds
+     */
+    public static RemoteLikelihoodConnection connect(String host, int port, long timeout) throws IOException {
+        long giveUp = System.currentTimeMillis() + timeout;
+        while (true) {
+            try {
+                Socket socket = new Socket(host, port);
+                socket.setTcpNoDelay(true);
+                return new RemoteLikelihoodConnection(socket);
+            } catch (IOException ioe) {
+                if (System.currentTimeMillis() > giveUp) {
+                    throw ioe;
+                }
+                try {
+                    Thread.sleep(RETRY_INTERVAL);
+                } catch (InterruptedException ie) {
+                    throw new InterruptedIOException("Interrupted connecting to " + host + ":" + port);
+                }
+            }
+        }
+    }
+
+    // Master side *****************************************************
+
+    /**
+     * Checks that the worker has the same model as this side.
+     */
+    public void handshake(RemoteState state) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(state.getModelCount());
+        out.writeInt(state.getParameterCount());
+        out.flush();
+        if (!in.readBoolean()) {
+            throw new IOException("The remote likelihood doesn't have the same model (" +
+                    state.getModelCount() + " models, " + state.getParameterCount() + " parameters)");
+        }
+    }
+
+    /**
+     * Sends the changes to the state and asks for the likelihood. This doesn't wait for the result
+     * so requests can be made to several workers before collecting the results.
+     */
+    public void requestLikelihood(RemoteState state) throws IOException {
+        out.writeInt(ServiceRequest.calculateLikeliood.getId());
+        state.writeChanges(out);
+        out.flush();
+    }
+
+    public double receiveLikelihood() throws IOException {
+        return in.readDouble();
+    }
+
+    public void requestTermination() throws IOException {
+        out.writeInt(ServiceRequest.terminateProcess.getId());
+        out.flush();
+    }
+
+    // Worker side *****************************************************
+
+    public boolean acceptHandshake(RemoteState state) throws IOException {
+        boolean accepted = in.readInt() == MAGIC &&
+                in.readInt() == state.getModelCount() &&
+                in.readInt() == state.getParameterCount();
+        out.writeBoolean(accepted);
+        out.flush();
+        return accepted;
+    }
+
+    /**
+     * @return the next request or null if the other side has closed the connection
+     */
+    public ServiceRequest receiveRequest() throws IOException {
+        try {
+            return ServiceRequest.getByID(in.readInt());
+        } catch (EOFException eof) {
+            return null;
+        }
+    }
+
+    public void receiveChanges(RemoteState state) throws IOException {
+        state.readChanges(in);
+    }
+
+    public void sendLikelihood(double logLikelihood) throws IOException {
+        out.writeDouble(logLikelihood);
+        out.flush();
+    }
+
+    public void close() throws IOException {
+        if (socket != null) {
+            socket.close();
+        } else {
+            in.close();
+            out.close();
+        }
+    }
+
+    private static final long RETRY_INTERVAL = 500;
+
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final Socket socket;
+}
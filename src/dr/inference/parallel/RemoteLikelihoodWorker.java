@@ -0,0 +1,204 @@
+/*
+ * RemoteLikelihoodWorker.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.inference.parallel;
+
+import dr.inference.model.Likelihood;
+import dr.util.Identifiable;
+import dr.xml.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Computes a likelihood on behalf of a RemoteLikelihood in another process (or on another host).
+ * The worker is given its own copy of the model from the same XML, listens on a port, applies the
+ * changes to the state it is sent and returns the log likelihood. This replaces the MPI based
+ * MPILikelihoodRunner.
+ *
+ * The connection is not authenticated so by default the worker only listens on the loopback
+ * address. Listening on all addresses (to serve a master on another host) has to be asked for
+ * with loopback="false" and should only be done on a trusted network.
+ */
+public class RemoteLikelihoodWorker implements Runnable, Identifiable {
+
+    public static final String REMOTE_LIKELIHOOD_WORKER = "remoteLikelihoodWorker";
+    public static final String PORT = "port";
+    public static final String LOOPBACK = "loopback";
+
+    public RemoteLikelihoodWorker(String id, Likelihood likelihood, int port, boolean loopback) {
+        this.id = id;
+        this.likelihood = likelihood;
+        this.port = port;
+        this.loopback = loopback;
+        this.state = new RemoteState(likelihood);
+    }
+
+    /**
+     * Opens the port to listen on if not already open.
+     * @return the port number (useful if 0 was given to pick a free one)
+     */
+    public synchronized int bind() throws IOException {
+        if (serverSocket == null) {
+            serverSocket = loopback ?
+                    new ServerSocket(port, 1, InetAddress.getLoopbackAddress()) :
+                    new ServerSocket(port);
+        }
+        return serverSocket.getLocalPort();
+    }
+
+    public void run() {
+        try {
+            bind();
+            while (!terminate) {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                RemoteLikelihoodConnection connection = new RemoteLikelihoodConnection(socket);
+                try {
+                    serve(connection);
+                } finally {
+                    connection.close();
+                }
+            }
+            serverSocket.close();
+        } catch (IOException ioe) {
+            throw new RuntimeException("Remote likelihood worker failed: " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * Answers requests on a connection until the master closes it or asks this worker to terminate.
+     */
+    public void serve(RemoteLikelihoodConnection connection) throws IOException {
+        if (!connection.acceptHandshake(state)) {
+            java.util.logging.Logger.getLogger("dr.inference").warning(
+                    "Rejected a remote likelihood connection with a different model");
+            return;
+        }
+
+        // a new master will send its whole state
+        while (true) {
+            ServiceRequest request = connection.receiveRequest();
+            if (request == null) {
+                return;
+            }
+            switch (request) {
+                case calculateLikeliood:
+                    connection.receiveChanges(state);
+                    connection.sendLikelihood(likelihood.getLogLikelihood());
+                    break;
+                case terminateProcess:
+                    terminate = true;
+                    return;
+                default:
+                    throw new IOException("Unknown request");
+            }
+        }
+    }
+
+    public Likelihood getLikelihood() {
+        return likelihood;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    /**
+     * XML Parser
+     */
+
+    public static XMLObjectParser PARSER = new AbstractXMLObjectParser() {
+
+        public String getParserName() {
+            return REMOTE_LIKELIHOOD_WORKER;
+        }
+
+        public Object parseXMLObject(XMLObject xo) throws XMLParseException {
+
+            Likelihood likelihood = (Likelihood) xo.getChild(Likelihood.class);
+            int port = xo.getIntegerAttribute(PORT);
+            boolean loopback = xo.getAttribute(LOOPBACK, true);
+
+            RemoteLikelihoodWorker worker = new RemoteLikelihoodWorker(xo.getId(), likelihood, port, loopback);
+
+            try {
+                port = worker.bind();
+            } catch (IOException ioe) {
+                throw new XMLParseException("Unable to listen on port " + port + ": " + ioe.getMessage());
+            }
+
+            java.util.logging.Logger.getLogger("dr.inference").info("Creating a remote likelihood worker for " +
+                    likelihood.prettyName() + " listening on port " + port + (loopback ? " (loopback only)" : ""));
+            if (!loopback) {
+                java.util.logging.Logger.getLogger("dr.inference").warning("The remote likelihood worker on port " + port +
+                        " accepts unauthenticated connections from any host");
+            }
+
+            return worker;
+        }
+
+        //************************************************************************
+        // AbstractXMLObjectParser implementation
+        //************************************************************************
+
+        public String getParserDescription() {
+            return "Computes a likelihood for a remoteLikelihood element in another BEAST process.";
+        }
+
+        public Class getReturnType() {
+            return RemoteLikelihoodWorker.class;
+        }
+
+        public XMLSyntaxRule[] getSyntaxRules() {
+            return rules;
+        }
+
+        private final XMLSyntaxRule[] rules = {
+                AttributeRule.newIntegerRule(PORT, false, "The port to listen on"),
+                AttributeRule.newBooleanRule(LOOPBACK, true, "Only accept connections from this machine (default true, set to false to accept connections from other hosts)"),
+                new ElementRule(Likelihood.class)
+        };
+    };
+
+    // Private variables
+
+    private String id;
+    private final Likelihood likelihood;
+    private final RemoteState state;
+    private final int port;
+    private final boolean loopback;
+
+    private ServerSocket serverSocket = null;
+    private volatile boolean terminate = false;
+}
@@ -0,0 +1,183 @@
+/*
+ * RemoteState.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.inference.parallel;
+
+import dr.inference.model.Likelihood;
+import dr.inference.model.Model;
+import dr.inference.model.Parameter;
+import dr.inference.model.Variable;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * The state of the model graph below a likelihood, in a fixed order so that two copies of the
+ * same model (one local, one in a worker process) can be kept in step. The sending side keeps
+ * the values it last sent and only sends those that have since changed, so after a rejected
+ * move the restored values go over as changes too.
+ */
+public class RemoteState {
+
+    public RemoteState(Likelihood likelihood) {
+        Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        if (likelihood.getModel() != null) {
+            collect(likelihood.getModel(), visited);
+        }
+
+        sentValues = new double[parameters.size()][];
+        sentStates = new byte[models.size()][];
+    }
+
+    private void collect(Model model, Set<Object> visited) {
+        if (!visited.add(model)) {
+            return;
+        }
+        if (model instanceof RemoteSerializable) {
+            // these models send all of their own state
+            models.add((RemoteSerializable) model);
+        } else {
+            for (int i = 0; i < model.getVariableCount(); i++) {
+                Variable variable = model.getVariable(i);
+                if (variable instanceof Parameter && visited.add(variable)) {
+                    parameters.add((Parameter) variable);
+                }
+            }
+        }
+        for (int i = 0; i < model.getModelCount(); i++) {
+            collect(model.getModel(i), visited);
+        }
+    }
+
+    public int getParameterCount() {
+        return parameters.size();
+    }
+
+    public int getModelCount() {
+        return models.size();
+    }
+
+    /**
+     * Writes the models and parameter values that have changed since they were last written.
+     */
+    public void writeChanges(DataOutput out) throws IOException {
+        List<Integer> changedModels = new ArrayList<Integer>();
+        List<byte[]> changedStates = new ArrayList<byte[]>();
+        for (int i = 0; i < models.size(); i++) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream stateOut = new DataOutputStream(bytes);
+            models.get(i).writeRemoteState(stateOut);
+            stateOut.flush();
+            byte[] state = bytes.toByteArray();
+            if (!Arrays.equals(state, sentStates[i])) {
+                changedModels.add(i);
+                changedStates.add(state);
+                sentStates[i] = state;
+            }
+        }
+
+        out.writeInt(changedModels.size());
+        for (int i = 0; i < changedModels.size(); i++) {
+            out.writeInt(changedModels.get(i));
+            out.writeInt(changedStates.get(i).length);
+            out.write(changedStates.get(i));
+        }
+
+        int changedCount = 0;
+        for (int i = 0; i < parameters.size(); i++) {
+            Parameter parameter = parameters.get(i);
+            if (sentValues[i] == null || sentValues[i].length != parameter.getDimension()) {
+                if (sentValues[i] != null) {
+                    throw new RuntimeException("The dimension of parameter, " + parameter.getId() +
+                            ", has changed and can't be sent to a remote likelihood");
+                }
+                sentValues[i] = new double[parameter.getDimension()];
+                Arrays.fill(sentValues[i], UNSENT);
+            }
+            for (int j = 0; j < sentValues[i].length; j++) {
+                if (isChanged(parameter.getParameterValue(j), sentValues[i][j])) {
+                    changedCount++;
+                }
+            }
+        }
+
+        out.writeInt(changedCount);
+        for (int i = 0; i < parameters.size(); i++) {
+            Parameter parameter = parameters.get(i);
+            for (int j = 0; j < sentValues[i].length; j++) {
+                double value = parameter.getParameterValue(j);
+                if (isChanged(value, sentValues[i][j])) {
+                    out.writeInt(i);
+                    out.writeInt(j);
+                    out.writeDouble(value);
+                    sentValues[i][j] = value;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads changes written by writeChanges and applies them to this copy of the model.
+     */
+    public void readChanges(DataInput in) throws IOException {
+        int modelCount = in.readInt();
+        for (int k = 0; k < modelCount; k++) {
+            int index = in.readInt();
+            byte[] state = new byte[in.readInt()];
+            in.readFully(state);
+            models.get(index).readRemoteState(new DataInputStream(new ByteArrayInputStream(state)));
+        }
+
+        int changedCount = in.readInt();
+        for (int k = 0; k < changedCount; k++) {
+            int index = in.readInt();
+            int dimension = in.readInt();
+            parameters.get(index).setParameterValue(dimension, in.readDouble());
+        }
+    }
+
+    /**
+     * Forget what has been sent so the next changes written contain the whole state.
+     */
+    public void reset() {
+        Arrays.fill(sentValues, null);
+        Arrays.fill(sentStates, null);
+    }
+
+    private static boolean isChanged(double value, double sentValue) {
+        return Double.doubleToRawLongBits(value) != Double.doubleToRawLongBits(sentValue);
+    }
+
+    // a NaN that no arithmetic produces so values that have never been sent always differ
+    private static final double UNSENT = Double.longBitsToDouble(0x7ff8dead0000beefL);
+
+    private final List<Parameter> parameters = new ArrayList<Parameter>();
+    private final List<RemoteSerializable> models = new ArrayList<RemoteSerializable>();
+
+    private final double[][] sentValues;
+    private final byte[][] sentStates;
+}
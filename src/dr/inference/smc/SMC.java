@@ -36,11 +36,13 @@ import dr.inference.mcmc.MCMCCriterion;
 import dr.inference.mcmc.MCMCOptions;
 import dr.inference.model.Likelihood;
 import dr.inference.model.Model;
+import dr.inference.model.ModelGraph;
 import dr.inference.operators.*;
 import dr.inference.state.Factory;
 import dr.inference.state.StateLoader;
 import dr.inference.state.StateLoaderSaver;
 import dr.inference.state.StateSaver;
+import dr.math.MathUtils;
 import dr.util.Identifiable;
 import dr.util.NumberFormatter;
 import dr.xml.Spawnable;
@@ -50,12 +52,32 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A class that runs short MCMC chains for each of a set of particles as
  * part of a sequential Monte Carlo (SMC) sampler.
  *
+ * Where the state Factory supports it, the particles are held in memory between rounds as
+ * snapshots of the model state. Each round the particles are resampled (systematically) if the
+ * effective sample size of their weights has fallen below a threshold and then each is moved by
+ * a short chain. The particle files are only written at checkpoints and at the end.
+ *
+ * The weights only come from reweighting the particles when they are first loaded (the change
+ * in posterior since they were saved). Moving a particle by MCMC leaves its weight unchanged, so
+ * without reweighting the weights are all equal, no resampling happens and later rounds simply
+ * move the particles further.
+ *
+ * If workers have been added (separately parsed copies of the same model, as for MC3) the
+ * particles are shared out between this chain and the workers' chains and moved in parallel,
+ * passing between them as snapshots. Only this chain has the loggers attached.
+ *
  * @author Andrew Rambaut
  */
 public class SMC implements Identifiable, Spawnable, Loggable {
@@ -113,6 +135,25 @@ public class SMC implements Identifiable, Spawnable, Loggable {
         return schedule;
     }
 
+    /**
+     * Adds a separately parsed copy of this SMC whose chain will move particles in parallel with
+     * this one. The copy's parameters and models must have been taken out of the connected sets
+     * (see ModelGraph.disconnectSince) so its state is independent of this one.
+     *
+     * @param worker     the copy
+     * @param modelGraph the parameters and models of the copy
+     */
+    public void addWorker(SMC worker, ModelGraph modelGraph) {
+        ModelGraph graph = mc.getModelGraph();
+        if (modelGraph.getParameters().size() != graph.getParameters().size() ||
+                modelGraph.getModels().size() != graph.getModels().size()) {
+            throw new IllegalArgumentException("The model of the SMC worker doesn't match this one");
+        }
+        MarkovChain workerChain = worker.getMarkovChain();
+        workerChain.setModelGraph(modelGraph);
+        workerChains.add(workerChain);
+    }
+
     public void run() {
         chain();
     }
@@ -134,6 +175,33 @@ public class SMC implements Identifiable, Spawnable, Loggable {
 
         mc.addMarkovChainListener(chainListener);
 
+        if (Factory.INSTANCE != null && Factory.INSTANCE.getMemoryStateLoaderSaver() != null) {
+            if (workerChains.size() > 0) {
+                executor = Executors.newFixedThreadPool(workerChains.size());
+            }
+            try {
+                runParticles();
+            } finally {
+                if (executor != null) {
+                    executor.shutdownNow();
+                    executor = null;
+                }
+            }
+        } else {
+            runParticleFiles();
+        }
+
+        mc.terminateChain();
+
+        mc.removeMarkovChainListener(chainListener);
+
+        timer.stop();
+    }
+
+    /**
+     * Runs each particle in turn loading from and saving to its files.
+     */
+    private void runParticleFiles() {
         for (StateLoaderSaver particleState : particleStates) {
             // Don't need the savedLnL - it won't be there
             particleState.loadState(mc, new double[1]);
@@ -146,12 +214,190 @@ public class SMC implements Identifiable, Spawnable, Loggable {
             // Save state to file...
             particleState.saveState(mc, mc.getCurrentLength(), mc.getCurrentScore());
         }
+    }
 
-        mc.terminateChain();
+    /**
+     * Runs the rounds of resampling and moving with the particles held in memory.
+     */
+    private void runParticles() {
+        final int particleCount = particleStates.size();
 
-        mc.removeMarkovChainListener(chainListener);
+        StateLoader[] particles = new StateLoader[particleCount];
+        double[] logWeights = new double[particleCount];
 
-        timer.stop();
+        for (int i = 0; i < particleCount; i++) {
+            double[] savedLnL = new double[] { Double.NaN };
+            long state = particleStates.get(i).loadState(mc, savedLnL);
+
+            mc.getLikelihood().makeDirty();
+            double score = mc.evaluate();
+
+            if (options.isReweighting() && !Double.isNaN(savedLnL[0])) {
+                logWeights[i] = score - savedLnL[0];
+            }
+            particles[i] = takeSnapshot(mc, state, score);
+        }
+
+        for (int round = 0; round < options.getRounds(); round++) {
+
+            double ess = getEffectiveSampleSize(logWeights);
+            boolean resampled = false;
+            if (ess < options.getResamplingThreshold() * particleCount) {
+                particles = resample(particles, logWeights);
+                Arrays.fill(logWeights, 0.0);
+                resampled = true;
+            }
+
+            moveParticles(particles);
+
+            java.util.logging.Logger.getLogger("dr.inference").info("SMC round " + (round + 1) +
+                    ": ESS = " + formatter.format(ess) + (resampled ? " (resampled)" : ""));
+
+            int checkpointEvery = options.getCheckpointEvery();
+            if (checkpointEvery > 0 && (round + 1) % checkpointEvery == 0 && round + 1 < options.getRounds()) {
+                saveParticles(particles, logWeights);
+            }
+        }
+
+        saveParticles(particles, logWeights);
+    }
+
+    /**
+     * Moves each particle by a short chain, sharing the particles out between this chain and the
+     * workers' chains.
+     */
+    private void moveParticles(StateLoader[] particles) {
+        final AtomicInteger nextParticle = new AtomicInteger(0);
+
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (final MarkovChain workerChain : workerChains) {
+            futures.add(executor.submit(new Runnable() {
+                public void run() {
+                    moveParticles(workerChain, particles, nextParticle);
+                }
+            }));
+        }
+
+        try {
+            moveParticles(mc, particles, nextParticle);
+        } catch (RuntimeException | Error e) {
+            // stop the workers taking any more particles
+            nextParticle.set(particles.length);
+            throw e;
+        }
+
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while moving particles");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new RuntimeException("Error moving particles: " + cause.getMessage(), cause);
+            }
+        }
+    }
+
+    private void moveParticles(MarkovChain chain, StateLoader[] particles, AtomicInteger nextParticle) {
+        int i = nextParticle.getAndIncrement();
+        while (i < particles.length) {
+            particles[i].loadState(chain, null);
+
+            // reset the current chain length to 0
+            chain.setCurrentLength(0);
+
+            chain.runChain(options.getChainLength(), true);
+
+            particles[i] = takeSnapshot(chain, chain.getCurrentLength(), chain.getCurrentScore());
+
+            i = nextParticle.getAndIncrement();
+        }
+    }
+
+    private StateLoader takeSnapshot(MarkovChain chain, long state, double lnL) {
+        StateLoaderSaver snapshot = Factory.INSTANCE.getMemoryStateLoaderSaver();
+        snapshot.saveState(chain, state, lnL);
+        return snapshot;
+    }
+
+    /**
+     * Writes the particles to their files. The files carry no weights so unequally weighted
+     * particles are resampled first.
+     */
+    private void saveParticles(StateLoader[] particles, double[] logWeights) {
+        StateLoader[] equallyWeighted = particles;
+        for (double logWeight : logWeights) {
+            if (logWeight != logWeights[0]) {
+                equallyWeighted = resample(particles, logWeights);
+                break;
+            }
+        }
+
+        double[] lnL = new double[1];
+        for (int i = 0; i < equallyWeighted.length; i++) {
+            long state = equallyWeighted[i].loadState(mc, lnL);
+            particleStates.get(i).saveState(mc, state, lnL[0]);
+        }
+    }
+
+    /**
+     * @param logWeights the unnormalized log weights
+     * @return the effective sample size of the weights, 1 / sum(w^2) for normalized w
+     */
+    public static double getEffectiveSampleSize(double[] logWeights) {
+        double[] weights = normalizeWeights(logWeights);
+        double sumSquares = 0.0;
+        for (double w : weights) {
+            sumSquares += w * w;
+        }
+        return 1.0 / sumSquares;
+    }
+
+    /**
+     * Systematic resampling: a single uniform offset and n evenly spaced points through the
+     * cumulative weights. Particles are immutable snapshots so copies are shared.
+     */
+    public static <T> T[] resample(T[] particles, double[] logWeights) {
+        final int n = particles.length;
+        double[] weights = normalizeWeights(logWeights);
+
+        T[] resampled = Arrays.copyOf(particles, n);
+        double u = MathUtils.nextDouble() / n;
+        double cumulative = weights[0];
+        int j = 0;
+        for (int i = 0; i < n; i++) {
+            while (u > cumulative && j < n - 1) {
+                j++;
+                cumulative += weights[j];
+            }
+            resampled[i] = particles[j];
+            u += 1.0 / n;
+        }
+        return resampled;
+    }
+
+    private static double[] normalizeWeights(double[] logWeights) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (double logWeight : logWeights) {
+            max = Math.max(max, logWeight);
+        }
+        double[] weights = new double[logWeights.length];
+        double sum = 0.0;
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = Math.exp(logWeights[i] - max);
+            sum += weights[i];
+        }
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] /= sum;
+        }
+        return weights;
     }
 
     @Override
@@ -289,6 +535,12 @@ public class SMC implements Identifiable, Spawnable, Loggable {
     private SMCOptions options;
 
     private final List<StateLoaderSaver> particleStates = new ArrayList<StateLoaderSaver>();
+
+    /**
+     * the chains of separately parsed copies of the model that move particles in parallel
+     */
+    private final List<MarkovChain> workerChains = new ArrayList<MarkovChain>();
+    private ExecutorService executor = null;
     private Logger[] loggers;
     private OperatorSchedule schedule;
 
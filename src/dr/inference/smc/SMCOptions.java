@@ -35,13 +35,34 @@ package dr.inference.smc;
 public class SMCOptions {
 
     private final long chainLength;
+    private final int rounds;
+    private final double resamplingThreshold;
+    private final int checkpointEvery;
+    private final boolean reweighting;
 
     /**
      * constructor
      * @param chainLength
      */
     public SMCOptions(long chainLength) {
+        this(chainLength, 1, 0.5, 0, false);
+    }
+
+    /**
+     * constructor
+     * @param chainLength the length of the chain run for each particle in each round
+     * @param rounds the number of rounds of resampling and moving the particles
+     * @param resamplingThreshold resample when the effective sample size of the weights falls below this proportion of the particles
+     * @param checkpointEvery write the particles to their files every this many rounds (0 for only at the end)
+     * @param reweighting weight the particles by the ratio of the current posterior to the one they were saved with
+     *                    (this is the only source of weights so without it there is no resampling)
+     */
+    public SMCOptions(long chainLength, int rounds, double resamplingThreshold, int checkpointEvery, boolean reweighting) {
         this.chainLength = chainLength;
+        this.rounds = rounds;
+        this.resamplingThreshold = resamplingThreshold;
+        this.checkpointEvery = checkpointEvery;
+        this.reweighting = reweighting;
     }
 
     /**
@@ -50,4 +71,32 @@ public class SMCOptions {
     public final long getChainLength() {
         return chainLength;
     }
+
+    /**
+     * @return the number of rounds of resampling and moving the particles
+     */
+    public final int getRounds() {
+        return rounds;
+    }
+
+    /**
+     * @return the proportion of the particle count below which the effective sample size triggers resampling
+     */
+    public final double getResamplingThreshold() {
+        return resamplingThreshold;
+    }
+
+    /**
+     * @return the number of rounds between writing the particles to file (0 for only at the end)
+     */
+    public final int getCheckpointEvery() {
+        return checkpointEvery;
+    }
+
+    /**
+     * @return whether the particles are weighted by the change in posterior since they were saved
+     */
+    public final boolean isReweighting() {
+        return reweighting;
+    }
 }
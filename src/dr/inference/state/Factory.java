@@ -53,6 +53,16 @@ public abstract class Factory {
      */
     public abstract StateLoaderSaver getStateLoaderSaver(File loadFile, File saveFile);
 
+    /**
+     * Get an instance of StateLoader/Saver that holds the state in memory. Each instance keeps
+     * the last state saved to it so these can be used as snapshots of SMC particles between
+     * rounds without going to disk.
+     * @return the StateLoaderSaver or null if in-memory states are not supported
+     */
+    public StateLoaderSaver getMemoryStateLoaderSaver() {
+        return null;
+    }
+
     // Set this to a concrete instance to provide these classes to the MarkovChain
     public static Factory INSTANCE;
 }
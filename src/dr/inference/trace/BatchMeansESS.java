@@ -0,0 +1,217 @@
+/*
+ * BatchMeansESS.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.inference.trace;
+
+/**
+ * An online estimate of the effective sample size of a trace using the method of batch means,
+ * so it can be kept up to date while a chain is running without storing the samples. The
+ * samples are grouped into between maxBatchCount / 2 and maxBatchCount batches and whenever
+ * the batches fill up adjacent pairs are merged and the batch size doubled. The running mean
+ * and variance of the samples, and of each batch, are kept using Welford's algorithm so the
+ * batches can also be grouped into segments (i.e., for split-R-hat).
+ */
+public class BatchMeansESS {
+
+    public static final int DEFAULT_MAX_BATCH_COUNT = 64;
+
+    // the fewest batches needed to give an estimate
+    private static final int MIN_BATCH_COUNT = 8;
+
+    public BatchMeansESS() {
+        this(DEFAULT_MAX_BATCH_COUNT);
+    }
+
+    /**
+     * @param maxBatchCount the maximum number of batches held (must be even)
+     */
+    public BatchMeansESS(int maxBatchCount) {
+        if (maxBatchCount < 2 * MIN_BATCH_COUNT || maxBatchCount % 2 != 0) {
+            throw new IllegalArgumentException("The maximum batch count must be even and at least " + (2 * MIN_BATCH_COUNT));
+        }
+        batchMeans = new double[maxBatchCount];
+        batchSumsOfSquares = new double[maxBatchCount];
+        reset();
+    }
+
+    public void reset() {
+        sampleCount = 0;
+        mean = 0.0;
+        sumOfSquares = 0.0;
+        batchSize = 1;
+        batchCount = 0;
+        batchMean = 0.0;
+        batchSumOfSquares = 0.0;
+        batchSampleCount = 0;
+    }
+
+    public void add(double value) {
+        sampleCount++;
+        double delta = value - mean;
+        mean += delta / sampleCount;
+        sumOfSquares += delta * (value - mean);
+
+        batchSampleCount++;
+        double batchDelta = value - batchMean;
+        batchMean += batchDelta / batchSampleCount;
+        batchSumOfSquares += batchDelta * (value - batchMean);
+
+        if (batchSampleCount == batchSize) {
+            batchMeans[batchCount] = batchMean;
+            batchSumsOfSquares[batchCount] = batchSumOfSquares;
+            batchCount++;
+            batchMean = 0.0;
+            batchSumOfSquares = 0.0;
+            batchSampleCount = 0;
+
+            if (batchCount == batchMeans.length) {
+                // merge adjacent batches
+                for (int i = 0; i < batchCount / 2; i++) {
+                    double meanDelta = batchMeans[2 * i + 1] - batchMeans[2 * i];
+                    batchSumsOfSquares[i] = batchSumsOfSquares[2 * i] + batchSumsOfSquares[2 * i + 1] +
+                            meanDelta * meanDelta * batchSize / 2.0;
+                    batchMeans[i] = (batchMeans[2 * i] + batchMeans[2 * i + 1]) / 2.0;
+                }
+                batchCount /= 2;
+                batchSize *= 2;
+            }
+        }
+    }
+
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    /**
+     * @return the sample variance
+     */
+    public double getVariance() {
+        return sampleCount > 1 ? sumOfSquares / (sampleCount - 1) : Double.NaN;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public int getBatchCount() {
+        return batchCount;
+    }
+
+    /**
+     * @return the estimated variance of the mean of the samples times the number of samples
+     *         (i.e., the asymptotic variance), or NaN if there are too few batches yet
+     */
+    public double getAsymptoticVariance() {
+        if (batchCount < MIN_BATCH_COUNT) {
+            return Double.NaN;
+        }
+        double batchMean = 0.0;
+        for (int i = 0; i < batchCount; i++) {
+            batchMean += batchMeans[i];
+        }
+        batchMean /= batchCount;
+
+        double ss = 0.0;
+        for (int i = 0; i < batchCount; i++) {
+            double delta = batchMeans[i] - batchMean;
+            ss += delta * delta;
+        }
+        return batchSize * ss / (batchCount - 1);
+    }
+
+    /**
+     * @return the effective sample size, or NaN if there are too few samples or they are constant
+     */
+    public double getESS() {
+        double variance = getVariance();
+        double asymptoticVariance = getAsymptoticVariance();
+        if (Double.isNaN(asymptoticVariance) || !(variance > 0.0)) {
+            return Double.NaN;
+        }
+        if (asymptoticVariance == 0.0) {
+            return sampleCount;
+        }
+        return sampleCount * variance / asymptoticVariance;
+    }
+
+    /**
+     * Groups the complete batches into equal, contiguous segments. If the batches don't divide
+     * equally then the earliest are left out.
+     *
+     * @param segmentCount the number of segments
+     * @return for each segment, the number of samples, their mean and sum of squared deviations
+     *         from the mean (or null if there are fewer batches than segments)
+     */
+    public double[][] getSegmentStatistics(int segmentCount) {
+        int batchesPerSegment = batchCount / segmentCount;
+        if (batchesPerSegment < 1) {
+            return null;
+        }
+        double[][] segments = new double[segmentCount][3];
+        int first = batchCount - batchesPerSegment * segmentCount;
+        for (int k = 0; k < segmentCount; k++) {
+            double n = 0.0;
+            double mean = 0.0;
+            double ss = 0.0;
+            for (int i = first + k * batchesPerSegment; i < first + (k + 1) * batchesPerSegment; i++) {
+                // combine with the next batch (Chan et al.)
+                double delta = batchMeans[i] - mean;
+                double combined = n + batchSize;
+                ss += batchSumsOfSquares[i] + delta * delta * n * batchSize / combined;
+                mean += delta * batchSize / combined;
+                n = combined;
+            }
+            segments[k][0] = n;
+            segments[k][1] = mean;
+            segments[k][2] = ss;
+        }
+        return segments;
+    }
+
+    /**
+     * @return the standard error of the mean, or NaN if there are too few batches yet
+     */
+    public double getStdErrorOfMean() {
+        return Math.sqrt(getAsymptoticVariance() / sampleCount);
+    }
+
+    private final double[] batchMeans;
+    private final double[] batchSumsOfSquares;
+    private int batchCount;
+    private int batchSize;
+    private double batchMean;
+    private double batchSumOfSquares;
+    private int batchSampleCount;
+
+    private long sampleCount;
+    private double mean;
+    private double sumOfSquares;
+}
@@ -106,8 +106,6 @@ public abstract class FilteredTraceList implements TraceList {
     protected void refreshStatistics() {
         updateFlag();
         // must update filtered[] before analyseTrace
-        for (int i = 0; i < getTraceCount(); i++) {
-            analyseTrace(i);
-        }
+        analyseTraces();
     }
 }
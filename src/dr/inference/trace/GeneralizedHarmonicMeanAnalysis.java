@@ -201,8 +201,8 @@ public class GeneralizedHarmonicMeanAnalysis implements Reportable {
     				}
 
     				if (sampleSource == null && sampleDestination == null) {
-    					sampleSource = traces.getValues(traceIndexSource);
-    					sampleDestination = traces.getValues(traceIndexDestination);
+    					sampleSource = new ArrayList<Double>(traces.getValues(traceIndexSource));
+    					sampleDestination = new ArrayList<Double>(traces.getValues(traceIndexDestination));
     				} else {
     					sampleSource.addAll(traces.getValues(traceIndexSource));
     					sampleDestination.addAll(traces.getValues(traceIndexDestination));
@@ -254,9 +254,9 @@ public class GeneralizedSteppingStoneSamplingAnalysis implements Reportable {
     				}
 
     				if (sampleTheta == null && sampleSource == null && sampleDestination == null) {
-    					sampleTheta = traces.getValues(traceIndexTheta);
-    					sampleSource = traces.getValues(traceIndexSource);
-    					sampleDestination = traces.getValues(traceIndexDestination);
+    					sampleTheta = new ArrayList<Double>(traces.getValues(traceIndexTheta));
+    					sampleSource = new ArrayList<Double>(traces.getValues(traceIndexSource));
+    					sampleDestination = new ArrayList<Double>(traces.getValues(traceIndexDestination));
     				} else {
     					sampleTheta.addAll(traces.getValues(traceIndexTheta));
     					sampleSource.addAll(traces.getValues(traceIndexSource));
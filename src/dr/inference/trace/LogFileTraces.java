@@ -198,6 +198,14 @@ public class LogFileTraces extends AbstractTraceList {
         return this.getValues(index, getBurninStateCount(), getTrace(index).getValueCount());
     }
 
+    public double[] getValuesArray(int index) {
+        if (super.filtered != null) {
+            return Trace.toArray(getValues(index));
+        }
+        Trace trace = getTrace(index);
+        return trace.getValuesArray(getBurninStateCount(), trace.getValueCount());
+    }
+
     public List<Double> getBurninValues(int index) {
         return this.getValues(index, 0, getBurninStateCount());
     }
@@ -222,11 +230,34 @@ public class LogFileTraces extends AbstractTraceList {
      * @throws IOException
      */
     public void loadTraces(File file) throws TraceException, IOException {
+        if (useColumnStore) {
+            TraceColumnStore store = TraceColumnStore.open(file);
+            if (store != null) {
+                traces.addAll(store.getTraces());
+                firstState = store.getFirstState();
+                lastState = store.getLastState();
+                stepSize = store.getStepSize();
+                burnIn = lastState / 10;
+                return;
+            }
+        }
+
         final Reader reader = new FileReader(file);
-        loadTraces(reader);
+        loadTraces(reader, useColumnStore ? file : null);
         reader.close();
     }
 
+    /**
+     * Set whether the values should be held in a memory mapped TraceColumnStore
+     * (created next to the log file the first time it is loaded) rather than in memory.
+     * The default is given by the beast.trace.columnar system property.
+     *
+     * @param useColumnStore
+     */
+    public void setUseColumnStore(boolean useColumnStore) {
+        this.useColumnStore = useColumnStore;
+    }
+
     /**
      * Read through <code>InputStream</code> created from a log file,
      * fill in <code>traces</code> list, and set <code>TraceType</code>.
@@ -237,7 +268,7 @@ public class LogFileTraces extends AbstractTraceList {
      */
     public void loadTraces(InputStream in) throws TraceException, IOException {
         final Reader reader = new InputStreamReader(in);
-        loadTraces(reader);
+        loadTraces(reader, null);
         reader.close();
     }
 
@@ -248,10 +279,11 @@ public class LogFileTraces extends AbstractTraceList {
      *
      * @param r The input for <code>TrimLineReader</code>.
      *          Use either <code>FileReader</code> or <code>InputStreamReader</code>
+     * @param logFile if not null, the values are written to a TraceColumnStore for this log file
      * @throws TraceException
      * @throws java.io.IOException
      */
-    private void loadTraces(Reader r) throws TraceException, java.io.IOException {
+    private void loadTraces(Reader r, File logFile) throws TraceException, java.io.IOException {
 
         final TrimLineReader reader = new LogFileTraces.TrimLineReader(r);
 
@@ -295,6 +327,35 @@ public class LogFileTraces extends AbstractTraceList {
 
         int traceCount = getTraceCount();
 
+        TraceColumnStore.Writer storeWriter = null;
+        if (logFile != null) {
+            try {
+                storeWriter = new TraceColumnStore.Writer(logFile, traceCount);
+                for (int i = 0; i < traceCount; i++) {
+                    getTrace(i).setColumn(storeWriter.getColumn(i));
+                }
+            } catch (IOException ioe) {
+                System.err.println("Unable to create trace column store for " + logFile.getName() +
+                        " (" + ioe.getMessage() + "), loading into memory");
+                storeWriter = null;
+            }
+        }
+
+        try {
+            readValues(reader, traceCount);
+            if (storeWriter != null) {
+                storeWriter.finish(traces, firstState, lastState, stepSize);
+                storeWriter = null;
+            }
+        } finally {
+            if (storeWriter != null) {
+                storeWriter.discard();
+            }
+        }
+    }
+
+    private void readValues(TrimLineReader reader, int traceCount) throws TraceException, java.io.IOException {
+        StringTokenizer tokens;
         long num_samples = 0;
 
         String line = reader.readLine();
@@ -485,6 +546,8 @@ public class LogFileTraces extends AbstractTraceList {
             }
 
             Trace newTrace = new Trace(trace.getName(), newType);
+            // keep the values in the same place (i.e., a column store being written)
+            newTrace.setColumn(trace.getColumn());
 
             if (newType.isDiscrete()) {
                 int uniqueValue = trace.getUniqueValueCount();
@@ -565,6 +628,8 @@ public class LogFileTraces extends AbstractTraceList {
 
     private final List<Trace> traces = new ArrayList<Trace>();
 
+    private boolean useColumnStore = TraceColumnStore.isEnabled();
+
     private long burnIn = -1;
     private long firstState = -1;
     private long secondState = -1;
@@ -30,6 +30,9 @@ package dr.inference.trace;
 import dr.stats.FrequencyCounter;
 import dr.util.Pair;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.*;
 
 /**
@@ -48,7 +51,10 @@ public class Trace {
     private static final int MAX_UNIQUE_VALUES = 100; // the maximum allowed number of unique values
 
     private TraceType traceType = TraceType.REAL;
-    private List<Double> values = new ArrayList<Double>();
+    // values are held as primitives, either in this array or in a column of a TraceColumnStore
+    private double[] values = new double[16];
+    private int valueCount = 0;
+    private TraceColumn column = null;
     private String name;
 
     private boolean isConstant = true;
@@ -86,7 +92,7 @@ public class Trace {
             constantValue = value;
         }
 
-        values.add(value);
+        addValue(value);
     }
 
     /**
@@ -116,7 +122,19 @@ public class Trace {
             constantValue = d;
         }
 
-        values.add(d);
+        addValue(d);
+    }
+
+    private void addValue(double value) {
+        if (column != null) {
+            column.set(valueCount, value);
+        } else {
+            if (valueCount == values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[valueCount] = value;
+        }
+        valueCount++;
     }
 
     /**
@@ -126,16 +144,20 @@ public class Trace {
     public void add(String value) {
         int index = categoryValueList.indexOf(value);
         if (index < 0) {
-            categoryValueList.add(value);
+            addCategory(value);
             index = categoryValueList.size() - 1;
-            if (categoryLabelMap == null) {
-                categoryLabelMap = new HashMap<Integer, String>();
-            }
-            categoryLabelMap.put(index, value);
         }
         add(index);
     }
 
+    private void addCategory(String value) {
+        categoryValueList.add(value);
+        if (categoryLabelMap == null) {
+            categoryLabelMap = new HashMap<Integer, String>();
+        }
+        categoryLabelMap.put(categoryValueList.size() - 1, value);
+    }
+
     /**
      * @param valuesArray the values to be added
      */
@@ -203,7 +225,7 @@ public class Trace {
 
 
     public int getValueCount() {
-        return values.size();
+        return valueCount;
     }
 
     public int getUniqueValueCount() {
@@ -211,11 +233,14 @@ public class Trace {
     }
 
     public double getValue(int index) {
-        return values.get(index);
+        if (index >= valueCount) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + valueCount);
+        }
+        return column != null ? column.get(index) : values[index];
     }
 
     public int getCategory(int index) {
-        return values.get(index).intValue();
+        return (int) getValue(index);
     }
 
     public String getCategoryLabel(int index) {
@@ -234,7 +259,8 @@ public class Trace {
 
             Double min = Double.MAX_VALUE;
             Double max = Double.MIN_VALUE;
-            for (Double value : values) {
+            for (int i = 0; i < valueCount; i++) {
+                double value = getValue(i);
                 if ( value < min) {
                     min = value;
                 } else if (value > max) {
@@ -263,12 +289,12 @@ public class Trace {
         }
 
         if (filtered == null || filtered.length < 1) {
-            return values.subList(fromIndex, toIndex);
+            return new ValueList(fromIndex, toIndex);
         } else {
             List<Double> valuesList = new ArrayList<Double>();
             for (int i = fromIndex; i < toIndex; i++) {
                 if (!filtered[i])
-                    valuesList.add(values.get(i));
+                    valuesList.add(getValue(i));
             }
             if (valuesList.size() < 1)
                 throw new RuntimeException("There is no value left after all filters are applied !");
@@ -277,6 +303,51 @@ public class Trace {
         }
     }
 
+    /**
+     * Copy a range of values into a primitive array without boxing them.
+     *
+     * @param fromIndex low endpoint (inclusive) of the range.
+     * @param toIndex   high endpoint (exclusive) of the range.
+     * @return the values
+     */
+    public double[] getValuesArray(int fromIndex, int toIndex) {
+        if (toIndex > getValueCount() || fromIndex > toIndex) {
+            throw new RuntimeException("Invalid index : fromIndex = " + fromIndex + "; toIndex = " + toIndex
+                    + "; List size = " + getValueCount() + "; in Trace " + name);
+        }
+        double[] destination = new double[toIndex - fromIndex];
+        if (column != null) {
+            column.get(fromIndex, toIndex, destination, 0);
+        } else {
+            System.arraycopy(values, fromIndex, destination, 0, destination.length);
+        }
+        return destination;
+    }
+
+    /**
+     * A read-only view of a range of the values
+     */
+    private class ValueList extends AbstractList<Double> implements RandomAccess {
+        ValueList(int fromIndex, int toIndex) {
+            this.fromIndex = fromIndex;
+            this.size = toIndex - fromIndex;
+        }
+
+        public Double get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            return getValue(fromIndex + index);
+        }
+
+        public int size() {
+            return size;
+        }
+
+        private final int fromIndex;
+        private final int size;
+    }
+
     public String getName() {
         return name;
     }
@@ -297,6 +368,65 @@ public class Trace {
         return isConstant;
     }
 
+    //******************** Column storage ****************************
+
+    TraceColumn getColumn() {
+        return column;
+    }
+
+    /**
+     * Move the values into the given column (which must already hold any values
+     * added so far if the trace is not empty), or back into memory if null.
+     */
+    void setColumn(TraceColumn column) {
+        if (column == null && this.column != null) {
+            values = new double[Math.max(16, valueCount)];
+            this.column.get(0, valueCount, values, 0);
+        } else if (column != null) {
+            values = null;
+        }
+        this.column = column;
+    }
+
+    /**
+     * Write everything except the values themselves (which are held by a TraceColumnStore).
+     */
+    void writeHeader(DataOutput out) throws IOException {
+        out.writeUTF(name);
+        out.writeUTF(traceType.name());
+        out.writeInt(valueCount);
+        out.writeBoolean(isConstant);
+        out.writeDouble(constantValue);
+        out.writeInt(uniqueValues.size());
+        for (int value : uniqueValues) {
+            out.writeInt(value);
+        }
+        out.writeInt(categoryValueList.size());
+        for (String value : categoryValueList) {
+            out.writeUTF(value);
+        }
+    }
+
+    /**
+     * Recreate a trace written by writeHeader with its values held in the given column.
+     */
+    static Trace readHeader(DataInput in, TraceColumn column) throws IOException {
+        Trace trace = new Trace(in.readUTF(), TraceType.valueOf(in.readUTF()));
+        trace.valueCount = in.readInt();
+        trace.isConstant = in.readBoolean();
+        trace.constantValue = in.readDouble();
+        int uniqueValueCount = in.readInt();
+        for (int i = 0; i < uniqueValueCount; i++) {
+            trace.uniqueValues.add(in.readInt());
+        }
+        int categoryCount = in.readInt();
+        for (int i = 0; i < categoryCount; i++) {
+            trace.addCategory(in.readUTF());
+        }
+        trace.setColumn(column);
+        return trace;
+    }
+
     //******************** TraceCorrelation ****************************
     private TraceCorrelation traceStatistics;
 
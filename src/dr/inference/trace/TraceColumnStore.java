@@ -0,0 +1,401 @@
+/*
+ * TraceColumnStore.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.inference.trace;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A binary, column oriented copy of a log file which is memory mapped when opened so
+ * that only the columns that are actually looked at are paged in. The file is written
+ * once, while the log is being parsed, and is reused for as long as the log is unchanged.
+ *
+ * The layout is a fixed size preamble, followed by the values in blocks of rows (within
+ * each block the values of a column are contiguous), followed by the trace headers
+ * (names, types, categories, etc.).
+ */
+public class TraceColumnStore {
+
+    public static final String COLUMN_STORE_PROPERTY = "beast.trace.columnar";
+    public static final String FILE_EXTENSION = ".columns";
+
+    private static final long MAGIC = 0x4245415354434f4cL; // "BEASTCOL"
+    private static final int VERSION = 1;
+    private static final int PREAMBLE_SIZE = 64;
+
+    // the target size of a block of rows during writing
+    private static final int BLOCK_BYTES = 1 << 25;
+    // the maximum size of a single mapped region
+    private static final long MAX_MAPPED_BYTES = 1L << 30;
+
+    /**
+     * @return whether log files should be read via column stores by default
+     */
+    public static boolean isEnabled() {
+        return Boolean.parseBoolean(System.getProperty(COLUMN_STORE_PROPERTY, "false"));
+    }
+
+    public static File getStoreFile(File logFile) {
+        return new File(logFile.getPath() + FILE_EXTENSION);
+    }
+
+    /**
+     * Open an existing store for the given log file.
+     *
+     * @return the store or null if it doesn't exist or is out of date with respect to the log
+     */
+    public static TraceColumnStore open(File logFile) {
+        File storeFile = getStoreFile(logFile);
+        if (!storeFile.exists() || storeFile.lastModified() < logFile.lastModified()) {
+            return null;
+        }
+        try {
+            return new TraceColumnStore(storeFile, logFile);
+        } catch (IOException ioe) {
+            return null;
+        }
+    }
+
+    private TraceColumnStore(File storeFile, File logFile) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(storeFile, "r");
+        try {
+            if (raf.length() < PREAMBLE_SIZE || raf.readLong() != MAGIC || raf.readInt() != VERSION) {
+                throw new IOException("Not a trace column store: " + storeFile);
+            }
+            long headerOffset = raf.readLong();
+            long logLength = raf.readLong();
+            long logModified = raf.readLong();
+            if (headerOffset <= 0 || logLength != logFile.length() || logModified != logFile.lastModified()) {
+                throw new IOException("Trace column store is out of date: " + storeFile);
+            }
+
+            raf.seek(headerOffset);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(raf.getFD()), 1 << 16));
+            rowCount = in.readInt();
+            columnCount = in.readInt();
+            rowsPerBlock = in.readInt();
+            firstState = in.readLong();
+            lastState = in.readLong();
+            stepSize = in.readLong();
+
+            mapBlocks(raf.getChannel());
+
+            for (int i = 0; i < columnCount; i++) {
+                traces.add(Trace.readHeader(in, new MappedColumn(i)));
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    private void mapBlocks(FileChannel channel) throws IOException {
+        long blockBytes = 8L * rowsPerBlock * columnCount;
+        blocksPerRegion = (int) Math.max(1, MAX_MAPPED_BYTES / Math.max(1, blockBytes));
+
+        int blockCount = (rowCount + rowsPerBlock - 1) / rowsPerBlock;
+        int regionCount = (blockCount + blocksPerRegion - 1) / blocksPerRegion;
+        regions = new ByteBuffer[regionCount];
+        long position = PREAMBLE_SIZE;
+        for (int r = 0; r < regionCount; r++) {
+            int firstRow = r * blocksPerRegion * rowsPerBlock;
+            int rows = Math.min(rowCount - firstRow, blocksPerRegion * rowsPerBlock);
+            long size = 8L * rows * columnCount;
+            MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+            regions[r] = region;
+            position += size;
+        }
+    }
+
+    public List<Trace> getTraces() {
+        return traces;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public long getFirstState() {
+        return firstState;
+    }
+
+    public long getLastState() {
+        return lastState;
+    }
+
+    public long getStepSize() {
+        return stepSize;
+    }
+
+    /**
+     * The values of a column read straight from the mapped file
+     */
+    private class MappedColumn implements TraceColumn {
+        MappedColumn(int column) {
+            this.column = column;
+        }
+
+        public double get(int row) {
+            int block = row / rowsPerBlock;
+            int rowInBlock = row - block * rowsPerBlock;
+            ByteBuffer region = regions[block / blocksPerRegion];
+            int blockInRegion = block % blocksPerRegion;
+            int rows = getBlockRowCount(block);
+            long index = ((long) blockInRegion * rowsPerBlock * columnCount) + (long) column * rows + rowInBlock;
+            return region.getDouble((int) (index * 8));
+        }
+
+        public void get(int fromRow, int toRow, double[] destination, int offset) {
+            int row = fromRow;
+            while (row < toRow) {
+                int block = row / rowsPerBlock;
+                int rowInBlock = row - block * rowsPerBlock;
+                int rows = getBlockRowCount(block);
+                int count = Math.min(rows - rowInBlock, toRow - row);
+
+                ByteBuffer region = regions[block / blocksPerRegion].duplicate();
+                int blockInRegion = block % blocksPerRegion;
+                long index = ((long) blockInRegion * rowsPerBlock * columnCount) + (long) column * rows + rowInBlock;
+                region.position((int) (index * 8));
+                region.asDoubleBuffer().get(destination, offset, count);
+
+                offset += count;
+                row += count;
+            }
+        }
+
+        public void set(int row, double value) {
+            throw new UnsupportedOperationException("Trace column stores are read only");
+        }
+
+        private final int column;
+    }
+
+    private int getBlockRowCount(int block) {
+        return Math.min(rowsPerBlock, rowCount - block * rowsPerBlock);
+    }
+
+    private final List<Trace> traces = new ArrayList<Trace>();
+
+    private int rowCount;
+    private int columnCount;
+    private int rowsPerBlock;
+    private long firstState;
+    private long lastState;
+    private long stepSize;
+
+    private int blocksPerRegion;
+    private ByteBuffer[] regions;
+
+    // **************************************************************
+    // Writer
+    // **************************************************************
+
+    /**
+     * Writes a store for a log file while it is being parsed. The columns it provides
+     * are given to the traces as they are created so that the values are written
+     * straight to disk rather than being held in memory.
+     */
+    public static class Writer {
+
+        public Writer(File logFile, int columnCount) throws IOException {
+            this.logFile = logFile;
+            this.storeFile = getStoreFile(logFile);
+            this.tempFile = new File(storeFile.getPath() + ".tmp");
+            this.columnCount = columnCount;
+
+            rowsPerBlock = Math.max(1, BLOCK_BYTES / (8 * Math.max(1, columnCount)));
+            buffer = new double[rowsPerBlock * columnCount];
+            byteBuffer = ByteBuffer.allocate(buffer.length * 8);
+
+            raf = new RandomAccessFile(tempFile, "rw");
+            raf.setLength(0);
+            channel = raf.getChannel();
+            channel.position(PREAMBLE_SIZE);
+        }
+
+        /**
+         * @param index the index of the trace (column)
+         * @return a column to which the values of this trace can be written
+         */
+        TraceColumn getColumn(final int index) {
+            return new TraceColumn() {
+                public double get(int row) {
+                    try {
+                        return getValue(index, row);
+                    } catch (IOException ioe) {
+                        throw new RuntimeException("Unable to read trace column store: " + ioe.getMessage());
+                    }
+                }
+
+                public void get(int fromRow, int toRow, double[] destination, int offset) {
+                    for (int row = fromRow; row < toRow; row++) {
+                        destination[offset + row - fromRow] = get(row);
+                    }
+                }
+
+                public void set(int row, double value) {
+                    try {
+                        setValue(index, row, value);
+                    } catch (IOException ioe) {
+                        throw new RuntimeException("Unable to write trace column store: " + ioe.getMessage());
+                    }
+                }
+            };
+        }
+
+        private double getValue(int column, int row) throws IOException {
+            if (row >= bufferStart) {
+                return buffer[column * rowsPerBlock + row - bufferStart];
+            }
+            // a value in a block that has already been written (only needed when a trace becomes categorical)
+            ByteBuffer bb = ByteBuffer.allocate(8);
+            channel.read(bb, getFilePosition(column, row));
+            return bb.getDouble(0);
+        }
+
+        private void setValue(int column, int row, double value) throws IOException {
+            if (row >= bufferStart + rowsPerBlock) {
+                // the traces are filled row by row so moving past the block means it is complete
+                writeBlock(rowsPerBlock);
+                bufferStart += rowsPerBlock;
+            }
+            if (row >= bufferStart) {
+                buffer[column * rowsPerBlock + row - bufferStart] = value;
+                rowCount = Math.max(rowCount, row + 1);
+            } else {
+                ByteBuffer bb = ByteBuffer.allocate(8);
+                bb.putDouble(0, value);
+                channel.write(bb, getFilePosition(column, row));
+            }
+        }
+
+        private long getFilePosition(int column, int row) {
+            int block = row / rowsPerBlock;
+            return PREAMBLE_SIZE + 8L * ((long) block * rowsPerBlock * columnCount +
+                    (long) column * rowsPerBlock + (row - block * rowsPerBlock));
+        }
+
+        private void writeBlock(int rows) throws IOException {
+            byteBuffer.clear();
+            DoubleBuffer doubles = byteBuffer.asDoubleBuffer();
+            if (rows == rowsPerBlock) {
+                doubles.put(buffer);
+            } else {
+                for (int i = 0; i < columnCount; i++) {
+                    doubles.put(buffer, i * rowsPerBlock, rows);
+                }
+            }
+            byteBuffer.limit(rows * columnCount * 8);
+            while (byteBuffer.hasRemaining()) {
+                channel.write(byteBuffer);
+            }
+        }
+
+        /**
+         * Write the remaining values and trace headers and replace the traces' columns
+         * with ones mapped from the finished store.
+         *
+         * @return the finished store
+         */
+        public TraceColumnStore finish(List<Trace> traces, long firstState, long lastState, long stepSize) throws IOException {
+            if (traces.size() != columnCount) {
+                throw new IllegalArgumentException("Wrong number of traces for this store");
+            }
+            writeBlock(rowCount - bufferStart);
+            buffer = null;
+
+            long headerOffset = channel.position();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(raf.getFD()), 1 << 16));
+            out.writeInt(rowCount);
+            out.writeInt(columnCount);
+            out.writeInt(rowsPerBlock);
+            out.writeLong(firstState);
+            out.writeLong(lastState);
+            out.writeLong(stepSize);
+            for (Trace trace : traces) {
+                trace.writeHeader(out);
+            }
+            out.flush();
+
+            // the preamble goes last so a partially written store is never valid
+            raf.seek(0);
+            raf.writeLong(MAGIC);
+            raf.writeInt(VERSION);
+            raf.writeLong(headerOffset);
+            raf.writeLong(logFile.length());
+            raf.writeLong(logFile.lastModified());
+            raf.close();
+
+            if (storeFile.exists() && !storeFile.delete()) {
+                throw new IOException("Unable to replace trace column store: " + storeFile);
+            }
+            if (!tempFile.renameTo(storeFile)) {
+                throw new IOException("Unable to create trace column store: " + storeFile);
+            }
+
+            TraceColumnStore store = new TraceColumnStore(storeFile, logFile);
+            for (int i = 0; i < columnCount; i++) {
+                traces.get(i).setColumn(store.traces.get(i).getColumn());
+            }
+            return store;
+        }
+
+        /**
+         * Abandon the store (i.e., if the log couldn't be parsed)
+         */
+        public void discard() {
+            try {
+                raf.close();
+            } catch (IOException ioe) {
+                // ignore
+            }
+            tempFile.delete();
+        }
+
+        private final File logFile;
+        private final File storeFile;
+        private final File tempFile;
+        private final int columnCount;
+        private final int rowsPerBlock;
+
+        private final RandomAccessFile raf;
+        private final FileChannel channel;
+
+        private double[] buffer;
+        private final ByteBuffer byteBuffer;
+        private int bufferStart = 0;
+        private int rowCount = 0;
+    }
+}
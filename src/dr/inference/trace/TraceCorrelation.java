@@ -27,6 +27,8 @@
 
 package dr.inference.trace;
 
+import dr.math.FastFourierTransform;
+
 import java.util.List;
 import java.util.Map;
 
@@ -88,6 +90,10 @@ public class TraceCorrelation extends TraceDistribution {
 
     private static final int MAX_LAG = 2000;
 
+    // the lags are summed directly to begin with as most traces decorrelate within a few lags but
+    // if this many are needed then the rest are taken from an autocovariance computed by FFT
+    private static final int MIN_FFT_LAG = 200;
+
     private void analyseCorrelation(List<Double> values, long stepSize) {
 //        this.values = values; // move to TraceDistribution(T[] values)
 
@@ -137,12 +143,21 @@ public class TraceCorrelation extends TraceDistribution {
         //double assVarCor = 1.0;
         //double del1, del2;
 
+        double[] autoCovariance = null;
+
         for (int lag = 0; lag < maxLag; lag++) {
-            for (int j = 0; j < samples - lag; j++) {
-                final double del1 = values[j] - mean;
-                final double del2 = values[j + lag] - mean;
-                gammaStat[lag] += (del1 * del2);
-                //varGammaStat[lag] += (del1*del1*del2*del2);
+            if (lag < MIN_FFT_LAG) {
+                for (int j = 0; j < samples - lag; j++) {
+                    final double del1 = values[j] - mean;
+                    final double del2 = values[j + lag] - mean;
+                    gammaStat[lag] += (del1 * del2);
+                    //varGammaStat[lag] += (del1*del1*del2*del2);
+                }
+            } else {
+                if (autoCovariance == null) {
+                    autoCovariance = getAutoCovarianceSums(values, mean, maxLag);
+                }
+                gammaStat[lag] = autoCovariance[lag];
             }
 
             gammaStat[lag] /= ((double) (samples - lag));
@@ -190,4 +205,44 @@ public class TraceCorrelation extends TraceDistribution {
 //        minEqualToMax = true;
     }
 
+    /**
+     * Computes the sums of (x[j] - mean) * (x[j + lag] - mean) over j for all lags less than maxLag
+     * using the FFT (the inverse transform of the power spectrum of the zero padded, centred values).
+     *
+     * @param values the values
+     * @param mean   the mean of the values
+     * @param maxLag the number of lags required
+     * @return the sums for each lag
+     */
+    private static double[] getAutoCovarianceSums(double[] values, double mean, int maxLag) {
+        final int samples = values.length;
+
+        // pad to avoid the circular correlation wrapping around for the lags required
+        int n = 1;
+        while (n < samples + maxLag) {
+            n <<= 1;
+        }
+
+        // interleaved (real, imaginary) values
+        double[] data = new double[2 * n];
+        for (int j = 0; j < samples; j++) {
+            data[2 * j] = values[j] - mean;
+        }
+
+        FastFourierTransform.fft(data, n, false);
+        for (int k = 0; k < n; k++) {
+            final double re = data[2 * k];
+            final double im = data[2 * k + 1];
+            data[2 * k] = re * re + im * im;
+            data[2 * k + 1] = 0.0;
+        }
+        FastFourierTransform.fft(data, n, true);
+
+        double[] sums = new double[maxLag];
+        for (int lag = 0; lag < maxLag; lag++) {
+            sums[lag] = data[2 * lag] / n;
+        }
+        return sums;
+    }
+
 }
\ No newline at end of file
@@ -27,7 +27,13 @@
 
 package dr.inference.trace;
 
+import dr.util.TaskScheduler;
+
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  * An interface and default class that stores a set of traces from a single chain
@@ -108,6 +114,15 @@ public interface TraceList {
      */
     List<Double> getValues(int index);
 
+    /**
+     * get the values of trace with the given index (without burnin) as a primitive array
+     * @param index       the index of trace
+     * @return The values (which are selected values if filter applied)
+     */
+    default double[] getValuesArray(int index) {
+        return Trace.toArray(getValues(index));
+    }
+
     /**
      * get the values of the burnin of the trace
      * @param index       the index of trace
@@ -131,6 +146,35 @@ public interface TraceList {
     // create TraceCorrelation regarding Trace
     void analyseTrace(int index);
 
+    /**
+     * create the TraceCorrelation for every trace, analysing the traces in parallel on the shared TaskScheduler
+     */
+    default void analyseTraces() {
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int i = 0; i < getTraceCount(); i++) {
+            final int index = i;
+            tasks.add(() -> {
+                analyseTrace(index);
+                return null;
+            });
+        }
+        if (tasks.size() == 0) {
+            return;
+        }
+        try {
+            for (Future<Void> future : TaskScheduler.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Trace analysis was interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
     Trace getTrace(int index);
 
 //    public interface D extends TraceList {
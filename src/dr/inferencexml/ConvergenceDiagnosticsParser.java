@@ -0,0 +1,128 @@
+/*
+ * ConvergenceDiagnosticsParser.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.inferencexml;
+
+import dr.inference.loggers.Loggable;
+import dr.inference.mcmc.ConvergenceDiagnostics;
+import dr.util.FileHelpers;
+import dr.xml.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ConvergenceDiagnosticsParser extends AbstractXMLObjectParser {
+
+    public static final String CONVERGENCE_DIAGNOSTICS = "convergenceDiagnostics";
+    public static final String SAMPLE_EVERY = "sampleEvery";
+    public static final String BURN_IN = "burnIn";
+    public static final String SEGMENTS = "segments";
+    public static final String CHECK_EVERY = "checkEvery";
+    public static final String ESS_THRESHOLD = "essThreshold";
+    public static final String RHAT_THRESHOLD = "rHatThreshold";
+    public static final String STOP_EARLY = "stopEarly";
+    public static final String FILE_NAME = FileHelpers.FILE_NAME;
+    public static final String REPLICATES = "replicates";
+
+    public Object parseXMLObject(XMLObject xo) throws XMLParseException {
+
+        final long sampleEvery = xo.getLongIntegerAttribute(SAMPLE_EVERY);
+        if (sampleEvery <= 0) {
+            throw new XMLParseException("The " + SAMPLE_EVERY + " attribute of " + CONVERGENCE_DIAGNOSTICS + " must be positive");
+        }
+        final long burnin = xo.getAttribute(BURN_IN, 0L);
+        final int segmentCount = xo.getAttribute(SEGMENTS, ConvergenceDiagnostics.DEFAULT_SEGMENT_COUNT);
+        if (segmentCount < 2) {
+            throw new XMLParseException("The " + SEGMENTS + " attribute of " + CONVERGENCE_DIAGNOSTICS + " must be at least 2");
+        }
+        final long checkEvery = xo.getAttribute(CHECK_EVERY, 0L);
+        final double essThreshold = xo.getAttribute(ESS_THRESHOLD, 200.0);
+        final double rHatThreshold = xo.getAttribute(RHAT_THRESHOLD, 0.0);
+        final boolean stopEarly = xo.getAttribute(STOP_EARLY, false);
+        if (stopEarly && checkEvery <= 0) {
+            throw new XMLParseException("The " + CHECK_EVERY + " attribute is needed for " + CONVERGENCE_DIAGNOSTICS + " to stop early");
+        }
+
+        String fileName = null;
+        if (xo.hasAttribute(FILE_NAME)) {
+            fileName = FileHelpers.getFile(xo.getStringAttribute(FILE_NAME)).getAbsolutePath();
+        }
+
+        List<String> replicateFileNames = new ArrayList<String>();
+        if (xo.hasAttribute(REPLICATES)) {
+            for (String name : xo.getStringAttribute(REPLICATES).split("[,\\s]+")) {
+                if (name.length() > 0) {
+                    replicateFileNames.add(FileHelpers.getFile(name).getAbsolutePath());
+                }
+            }
+        }
+
+        List<Loggable> targets = new ArrayList<Loggable>();
+        for (int i = 0; i < xo.getChildCount(); i++) {
+            if (xo.getChild(i) instanceof Loggable) {
+                targets.add((Loggable) xo.getChild(i));
+            }
+        }
+
+        return new ConvergenceDiagnostics(targets, sampleEvery, burnin, segmentCount, checkEvery,
+                essThreshold, rHatThreshold, stopEarly, fileName, replicateFileNames);
+    }
+
+    //************************************************************************
+    // AbstractXMLObjectParser implementation
+    //************************************************************************
+
+    public String getParserName() {
+        return CONVERGENCE_DIAGNOSTICS;
+    }
+
+    public XMLSyntaxRule[] getSyntaxRules() {
+        return rules;
+    }
+
+    private final XMLSyntaxRule[] rules = {
+            AttributeRule.newLongIntegerRule(SAMPLE_EVERY),
+            AttributeRule.newLongIntegerRule(BURN_IN, true, "The number of states to discard before sampling (default 0)."),
+            AttributeRule.newIntegerRule(SEGMENTS, true, "The number of segments each chain is split into for R-hat (default 4)."),
+            AttributeRule.newLongIntegerRule(CHECK_EVERY, true, "How often to update the diagnostics and write the summary."),
+            AttributeRule.newDoubleRule(ESS_THRESHOLD, true, "The ESS every target must reach to stop early (default 200)."),
+            AttributeRule.newDoubleRule(RHAT_THRESHOLD, true, "The R-hat every target must be below to stop early (default not used)."),
+            AttributeRule.newBooleanRule(STOP_EARLY, true, "Stop the chain once all the targets have converged (default false)."),
+            new StringAttributeRule(FILE_NAME, "The name of the file to write the summary to.", true),
+            new StringAttributeRule(REPLICATES, "The summary files of independent replicates of this analysis to combine with (files written before this run started are ignored).", true),
+            new ElementRule(Loggable.class, 1, Integer.MAX_VALUE)
+    };
+
+    public String getParserDescription() {
+        return "Computes running convergence diagnostics (mean, variance, batch means ESS and split-R-hat) of the " +
+                "given statistics while the chain is running, optionally stopping it once they have converged.";
+    }
+
+    public Class getReturnType() {
+        return ConvergenceDiagnostics.class;
+    }
+}
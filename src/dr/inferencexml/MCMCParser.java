@@ -29,6 +29,7 @@ package dr.inferencexml;
 
 import dr.inference.loggers.Logger;
 import dr.inference.markovchain.MarkovChain;
+import dr.inference.markovchain.MarkovChainListener;
 import dr.inference.mcmc.MCMC;
 import dr.inference.mcmc.MCMCOptions;
 import dr.inference.model.CompoundLikelihood;
@@ -174,6 +175,12 @@ public class MCMCParser extends AbstractXMLObjectParser {
 
         mcmc.init(options, likelihood, opsched, loggerArray);
 
+        for (int i = 0; i < xo.getChildCount(); i++) {
+            Object child = xo.getChild(i);
+            if (child instanceof MarkovChainListener) {
+                mcmc.addMarkovChainListener((MarkovChainListener) child);
+            }
+        }
 
         MarkovChain mc = mcmc.getMarkovChain();
         double initialScore = mc.getCurrentScore();
@@ -235,7 +242,12 @@ public class MCMCParser extends AbstractXMLObjectParser {
 
         long chainLength = xo.getLongIntegerAttribute(CHAIN_LENGTH);
 
-        SMCOptions options = new SMCOptions(chainLength);
+        int rounds = Integer.getInteger("smc.rounds", 1);
+        double resamplingThreshold = Double.parseDouble(System.getProperty("smc.resampling_threshold", "0.5"));
+        int checkpointEvery = Integer.getInteger("smc.checkpoint_every", 0);
+        boolean reweighting = Boolean.getBoolean("smc.reweight");
+
+        SMCOptions options = new SMCOptions(chainLength, rounds, resamplingThreshold, checkpointEvery, reweighting);
 
         OperatorSchedule opsched = (OperatorSchedule) xo.getChild(OperatorSchedule.class);
         Likelihood likelihood = (Likelihood) xo.getChild(Likelihood.class);
@@ -256,7 +268,8 @@ public class MCMCParser extends AbstractXMLObjectParser {
 
         java.util.logging.Logger.getLogger("dr.inference").info("\nCreating the SMC chain set:" +
                 "\n  particles = " + particleStates.size() +
-                "\n  chain length = " + options.getChainLength()
+                "\n  chain length = " + options.getChainLength() +
+                "\n  rounds = " + options.getRounds()
         );
 
         smc.init(options, likelihood, opsched, loggerArray);
@@ -297,6 +310,7 @@ public class MCMCParser extends AbstractXMLObjectParser {
             new ElementRule(OperatorSchedule.class),
             new ElementRule(Likelihood.class),
             new ElementRule(Logger.class, 1, Integer.MAX_VALUE),
+            new ElementRule(MarkovChainListener.class, 0, Integer.MAX_VALUE),
     };
 
     public static final String ADAPTATION = "adaptation";
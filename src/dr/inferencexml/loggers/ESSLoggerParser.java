@@ -0,0 +1,87 @@
+/*
+ * ESSLoggerParser.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.inferencexml.loggers;
+
+import dr.inference.loggers.ESSLogger;
+import dr.inference.loggers.Loggable;
+import dr.xml.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ESSLoggerParser extends AbstractXMLObjectParser {
+
+    public static final String ESS_LOG = "essLog";
+    public static final String LOG_EVERY = "logEvery";
+    public static final String BURN_IN = "burnIn";
+
+    public Object parseXMLObject(XMLObject xo) throws XMLParseException {
+
+        final long logEvery = xo.getLongIntegerAttribute(LOG_EVERY);
+        if (logEvery <= 0) {
+            throw new XMLParseException("The " + LOG_EVERY + " attribute of " + ESS_LOG + " must be positive");
+        }
+        final long burnin = xo.getAttribute(BURN_IN, 0L);
+
+        List<Loggable> loggables = new ArrayList<Loggable>();
+        for (int i = 0; i < xo.getChildCount(); i++) {
+            if (xo.getChild(i) instanceof Loggable) {
+                loggables.add((Loggable) xo.getChild(i));
+            }
+        }
+
+        return new ESSLogger(loggables, logEvery, burnin);
+    }
+
+    //************************************************************************
+    // AbstractXMLObjectParser implementation
+    //************************************************************************
+
+    public String getParserName() {
+        return ESS_LOG;
+    }
+
+    public XMLSyntaxRule[] getSyntaxRules() {
+        return rules;
+    }
+
+    private final XMLSyntaxRule[] rules = {
+            AttributeRule.newLongIntegerRule(LOG_EVERY),
+            AttributeRule.newLongIntegerRule(BURN_IN, true, "The number of states to discard before sampling (default 0)."),
+            new ElementRule(Loggable.class, 1, Integer.MAX_VALUE)
+    };
+
+    public String getParserDescription() {
+        return "Keeps a running batch means estimate of the effective sample size of each of the given " +
+                "statistics, available as log columns while the chain is running.";
+    }
+
+    public Class getReturnType() {
+        return ESSLogger.class;
+    }
+}
@@ -92,6 +92,10 @@ public class LoggerParser extends AbstractXMLObjectParser {
         // added a performance measurement delay to avoid the full evaluation period.
         final MCLogger logger = new MCLogger(formatter, logEvery, performanceReport, 10000);
 
+        if (xo.hasAttribute(FILE_NAME)) {
+            logger.setAsynchronous(Boolean.getBoolean(MCLogger.ASYNC_LOGGING));
+        }
+
         String title = null;
         if (xo.hasAttribute(TITLE)) {
             title = xo.getStringAttribute(TITLE);
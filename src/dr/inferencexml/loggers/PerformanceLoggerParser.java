@@ -0,0 +1,109 @@
+/*
+ * PerformanceLoggerParser.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.inferencexml.loggers;
+
+import dr.inference.loggers.PerformanceLogger;
+import dr.inference.model.Likelihood;
+import dr.inference.operators.OperatorSchedule;
+import dr.util.FileHelpers;
+import dr.xml.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+public class PerformanceLoggerParser extends AbstractXMLObjectParser {
+
+    public static final String PERFORMANCE_LOG = "performanceLog";
+    public static final String LOG_EVERY = "logEvery";
+    public static final String FORMAT = "format";
+    public static final String FILE_NAME = FileHelpers.FILE_NAME;
+
+    public Object parseXMLObject(XMLObject xo) throws XMLParseException {
+
+        String fileName = null;
+        if (xo.hasAttribute(FILE_NAME)) {
+            fileName = xo.getStringAttribute(FILE_NAME);
+            File file = FileHelpers.getFile(fileName);
+            fileName = file.getAbsolutePath();
+        }
+
+        final long logEvery = xo.getAttribute(LOG_EVERY, 0L);
+
+        PerformanceLogger.Format format = PerformanceLogger.Format.JSON;
+        if (xo.hasAttribute(FORMAT)) {
+            try {
+                format = PerformanceLogger.Format.valueOf(xo.getStringAttribute(FORMAT).toUpperCase());
+            } catch (IllegalArgumentException iae) {
+                throw new XMLParseException("Unknown format for " + PERFORMANCE_LOG + ": " + xo.getStringAttribute(FORMAT));
+            }
+        } else if (fileName != null && fileName.toLowerCase().endsWith(".csv")) {
+            format = PerformanceLogger.Format.CSV;
+        }
+
+        OperatorSchedule schedule = (OperatorSchedule) xo.getChild(OperatorSchedule.class);
+
+        List<Likelihood> likelihoods = new ArrayList<Likelihood>();
+        for (int i = 0; i < xo.getChildCount(); i++) {
+            if (xo.getChild(i) instanceof Likelihood) {
+                likelihoods.add((Likelihood) xo.getChild(i));
+            }
+        }
+
+        return new PerformanceLogger(schedule, likelihoods, fileName, format, logEvery);
+    }
+
+    //************************************************************************
+    // AbstractXMLObjectParser implementation
+    //************************************************************************
+
+    public String getParserName() {
+        return PERFORMANCE_LOG;
+    }
+
+    public XMLSyntaxRule[] getSyntaxRules() {
+        return rules;
+    }
+
+    private final XMLSyntaxRule[] rules = {
+            new StringAttributeRule(FILE_NAME, "The name of the file to write the performance report to.", true),
+            AttributeRule.newLongIntegerRule(LOG_EVERY, true),
+            new StringAttributeRule(FORMAT, "The format of the report file (json or csv).", true),
+            new ElementRule(OperatorSchedule.class, true),
+            new ElementRule(Likelihood.class, 0, Integer.MAX_VALUE)
+    };
+
+    public String getParserDescription() {
+        return "Reports the time spent evaluating each likelihood component and operator, as log columns " +
+                "and periodically to a JSON or CSV file.";
+    }
+
+    public Class getReturnType() {
+        return PerformanceLogger.class;
+    }
+}
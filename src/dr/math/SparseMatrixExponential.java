@@ -27,119 +27,613 @@
 
 package dr.math;
 
+import dr.math.matrixAlgebra.CompressedSparseRowMatrix;
+
+import java.util.Arrays;
+
 /**
- * Created by IntelliJ IDEA.
- * User: msuchard
- * Date: Jul 28, 2007
- * Time: 11:05:44 AM
- * To change this template use File | Settings | File Templates.
+ * Computes the action of a sparse matrix exponential on a vector, w = exp(tA) v, without forming
+ * exp(tA). Two methods are available: a Krylov subspace projection with the step size and local
+ * error control of Expokit's DGEXPV (Sidje 1998, ACM TOMS 24:130-156) and, for matrices with
+ * non-negative off-diagonal entries such as CTMC rate matrices, uniformization with a truncated
+ * Poisson series. The matrix is held in compressed sparse row form.
+ *
+ * This was originally a JNI wrapper around the Fortran Expokit library; it is now pure Java and
+ * keeps the original entry-by-entry construction.
  */
 public class SparseMatrixExponential {
 
 	public static int maxKrylovBasisSize = 50;
 	public static double tolerance = 1E-7;
 
-
-	static {
-		System.loadLibrary("ExpoKit");
+	public enum Method {
+		KRYLOV,
+		UNIFORMIZATION,
+		AUTOMATIC // uniformization when it applies and the Poisson rate is modest, otherwise Krylov
 	}
 
-	private native void executeDGEXPV(int order, int nz, int maxBasis, double time,
-	                                  double[] operandVector, double[] resultVector,
-	                                  double tolerance, double matrixNorm,
-	                                  double[] rate, int[] indexX, int[] indexY,
-	                                  double[] workspace, int lengthWorkspace,
-	                                  int[] intWorkspace, int lengethIntWorkspace,
-	                                  int flag
-	);
+	// Largest uniformization rate * time covered by one Poisson series; longer times are split
+	private static final double UNIFORMIZATION_STEP = 50.0;
+	// AUTOMATIC switches to Krylov beyond this rate * time as the number of products grows linearly
+	private static final double UNIFORMIZATION_LIMIT = 500.0;
 
-	private int order;
-	private int nonZeroEntries;
-	private int krylovBasisSize;
-
-	private double[] workSpace;
-	private int[] intWorkSpace;
-	private int lengthWorkspace;
-	private int lengthIntWorkspace;
+	private static final double BREAKDOWN_TOLERANCE = 1E-7;
+	private static final int MAX_REJECTIONS = 20;
+	private static final double DELTA = 1.2;
+	private static final double GAMMA = 0.9;
+	private static final int PADE_DEGREE = 6;
 
+	private final int order;
+	private final int nonZeroEntries;
 
-	private int[] fortranIndexX;
-	private int[] fortranIndexY;
-	private double[] rate;
+	private final int[] indexX;
+	private final int[] indexY;
+	private final double[] rate;
+	private int index = 0;
 
-	private double[] start;
+	private CompressedSparseRowMatrix matrix;
+	private boolean nonNegativeOffDiagonal;
+	private double uniformizationRate;
+	private double matrixNorm;
+	private double norm;
 
-	private double[] stop;
+	private Method method = Method.AUTOMATIC;
+	private double errorTolerance = tolerance;
+	private int krylovBasisSize;
 
-	private double norm;
+	// workspace
+	private final double[] start;
+	private final double[] stop;
+	private double[][] basis;
+	private double[] hessenberg;
+	private double[] exponential;
+	private double[] vector1;
+	private double[] vector2;
+	private double[] vector3;
 
-	int index = 0;
+	private int matrixVectorProducts;
+	private double errorEstimate;
 
 	public SparseMatrixExponential(int order, int nonZeroEntries) {
 		this.order = order;
 		this.nonZeroEntries = nonZeroEntries;
-		setUpWorkspace();
+		this.indexX = new int[nonZeroEntries];
+		this.indexY = new int[nonZeroEntries];
+		this.rate = new double[nonZeroEntries];
+		this.start = new double[order];
+		this.stop = new double[order];
 	}
 
-	private void setUpWorkspace() {
-
-		if (order < maxKrylovBasisSize)
-			krylovBasisSize = order - 10; // todo determine correct cut-off, consider Pade approximation for small order
-		else
-			krylovBasisSize = maxKrylovBasisSize - 1;
-
-		lengthIntWorkspace = krylovBasisSize + 2;
-		lengthWorkspace = order * (lengthIntWorkspace)
-				+ 5 * (lengthIntWorkspace) * (lengthIntWorkspace) + 7;
-
-		intWorkSpace = new int[lengthIntWorkspace];
-		workSpace = new double[lengthWorkspace];
-
-		start = new double[order];
-		stop = new double[order];
-
-		fortranIndexX = new int[nonZeroEntries];
-		fortranIndexY = new int[nonZeroEntries];
-		rate = new double[nonZeroEntries];
-
+	public SparseMatrixExponential(CompressedSparseRowMatrix matrix) {
+		this(matrix.getDimension(), 0);
+		setMatrix(matrix);
 	}
 
 	public void addEntry(int i, int j, double value) {
-		fortranIndexX[index] = i + 1;
-		fortranIndexY[index] = j + 1;
+		indexX[index] = i;
+		indexY[index] = j;
 		rate[index] = value;
 		index++;
+		matrix = null;
 	}
 
+	/**
+	 * Replaces the matrix, for example after the parameters of a rate matrix have changed. The
+	 * workspace is kept so repeated updates do not allocate.
+	 */
+	public void setMatrix(CompressedSparseRowMatrix matrix) {
+		if (matrix.getDimension() != order) {
+			throw new IllegalArgumentException("Matrix dimension " + matrix.getDimension() +
+					" does not match order " + order);
+		}
+		this.matrix = matrix;
+		this.nonNegativeOffDiagonal = matrix.hasNonNegativeOffDiagonal();
+		this.uniformizationRate = matrix.getMaximumDiagonalMagnitude();
+		this.matrixNorm = matrix.getInfinityNorm();
+	}
+
+	public CompressedSparseRowMatrix getMatrix() {
+		if (matrix == null) {
+			if (index != nonZeroEntries) {
+				throw new IllegalStateException("Only " + index + " of " + nonZeroEntries + " entries have been added");
+			}
+			setMatrix(new CompressedSparseRowMatrix(order, indexX, indexY, rate, index));
+		}
+		return matrix;
+	}
+
+	/**
+	 * Sets the norm used to choose the first Krylov step; the infinity norm of the matrix is used
+	 * when it is larger.
+	 */
 	public void setNorm(double norm) {
 		this.norm = norm;
 	}
 
 	public void calculateInfinityNorm() {
-		// todo
+		norm = getMatrix().getInfinityNorm();
+	}
+
+	public double getNorm() {
+		getMatrix();
+		return Math.max(norm, matrixNorm);
+	}
+
+	public void setMethod(Method method) {
+		this.method = method;
+	}
+
+	public Method getMethod() {
+		return method;
+	}
+
+	public void setTolerance(double tolerance) {
+		this.errorTolerance = tolerance;
+	}
+
+	public double getTolerance() {
+		return errorTolerance;
 	}
 
+	/**
+	 * @return the number of sparse matrix-vector products used by the last call
+	 */
+	public int getMatrixVectorProducts() {
+		return matrixVectorProducts;
+	}
+
+	/**
+	 * @return the accumulated local error estimate of the last call
+	 */
+	public double getErrorEstimate() {
+		return errorEstimate;
+	}
+
+	/**
+	 * @return entry y of exp(time * A) e_x, as returned by the Expokit wrapper
+	 */
 	public double getExponentialEntry(int x, int y, double time) {
 
 		start[x] = 1.0;
-		int flag = 0;
-
-		executeDGEXPV(order, nonZeroEntries, krylovBasisSize, time, start, stop, tolerance, norm,
-				rate, fortranIndexX, fortranIndexY,
-				workSpace, lengthWorkspace, intWorkSpace, lengthIntWorkspace, flag
-		);
+		expmv(time, start, stop);
 
 		start[x] = 0.0; // recycle
 		return stop[y];  // stop gets overwritten with each call, no need to reset values
 	}
 
+	/**
+	 * Computes w = exp(time * A) v. The arrays may be the same.
+	 */
+	public void expmv(double time, double[] v, double[] w) {
+		CompressedSparseRowMatrix A = getMatrix();
+		matrixVectorProducts = 0;
+		errorEstimate = 0.0;
+
+		if (time == 0.0 || A.getNonZeroCount() == 0) {
+			if (v != w) {
+				System.arraycopy(v, 0, w, 0, order);
+			}
+			return;
+		}
+
+		if (useUniformization(time)) {
+			uniformize(A, time, v, w);
+		} else {
+			krylov(A, time, v, w);
+		}
+	}
+
+	private boolean useUniformization(double time) {
+		boolean applicable = time > 0.0 && nonNegativeOffDiagonal && uniformizationRate > 0.0;
+		switch (method) {
+			case UNIFORMIZATION:
+				if (!applicable) {
+					throw new IllegalArgumentException("Uniformization needs a positive time and a matrix " +
+							"with non-negative off-diagonal entries and a non-zero diagonal");
+				}
+				return true;
+			case KRYLOV:
+				return false;
+			case AUTOMATIC:
+				return applicable && uniformizationRate * time <= UNIFORMIZATION_LIMIT;
+			default:
+				throw new IllegalArgumentException("Unknown method");
+		}
+	}
+
+	// **************************************************************
+	// Uniformization
+	// **************************************************************
+
+	private void uniformize(CompressedSparseRowMatrix A, double time, double[] v, double[] w) {
+		allocateVectors();
+
+		final double lambda = uniformizationRate;
+		final int steps = (int) Math.ceil(lambda * time / UNIFORMIZATION_STEP);
+		final double mu = lambda * time / steps;
+		final double stepTolerance = errorTolerance / steps;
+		final double scale = 1.0 / lambda;
+		final int maxTerms = (int) Math.ceil(mu + 20.0 * Math.sqrt(mu) + 50.0);
+
+		double[] current = vector1;
+		double[] next = vector2;
+		double[] result = vector3;
+		System.arraycopy(v, 0, result, 0, order);
+
+		for (int step = 0; step < steps; step++) {
+			System.arraycopy(result, 0, current, 0, order);
+
+			// exp(tA) = exp(-mu) sum_k mu^k / k! (I + A / lambda)^k
+			double weight = Math.exp(-mu);
+			double cumulative = weight;
+			for (int i = 0; i < order; i++) {
+				result[i] = weight * current[i];
+			}
+
+			int k = 0;
+			while (1.0 - cumulative > stepTolerance && k < maxTerms) {
+				k++;
+				A.addScaledProduct(scale, current, next);
+				matrixVectorProducts++;
+				double[] tmp = current;
+				current = next;
+				next = tmp;
+
+				weight *= mu / k;
+				cumulative += weight;
+				for (int i = 0; i < order; i++) {
+					result[i] += weight * current[i];
+				}
+			}
+			errorEstimate += Math.max(1.0 - cumulative, 0.0) * infinityNorm(result);
+		}
+
+		System.arraycopy(result, 0, w, 0, order);
+	}
+
+	// **************************************************************
+	// Krylov subspace projection, after Expokit's DGEXPV
+	// **************************************************************
+
+	private void krylov(CompressedSparseRowMatrix A, double time, double[] v, double[] w) {
+		allocateVectors();
+		allocateKrylovSpace();
+
+		final int n = order;
+		final int m = krylovBasisSize;
+		final int mh = m + 2;
+		final double anorm = getNorm();
+		final double tol = errorTolerance;
+		final double rndoff = anorm * MachineAccuracy.EPSILON;
+		final double breakdownTolerance = BREAKDOWN_TOLERANCE * anorm;
+
+		double[] result = vector3;
+		System.arraycopy(v, 0, result, 0, n);
+
+		double beta = twoNorm(result);
+		if (beta == 0.0) {
+			Arrays.fill(w, 0, n, 0.0);
+			return;
+		}
+
+		final double sgn = Math.signum(time);
+		final double tOut = Math.abs(time);
+
+		int k1 = 2;
+		int mb = m;
+		double xm = 1.0 / m;
+
+		// log of ((m + 1) / e)^(m + 1) * sqrt(2 pi (m + 1)), kept in logs to avoid overflow for large bases
+		double logFact = (m + 1) * (Math.log(m + 1) - 1.0) + 0.5 * Math.log(2.0 * Math.PI * (m + 1));
+		double tNew = (1.0 / anorm) * Math.exp(xm * (logFact + Math.log(tol / (4.0 * beta * anorm))));
+		tNew = roundStep(tNew);
+
+		double tNow = 0.0;
+		while (tNow < tOut) {
+			double tStep = Math.min(tOut - tNow, tNew);
+
+			beta = twoNorm(result);
+			double[] v0 = basis[0];
+			for (int i = 0; i < n; i++) {
+				v0[i] = result[i] / beta;
+			}
+			Arrays.fill(hessenberg, 0.0);
+
+			// Arnoldi with modified Gram-Schmidt
+			double avnorm = 0.0;
+			for (int j = 0; j < m; j++) {
+				double[] p = basis[j + 1];
+				A.product(basis[j], p);
+				matrixVectorProducts++;
+				for (int i = 0; i <= j; i++) {
+					double[] vi = basis[i];
+					double hij = 0.0;
+					for (int r = 0; r < n; r++) {
+						hij += vi[r] * p[r];
+					}
+					for (int r = 0; r < n; r++) {
+						p[r] -= hij * vi[r];
+					}
+					hessenberg[i * mh + j] = hij;
+				}
+				double hj1j = twoNorm(p);
+				if (hj1j <= breakdownTolerance) {
+					// happy breakdown: the subspace is invariant so the step can cover the remaining time
+					k1 = 0;
+					mb = j + 1;
+					tStep = tOut - tNow;
+					break;
+				}
+				hessenberg[(j + 1) * mh + j] = hj1j;
+				for (int r = 0; r < n; r++) {
+					p[r] /= hj1j;
+				}
+			}
+			if (k1 != 0) {
+				A.product(basis[m], vector1);
+				matrixVectorProducts++;
+				avnorm = twoNorm(vector1);
+				hessenberg[(m + 1) * mh + m] = 1.0;
+			}
+
+			double errorLocal;
+			int rejections = 0;
+			while (true) {
+				int mx = mb + k1;
+				padeExponential(hessenberg, mh, mx, sgn * tStep, exponential);
+
+				if (k1 == 0) {
+					errorLocal = tol;
+					break;
+				}
+
+				double p1 = Math.abs(exponential[m * mx]) * beta;
+				double p2 = Math.abs(exponential[(m + 1) * mx]) * beta * avnorm;
+				if (p1 > 10.0 * p2) {
+					errorLocal = p2;
+					xm = 1.0 / m;
+				} else if (p1 > p2) {
+					errorLocal = (p1 * p2) / (p1 - p2);
+					xm = 1.0 / m;
+				} else {
+					errorLocal = p1;
+					xm = 1.0 / (m - 1 > 0 ? m - 1 : 1);
+				}
+
+				if (errorLocal <= DELTA * tStep * tol) {
+					break;
+				}
+				if (rejections == MAX_REJECTIONS) {
+					throw new RuntimeException("Krylov step size could not meet the error tolerance of " + tol);
+				}
+				tStep = roundStep(GAMMA * tStep * Math.pow(tStep * tol / errorLocal, xm));
+				rejections++;
+			}
+
+			// w = beta * V * exp(tStep * H) e_1
+			int mx = mb + Math.max(0, k1 - 1);
+			int columns = mb + k1;
+			Arrays.fill(result, 0, n, 0.0);
+			for (int i = 0; i < mx; i++) {
+				double coefficient = beta * exponential[i * columns];
+				double[] vi = basis[i];
+				for (int r = 0; r < n; r++) {
+					result[r] += coefficient * vi[r];
+				}
+			}
+
+			tNow += tStep;
+			tNew = roundStep(GAMMA * tStep * Math.pow(tStep * tol / errorLocal, xm));
+			errorEstimate += Math.max(errorLocal, rndoff);
+		}
+
+		System.arraycopy(result, 0, w, 0, n);
+	}
+
+	// Expokit rounds step sizes to two significant digits
+	private static double roundStep(double step) {
+		double s = Math.pow(10.0, Math.round(Math.log10(step) - Math.sqrt(0.1)) - 1);
+		return Math.floor(step / s + 0.55) * s;
+	}
+
+	/**
+	 * Irreducible rational Pade approximation to exp(t H) for the leading mx x mx block of H
+	 * (row-major with leading dimension ldh) with scaling and squaring, after Expokit's DGPADM.
+	 * The result is written row-major with leading dimension mx.
+	 */
+	static void padeExponential(double[] H, int ldh, int mx, double t, double[] result) {
+		final int ideg = PADE_DEGREE;
+		final int mm = mx * mx;
+
+		double hnorm = 0.0;
+		for (int i = 0; i < mx; i++) {
+			double sum = 0.0;
+			for (int j = 0; j < mx; j++) {
+				sum += Math.abs(H[i * ldh + j]);
+			}
+			hnorm = Math.max(hnorm, sum);
+		}
+		hnorm = Math.abs(t * hnorm);
+		int ns = hnorm > 0.0 ? Math.max(0, (int) (Math.log(hnorm) / Math.log(2.0)) + 2) : 0;
+		double scale = t / Math.pow(2.0, ns);
+		double scale2 = scale * scale;
+
+		double[] c = new double[ideg + 1];
+		c[0] = 1.0;
+		for (int k = 1; k <= ideg; k++) {
+			c[k] = c[k - 1] * (ideg - k + 1) / (k * (2.0 * ideg - k + 1));
+		}
+
+		double[] h2 = new double[mm];
+		for (int i = 0; i < mx; i++) {
+			for (int j = 0; j < mx; j++) {
+				double sum = 0.0;
+				for (int k = 0; k < mx; k++) {
+					sum += H[i * ldh + k] * H[k * ldh + j];
+				}
+				h2[i * mx + j] = scale2 * sum;
+			}
+		}
+
+		double[] p = new double[mm];
+		double[] q = new double[mm];
+		double[] tmp = new double[mm];
+		for (int i = 0; i < mx; i++) {
+			p[i * mx + i] = c[ideg - 1];
+			q[i * mx + i] = c[ideg];
+		}
+
+		boolean odd = true;
+		for (int k = ideg - 1; k > 0; k--) {
+			double[] used = odd ? q : p;
+			multiply(used, h2, tmp, mx);
+			for (int i = 0; i < mx; i++) {
+				tmp[i * mx + i] += c[k - 1];
+			}
+			System.arraycopy(tmp, 0, used, 0, mm);
+			odd = !odd;
+		}
+
+		double[] last = odd ? q : p;
+		for (int i = 0; i < mx; i++) {
+			for (int j = 0; j < mx; j++) {
+				double sum = 0.0;
+				for (int k = 0; k < mx; k++) {
+					sum += last[i * mx + k] * H[k * ldh + j];
+				}
+				tmp[i * mx + j] = scale * sum;
+			}
+		}
+		System.arraycopy(tmp, 0, last, 0, mm);
+
+		for (int i = 0; i < mm; i++) {
+			q[i] -= p[i];
+		}
+		solve(q, p, mx);
+		for (int i = 0; i < mm; i++) {
+			p[i] *= 2.0;
+		}
+		for (int i = 0; i < mx; i++) {
+			p[i * mx + i] += 1.0;
+		}
+		if (odd) {
+			for (int i = 0; i < mm; i++) {
+				p[i] = -p[i];
+			}
+		}
+
+		for (int k = 0; k < ns; k++) {
+			multiply(p, p, tmp, mx);
+			System.arraycopy(tmp, 0, p, 0, mm);
+		}
+		System.arraycopy(p, 0, result, 0, mm);
+	}
+
+	private static void multiply(double[] a, double[] b, double[] c, int dim) {
+		for (int i = 0; i < dim; i++) {
+			for (int j = 0; j < dim; j++) {
+				double sum = 0.0;
+				for (int k = 0; k < dim; k++) {
+					sum += a[i * dim + k] * b[k * dim + j];
+				}
+				c[i * dim + j] = sum;
+			}
+		}
+	}
+
+	/**
+	 * Solves A X = B in place by Gaussian elimination with partial pivoting; A is destroyed and B
+	 * is replaced by X.
+	 */
+	private static void solve(double[] a, double[] b, int dim) {
+		for (int col = 0; col < dim; col++) {
+			int pivot = col;
+			for (int i = col + 1; i < dim; i++) {
+				if (Math.abs(a[i * dim + col]) > Math.abs(a[pivot * dim + col])) {
+					pivot = i;
+				}
+			}
+			if (pivot != col) {
+				swapRows(a, pivot, col, dim);
+				swapRows(b, pivot, col, dim);
+			}
+			double diagonal = a[col * dim + col];
+			if (diagonal == 0.0) {
+				throw new ArithmeticException("Singular matrix in Pade approximation");
+			}
+			for (int i = col + 1; i < dim; i++) {
+				double factor = a[i * dim + col] / diagonal;
+				if (factor != 0.0) {
+					for (int j = col; j < dim; j++) {
+						a[i * dim + j] -= factor * a[col * dim + j];
+					}
+					for (int j = 0; j < dim; j++) {
+						b[i * dim + j] -= factor * b[col * dim + j];
+					}
+				}
+			}
+		}
+		for (int col = dim - 1; col >= 0; col--) {
+			double diagonal = a[col * dim + col];
+			for (int j = 0; j < dim; j++) {
+				double sum = b[col * dim + j];
+				for (int k = col + 1; k < dim; k++) {
+					sum -= a[col * dim + k] * b[k * dim + j];
+				}
+				b[col * dim + j] = sum / diagonal;
+			}
+		}
+	}
+
+	private static void swapRows(double[] a, int i, int j, int dim) {
+		for (int k = 0; k < dim; k++) {
+			double tmp = a[i * dim + k];
+			a[i * dim + k] = a[j * dim + k];
+			a[j * dim + k] = tmp;
+		}
+	}
+
+	private void allocateVectors() {
+		if (vector1 == null) {
+			vector1 = new double[order];
+			vector2 = new double[order];
+			vector3 = new double[order];
+		}
+	}
+
+	private void allocateKrylovSpace() {
+		int m = Math.max(1, Math.min(maxKrylovBasisSize, order));
+		if (basis == null || m != krylovBasisSize) {
+			krylovBasisSize = m;
+			basis = new double[m + 1][order];
+			hessenberg = new double[(m + 2) * (m + 2)];
+			exponential = new double[(m + 2) * (m + 2)];
+		}
+	}
+
+	private static double twoNorm(double[] x) {
+		double sum = 0.0;
+		for (double value : x) {
+			sum += value * value;
+		}
+		return Math.sqrt(sum);
+	}
+
+	private static double infinityNorm(double[] x) {
+		double max = 0.0;
+		for (double value : x) {
+			max = Math.max(max, Math.abs(value));
+		}
+		return max;
+	}
+
 	public String sparseRepresentation() {
 		StringBuffer sb = new StringBuffer();
 		sb.append(order + " " + nonZeroEntries + "\n");
-		for (int i = 0; i < nonZeroEntries; i++) {
-			sb.append(fortranIndexX[i]);
+		for (int i = 0; i < index; i++) {
+			sb.append(indexX[i] + 1);
 			sb.append(" ");
-			sb.append(fortranIndexY[i]);
+			sb.append(indexY[i] + 1);
 			sb.append(" ");
 			sb.append(rate[i]);
 			sb.append("\n");
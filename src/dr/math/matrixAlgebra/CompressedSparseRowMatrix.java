@@ -0,0 +1,264 @@
+/*
+ * CompressedSparseRowMatrix.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.math.matrixAlgebra;
+
+import java.util.Arrays;
+
+/**
+ * A square sparse matrix held in compressed sparse row (CSR) form. Entries are supplied as
+ * (row, column, value) triplets in any order; duplicated positions are summed and explicit
+ * zeros are dropped.
+ */
+public class CompressedSparseRowMatrix {
+
+    public CompressedSparseRowMatrix(int dimension, int[] rows, int[] columns, double[] values, int entryCount) {
+        if (rows.length < entryCount || columns.length < entryCount || values.length < entryCount) {
+            throw new IllegalArgumentException("Fewer triplets than the entry count");
+        }
+
+        this.dimension = dimension;
+
+        // order the triplets by row then column so duplicates are adjacent
+        Integer[] order = new Integer[entryCount];
+        for (int k = 0; k < entryCount; k++) {
+            if (rows[k] < 0 || rows[k] >= dimension || columns[k] < 0 || columns[k] >= dimension) {
+                throw new IllegalArgumentException("Entry (" + rows[k] + ", " + columns[k] +
+                        ") is outside a " + dimension + " x " + dimension + " matrix");
+            }
+            order[k] = k;
+        }
+        Arrays.sort(order, (a, b) -> rows[a] != rows[b] ?
+                Integer.compare(rows[a], rows[b]) : Integer.compare(columns[a], columns[b]));
+
+        int[] tmpColumns = new int[entryCount];
+        double[] tmpValues = new double[entryCount];
+        int[] tmpRows = new int[entryCount];
+        int count = 0;
+        for (int k = 0; k < entryCount; k++) {
+            int index = order[k];
+            if (count > 0 && tmpRows[count - 1] == rows[index] && tmpColumns[count - 1] == columns[index]) {
+                tmpValues[count - 1] += values[index];
+            } else {
+                tmpRows[count] = rows[index];
+                tmpColumns[count] = columns[index];
+                tmpValues[count] = values[index];
+                count++;
+            }
+        }
+
+        rowPointers = new int[dimension + 1];
+        int nonZero = 0;
+        for (int k = 0; k < count; k++) {
+            if (tmpValues[k] != 0.0) {
+                nonZero++;
+            }
+        }
+        columnIndices = new int[nonZero];
+        this.values = new double[nonZero];
+
+        int next = 0;
+        for (int k = 0; k < count; k++) {
+            if (tmpValues[k] != 0.0) {
+                rowPointers[tmpRows[k] + 1]++;
+                columnIndices[next] = tmpColumns[k];
+                this.values[next] = tmpValues[k];
+                next++;
+            }
+        }
+        for (int i = 0; i < dimension; i++) {
+            rowPointers[i + 1] += rowPointers[i];
+        }
+    }
+
+    /**
+     * Builds a sparse matrix from a dense row-major matrix, skipping zero entries.
+     *
+     * @param matrix    the dense matrix, row-major, dimension * dimension long
+     * @param dimension the matrix dimension
+     * @return the compressed matrix
+     */
+    public static CompressedSparseRowMatrix fromDense(double[] matrix, int dimension) {
+        if (matrix.length < dimension * dimension) {
+            throw new IllegalArgumentException("Dense matrix is too short for dimension " + dimension);
+        }
+
+        int count = 0;
+        for (int k = 0; k < dimension * dimension; k++) {
+            if (matrix[k] != 0.0) {
+                count++;
+            }
+        }
+
+        int[] rows = new int[count];
+        int[] columns = new int[count];
+        double[] values = new double[count];
+        int next = 0;
+        for (int i = 0; i < dimension; i++) {
+            for (int j = 0; j < dimension; j++) {
+                double value = matrix[i * dimension + j];
+                if (value != 0.0) {
+                    rows[next] = i;
+                    columns[next] = j;
+                    values[next] = value;
+                    next++;
+                }
+            }
+        }
+        return new CompressedSparseRowMatrix(dimension, rows, columns, values, count);
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    public int getNonZeroCount() {
+        return values.length;
+    }
+
+    public double get(int row, int column) {
+        int k = Arrays.binarySearch(columnIndices, rowPointers[row], rowPointers[row + 1], column);
+        return k >= 0 ? values[k] : 0.0;
+    }
+
+    /**
+     * y = A x
+     */
+    public void product(double[] x, double[] y) {
+        product(x, 0, y, 0);
+    }
+
+    /**
+     * y[yOffset...] = A x[xOffset...]
+     */
+    public void product(double[] x, int xOffset, double[] y, int yOffset) {
+        for (int i = 0; i < dimension; i++) {
+            double sum = 0.0;
+            for (int k = rowPointers[i]; k < rowPointers[i + 1]; k++) {
+                sum += values[k] * x[xOffset + columnIndices[k]];
+            }
+            y[yOffset + i] = sum;
+        }
+    }
+
+    /**
+     * y = A^t x
+     */
+    public void transposedProduct(double[] x, double[] y) {
+        Arrays.fill(y, 0, dimension, 0.0);
+        for (int i = 0; i < dimension; i++) {
+            final double xi = x[i];
+            if (xi != 0.0) {
+                for (int k = rowPointers[i]; k < rowPointers[i + 1]; k++) {
+                    y[columnIndices[k]] += values[k] * xi;
+                }
+            }
+        }
+    }
+
+    public CompressedSparseRowMatrix transpose() {
+        int count = values.length;
+        int[] rows = new int[count];
+        int[] columns = new int[count];
+        for (int i = 0; i < dimension; i++) {
+            for (int k = rowPointers[i]; k < rowPointers[i + 1]; k++) {
+                rows[k] = columnIndices[k];
+                columns[k] = i;
+            }
+        }
+        return new CompressedSparseRowMatrix(dimension, rows, columns, values, count);
+    }
+
+    /**
+     * @return the maximum absolute row sum
+     */
+    public double getInfinityNorm() {
+        double norm = 0.0;
+        for (int i = 0; i < dimension; i++) {
+            double sum = 0.0;
+            for (int k = rowPointers[i]; k < rowPointers[i + 1]; k++) {
+                sum += Math.abs(values[k]);
+            }
+            norm = Math.max(norm, sum);
+        }
+        return norm;
+    }
+
+    /**
+     * @return the largest magnitude of a diagonal entry
+     */
+    public double getMaximumDiagonalMagnitude() {
+        double max = 0.0;
+        for (int i = 0; i < dimension; i++) {
+            max = Math.max(max, Math.abs(get(i, i)));
+        }
+        return max;
+    }
+
+    /**
+     * @return true if every off-diagonal entry is non-negative, as in a CTMC rate matrix or its transpose
+     */
+    public boolean hasNonNegativeOffDiagonal() {
+        for (int i = 0; i < dimension; i++) {
+            for (int k = rowPointers[i]; k < rowPointers[i + 1]; k++) {
+                if (columnIndices[k] != i && values[k] < 0.0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * y = x + scale * A x, the one-step operator used by uniformization
+     */
+    public void addScaledProduct(double scale, double[] x, double[] y) {
+        for (int i = 0; i < dimension; i++) {
+            double sum = 0.0;
+            for (int k = rowPointers[i]; k < rowPointers[i + 1]; k++) {
+                sum += values[k] * x[columnIndices[k]];
+            }
+            y[i] = x[i] + scale * sum;
+        }
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(dimension).append(" ").append(values.length).append("\n");
+        for (int i = 0; i < dimension; i++) {
+            for (int k = rowPointers[i]; k < rowPointers[i + 1]; k++) {
+                sb.append(i).append(" ").append(columnIndices[k]).append(" ").append(values[k]).append("\n");
+            }
+        }
+        return sb.toString();
+    }
+
+    private final int dimension;
+    private final int[] rowPointers;
+    private final int[] columnIndices;
+    private final double[] values;
+}
@@ -164,13 +164,14 @@ public interface ReadableVector {
 
         public static void setParameter(WrappedVector position, Parameter.Default parameter) {
 
-            double[] par = parameter.inspectParameterValues();
-            double[] pos = position.getBuffer();
-            int posOffset = position.getOffset();
-
-            for (int j = 0, dim = position.getDim(); j < dim; ++j) {
-                par[j] = pos[posOffset + j];
-//                parameter.setParameterValueQuietly(j, position.get(j));
+            final int dim = position.getDim();
+
+            if (dim == parameter.getDimension()) {
+                parameter.setAllParameterValuesQuietly(position.getBuffer(), position.getOffset());
+            } else {
+                for (int j = 0; j < dim; ++j) {
+                    parameter.setParameterValueQuietly(j, position.get(j));
+                }
             }
             parameter.fireParameterChangedEvent();
         }        
@@ -56,7 +56,6 @@ public class TaskPool {
         }
     }
 
-    private ExecutorService pool = null;
     final private List<TaskIndices> indices;
     final private int taskCount;
     final private int threadCount;
@@ -67,7 +66,7 @@ public class TaskPool {
         this.threadCount = threadCount;
     }
 
-    public ExecutorService getPool() { return pool; }
+    public ExecutorService getPool() { return TaskScheduler.getPool(); }
 
     public List<TaskIndices> getIndices() { return indices; }
 
@@ -91,21 +90,6 @@ public class TaskPool {
         return tasks;
     }
 
-    private ExecutorService setupParallelServices(int threadCount) {
-
-        final ExecutorService pool;
-
-        if (threadCount > 1) {
-            pool = Executors.newFixedThreadPool(threadCount);
-        } else if (threadCount < 0) {
-            pool = Executors.newCachedThreadPool();
-        } else {
-            pool = null;
-        }
-
-        return pool;
-    }
-
     public interface TaskCallable {
         void execute(int task, int thread);
     }
@@ -125,10 +109,6 @@ public class TaskPool {
 
         } else {
 
-            if (pool == null) {
-                pool = setupParallelServices(threadCount);
-            }
-
             List<Callable<E>> calls = new ArrayList<>();
 
             for (final TaskIndices indexSet : indices) {
@@ -137,7 +117,7 @@ public class TaskPool {
 
             try {
 
-                List<Future<E>> futures = pool.invokeAll(calls);
+                List<Future<E>> futures = TaskScheduler.invokeAll(calls);
 
                 result = futures.get(0).get();
                 for (int i = 1; i < futures.size(); ++i) {
@@ -163,10 +143,6 @@ public class TaskPool {
 
         } else {
 
-            if (pool == null) {
-                pool = setupParallelServices(threadCount);
-            }
-
             List<Callable<Object>> calls = new ArrayList<>();
 
             for (final TaskIndices indexSet : indices) {
@@ -179,9 +155,12 @@ public class TaskPool {
                 ));
             }
 
+            List<Future<Object>> futures = TaskScheduler.invokeAll(calls);
             try {
-                pool.invokeAll(calls);
-            } catch (InterruptedException exception) {
+                for (Future<Object> future : futures) {
+                    future.get();
+                }
+            } catch (InterruptedException | ExecutionException exception) {
                 exception.printStackTrace();
             }
         }
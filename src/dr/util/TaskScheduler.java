@@ -0,0 +1,150 @@
+/*
+ * TaskScheduler.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/**
+ * A process-wide work-stealing scheduler for evaluating sets of independent tasks such as the
+ * components of a likelihood or gradient. All callers share a single ForkJoinPool so nested
+ * parallel work (e.g., a parallel tree likelihood inside a parallel compound likelihood) shares
+ * the same threads rather than each creating their own pool.
+ */
+public final class TaskScheduler {
+
+    /**
+     * System property to set the number of threads in the shared pool (defaults to the number of processors)
+     */
+    public static final String THREAD_COUNT = "beast.scheduler.threads";
+
+    /**
+     * Tasks with an estimated cost less than this (in nanoseconds) are run on the calling thread
+     */
+    public static final long INLINE_COST_THRESHOLD = 50000;
+
+    private static ForkJoinPool pool = null;
+
+    private TaskScheduler() {
+    }
+
+    public static synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            int threadCount = Runtime.getRuntime().availableProcessors();
+            if (System.getProperty(THREAD_COUNT) != null) {
+                threadCount = Integer.parseInt(System.getProperty(THREAD_COUNT));
+            }
+            pool = new ForkJoinPool(Math.max(1, threadCount));
+            Logger.getLogger("dr.util").info("Created a shared task scheduler with " + pool.getParallelism() + " threads");
+        }
+        return pool;
+    }
+
+    /**
+     * Runs all the tasks and waits for them to complete.
+     *
+     * @param tasks the tasks
+     * @return the completed tasks as futures, in the same order as the tasks
+     */
+    public static <T> List<Future<T>> invokeAll(List<? extends Callable<T>> tasks) {
+        return invokeAll(tasks, null);
+    }
+
+    /**
+     * Runs all the tasks and waits for them to complete. The tasks are started in order of
+     * decreasing estimated cost so the longest tasks don't hold up the end. Tasks that are
+     * estimated to be cheap are run directly on the calling thread, as is the most expensive
+     * task, while the others are run by the pool.
+     *
+     * @param tasks the tasks
+     * @param estimatedCosts an estimate of the time each task will take in nanoseconds (or null
+     *                       if unknown, in which case all tasks are run in the pool)
+     * @return the completed tasks as futures, in the same order as the tasks
+     */
+    public static <T> List<Future<T>> invokeAll(List<? extends Callable<T>> tasks, long[] estimatedCosts) {
+        final int taskCount = tasks.size();
+
+        List<ForkJoinTask<T>> forkJoinTasks = new ArrayList<>(taskCount);
+        for (Callable<T> task : tasks) {
+            forkJoinTasks.add(ForkJoinTask.adapt(task));
+        }
+
+        if (taskCount == 1) {
+            forkJoinTasks.get(0).invoke();
+            return new ArrayList<>(forkJoinTasks);
+        }
+
+        Integer[] order = new Integer[taskCount];
+        for (int i = 0; i < taskCount; i++) {
+            order[i] = i;
+        }
+        if (estimatedCosts != null) {
+            Arrays.sort(order, (i, j) -> Long.compare(estimatedCosts[j], estimatedCosts[i]));
+        }
+
+        final ForkJoinPool pool = getPool();
+        final boolean inPool = ForkJoinTask.getPool() == pool;
+
+        // the first task (the most expensive) is kept for the calling thread
+        List<ForkJoinTask<T>> forked = new ArrayList<>(taskCount);
+        List<ForkJoinTask<T>> inline = new ArrayList<>(taskCount);
+        inline.add(forkJoinTasks.get(order[0]));
+
+        for (int k = 1; k < taskCount; k++) {
+            int i = order[k];
+            ForkJoinTask<T> task = forkJoinTasks.get(i);
+            if (estimatedCosts != null && estimatedCosts[i] < INLINE_COST_THRESHOLD) {
+                inline.add(task);
+            } else {
+                if (inPool) {
+                    task.fork();
+                } else {
+                    pool.execute(task);
+                }
+                forked.add(task);
+            }
+        }
+
+        for (ForkJoinTask<T> task : inline) {
+            task.invoke();
+        }
+
+        for (ForkJoinTask<T> task : forked) {
+            // exceptions are reported through the returned futures
+            task.quietlyJoin();
+        }
+
+        return new ArrayList<>(forkJoinTasks);
+    }
+}
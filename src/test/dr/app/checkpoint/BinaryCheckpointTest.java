@@ -0,0 +1,218 @@
+/*
+ * BinaryCheckpointTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.app.checkpoint;
+
+import dr.app.checkpoint.BeastCheckpointer;
+import dr.app.checkpoint.BinaryCheckpoint;
+import dr.evolution.alignment.SitePatterns;
+import dr.evolution.datatype.Nucleotides;
+import dr.evolution.tree.TreeUtils;
+import dr.evomodel.operators.ExchangeOperator;
+import dr.evomodel.operators.SubtreeSlideOperator;
+import dr.evomodel.tree.DefaultTreeModel;
+import dr.inference.mcmc.MCMC;
+import dr.inference.mcmc.MCMCOptions;
+import dr.inference.model.Parameter;
+import dr.inference.operators.*;
+import dr.inference.state.Factory;
+import dr.inference.state.StateLoaderSaver;
+import dr.math.MathUtils;
+import dr.oldevomodel.sitemodel.GammaSiteModel;
+import dr.oldevomodel.substmodel.FrequencyModel;
+import dr.oldevomodel.substmodel.HKY;
+import dr.oldevomodel.treelikelihood.TreeLikelihood;
+import dr.oldevomodelxml.substmodel.HKYParser;
+import test.dr.inference.trace.TraceCorrelationAssert;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Saves a chain with a tree and parameters to a binary checkpoint, written in the background,
+ * and checks that loading it puts the chain back into the same state and that damaged files
+ * are rejected.
+ */
+public class BinaryCheckpointTest extends TraceCorrelationAssert {
+
+    private Parameter kappa;
+    private DefaultTreeModel tree;
+    private TreeLikelihood treeLikelihood;
+    private MCMCOperator kappaOperator;
+    private MCMC mcmc;
+
+    private File file;
+
+    public BinaryCheckpointTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        MathUtils.setSeed(666);
+
+        createAlignment(PRIMATES_TAXON_SEQUENCE, Nucleotides.INSTANCE);
+        createRandomInitialTree(0.0001);
+        tree = (DefaultTreeModel) treeModel;
+
+        Parameter freqs = new Parameter.Default(alignment.getStateFrequencies());
+        kappa = new Parameter.Default(HKYParser.KAPPA, 2.0, 1.0E-8, Double.POSITIVE_INFINITY);
+        HKY hky = new HKY(kappa, new FrequencyModel(Nucleotides.INSTANCE, freqs));
+        GammaSiteModel siteModel = new GammaSiteModel(hky);
+
+        SitePatterns patterns = new SitePatterns(alignment, null, 0, -1, 1, true);
+        treeLikelihood = new TreeLikelihood(patterns, treeModel, siteModel, null, null,
+                false, false, true, false, false);
+
+        OperatorSchedule schedule = new SimpleOperatorSchedule();
+        kappaOperator = new ScaleOperator(kappa, 0.5);
+        schedule.addOperator(kappaOperator);
+        schedule.addOperator(new SubtreeSlideOperator(tree, 1, 1, true, false, false, false,
+                AdaptationMode.ADAPTATION_ON, AdaptableMCMCOperator.DEFAULT_ADAPTATION_TARGET));
+        schedule.addOperator(new ExchangeOperator(ExchangeOperator.NARROW, treeModel, 1.0));
+
+        System.setProperty(BeastCheckpointer.CHECKPOINT_FORMAT, "binary");
+        System.setProperty(BeastCheckpointer.CHECKPOINT_ASYNC, "true");
+        BeastCheckpointer.getInstance(null, -1, -1, false);
+
+        mcmc = new MCMC("mcmc");
+        mcmc.init(new MCMCOptions(1000), treeLikelihood, schedule, new dr.inference.loggers.Logger[0]);
+
+        file = File.createTempFile("beast", ".checkpoint");
+        file.deleteOnExit();
+    }
+
+    public void tearDown() throws Exception {
+        file.delete();
+        super.tearDown();
+    }
+
+    private StateLoaderSaver getStateLoaderSaver() {
+        return Factory.INSTANCE.getStateLoaderSaver(file, file);
+    }
+
+    public void testRoundTrip() {
+        kappaOperator.setAcceptCount(7);
+        kappaOperator.setRejectCount(11);
+
+        double lnL = treeLikelihood.getLogLikelihood();
+        double savedKappa = kappa.getParameterValue(0);
+        String savedTree = TreeUtils.newick(tree);
+        double[] savedHeights = getNodeHeights();
+
+        assertTrue(getStateLoaderSaver().saveState(mcmc.getMarkovChain(), 1234, lnL));
+
+        // move the chain somewhere else
+        kappa.setParameterValue(0, 10.0);
+        ExchangeOperator exchange = new ExchangeOperator(ExchangeOperator.NARROW, treeModel, 1.0);
+        for (int i = 0; i < 5; i++) {
+            exchange.doOperation();
+        }
+        tree.setNodeHeight(tree.getRoot(), tree.getNodeHeight(tree.getRoot()) * 2.0);
+        kappaOperator.setAcceptCount(0);
+        kappaOperator.setRejectCount(0);
+        treeLikelihood.makeDirty();
+        assertTrue(treeLikelihood.getLogLikelihood() != lnL);
+        assertFalse(savedTree.equals(TreeUtils.newick(tree)));
+
+        double[] savedLnL = new double[1];
+        long state = getStateLoaderSaver().loadState(mcmc.getMarkovChain(), savedLnL);
+
+        assertEquals(1234, state);
+        assertEquals(lnL, savedLnL[0]);
+        assertEquals(savedKappa, kappa.getParameterValue(0));
+        assertEquals(savedTree, TreeUtils.newick(tree));
+        assertTrue(Arrays.equals(savedHeights, getNodeHeights()));
+        assertEquals(7, kappaOperator.getAcceptCount());
+        assertEquals(11, kappaOperator.getRejectCount());
+
+        treeLikelihood.makeDirty();
+        assertEquals(lnL, treeLikelihood.getLogLikelihood(), 1E-10);
+    }
+
+    public void testCorrupted() throws IOException {
+        saveAndWait();
+
+        // change a byte in the middle of the file
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            long position = raf.length() / 2;
+            raf.seek(position);
+            int value = raf.read();
+            raf.seek(position);
+            raf.write(value ^ 0xFF);
+        }
+
+        assertRejected("Checksum");
+    }
+
+    public void testTruncated() throws IOException {
+        saveAndWait();
+
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        Files.write(file.toPath(), Arrays.copyOf(bytes, bytes.length - 20));
+        assertRejected("Checksum");
+
+        Files.write(file.toPath(), Arrays.copyOf(bytes, 10));
+        assertRejected("Not a binary checkpoint");
+    }
+
+    private void saveAndWait() throws IOException {
+        assertTrue(getStateLoaderSaver().saveState(mcmc.getMarkovChain(), 1, treeLikelihood.getLogLikelihood()));
+        // loading waits for the background write to complete
+        getStateLoaderSaver().loadState(mcmc.getMarkovChain(), new double[1]);
+        assertTrue(BinaryCheckpoint.isBinaryCheckpoint(file));
+        BinaryCheckpoint.read(file);
+    }
+
+    private void assertRejected(String message) {
+        try {
+            BinaryCheckpoint.read(file);
+            fail("A damaged checkpoint file was read");
+        } catch (IOException ioe) {
+            assertTrue(ioe.getMessage(), ioe.getMessage().startsWith(message));
+        }
+
+        try {
+            getStateLoaderSaver().loadState(mcmc.getMarkovChain(), new double[1]);
+            fail("A damaged checkpoint file was loaded");
+        } catch (RuntimeException rte) {
+            assertTrue(rte.getMessage(), rte.getMessage().contains(message));
+        }
+    }
+
+    private double[] getNodeHeights() {
+        double[] heights = new double[tree.getNodeCount()];
+        for (int i = 0; i < heights.length; i++) {
+            heights[i] = tree.getNodeHeight(tree.getNode(i));
+        }
+        return heights;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * PlacementIndexTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.app.realtime;
+
+import dr.app.realtime.PlacementIndex;
+import dr.evolution.alignment.SimpleAlignment;
+import dr.evolution.alignment.SitePatterns;
+import dr.evolution.datatype.Nucleotides;
+import dr.evolution.distance.DistanceMatrix;
+import dr.evolution.sequence.Sequence;
+import dr.evolution.util.Taxon;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks the placement index finds the same closest sequences as a search over all of them.
+ */
+public class PlacementIndexTest extends TestCase {
+
+    private static final int REFERENCE_COUNT = 150;
+    private static final int QUERY_COUNT = 50;
+    private static final int SITE_COUNT = 2000;
+    private static final int MUTATIONS_PER_SEQUENCE = 6;
+
+    private static final String NUCLEOTIDES = "ACGT";
+
+    private List<Taxon> taxa;
+
+    private String[] evolveSequences(boolean withMissing) {
+        // each sequence is a mutated copy of an earlier one so there is a tree-like structure to find
+        String[] sequences = new String[REFERENCE_COUNT + QUERY_COUNT];
+        StringBuilder root = new StringBuilder();
+        for (int j = 0; j < SITE_COUNT; j++) {
+            root.append(NUCLEOTIDES.charAt(MathUtils.nextInt(4)));
+        }
+        sequences[0] = root.toString();
+        for (int i = 1; i < sequences.length; i++) {
+            StringBuilder sb = new StringBuilder(sequences[MathUtils.nextInt(i)]);
+            for (int k = 0; k < MUTATIONS_PER_SEQUENCE; k++) {
+                sb.setCharAt(MathUtils.nextInt(SITE_COUNT), NUCLEOTIDES.charAt(MathUtils.nextInt(4)));
+            }
+            sequences[i] = sb.toString();
+        }
+        if (withMissing) {
+            for (int i = 0; i < sequences.length; i++) {
+                StringBuilder sb = new StringBuilder(sequences[i]);
+                // a ragged start and a few ambiguities
+                int start = MathUtils.nextInt(20);
+                for (int j = 0; j < start; j++) {
+                    sb.setCharAt(j, '-');
+                }
+                sb.setCharAt(MathUtils.nextInt(SITE_COUNT), 'N');
+                sequences[i] = sb.toString();
+            }
+        }
+        return sequences;
+    }
+
+    private SitePatterns createPatterns(String[] sequences) {
+        SimpleAlignment alignment = new SimpleAlignment();
+        taxa = new ArrayList<Taxon>();
+        for (int i = 0; i < sequences.length; i++) {
+            Taxon taxon = new Taxon("taxon" + i);
+            taxa.add(taxon);
+            Sequence sequence = new Sequence(taxon, sequences[i]);
+            sequence.setDataType(Nucleotides.INSTANCE);
+            alignment.addSequence(sequence);
+        }
+        return new SitePatterns(alignment, null, 0, -1, 1, true);
+    }
+
+    public void testDistance() {
+        MathUtils.setSeed(666);
+
+        SitePatterns patterns = createPatterns(evolveSequences(false));
+        PlacementIndex index = new PlacementIndex(patterns, taxa.subList(0, REFERENCE_COUNT));
+        DistanceMatrix matrix = new DistanceMatrix(patterns);
+
+        for (int i = 0; i < 20; i++) {
+            int taxon1 = MathUtils.nextInt(taxa.size());
+            int taxon2 = MathUtils.nextInt(taxa.size());
+            assertEquals(matrix.getElement(taxon1, taxon2), index.getDistance(taxon1, taxon2), 1E-12);
+            assertEquals(matrix.getElement(taxon1, taxon2), matrix.getDistance(taxon1, taxon2), 1E-12);
+        }
+    }
+
+    public void testClosest() {
+        MathUtils.setSeed(666);
+        checkClosest(createPatterns(evolveSequences(false)));
+    }
+
+    public void testClosestWithMissing() {
+        MathUtils.setSeed(667);
+        checkClosest(createPatterns(evolveSequences(true)));
+    }
+
+    private void checkClosest(SitePatterns patterns) {
+        PlacementIndex index = new PlacementIndex(patterns, taxa.subList(0, REFERENCE_COUNT));
+        assertEquals(REFERENCE_COUNT, index.getReferenceCount());
+
+        // place the queries one at a time making each available to the next
+        for (int i = REFERENCE_COUNT; i < taxa.size(); i++) {
+            int taxon = patterns.getTaxonIndex(taxa.get(i));
+
+            double minimumDistance = Double.MAX_VALUE;
+            for (int j = 0; j < i; j++) {
+                minimumDistance = Math.min(minimumDistance, index.getDistance(taxon, patterns.getTaxonIndex(taxa.get(j))));
+            }
+
+            int[] candidates = index.getCandidates(taxon);
+            assertTrue(candidates.length > 0);
+            for (int candidate : candidates) {
+                assertTrue(patterns.getTaxonIndex(taxa.get(candidate)) < i);
+            }
+            assertEquals("closest to " + taxa.get(i).getId(), minimumDistance, index.getDistance(taxon, candidates[0]), 1E-12);
+
+            index.addTaxon(taxa.get(i));
+        }
+        assertEquals(taxa.size(), index.getReferenceCount());
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * CladeCollectorTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.app.tools;
+
+import dr.app.tools.newtreeannotator.CladeCollector;
+import dr.app.tools.newtreeannotator.CladeSystem;
+import dr.app.tools.newtreeannotator.HIPSTRTreeBuilder;
+import dr.app.tools.newtreeannotator.TopologyCache;
+import dr.evolution.io.CompactTree;
+import dr.evolution.io.Importer;
+import dr.evolution.io.NexusImporter;
+import dr.evolution.io.StreamingTreeReader;
+import dr.evolution.tree.MutableTree;
+import dr.evolution.tree.Tree;
+import dr.evolution.tree.TreeUtils;
+import dr.evolution.util.TaxonList;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Checks that collecting clades with several threads, as TreeAnnotator does, gives the same clades
+ * and credibilities as adding the trees one at a time on a single thread, and that the topologies
+ * cached for scoring trees are the same whether they are held in memory or spilled to disk.
+ */
+public class CladeCollectorTest extends TestCase {
+
+    private static final int TAXON_COUNT = 40;
+    private static final int TREE_COUNT = 3000;
+    private static final int THREAD_COUNT = 4;
+
+    private File file;
+    private Tree[] trees;
+    private TaxonList taxa;
+
+    public CladeCollectorTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        MathUtils.setSeed(666);
+
+        file = File.createTempFile("trees", ".trees");
+        file.deleteOnExit();
+        try (PrintWriter writer = new PrintWriter(file)) {
+            writer.println("#NEXUS");
+            writer.println("Begin trees;");
+            writer.println("\tTranslate");
+            for (int i = 0; i < TAXON_COUNT; i++) {
+                writer.println("\t\t" + (i + 1) + " taxon" + i + (i < TAXON_COUNT - 1 ? "," : ""));
+            }
+            writer.println("\t\t;");
+            for (int i = 0; i < TREE_COUNT; i++) {
+                writer.println("tree STATE_" + (i * 1000) + " = [&R] " + createTree() + ";");
+            }
+            writer.println("End;");
+        }
+
+        NexusImporter importer = new NexusImporter(new FileReader(file), true);
+        trees = importer.importTrees(null).toArray(new Tree[0]);
+        assertEquals(TREE_COUNT, trees.length);
+    }
+
+    public void tearDown() throws Exception {
+        file.delete();
+        super.tearDown();
+    }
+
+    /**
+     * A random tree that mostly joins the same neighbouring subtrees so many clades are shared
+     */
+    private String createTree() {
+        List<String> subtrees = new ArrayList<String>();
+        for (int i = 0; i < TAXON_COUNT; i++) {
+            subtrees.add(Integer.toString(i + 1));
+        }
+        for (int i = 0; i < TAXON_COUNT - 1; i++) {
+            if (MathUtils.nextDouble() < 0.1) {
+                subtrees.add(i + 1, subtrees.remove(i));
+            }
+        }
+        while (subtrees.size() > 1) {
+            int i = (MathUtils.nextDouble() < 0.7 ? 0 : MathUtils.nextInt(subtrees.size() - 1));
+            String joined = "(" + subtrees.get(i) + ":1.0," + subtrees.get(i + 1) + ":1.0)";
+            subtrees.remove(i + 1);
+            subtrees.set(i, joined);
+        }
+        return subtrees.get(0);
+    }
+
+    private CladeSystem addTrees(boolean keepSubClades) {
+        CladeSystem cladeSystem = new CladeSystem(keepSubClades);
+        for (Tree tree : trees) {
+            cladeSystem.add(tree);
+        }
+        cladeSystem.calculateCladeCredibilities(TREE_COUNT);
+        return cladeSystem;
+    }
+
+    private CladeSystem collectTrees(int threadCount, boolean keepSubClades, TopologyCache topologyCache)
+            throws IOException, Importer.ImportException {
+        final CladeSystem cladeSystem = new CladeSystem(keepSubClades);
+        ForkJoinPool pool = new ForkJoinPool(threadCount);
+        try (StreamingTreeReader reader = new StreamingTreeReader(file)) {
+            final CladeCollector collector = new CladeCollector(cladeSystem, topologyCache, pool);
+            reader.readTrees(new StreamingTreeReader.Visitor() {
+                public boolean visitTree(int treeIndex, CompactTree tree) throws Importer.ImportException {
+                    if (treeIndex == 0) {
+                        taxa = reader.getTaxa();
+                        cladeSystem.addTipClades(taxa);
+                    }
+                    try {
+                        collector.add(tree);
+                    } catch (IOException ioe) {
+                        throw new Importer.ImportException(ioe.getMessage());
+                    }
+                    return true;
+                }
+            });
+            assertEquals(TREE_COUNT, collector.finish());
+        } finally {
+            pool.shutdown();
+        }
+        cladeSystem.calculateCladeCredibilities(TREE_COUNT);
+        return cladeSystem;
+    }
+
+    private void assertSameClades(CladeSystem expected, CladeSystem cladeSystem) {
+        assertEquals(expected.getCladeCount(), cladeSystem.getCladeCount());
+        for (Tree tree : trees) {
+            // the sums of the clades' log credibilities in the same order so exactly the same
+            assertEquals(expected.getLogCladeCredibility(tree), cladeSystem.getLogCladeCredibility(tree));
+            assertEquals(expected.getMinimumCladeCredibility(tree), cladeSystem.getMinimumCladeCredibility(tree));
+        }
+    }
+
+    public void testClades() throws Exception {
+        CladeSystem expected = addTrees(false);
+        // many clades are shared between trees, but not all of them
+        int maxCladeCount = TREE_COUNT * (TAXON_COUNT - 1);
+        assertTrue("" + expected.getCladeCount(), expected.getCladeCount() > TAXON_COUNT * 10);
+        assertTrue("" + expected.getCladeCount(), expected.getCladeCount() < maxCladeCount / 2);
+
+        assertSameClades(expected, collectTrees(1, false, null));
+        assertSameClades(expected, collectTrees(THREAD_COUNT, false, null));
+    }
+
+    public void testSubClades() throws Exception {
+        CladeSystem expected = addTrees(true);
+        CladeSystem cladeSystem = collectTrees(THREAD_COUNT, true, null);
+        assertSameClades(expected, cladeSystem);
+
+        // the HIPSTR tree is built from the sub-clades
+        HIPSTRTreeBuilder expectedBuilder = new HIPSTRTreeBuilder();
+        MutableTree expectedTree = expectedBuilder.getHIPSTRTree(expected, trees[0]);
+        HIPSTRTreeBuilder builder = new HIPSTRTreeBuilder();
+        MutableTree tree = builder.getHIPSTRTree(cladeSystem, taxa);
+        assertEquals(expectedBuilder.getScore(), builder.getScore(), 1E-10);
+        assertEquals(TreeUtils.newick(expectedTree), TreeUtils.newick(tree));
+    }
+
+    public void testTopologyCache() throws Exception {
+        CladeSystem expected = addTrees(false);
+
+        try (TopologyCache memoryCache = new TopologyCache();
+             TopologyCache diskCache = new TopologyCache(1000)) {
+
+            double[] memoryScores = scoreTrees(collectTrees(THREAD_COUNT, false, memoryCache), memoryCache);
+            double[] diskScores = scoreTrees(collectTrees(THREAD_COUNT, false, diskCache), diskCache);
+
+            assertFalse(memoryCache.isSpilled());
+            assertTrue(diskCache.isSpilled());
+
+            for (int i = 0; i < TREE_COUNT; i++) {
+                assertEquals(expected.getLogCladeCredibility(trees[i]), memoryScores[i], 1E-10);
+                assertEquals(memoryScores[i], diskScores[i]);
+            }
+        }
+    }
+
+    /**
+     * Scores the trees from their cached clade numbers as TreeAnnotator does to find the MCC tree
+     */
+    private double[] scoreTrees(CladeSystem cladeSystem, TopologyCache topologyCache) throws IOException {
+        assertEquals(TREE_COUNT, topologyCache.getTreeCount());
+
+        final double[] logCladeCredibilities = cladeSystem.getLogCladeCredibilities();
+        final double[] scores = new double[TREE_COUNT];
+        topologyCache.visitTopologies(new TopologyCache.Visitor() {
+            public void visitTopology(int treeIndex, int[] cladeNumbers, int length) {
+                for (int i = 0; i < length; i++) {
+                    scores[treeIndex] += logCladeCredibilities[cladeNumbers[i]];
+                }
+            }
+        });
+        return scores;
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * LogCombinerTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.app.tools;
+
+import dr.app.tools.logcombiner.LogCombiner;
+import dr.util.TaskScheduler;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Combines small log and tree files with LogCombiner and checks the output against that of the
+ * line by line implementation it replaced (which was identical apart from the numbering with
+ * -renumber but no -resample, which used to fail).
+ */
+public class LogCombinerTest extends TestCase {
+
+    private static final String[] LOG_HEADER = {
+            "# BEAST v10",
+            "state\tposterior\ttreeModel.rootHeight\tclock.rate"
+    };
+
+    private static final String[] TREE_HEADER = {
+            "#NEXUS",
+            "Begin trees;",
+            "\tTranslate",
+            "\t\t1 A,",
+            "\t\t2 B,",
+            "\t\t3 C",
+            "\t\t;"
+    };
+
+    private File directory;
+    private String[] logFiles;
+    private String[] treeFiles;
+    private String outputFile;
+
+    public LogCombinerTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        // so the files are scanned concurrently
+        if (System.getProperty(TaskScheduler.THREAD_COUNT) == null) {
+            System.setProperty(TaskScheduler.THREAD_COUNT, "4");
+        }
+
+        directory = Files.createTempDirectory("logcombiner").toFile();
+        logFiles = new String[2];
+        treeFiles = new String[2];
+        for (int i = 0; i < 2; i++) {
+            StringBuilder log = new StringBuilder();
+            for (String line : LOG_HEADER) {
+                log.append(line).append("\n");
+            }
+            StringBuilder trees = new StringBuilder();
+            for (String line : TREE_HEADER) {
+                trees.append(line).append("\n");
+            }
+            for (int state = 0; state <= 500; state += 100) {
+                int k = state / 100;
+                log.append(state).append("\t").append(-100 - k - i).append(".0\t")
+                        .append(10 + k + i).append(".00\t").append(k + 1).append(".0E-03\n");
+                trees.append("tree STATE_").append(state).append(" = [&R] ((1:1.").append(k)
+                        .append(",2:").append(i + 1).append(".5):0.5,3:2.").append(k).append(");\n");
+            }
+            trees.append("End;\n");
+
+            logFiles[i] = write("run" + i + ".log", log.toString());
+            treeFiles[i] = write("run" + i + ".trees", trees.toString());
+        }
+        outputFile = new File(directory, "combined").getPath();
+    }
+
+    public void tearDown() throws Exception {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+        super.tearDown();
+    }
+
+    private String write(String name, String content) throws IOException {
+        File file = new File(directory, name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.US_ASCII));
+        return file.getPath();
+    }
+
+    private void combineLogs(long burnin, long resample, boolean renumber, boolean decimal,
+                             boolean useScale, double scale) throws IOException {
+        new LogCombiner(new long[] { burnin }, resample, logFiles, outputFile, false,
+                decimal, false, renumber, useScale, scale);
+    }
+
+    private void combineTrees(long burnin, long resample, boolean renumber, boolean decimal) throws IOException {
+        new LogCombiner(new long[] { burnin }, resample, treeFiles, outputFile, true,
+                decimal, false, renumber, false, 1.0);
+    }
+
+    private void assertOutput(String[] header, String... states) throws IOException {
+        List<String> lines = Files.readAllLines(new File(outputFile).toPath(), StandardCharsets.US_ASCII);
+        String[] expected = Arrays.copyOf(header, header.length + states.length);
+        System.arraycopy(states, 0, expected, header.length, states.length);
+        assertEquals(Arrays.asList(expected), lines);
+    }
+
+    public void testLogs() throws IOException {
+        // the first state of the first file is dropped as the number of columns is not yet known
+        combineLogs(-1, -1, false, false, false, 1.0);
+        assertOutput(new String[] { LOG_HEADER[1] },
+                "100\t-101.0\t11.00\t2.0E-03",
+                "200\t-102.0\t12.00\t3.0E-03",
+                "300\t-103.0\t13.00\t4.0E-03",
+                "400\t-104.0\t14.00\t5.0E-03",
+                "500\t-105.0\t15.00\t6.0E-03",
+                "600\t-101.0\t11.00\t1.0E-03",
+                "700\t-102.0\t12.00\t2.0E-03",
+                "800\t-103.0\t13.00\t3.0E-03",
+                "900\t-104.0\t14.00\t4.0E-03",
+                "1000\t-105.0\t15.00\t5.0E-03",
+                "1100\t-106.0\t16.00\t6.0E-03");
+    }
+
+    public void testBurnin() throws IOException {
+        combineLogs(200, -1, false, false, false, 1.0);
+        assertOutput(new String[] { LOG_HEADER[1] },
+                "100\t-102.0\t12.00\t3.0E-03",
+                "200\t-103.0\t13.00\t4.0E-03",
+                "300\t-104.0\t14.00\t5.0E-03",
+                "400\t-105.0\t15.00\t6.0E-03",
+                "500\t-103.0\t13.00\t3.0E-03",
+                "600\t-104.0\t14.00\t4.0E-03",
+                "700\t-105.0\t15.00\t5.0E-03",
+                "800\t-106.0\t16.00\t6.0E-03");
+    }
+
+    public void testResample() throws IOException {
+        combineLogs(100, 200, false, false, false, 1.0);
+        assertOutput(new String[] { LOG_HEADER[1] },
+                "200\t-102.0\t12.00\t3.0E-03",
+                "400\t-104.0\t14.00\t5.0E-03",
+                "600\t-102.0\t12.00\t2.0E-03",
+                "800\t-104.0\t14.00\t4.0E-03",
+                "1000\t-106.0\t16.00\t6.0E-03");
+    }
+
+    public void testResampleRenumber() throws IOException {
+        combineLogs(-1, 200, true, false, false, 1.0);
+        assertOutput(new String[] { LOG_HEADER[1] },
+                "0\t-101.0\t11.00\t2.0E-03",
+                "1\t-103.0\t13.00\t4.0E-03",
+                "2\t-105.0\t15.00\t6.0E-03",
+                "3\t-102.0\t12.00\t2.0E-03",
+                "4\t-104.0\t14.00\t4.0E-03",
+                "5\t-106.0\t16.00\t6.0E-03");
+    }
+
+    public void testRenumber() throws IOException {
+        // without resampling the states are numbered consecutively
+        combineLogs(-1, -1, true, false, false, 1.0);
+        assertOutput(new String[] { LOG_HEADER[1] },
+                "0\t-101.0\t11.00\t2.0E-03",
+                "1\t-102.0\t12.00\t3.0E-03",
+                "2\t-103.0\t13.00\t4.0E-03",
+                "3\t-104.0\t14.00\t5.0E-03",
+                "4\t-105.0\t15.00\t6.0E-03",
+                "5\t-101.0\t11.00\t1.0E-03",
+                "6\t-102.0\t12.00\t2.0E-03",
+                "7\t-103.0\t13.00\t3.0E-03",
+                "8\t-104.0\t14.00\t4.0E-03",
+                "9\t-105.0\t15.00\t5.0E-03",
+                "10\t-106.0\t16.00\t6.0E-03");
+    }
+
+    public void testScale() throws IOException {
+        // the root height is multiplied by the scale and the clock rate divided by it
+        combineLogs(300, -1, false, false, true, 0.5);
+        assertOutput(new String[] { LOG_HEADER[1] },
+                "100\t-103.0\t6.5E0\t8E-3",
+                "200\t-104.0\t7E0\t1E-2",
+                "300\t-105.0\t7.5E0\t1.2E-2",
+                "400\t-104.0\t7E0\t8E-3",
+                "500\t-105.0\t7.5E0\t1E-2",
+                "600\t-106.0\t8E0\t1.2E-2");
+    }
+
+    public void testDecimalScale() throws IOException {
+        combineLogs(300, -1, false, true, true, 2.0);
+        assertOutput(new String[] { LOG_HEADER[1] },
+                "100\t-103.0\t26\t0.002",
+                "200\t-104.0\t28\t0.0025",
+                "300\t-105.0\t30\t0.003",
+                "400\t-104.0\t28\t0.002",
+                "500\t-105.0\t30\t0.0025",
+                "600\t-106.0\t32\t0.003");
+    }
+
+    public void testResampleNotMultiple() throws IOException {
+        PrintStream err = System.err;
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(errors, true));
+        try {
+            combineLogs(-1, 150, false, false, false, 1.0);
+        } finally {
+            System.setErr(err);
+        }
+        assertTrue(errors.toString().contains(
+                "ERROR: Resampling frequency is not a multiple of existing sampling frequency"));
+        assertOutput(new String[] { LOG_HEADER[1] });
+    }
+
+    public void testTrees() throws IOException {
+        combineTrees(200, 200, false, false);
+        assertOutput(TREE_HEADER,
+                "tree STATE_200 = [&R] ((1:1.3,2:1.5):0.5,3:2.3);",
+                "tree STATE_400 = [&R] ((1:1.5,2:1.5):0.5,3:2.5);",
+                "tree STATE_600 = [&R] ((1:1.3,2:2.5):0.5,3:2.3);",
+                "tree STATE_800 = [&R] ((1:1.5,2:2.5):0.5,3:2.5);",
+                "End;");
+    }
+
+    public void testTreesRenumber() throws IOException {
+        combineTrees(-1, 200, true, false);
+        assertOutput(TREE_HEADER,
+                "tree STATE_0 = [&R] ((1:1.1,2:1.5):0.5,3:2.1);",
+                "tree STATE_1 = [&R] ((1:1.3,2:1.5):0.5,3:2.3);",
+                "tree STATE_2 = [&R] ((1:1.5,2:1.5):0.5,3:2.5);",
+                "tree STATE_3 = [&R] ((1:1.1,2:2.5):0.5,3:2.1);",
+                "tree STATE_4 = [&R] ((1:1.3,2:2.5):0.5,3:2.3);",
+                "tree STATE_5 = [&R] ((1:1.5,2:2.5):0.5,3:2.5);",
+                "End;");
+    }
+}
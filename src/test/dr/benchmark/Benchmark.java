@@ -0,0 +1,64 @@
+/*
+ * Benchmark.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.benchmark;
+
+/**
+ * A single micro-benchmark. The fixture is built in setUp() and the operation being
+ * measured is run() which should return a value that depends on the work done so
+ * the runner can consume it (stopping the JIT from eliminating the work).
+ */
+public abstract class Benchmark {
+
+    private final String name;
+
+    protected Benchmark(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Build the fixture. Called once before the warmup iterations.
+     */
+    public abstract void setUp() throws Exception;
+
+    /**
+     * Perform one operation.
+     *
+     * @return a value derived from the result of the operation
+     */
+    public abstract double run() throws Exception;
+
+    /**
+     * Release the fixture. Called once after the measurement iterations.
+     */
+    public void tearDown() {
+    }
+}
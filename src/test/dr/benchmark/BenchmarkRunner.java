@@ -0,0 +1,215 @@
+/*
+ * BenchmarkRunner.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.benchmark;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Runs a set of benchmarks in the manner of JMH: each benchmark is warmed up for a
+ * number of timed iterations and then measured over a further number of timed
+ * iterations, reporting the mean time per operation with a 99.9% confidence interval.
+ *
+ * Usage: BenchmarkRunner [-filter regex] [-warmup n] [-iterations n] [-time ms] [-csv file]
+ *
+ * The benchmarks are normally run using 'ant benchmark'.
+ */
+public class BenchmarkRunner {
+
+    private static final int DEFAULT_WARMUP_ITERATIONS = 5;
+    private static final int DEFAULT_MEASUREMENT_ITERATIONS = 10;
+    private static final long DEFAULT_ITERATION_TIME = 1000; // milliseconds
+
+    // z value for a 99.9% interval (as reported by JMH)
+    private static final double Z_999 = 3.2905;
+
+    // results are accumulated here so the JIT can't remove the benchmarked work
+    private static volatile double sink = 0.0;
+
+    public static class Result {
+        final String name;
+        final double meanNanos;
+        final double errorNanos;
+        final double[] iterationNanos;
+
+        Result(String name, double[] iterationNanos) {
+            this.name = name;
+            this.iterationNanos = iterationNanos;
+
+            double mean = 0.0;
+            for (double t : iterationNanos) {
+                mean += t;
+            }
+            mean /= iterationNanos.length;
+
+            double variance = 0.0;
+            for (double t : iterationNanos) {
+                variance += (t - mean) * (t - mean);
+            }
+            variance = iterationNanos.length > 1 ? variance / (iterationNanos.length - 1) : 0.0;
+
+            this.meanNanos = mean;
+            this.errorNanos = Z_999 * Math.sqrt(variance / iterationNanos.length);
+        }
+    }
+
+    private final int warmupIterations;
+    private final int measurementIterations;
+    private final long iterationTime;
+
+    public BenchmarkRunner(int warmupIterations, int measurementIterations, long iterationTime) {
+        this.warmupIterations = warmupIterations;
+        this.measurementIterations = measurementIterations;
+        this.iterationTime = iterationTime;
+    }
+
+    public Result run(Benchmark benchmark) throws Exception {
+        benchmark.setUp();
+        try {
+            for (int i = 0; i < warmupIterations; i++) {
+                runIteration(benchmark);
+            }
+
+            double[] times = new double[measurementIterations];
+            for (int i = 0; i < measurementIterations; i++) {
+                times[i] = runIteration(benchmark);
+            }
+            return new Result(benchmark.getName(), times);
+        } finally {
+            benchmark.tearDown();
+        }
+    }
+
+    /**
+     * Runs the operation repeatedly for the iteration time.
+     *
+     * @return the mean time per operation in nanoseconds
+     */
+    private double runIteration(Benchmark benchmark) throws Exception {
+        final long limit = iterationTime * 1000000L;
+        long operations = 0;
+        double total = 0.0;
+
+        final long start = System.nanoTime();
+        long elapsed;
+        do {
+            total += benchmark.run();
+            operations++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < limit);
+
+        sink += total;
+
+        return (double) elapsed / operations;
+    }
+
+    private static void printHeader() {
+        System.out.println(String.format(Locale.US, "%-40s %5s %15s    %12s  %5s", "Benchmark", "Cnt", "Score", "Error", "Units"));
+    }
+
+    private static void printResult(Result result) {
+        System.out.println(String.format(Locale.US, "%-40s %5d %15.3f +- %12.3f  %5s",
+                result.name, result.iterationNanos.length, result.meanNanos / 1000.0, result.errorNanos / 1000.0, "us/op"));
+    }
+
+    private static void writeCSV(String fileName, List<Result> results) throws IOException {
+        try (PrintWriter writer = new PrintWriter(new FileWriter(fileName))) {
+            writer.println("benchmark,iterations,mean_ns,error_ns");
+            for (Result result : results) {
+                writer.println(String.format(Locale.US, "%s,%d,%.1f,%.1f", result.name,
+                        result.iterationNanos.length, result.meanNanos, result.errorNanos));
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Pattern filter = null;
+        int warmup = DEFAULT_WARMUP_ITERATIONS;
+        int iterations = DEFAULT_MEASUREMENT_ITERATIONS;
+        long time = DEFAULT_ITERATION_TIME;
+        String csvFileName = null;
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for option " + arg);
+            }
+            switch (arg) {
+                case "-filter":
+                    String value = args[++i];
+                    if (value.length() > 0) {
+                        filter = Pattern.compile(value);
+                    }
+                    break;
+                case "-warmup":
+                    warmup = Integer.parseInt(args[++i]);
+                    break;
+                case "-iterations":
+                    iterations = Integer.parseInt(args[++i]);
+                    break;
+                case "-time":
+                    time = Long.parseLong(args[++i]);
+                    break;
+                case "-csv":
+                    csvFileName = args[++i];
+                    if (csvFileName.length() == 0) {
+                        csvFileName = null;
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+
+        BenchmarkRunner runner = new BenchmarkRunner(warmup, iterations, time);
+
+        List<Result> results = new ArrayList<Result>();
+        printHeader();
+        for (Benchmark benchmark : CoreBenchmarks.getBenchmarks()) {
+            if (filter == null || filter.matcher(benchmark.getName()).find()) {
+                Result result = runner.run(benchmark);
+                printResult(result);
+                results.add(result);
+            }
+        }
+
+        if (csvFileName != null) {
+            writeCSV(csvFileName, results);
+        }
+
+        // print the sink so it is used
+        if (sink == Double.MIN_VALUE) {
+            System.out.println(sink);
+        }
+    }
+}
@@ -0,0 +1,355 @@
+/*
+ * CoreBenchmarks.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.benchmark;
+
+import dr.evolution.alignment.SimpleAlignment;
+import dr.evolution.alignment.SitePatterns;
+import dr.evolution.coalescent.ConstantPopulation;
+import dr.evolution.coalescent.CoalescentSimulator;
+import dr.evolution.coalescent.IntervalList;
+import dr.evolution.datatype.Nucleotides;
+import dr.evolution.io.NewickImporter;
+import dr.evolution.io.NexusImporter;
+import dr.evolution.sequence.Sequence;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.evolution.tree.TreeUtils;
+import dr.evolution.util.Taxa;
+import dr.evolution.util.Taxon;
+import dr.evolution.util.Units;
+import dr.evomodel.bigfasttree.BigFastTreeIntervals;
+import dr.evomodel.branchmodel.HomogeneousBranchModel;
+import dr.evomodel.branchratemodel.DefaultBranchRateModel;
+import dr.evomodel.branchratemodel.StrictClockBranchRates;
+import dr.evomodel.coalescent.CoalescentLikelihood;
+import dr.evomodel.coalescent.GMRFSkygridLikelihood;
+import dr.evomodel.coalescent.TreeIntervals;
+import dr.evomodel.coalescent.demographicmodel.ConstantPopulationModel;
+import dr.evomodel.continuous.MultivariateDiffusionModel;
+import dr.evomodel.siteratemodel.GammaSiteRateModel;
+import dr.evomodel.substmodel.FrequencyModel;
+import dr.evomodel.substmodel.nucleotide.HKY;
+import dr.evomodel.tree.DefaultTreeModel;
+import dr.evomodel.tree.TreeModel;
+import dr.evomodel.treedatalikelihood.JavaDataLikelihoodDelegate;
+import dr.evomodel.treedatalikelihood.TreeDataLikelihood;
+import dr.evomodel.treedatalikelihood.continuous.*;
+import dr.evomodel.treedatalikelihood.continuous.cdi.PrecisionType;
+import dr.evomodel.treelikelihood.PartialsRescalingScheme;
+import dr.inference.model.*;
+import dr.math.MathUtils;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Benchmarks of the core likelihood, parsing and state management hot paths over
+ * synthetic trees and alignments. The size of the fixtures can be set using the
+ * system properties 'benchmark.taxa' and 'benchmark.sites'.
+ */
+public class CoreBenchmarks {
+
+    private static final int TAXON_COUNT = Integer.getInteger("benchmark.taxa", 200);
+    private static final int SITE_COUNT = Integer.getInteger("benchmark.sites", 1000);
+    private static final int TREE_COUNT = 100;
+    private static final int TRAIT_DIMENSION = 3;
+    private static final int GRID_POINT_COUNT = 50;
+    private static final long SEED = 666;
+
+    public static List<Benchmark> getBenchmarks() {
+        List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+
+        benchmarks.add(new TreeDataLikelihoodBenchmark("treeDataLikelihood.full", true));
+        benchmarks.add(new TreeDataLikelihoodBenchmark("treeDataLikelihood.nodeHeight", false));
+
+        benchmarks.add(new Benchmark("coalescent.constant") {
+            private TreeModel tree;
+            private CoalescentLikelihood likelihood;
+
+            public void setUp() {
+                tree = createTreeModel();
+                likelihood = new CoalescentLikelihood(new TreeIntervals(tree),
+                        new ConstantPopulationModel(new Parameter.Default(1.0), Units.Type.YEARS));
+            }
+
+            public double run() {
+                return changeNodeHeightAndEvaluate(tree, likelihood);
+            }
+        });
+
+        benchmarks.add(new Benchmark("coalescent.skygrid") {
+            private TreeModel tree;
+            private GMRFSkygridLikelihood likelihood;
+
+            public void setUp() {
+                tree = createTreeModel();
+                List<IntervalList> intervals = Collections.<IntervalList>singletonList(new BigFastTreeIntervals(tree));
+                double cutOff = tree.getNodeHeight(tree.getRoot()) * 1.1;
+                likelihood = new GMRFSkygridLikelihood(intervals,
+                        new Parameter.Default(GRID_POINT_COUNT + 1, 0.0),
+                        null,
+                        new Parameter.Default(1.0),
+                        new Parameter.Default(1.0),
+                        null, null, true, cutOff, GRID_POINT_COUNT, null,
+                        new Parameter.Default(1.0));
+            }
+
+            public double run() {
+                return changeNodeHeightAndEvaluate(tree, likelihood);
+            }
+        });
+
+        benchmarks.add(new Benchmark("continuousDataLikelihood.BM") {
+            private TreeModel tree;
+            private TreeDataLikelihood likelihood;
+
+            public void setUp() {
+                tree = createTreeModel();
+
+                Parameter[] traits = new Parameter[tree.getExternalNodeCount()];
+                for (int i = 0; i < traits.length; i++) {
+                    double[] values = new double[TRAIT_DIMENSION];
+                    for (int j = 0; j < TRAIT_DIMENSION; j++) {
+                        values[j] = MathUtils.nextGaussian();
+                    }
+                    traits[i] = new Parameter.Default(tree.getNodeTaxon(tree.getExternalNode(i)).getId(), values);
+                }
+                CompoundParameter traitParameter = new CompoundParameter("trait", traits);
+
+                Parameter[] precision = new Parameter[TRAIT_DIMENSION];
+                for (int i = 0; i < TRAIT_DIMENSION; i++) {
+                    double[] row = new double[TRAIT_DIMENSION];
+                    row[i] = 1.0;
+                    precision[i] = new Parameter.Default(row);
+                }
+                MultivariateDiffusionModel diffusionModel =
+                        new MultivariateDiffusionModel(new MatrixParameter("precision", precision));
+
+                ContinuousTraitDataModel dataModel = new ContinuousTraitDataModel("dataModel", traitParameter,
+                        new boolean[traitParameter.getDimension()], true, TRAIT_DIMENSION, PrecisionType.FULL);
+                ConjugateRootTraitPrior rootPrior = new ConjugateRootTraitPrior(
+                        new Parameter.Default(TRAIT_DIMENSION, 0.0), new Parameter.Default(1.0));
+
+                DefaultBranchRateModel rateModel = new DefaultBranchRateModel();
+                ContinuousDataLikelihoodDelegate delegate = new ContinuousDataLikelihoodDelegate(tree,
+                        new HomogeneousDiffusionModelDelegate(tree, diffusionModel), dataModel, rootPrior,
+                        new ContinuousRateTransformation.Default(tree, false, false), rateModel, true);
+                likelihood = new TreeDataLikelihood(delegate, tree, rateModel);
+            }
+
+            public double run() {
+                return changeNodeHeightAndEvaluate(tree, likelihood);
+            }
+        });
+
+        benchmarks.add(new Benchmark("sitePatterns.construct") {
+            private SimpleAlignment alignment;
+
+            public void setUp() {
+                alignment = createAlignment(createTreeModel());
+            }
+
+            public double run() {
+                return new SitePatterns(alignment, null, 0, -1, 1, true).getPatternCount();
+            }
+        });
+
+        benchmarks.add(new Benchmark("newick.parse") {
+            private String trees;
+
+            public void setUp() {
+                StringBuilder builder = new StringBuilder();
+                for (int i = 0; i < TREE_COUNT; i++) {
+                    builder.append(TreeUtils.newick(simulateTree())).append("\n");
+                }
+                trees = builder.toString();
+            }
+
+            public double run() throws Exception {
+                NewickImporter importer = new NewickImporter(new StringReader(trees));
+                int count = 0;
+                while (importer.hasTree()) {
+                    count += importer.importNextTree().getNodeCount();
+                }
+                return count;
+            }
+        });
+
+        benchmarks.add(new Benchmark("nexus.parse") {
+            private String trees;
+
+            public void setUp() {
+                Tree first = simulateTree();
+                StringBuilder builder = new StringBuilder("#NEXUS\n\nBegin taxa;\n\tDimensions ntax=");
+                builder.append(first.getTaxonCount()).append(";\n\tTaxlabels\n");
+                for (int i = 0; i < first.getTaxonCount(); i++) {
+                    builder.append("\t\t").append(first.getTaxonId(i)).append("\n");
+                }
+                builder.append("\t\t;\nEnd;\n\nBegin trees;\n");
+                for (int i = 0; i < TREE_COUNT; i++) {
+                    builder.append("tree STATE_").append(i).append(" = ")
+                            .append(TreeUtils.newick(simulateTree())).append("\n");
+                }
+                builder.append("End;\n");
+                trees = builder.toString();
+            }
+
+            public double run() throws Exception {
+                NexusImporter importer = new NexusImporter(new StringReader(trees));
+                int count = 0;
+                while (importer.hasTree()) {
+                    count += importer.importNextTree().getNodeCount();
+                }
+                return count;
+            }
+        });
+
+        benchmarks.add(new Benchmark("parameter.storeRestore") {
+            private Parameter parameter;
+
+            public void setUp() {
+                parameter = new Parameter.Default(TAXON_COUNT * 10, 1.0);
+            }
+
+            public double run() {
+                parameter.storeParameterValues();
+                int index = MathUtils.nextInt(parameter.getDimension());
+                parameter.setParameterValue(index, 2.0);
+                parameter.restoreParameterValues();
+                return parameter.getParameterValue(index);
+            }
+        });
+
+        benchmarks.add(new Benchmark("treeModel.storeRestore") {
+            private TreeModel tree;
+
+            public void setUp() {
+                tree = createTreeModel();
+            }
+
+            public double run() {
+                tree.storeModelState();
+                NodeRef node = changeNodeHeight(tree);
+                tree.restoreModelState();
+                return tree.getNodeHeight(node);
+            }
+        });
+
+        return benchmarks;
+    }
+
+    private static class TreeDataLikelihoodBenchmark extends Benchmark {
+        private final boolean full;
+        private TreeModel tree;
+        private TreeDataLikelihood likelihood;
+
+        TreeDataLikelihoodBenchmark(String name, boolean full) {
+            super(name);
+            this.full = full;
+        }
+
+        public void setUp() {
+            tree = createTreeModel();
+            SitePatterns patterns = new SitePatterns(createAlignment(tree), null, 0, -1, 1, true);
+
+            HKY hky = new HKY(new Parameter.Default(2.0), new FrequencyModel(Nucleotides.INSTANCE,
+                    new Parameter.Default(new double[]{0.25, 0.25, 0.25, 0.25})));
+            GammaSiteRateModel siteRateModel = new GammaSiteRateModel("gamma", 0.5, 4);
+            siteRateModel.setSubstitutionModel(hky);
+
+            JavaDataLikelihoodDelegate delegate = new JavaDataLikelihoodDelegate(tree, patterns,
+                    new HomogeneousBranchModel(hky), siteRateModel, false, PartialsRescalingScheme.DEFAULT, 1);
+            likelihood = new TreeDataLikelihood(delegate, tree, new StrictClockBranchRates(new Parameter.Default(1.0)));
+        }
+
+        public double run() {
+            if (full) {
+                likelihood.makeDirty();
+                return likelihood.getLogLikelihood();
+            }
+            return changeNodeHeightAndEvaluate(tree, likelihood);
+        }
+    }
+
+    private static Tree simulateTree() {
+        Taxa taxa = new Taxa();
+        for (int i = 0; i < TAXON_COUNT; i++) {
+            taxa.addTaxon(new Taxon("taxon" + (i + 1)));
+        }
+        ConstantPopulation demographic = new ConstantPopulation(Units.Type.YEARS);
+        demographic.setN0(1.0);
+        return new CoalescentSimulator().simulateTree(taxa, demographic);
+    }
+
+    private static TreeModel createTreeModel() {
+        MathUtils.setSeed(SEED);
+        return new DefaultTreeModel(simulateTree());
+    }
+
+    private static SimpleAlignment createAlignment(Tree tree) {
+        final String states = "ACGT";
+        SimpleAlignment alignment = new SimpleAlignment();
+        alignment.setDataType(Nucleotides.INSTANCE);
+
+        // sequences are mutated copies of a common ancestor so there are repeated patterns
+        char[] ancestor = new char[SITE_COUNT];
+        for (int i = 0; i < SITE_COUNT; i++) {
+            ancestor[i] = states.charAt(MathUtils.nextInt(4));
+        }
+        for (int i = 0; i < tree.getTaxonCount(); i++) {
+            char[] sequence = ancestor.clone();
+            for (int j = 0; j < SITE_COUNT; j++) {
+                if (MathUtils.nextDouble() < 0.1) {
+                    sequence[j] = states.charAt(MathUtils.nextInt(4));
+                }
+            }
+            alignment.addSequence(new Sequence(tree.getTaxon(i), new String(sequence)));
+        }
+        return alignment;
+    }
+
+    /**
+     * Moves a random internal node height within the range allowed by its parent and
+     * children (as a node height operator would).
+     */
+    private static NodeRef changeNodeHeight(TreeModel tree) {
+        NodeRef node = tree.getInternalNode(MathUtils.nextInt(tree.getInternalNodeCount()));
+        double lower = Math.max(tree.getNodeHeight(tree.getChild(node, 0)), tree.getNodeHeight(tree.getChild(node, 1)));
+        double upper = tree.isRoot(node) ? tree.getNodeHeight(node) * 1.1 : tree.getNodeHeight(tree.getParent(node));
+        tree.setNodeHeight(node, lower + (upper - lower) * MathUtils.nextDouble());
+        return node;
+    }
+
+    private static double changeNodeHeightAndEvaluate(TreeModel tree, Likelihood likelihood) {
+        // the move is accepted so the tree does a random walk and only part of it is recalculated each time
+        changeNodeHeight(tree);
+        return likelihood.getLogLikelihood();
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * SitePatternsTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.evolution;
+
+import dr.evolution.alignment.SimpleAlignment;
+import dr.evolution.alignment.SitePatterns;
+import dr.evolution.datatype.Nucleotides;
+import dr.evolution.sequence.Sequence;
+import dr.evolution.util.Taxon;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks the hashed and block parallel pattern compression against a simple linear search.
+ */
+public class SitePatternsTest extends TestCase {
+
+    private static final int TAXON_COUNT = 6;
+    private static final int SITE_COUNT = 20000;
+
+    private SimpleAlignment alignment;
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        MathUtils.setSeed(666);
+
+        // a restricted alphabet so there are many repeated patterns including stripped ones
+        final String characters = "AAAACG-N";
+
+        alignment = new SimpleAlignment();
+        for (int i = 0; i < TAXON_COUNT; i++) {
+            StringBuilder sb = new StringBuilder();
+            for (int j = 0; j < SITE_COUNT; j++) {
+                if (j % 10 == 0) {
+                    // constant or fully gapped columns
+                    sb.append(j % 20 == 0 ? 'A' : '-');
+                } else {
+                    sb.append(characters.charAt(MathUtils.nextInt(characters.length())));
+                }
+            }
+            Sequence sequence = new Sequence(new Taxon("taxon" + i), sb.toString());
+            sequence.setDataType(Nucleotides.INSTANCE);
+            alignment.addSequence(sequence);
+        }
+    }
+
+    public void testUniquePatterns() {
+        checkPatterns(new SitePatterns(alignment, null, 0, -1, 1, false), false, 0, SITE_COUNT - 1, 1);
+    }
+
+    public void testStrippedPatterns() {
+        checkPatterns(new SitePatterns(alignment, null, 0, -1, 1, true), true, 0, SITE_COUNT - 1, 1);
+    }
+
+    public void testCodonPositionPatterns() {
+        checkPatterns(new SitePatterns(alignment, null, 1, SITE_COUNT - 2, 3, true), true, 1, SITE_COUNT - 2, 3);
+    }
+
+    private void checkPatterns(SitePatterns sitePatterns, boolean strip, int from, int to, int every) {
+        List<int[]> patterns = new ArrayList<>();
+        List<Double> weights = new ArrayList<>();
+
+        int site = 0;
+        for (int i = from; i <= to; i += every) {
+            int[] pattern = alignment.getSitePattern(i);
+
+            int index = -1;
+            if (!strip || !isStripped(pattern)) {
+                for (int k = 0; k < patterns.size() && index == -1; k++) {
+                    if (Arrays.equals(patterns.get(k), pattern)) {
+                        index = k;
+                    }
+                }
+                if (index == -1) {
+                    index = patterns.size();
+                    patterns.add(pattern);
+                    weights.add(1.0);
+                } else {
+                    weights.set(index, weights.get(index) + 1.0);
+                }
+            }
+
+            assertEquals("site " + i, index, sitePatterns.getPatternIndex(site));
+            site++;
+        }
+
+        assertEquals(patterns.size(), sitePatterns.getPatternCount());
+        for (int k = 0; k < patterns.size(); k++) {
+            assertTrue("pattern " + k, Arrays.equals(patterns.get(k), sitePatterns.getPattern(k)));
+            assertEquals("weight " + k, weights.get(k), sitePatterns.getPatternWeight(k), 0.0);
+        }
+    }
+
+    private boolean isStripped(int[] pattern) {
+        for (int state : pattern) {
+            if (state != pattern[0]) {
+                return false;
+            }
+        }
+        return Nucleotides.INSTANCE.isGapState(pattern[0]) ||
+                Nucleotides.INSTANCE.isAmbiguousState(pattern[0]) ||
+                Nucleotides.INSTANCE.isUnknownState(pattern[0]);
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * StreamingTreeReaderTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.evolution.io;
+
+import dr.evolution.io.CompactTree;
+import dr.evolution.io.NexusImporter;
+import dr.evolution.io.StreamingTreeReader;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.evolution.tree.TreeUtils;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Checks StreamingTreeReader gives the same trees as NexusImporter.
+ */
+public class StreamingTreeReaderTest extends TestCase {
+
+    private static final String NEXUS =
+            "#NEXUS\n" +
+            "[comment before the taxa]\n" +
+            "Begin taxa;\n" +
+            "\tDimensions ntax=5;\n" +
+            "\tTaxlabels A B 'C c' D E;\n" +
+            "End;\n" +
+            "\n" +
+            "Begin trees;\n" +
+            "\tTranslate\n" +
+            "\t\t1 A,\n" +
+            "\t\t2 B,\n" +
+            "\t\t3 'C c',\n" +
+            "\t\t4 D,\n" +
+            "\t\t5 E\n" +
+            "\t\t;\n" +
+            "tree STATE_0 [&lnP=-1234.5,joint=-1300.25] = [&R] ((1[&rate=1.5]:1.0,2[&rate=0.5]:1.0)[&rate=1.0,height_95%_HPD={0.5,1.5}]:0.5,((3:0.25,4:0.25):1.0E-1,5:0.35):1.15)[&rate=2.0];\n" +
+            "tree STATE_1000 [&lnP=-1200.0] = [&R] (((1:2.5e-1,3:0.25)0.95:0.75,2:1.0):0.2,(4:1.1,5:1.1)[&location=\"Hong Kong\"]:0.1);\n" +
+            "tree STATE_2000 [&lnP=-1100.0] = [&R] (1:1.0,(2:0.5,(3:0.25,(4:0.125,5:0.125):0.125):0.25):0.5);\n" +
+            "End;\n";
+
+    private static final String NEWICK =
+            "((a:1.0,b:1.0):0.5,c:1.5);\n" +
+            "((c:0.3,b:0.3):0.7,(a:0.1,d:0.1):0.9);\n";
+
+    public StreamingTreeReaderTest(String name) {
+        super(name);
+    }
+
+    public void testNexusTrees() throws Exception {
+        NexusImporter importer = new NexusImporter(new StringReader(NEXUS));
+        List<Tree> expected = importer.importTrees(null);
+
+        StreamingTreeReader reader = new StreamingTreeReader(toStream(NEXUS));
+        CompactTree tree = new CompactTree(4);
+        int count = 0;
+        while (reader.readNextTree(tree)) {
+            assertEquals(5, reader.getTaxonCount());
+            assertEquals("C c", reader.getTaxonLabel(2));
+            Tree flexibleTree = tree.toFlexibleTree(reader.getTaxa());
+            compareTrees(expected.get(count), tree, flexibleTree);
+            count++;
+        }
+        assertEquals(expected.size(), count);
+        assertEquals(3, reader.getTreeCount());
+        reader.close();
+    }
+
+    public void testAnnotations() throws Exception {
+        StreamingTreeReader reader = new StreamingTreeReader(toStream(NEXUS));
+        CompactTree tree = new CompactTree();
+
+        assertTrue(reader.readNextTree(tree));
+        assertEquals("STATE_0", tree.getName());
+        assertEquals(-1234.5, ((Number) tree.getTreeAttribute("lnP")).doubleValue(), 0.0);
+        assertEquals(2.0, ((Number) tree.getAttribute(tree.getRoot(), "rate")).doubleValue(), 0.0);
+        int tip = tree.getFirstChild(tree.getFirstChild(tree.getRoot()));
+        assertEquals(0, tree.getTaxonIndex(tip));
+        assertEquals("rate=1.5", tree.getAnnotationText(tip));
+        Object[] hpd = (Object[]) tree.getAttribute(tree.getParent(tip), "height_95%_HPD");
+        assertEquals(2, hpd.length);
+
+        assertTrue(reader.readNextTree(tree));
+        assertEquals("Hong Kong", tree.getAttribute(tree.getChild(tree.getRoot(), 1), "location"));
+        assertEquals("0.95", tree.getAttribute(tree.getFirstChild(tree.getFirstChild(tree.getRoot())), "label"));
+        assertNull(tree.getAttribute(tree.getRoot(), "rate"));
+        reader.close();
+    }
+
+    public void testSkipping() throws Exception {
+        StreamingTreeReader reader = new StreamingTreeReader(toStream(NEXUS), 16);
+        final int[] visited = new int[3];
+        int count = reader.readTrees(new StreamingTreeReader.Visitor() {
+            public boolean shouldParse(int treeIndex, String treeName) {
+                return treeIndex > 0;
+            }
+
+            public boolean visitTree(int treeIndex, CompactTree tree) {
+                visited[treeIndex]++;
+                assertEquals(5, tree.getExternalNodeCount());
+                assertEquals(treeIndex == 1 ? "STATE_1000" : "STATE_2000", tree.getName());
+                return true;
+            }
+        });
+        assertEquals(2, count);
+        assertEquals(0, visited[0]);
+        assertEquals(1, visited[1]);
+        assertEquals(1, visited[2]);
+        reader.close();
+    }
+
+    public void testNewickTrees() throws Exception {
+        StreamingTreeReader reader = new StreamingTreeReader(toStream(NEWICK));
+        CompactTree tree = new CompactTree();
+
+        assertTrue(reader.readNextTree(tree));
+        assertEquals(3, reader.getTaxonCount());
+        assertEquals(1.5, tree.getHeight(tree.getRoot()), 1E-12);
+
+        assertTrue(reader.readNextTree(tree));
+        assertEquals(4, reader.getTaxonCount());
+        assertEquals("d", reader.getTaxonLabel(3));
+        assertEquals(1.0, tree.getHeight(tree.getRoot()), 1E-12);
+        assertEquals("((c:0.3,b:0.3):0.7,(a:0.1,d:0.1):0.9);",
+                TreeUtils.newick(tree.toFlexibleTree(reader.getTaxa()), 6));
+
+        assertFalse(reader.readNextTree(tree));
+        reader.close();
+    }
+
+    private void compareTrees(Tree expected, CompactTree tree, Tree flexibleTree) {
+        assertEquals(expected.getId(), tree.getName());
+        assertEquals(expected.getNodeCount(), tree.getNodeCount());
+        assertEquals(TreeUtils.newick(expected), TreeUtils.newick(flexibleTree));
+        assertEquals(expected.getAttribute("lnP"), tree.getTreeAttribute("lnP"));
+        assertEquals(expected.getAttribute("joint"), tree.getTreeAttribute("joint"));
+        assertEquals(expected.getNodeHeight(expected.getRoot()), tree.getHeight(tree.getRoot()), 1E-12);
+        for (int i = 0; i < expected.getNodeCount(); i++) {
+            NodeRef node = expected.getNode(i);
+            NodeRef other = flexibleTree.getNode(i);
+            assertEquals(expected.getNodeHeight(node), flexibleTree.getNodeHeight(other), 1E-12);
+            assertEquals(expected.getNodeAttribute(node, "rate"), flexibleTree.getNodeAttribute(other, "rate"));
+        }
+    }
+
+    private static ByteArrayInputStream toStream(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * IncrementalIntervalStatisticsTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.evomodel.bigfasttree;
+
+import dr.evolution.coalescent.CoalescentSimulator;
+import dr.evolution.coalescent.ConstantPopulation;
+import dr.evolution.coalescent.IntervalList;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.evolution.util.Date;
+import dr.evolution.util.Taxa;
+import dr.evolution.util.Taxon;
+import dr.evolution.util.Units;
+import dr.evomodel.bigfasttree.BigFastTreeIntervals;
+import dr.evomodel.bigfasttree.BigFastTreeModel;
+import dr.evomodel.bigfasttree.IntervalSumTree;
+import dr.evomodel.coalescent.CoalescentLikelihood;
+import dr.evomodel.coalescent.GMRFSkygridLikelihood;
+import dr.evomodel.coalescent.TreeIntervals;
+import dr.evomodel.coalescent.demographicmodel.ConstantPopulationModel;
+import dr.evomodel.coalescent.demographicmodel.DemographicModel;
+import dr.evomodel.coalescent.demographicmodel.ExponentialGrowthModel;
+import dr.evomodel.tree.TreeModel;
+import dr.inference.model.Likelihood;
+import dr.inference.model.Parameter;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks the incremental coalescent statistics against the full traversal of the intervals while node heights are
+ * changed and the changes accepted or rejected.
+ */
+public class IncrementalIntervalStatisticsTest extends TestCase {
+
+    private static final int TAXON_COUNT = 60;
+    private static final int MOVES = 500;
+
+    private TreeModel tree;
+
+    public void setUp() throws Exception {
+        MathUtils.setSeed(17);
+
+        Taxa taxa = new Taxa();
+        for (int i = 0; i < TAXON_COUNT; i++) {
+            Taxon taxon = new Taxon("t" + i);
+            taxon.setDate(new Date(MathUtils.nextDouble() * 2.0, Units.Type.YEARS, true));
+            taxa.addTaxon(taxon);
+        }
+        ConstantPopulation constant = new ConstantPopulation(Units.Type.YEARS);
+        constant.setN0(3.0);
+        Tree simulated = new CoalescentSimulator().simulateTree(taxa, constant);
+
+        tree = new BigFastTreeModel(simulated);
+    }
+
+    public void testIntervalSumTree() {
+        int size = 37;
+        IntervalSumTree sumTree = new IntervalSumTree(size);
+        double[] values = new double[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = MathUtils.nextDouble();
+        }
+        sumTree.setValues(values);
+        sumTree.store();
+
+        double[] stored = values.clone();
+        for (int k = 0; k < 200; k++) {
+            int i = MathUtils.nextInt(size);
+            values[i] = MathUtils.nextDouble();
+            sumTree.setValue(i, values[i]);
+
+            int from = MathUtils.nextInt(size);
+            int to = from + MathUtils.nextInt(size - from);
+            assertEquals(sum(values, from, to), sumTree.getSum(from, to), 1E-12);
+
+            if (k % 10 == 0) {
+                // a small change is undone from the journal
+                sumTree.restore();
+                values = stored.clone();
+                assertEquals(sum(values, 0, size - 1), sumTree.getTotal(), 1E-12);
+            }
+            if (k % 50 == 0) {
+                // too many changes to journal
+                for (int j = 0; j < size; j++) {
+                    sumTree.setValue(j, MathUtils.nextDouble());
+                }
+                sumTree.restore();
+                assertEquals(sum(values, 0, size - 1), sumTree.getTotal(), 1E-12);
+            }
+        }
+
+        sumTree.setValue(3, Double.NEGATIVE_INFINITY);
+        assertEquals(Double.NEGATIVE_INFINITY, sumTree.getTotal());
+        sumTree.setValue(3, 1.0);
+        assertEquals(sum(values, 0, size - 1) - values[3] + 1.0, sumTree.getTotal(), 1E-12);
+    }
+
+    public void testCoalescentLikelihood() throws Exception {
+        DemographicModel exponential = new ExponentialGrowthModel(new Parameter.Default(5.0),
+                new Parameter.Default(0.3), Units.Type.YEARS, true);
+        DemographicModel constant = new ConstantPopulationModel(new Parameter.Default(5.0), Units.Type.YEARS);
+
+        for (DemographicModel model : new DemographicModel[] { exponential, constant }) {
+            CoalescentLikelihood incremental = new CoalescentLikelihood(new BigFastTreeIntervals(tree), model);
+            CoalescentLikelihood full = new CoalescentLikelihood(new TreeIntervals(tree, null, null), model);
+
+            checkMoves(incremental, full, null);
+        }
+    }
+
+    public void testSkygridSufficientStatistics() throws Exception {
+        int gridPoints = 25;
+        double cutOff = 1.2 * tree.getNodeHeight(tree.getRoot());
+
+        final GMRFSkygridLikelihood incremental = createSkygrid(new BigFastTreeIntervals(tree), cutOff, gridPoints);
+        final GMRFSkygridLikelihood full = createSkygrid(new TreeIntervals(tree, null, null), cutOff, gridPoints);
+
+        checkMoves(incremental, full, new Runnable() {
+            public void run() {
+                double[] statistics = full.getSufficientStatistics();
+                double[] coalescentEvents = full.getNumCoalEvents();
+                for (int i = 0; i < statistics.length; i++) {
+                    assertEquals(coalescentEvents[i], incremental.getNumCoalEvents()[i], 0.0);
+                    assertEquals(statistics[i], incremental.getSufficientStatistics()[i], 1E-8);
+                }
+            }
+        });
+    }
+
+    private GMRFSkygridLikelihood createSkygrid(IntervalList intervals, double cutOff, int gridPoints) {
+        List<IntervalList> intervalsList = new ArrayList<IntervalList>();
+        intervalsList.add(intervals);
+        return new GMRFSkygridLikelihood(intervalsList,
+                new Parameter.Default(gridPoints + 1, 1.0), null, new Parameter.Default(1.0),
+                new Parameter.Default(1.0), null, null, false, cutOff, gridPoints, null,
+                new Parameter.Default(1.0));
+    }
+
+    private void checkMoves(Likelihood incremental, Likelihood full, Runnable check) {
+        for (int move = 0; move < MOVES; move++) {
+            incremental.getModel().storeModelState();
+            full.getModel().storeModelState();
+
+            int count = 1 + MathUtils.nextInt(3);
+            for (int k = 0; k < count; k++) {
+                moveNodeHeight();
+            }
+
+            assertEquals(full.getLogLikelihood(), incremental.getLogLikelihood(), 1E-8);
+            if (check != null) {
+                check.run();
+            }
+
+            if (MathUtils.nextBoolean()) {
+                incremental.getModel().acceptModelState();
+                full.getModel().acceptModelState();
+            } else {
+                incremental.getModel().restoreModelState();
+                full.getModel().restoreModelState();
+                assertEquals(full.getLogLikelihood(), incremental.getLogLikelihood(), 1E-8);
+            }
+        }
+    }
+
+    private void moveNodeHeight() {
+        NodeRef node = tree.getInternalNode(MathUtils.nextInt(tree.getInternalNodeCount()));
+        double lower = Math.max(tree.getNodeHeight(tree.getChild(node, 0)), tree.getNodeHeight(tree.getChild(node, 1)));
+        double upper = tree.isRoot(node) ? lower + 2.0 : tree.getNodeHeight(tree.getParent(node));
+        tree.setNodeHeight(node, lower + MathUtils.nextDouble() * (upper - lower));
+    }
+
+    private static double sum(double[] values, int from, int to) {
+        double sum = 0.0;
+        for (int i = from; i <= to; i++) {
+            sum += values[i];
+        }
+        return sum;
+    }
+}
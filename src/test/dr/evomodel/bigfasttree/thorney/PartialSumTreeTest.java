@@ -0,0 +1,93 @@
+/*
+ * PartialSumTreeTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.evomodel.bigfasttree.thorney;
+
+import dr.evomodel.bigfasttree.thorney.PartialSumTree;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+
+public class PartialSumTreeTest extends TestCase {
+
+    public PartialSumTreeTest(String name) {
+        super(name);
+    }
+
+    public void testSumAfterUpdates() {
+        MathUtils.setSeed(17);
+        int n = 1000;
+        PartialSumTree tree = new PartialSumTree(n);
+        double[] terms = new double[n];
+        for (int i = 0; i < n; i++) {
+            terms[i] = -MathUtils.nextDouble() * 10.0;
+            tree.setTerm(i, terms[i]);
+        }
+        for (int k = 0; k < 5000; k++) {
+            int i = MathUtils.nextInt(n);
+            terms[i] = -MathUtils.nextDouble() * 10.0;
+            tree.setTerm(i, terms[i]);
+        }
+        double sum = 0.0;
+        for (double term : terms) {
+            sum += term;
+        }
+        assertEquals(sum, tree.getSum(), 1E-9);
+    }
+
+    public void testRestoreIsExact() {
+        MathUtils.setSeed(23);
+        int n = 300;
+        PartialSumTree tree = new PartialSumTree(n);
+        for (int i = 0; i < n; i++) {
+            tree.setTermQuietly(i, -MathUtils.nextDouble() * 100.0);
+        }
+        tree.update();
+        double stored = tree.getSum();
+
+        double[] old = new double[20];
+        for (int i = 0; i < old.length; i++) {
+            old[i] = tree.getTerm(i * 7);
+            tree.setTerm(i * 7, -MathUtils.nextDouble());
+        }
+        assertFalse(stored == tree.getSum());
+        for (int i = old.length - 1; i >= 0; i--) {
+            tree.setTerm(i * 7, old[i]);
+        }
+        assertEquals(stored, tree.getSum(), 0.0);
+    }
+
+    public void testCompensatedSum() {
+        // naive summation loses the small terms entirely
+        int n = 1001;
+        PartialSumTree tree = new PartialSumTree(n);
+        tree.setTerm(0, 1.0E16);
+        for (int i = 1; i < n; i++) {
+            tree.setTerm(i, 1.0);
+        }
+        assertEquals(1.0E16 + 1000.0, tree.getSum(), 0.0);
+    }
+}
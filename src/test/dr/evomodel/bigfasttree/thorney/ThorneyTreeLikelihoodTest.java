@@ -139,6 +139,22 @@ public class ThorneyTreeLikelihoodTest extends TestCase {
        assertEquals(ll, treeDataLikelihood.getLogLikelihood(),1E-13);
 
     }
+    public void testRestoreAfterHeightChange(){
+        double storedLL = treeDataLikelihood.getLogLikelihood();
+        treeDataLikelihood.storeModelState();
+
+        NodeRef insertedNode = constrainedTreeModel.getParent(constrainedTreeModel.getNode(0));
+        constrainedTreeModel.setNodeHeight(insertedNode,0.9);
+        assertFalse(storedLL == treeDataLikelihood.getLogLikelihood());
+
+        constrainedTreeModel.setNodeHeight(insertedNode,1.0);
+        treeDataLikelihood.restoreModelState();
+        assertEquals(storedLL, treeDataLikelihood.getLogLikelihood(), 0.0);
+
+        treeDataLikelihood.makeDirty();
+        assertEquals(storedLL, treeDataLikelihood.getLogLikelihood(), 1E-13);
+    }
+
     public void testAfterOperator(){
 
         ExchangeOperator narrow = new ExchangeOperator(0, null, 10);
@@ -0,0 +1,104 @@
+/*
+ * EjmlEigenSystemTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.evomodel.substmodel;
+
+import dr.evomodel.substmodel.ComplexColtEigenSystem;
+import dr.evomodel.substmodel.ComplexEjmlEigenSystem;
+import dr.evomodel.substmodel.EigenDecomposition;
+import dr.evomodel.substmodel.EigenSystem;
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * Compares the transition probabilities from the EJML eigen system with those from Colt for
+ * irreversible rate matrices (with complex eigenvalues) and for one with repeated eigenvalues.
+ */
+public class EjmlEigenSystemTest extends TestCase {
+
+    private static double[][] getRateMatrix(int stateCount, Random random, boolean equalRates) {
+        double[][] q = new double[stateCount][stateCount];
+        for (int i = 0; i < stateCount; i++) {
+            double sum = 0.0;
+            for (int j = 0; j < stateCount; j++) {
+                if (i != j) {
+                    q[i][j] = equalRates ? 1.0 : Math.exp(2.0 * random.nextGaussian());
+                    sum += q[i][j];
+                }
+            }
+            q[i][i] = -sum;
+        }
+        return q;
+    }
+
+    private static void compare(int stateCount, double[][] q, boolean expectComplex) {
+        EigenSystem colt = new ComplexColtEigenSystem(stateCount);
+        EigenSystem ejml = new ComplexEjmlEigenSystem(stateCount);
+
+        EigenDecomposition expected = colt.decomposeMatrix(q);
+        EigenDecomposition decomposition = ejml.decomposeMatrix(q);
+
+        if (expectComplex) {
+            boolean complex = false;
+            for (int i = stateCount; i < 2 * stateCount; i++) {
+                complex |= decomposition.getEigenValues()[i] != 0.0;
+            }
+            assertTrue(complex);
+        }
+
+        double[] p1 = new double[stateCount * stateCount];
+        double[] p2 = new double[stateCount * stateCount];
+        for (double time : new double[]{0.001, 0.1, 1.0, 10.0}) {
+            colt.computeExponential(expected, time, p1);
+            ejml.computeExponential(decomposition, time, p2);
+            for (int i = 0; i < p1.length; i++) {
+                assertEquals(p1[i], p2[i], 1E-10);
+            }
+        }
+
+        // decomposing the same matrix again comes from the cache and mustn't share arrays
+        decomposition.normalizeEigenValues(2.0);
+        EigenDecomposition again = ejml.decomposeMatrix(q);
+        ejml.computeExponential(again, 1.0, p2);
+        colt.computeExponential(expected, 1.0, p1);
+        for (int i = 0; i < p1.length; i++) {
+            assertEquals(p1[i], p2[i], 1E-10);
+        }
+    }
+
+    public void testIrreversible() {
+        Random random = new Random(2);
+        for (int stateCount : new int[]{4, 20, 50}) {
+            compare(stateCount, getRateMatrix(stateCount, random, false), stateCount > 4);
+        }
+    }
+
+    public void testRepeatedEigenValues() {
+        compare(10, getRateMatrix(10, null, true), false);
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * SparseTransitionProbabilitiesTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.evomodel.substmodel;
+
+import dr.evolution.datatype.GeneralDataType;
+import dr.evolution.datatype.Nucleotides;
+import dr.evomodel.substmodel.BirthDeathSubstitutionModel;
+import dr.evomodel.substmodel.FrequencyModel;
+import dr.evomodel.substmodel.SparseTransitionProbabilities;
+import dr.evomodel.substmodel.nucleotide.HKY;
+import dr.inference.model.Parameter;
+import dr.math.matrixAlgebra.CompressedSparseRowMatrix;
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+/**
+ * Checks that propagating vectors through the sparse matrix exponential agrees with the dense
+ * transition probabilities of the substitution model, including after a parameter change, and
+ * that a model giving its sparse infinitesimal matrix directly agrees with the dense one.
+ */
+public class SparseTransitionProbabilitiesTest extends TestCase {
+
+    private static final double TOLERANCE = 1E-6;
+
+    private static void assertPropagation(HKY model, SparseTransitionProbabilities sparse, double distance) {
+        double[] matrix = new double[16];
+        model.getTransitionProbabilities(distance, matrix);
+
+        double[] child = {0.1, 0.7, 0.0, 0.2};
+        double[] parent = new double[6];
+        sparse.getPartials(distance, child, 0, parent, 2);
+
+        double[] distribution = {0.5, 0.0, 0.5, 0.0};
+        double[] forward = new double[4];
+        sparse.getProbabilities(distance, distribution, forward);
+
+        for (int i = 0; i < 4; i++) {
+            double expectedParent = 0.0;
+            double expectedForward = 0.0;
+            for (int j = 0; j < 4; j++) {
+                expectedParent += matrix[i * 4 + j] * child[j];
+                expectedForward += distribution[j] * matrix[j * 4 + i];
+                assertEquals(matrix[i * 4 + j], sparse.getTransitionProbability(i, j, distance), TOLERANCE);
+            }
+            assertEquals(expectedParent, parent[i + 2], TOLERANCE);
+            assertEquals(expectedForward, forward[i], TOLERANCE);
+        }
+    }
+
+    public void testPropagation() {
+        Parameter kappa = new Parameter.Default(2.0);
+        FrequencyModel frequencies = new FrequencyModel(Nucleotides.INSTANCE,
+                new Parameter.Default(new double[]{0.2, 0.3, 0.25, 0.25}));
+        HKY model = new HKY(kappa, frequencies);
+        SparseTransitionProbabilities sparse = new SparseTransitionProbabilities(model);
+
+        for (double distance : new double[]{0.0, 0.05, 0.5, 4.0}) {
+            assertPropagation(model, sparse, distance);
+        }
+
+        kappa.setParameterValue(0, 10.0);
+        assertPropagation(model, sparse, 0.3);
+    }
+
+    public void testSparseInfinitesimalMatrix() {
+        final int stateCount = 30;
+        String[] codes = new String[stateCount];
+        for (int i = 0; i < stateCount; i++) {
+            codes[i] = Integer.toString(i + 1);
+        }
+        Parameter birth = new Parameter.Default(0.3);
+        Parameter death = new Parameter.Default(0.5);
+        BirthDeathSubstitutionModel model = new BirthDeathSubstitutionModel("birthDeath",
+                Arrays.asList(birth, death), new GeneralDataType(codes), false);
+        SparseTransitionProbabilities sparse = new SparseTransitionProbabilities(model);
+
+        for (int update = 0; update < 2; update++) {
+            double[] dense = new double[stateCount * stateCount];
+            model.getInfinitesimalMatrix(dense);
+            CompressedSparseRowMatrix matrix = model.getSparseInfinitesimalMatrix();
+            for (int i = 0; i < stateCount; i++) {
+                for (int j = 0; j < stateCount; j++) {
+                    assertEquals(dense[i * stateCount + j], matrix.get(i, j), 1E-12);
+                }
+            }
+            assertEquals(3 * stateCount - 2, matrix.getNonZeroCount());
+
+            double[] probabilities = new double[stateCount * stateCount];
+            model.getTransitionProbabilities(0.4, probabilities);
+            for (int j = 0; j < stateCount; j += 7) {
+                assertEquals(probabilities[3 * stateCount + j], sparse.getTransitionProbability(3, j, 0.4), TOLERANCE);
+            }
+
+            birth.setParameterValue(0, 0.7);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * TransitionMatrixCacheTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.evomodel.substmodel;
+
+import dr.evolution.datatype.Nucleotides;
+import dr.evomodel.substmodel.FrequencyModel;
+import dr.evomodel.substmodel.TransitionMatrixCache;
+import dr.evomodel.substmodel.nucleotide.HKY;
+import dr.inference.model.Parameter;
+import junit.framework.TestCase;
+
+/**
+ * Checks that the transition matrix cache returns the same matrices as computing them afresh
+ * and that changing or restoring the model invalidates them.
+ */
+public class TransitionMatrixCacheTest extends TestCase {
+
+    private HKY createModel(Parameter kappa) {
+        FrequencyModel frequencies = new FrequencyModel(Nucleotides.INSTANCE,
+                new Parameter.Default(new double[]{0.2, 0.3, 0.25, 0.25}));
+        return new HKY(kappa, frequencies);
+    }
+
+    private HKY createModel(Parameter kappa, int cacheSize) {
+        String previous = System.getProperty(TransitionMatrixCache.CACHE_SIZE_PROPERTY);
+        System.setProperty(TransitionMatrixCache.CACHE_SIZE_PROPERTY, Integer.toString(cacheSize));
+        try {
+            return createModel(kappa);
+        } finally {
+            if (previous == null) {
+                System.clearProperty(TransitionMatrixCache.CACHE_SIZE_PROPERTY);
+            } else {
+                System.setProperty(TransitionMatrixCache.CACHE_SIZE_PROPERTY, previous);
+            }
+        }
+    }
+
+    private static void assertMatrix(HKY expectedModel, HKY model, double distance) {
+        double[] expected = new double[16];
+        double[] matrix = new double[16];
+        expectedModel.getTransitionProbabilities(distance, expected);
+        model.getTransitionProbabilities(distance, matrix);
+        for (int i = 0; i < 16; i++) {
+            assertEquals(expected[i], matrix[i], 0.0);
+        }
+    }
+
+    public void testCache() {
+        Parameter kappa = new Parameter.Default(2.0);
+        HKY model = createModel(kappa, 4);
+        TransitionMatrixCache cache = model.getTransitionMatrixCache();
+        assertNotNull(cache);
+
+        Parameter referenceKappa = new Parameter.Default(2.0);
+        HKY reference = createModel(referenceKappa, 0);
+        assertNull(reference.getTransitionMatrixCache());
+
+        double[] distances = {0.0, 0.1, 0.0, 0.1, 0.5, 0.0};
+        for (double distance : distances) {
+            assertMatrix(reference, model, distance);
+        }
+        assertEquals(3, cache.getHitCount());
+
+        // a change to the model must not return the old matrices
+        model.storeModelState();
+        kappa.setParameterValue(0, 10.0);
+        referenceKappa.setParameterValue(0, 10.0);
+        for (double distance : distances) {
+            assertMatrix(reference, model, distance);
+        }
+
+        // nor must restoring it
+        model.restoreModelState();
+        referenceKappa.setParameterValue(0, 2.0);
+        assertEquals(2.0, kappa.getParameterValue(0));
+        for (double distance : distances) {
+            assertMatrix(reference, model, distance);
+        }
+
+        // the least recently used are dropped beyond the size of the cache
+        for (int i = 0; i < 10; i++) {
+            assertMatrix(reference, model, 0.01 * (i + 1));
+        }
+        assertEquals(4, cache.getSize());
+        assertTrue(cache.getEvictionCount() > 0);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * DefaultTreeModelTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.evomodel.tree;
+
+import dr.evolution.io.NewickImporter;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.evolution.tree.TreeUtils;
+import dr.evomodel.operators.FNPR;
+import dr.evomodel.operators.NNI;
+import dr.evomodel.operators.WilsonBalding;
+import dr.evomodel.tree.DefaultTreeModel;
+import dr.evomodel.tree.TreeModel;
+import dr.inference.operators.SimpleMCMCOperator;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+
+/**
+ * Checks that restoreState returns the tree to the stored topology, heights and root
+ * after operators that rearrange the tree.
+ */
+public class DefaultTreeModelTest extends TestCase {
+
+    public void testStoreRestore() throws Exception {
+        MathUtils.setSeed(666);
+
+        NewickImporter importer = new NewickImporter(
+                "((((A:1.0,B:1.0):1.0,C:2.0):1.0,(D:1.5,E:1.5):1.5):1.0,(F:2.5,(G:0.5,H:0.5):2.0):1.5);");
+        Tree tree = importer.importTree(null);
+        TreeModel treeModel = new DefaultTreeModel("treeModel", tree);
+
+        SimpleMCMCOperator[] operators = {
+                new NNI(treeModel, 1.0),
+                new FNPR(treeModel, 1.0),
+                new WilsonBalding(treeModel, 1.0)
+        };
+
+        for (int i = 0; i < 1000; i++) {
+            treeModel.storeModelState();
+
+            String stored = TreeUtils.newick(treeModel);
+            int storedRoot = treeModel.getRoot().getNumber();
+
+            try {
+                operators[i % operators.length].doOperation();
+            } catch (RuntimeException re) {
+                // some proposals are not possible on this tree
+            }
+
+            if (MathUtils.nextBoolean()) {
+                treeModel.restoreModelState();
+
+                assertEquals(stored, TreeUtils.newick(treeModel));
+                assertEquals(storedRoot, treeModel.getRoot().getNumber());
+            } else {
+                treeModel.acceptModelState();
+            }
+
+            assertLinksConsistent(treeModel);
+        }
+    }
+
+    private void assertLinksConsistent(TreeModel treeModel) {
+        assertNull(treeModel.getParent(treeModel.getRoot()));
+        for (int i = 0; i < treeModel.getNodeCount(); i++) {
+            NodeRef node = treeModel.getNode(i);
+            assertEquals(i, node.getNumber());
+            for (int j = 0; j < treeModel.getChildCount(node); j++) {
+                assertSame(node, treeModel.getParent(treeModel.getChild(node, j)));
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * JavaDataLikelihoodDelegateTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.evomodel.treedatalikelihood;
+
+import dr.evolution.alignment.SitePatterns;
+import dr.evolution.datatype.Nucleotides;
+import dr.evolution.tree.NodeRef;
+import dr.evomodel.branchmodel.HomogeneousBranchModel;
+import dr.evomodel.branchratemodel.StrictClockBranchRates;
+import dr.evomodel.siteratemodel.GammaSiteRateModel;
+import dr.evomodel.substmodel.FrequencyModel;
+import dr.evomodel.substmodel.nucleotide.HKY;
+import dr.evomodel.treedatalikelihood.*;
+import dr.evomodel.treelikelihood.PartialsRescalingScheme;
+import dr.inference.model.Parameter;
+import dr.oldevomodel.sitemodel.GammaSiteModel;
+import dr.oldevomodel.treelikelihood.TreeLikelihood;
+import test.dr.inference.trace.TraceCorrelationAssert;
+
+public class JavaDataLikelihoodDelegateTest extends TraceCorrelationAssert {
+
+    private static final double KAPPA = 29.739445;
+    private static final double ALPHA = 0.5;
+    private static final int CATEGORY_COUNT = 4;
+
+    private SitePatterns patterns;
+    private HKY hky;
+    private GammaSiteRateModel siteRateModel;
+
+    public JavaDataLikelihoodDelegateTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        createAlignment(PRIMATES_TAXON_SEQUENCE, Nucleotides.INSTANCE);
+        treeModel = createPrimateTreeModel();
+
+        patterns = new SitePatterns(alignment, null, 0, -1, 1, true);
+
+        Parameter freqs = new Parameter.Default(alignment.getStateFrequencies());
+        Parameter kappa = new Parameter.Default("kappa", KAPPA, 0, 100);
+        hky = new HKY(kappa, new FrequencyModel(Nucleotides.INSTANCE, freqs));
+
+        siteRateModel = new GammaSiteRateModel("gammaModel", ALPHA, CATEGORY_COUNT);
+        siteRateModel.setSubstitutionModel(hky);
+    }
+
+    private TreeDataLikelihood createJavaLikelihood(PartialsRescalingScheme scheme, int threadCount) {
+        DataLikelihoodDelegate delegate = new JavaDataLikelihoodDelegate(treeModel, patterns,
+                new HomogeneousBranchModel(hky), siteRateModel, false, scheme, threadCount);
+        return new TreeDataLikelihood(delegate, treeModel, new StrictClockBranchRates(new Parameter.Default(1.0)));
+    }
+
+    /**
+     * The reference value comes from the old pure Java TreeLikelihood with an equivalent model.
+     */
+    private double computeReferenceLogLikelihood() {
+        Parameter freqs = new Parameter.Default(alignment.getStateFrequencies());
+        Parameter kappa = new Parameter.Default("kappa", KAPPA, 0, 100);
+        dr.oldevomodel.substmodel.HKY oldHky = new dr.oldevomodel.substmodel.HKY(kappa,
+                new dr.oldevomodel.substmodel.FrequencyModel(Nucleotides.INSTANCE, freqs));
+
+        TreeLikelihood treeLikelihood = new TreeLikelihood(patterns, treeModel,
+                new GammaSiteModel(oldHky, ALPHA, CATEGORY_COUNT), null, null,
+                false, false, true, true, false);
+
+        return treeLikelihood.getLogLikelihood();
+    }
+
+    public void testAgreesWithJavaTreeLikelihood() {
+        double expected = computeReferenceLogLikelihood();
+
+        assertEquals("single thread", expected,
+                createJavaLikelihood(PartialsRescalingScheme.NONE, 1).getLogLikelihood(), 1E-8);
+        assertEquals("multiple threads", expected,
+                createJavaLikelihood(PartialsRescalingScheme.NONE, 4).getLogLikelihood(), 1E-8);
+        assertEquals("rescaled", expected,
+                createJavaLikelihood(PartialsRescalingScheme.ALWAYS, 4).getLogLikelihood(), 1E-8);
+    }
+
+    public void testStoreRestore() {
+        TreeDataLikelihood likelihood = createJavaLikelihood(PartialsRescalingScheme.ALWAYS, 4);
+
+        double original = likelihood.getLogLikelihood();
+
+        NodeRef node = treeModel.getNode(treeModel.getExternalNodeCount());
+        double height = treeModel.getNodeHeight(node);
+        double lower = Math.max(treeModel.getNodeHeight(treeModel.getChild(node, 0)),
+                treeModel.getNodeHeight(treeModel.getChild(node, 1)));
+
+        likelihood.storeModelState();
+        treeModel.setNodeHeight(node, lower + (height - lower) * 0.5);
+        double proposed = likelihood.getLogLikelihood();
+        assertFalse(original == proposed);
+
+        likelihood.restoreModelState();
+        assertEquals("restored", original, likelihood.getLogLikelihood(), 1E-8);
+
+        // only the partials above the changed node are recomputed from the restored buffers
+        likelihood.storeModelState();
+        treeModel.setNodeHeight(node, lower + (height - lower) * 0.75);
+        double expected = computeReferenceLogLikelihood();
+        assertEquals("after restore", expected, likelihood.getLogLikelihood(), 1E-8);
+    }
+}
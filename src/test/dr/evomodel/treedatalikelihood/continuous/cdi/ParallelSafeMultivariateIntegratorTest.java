@@ -0,0 +1,131 @@
+/*
+ * ParallelSafeMultivariateIntegratorTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.evomodel.treedatalikelihood.continuous.cdi;
+
+import dr.evomodel.continuous.MultivariateDiffusionModel;
+import dr.evomodel.treedatalikelihood.TreeDataLikelihood;
+import dr.evomodel.treedatalikelihood.continuous.*;
+import dr.evomodel.treedatalikelihood.continuous.cdi.CDIFactory;
+import dr.evomodel.treedatalikelihood.continuous.cdi.ContinuousDiffusionIntegrator;
+import dr.evomodel.treedatalikelihood.continuous.cdi.ParallelSafeMultivariateIntegrator;
+import dr.evomodel.treedatalikelihood.continuous.cdi.PrecisionType;
+import dr.inference.model.MatrixParameter;
+import dr.inference.model.Parameter;
+import test.dr.evomodel.treedatalikelihood.continuous.ContinuousTraitTest;
+
+/**
+ * Checks that dividing the traits between threads gives the same likelihood and partials as the
+ * serial integrator.
+ */
+public class ParallelSafeMultivariateIntegratorTest extends ContinuousTraitTest {
+
+    private static final int NUM_TRAITS = 3;
+
+    public ParallelSafeMultivariateIntegratorTest(String name) {
+        super(name);
+    }
+
+    private Parameter precision;
+    private ContinuousTraitDataModel traitModel;
+    private MultivariateDiffusionModel univariateDiffusion;
+    private ConjugateRootTraitPrior univariateRoot;
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        // the three values per tip are treated as three independent univariate traits
+        boolean[] missingIndicators = new boolean[traitParameter.getDimension()];
+        missingIndicators[4] = true;
+        missingIndicators[8] = true;
+        traitModel = new ContinuousTraitDataModel("traitModel", traitParameter, missingIndicators, true,
+                1, NUM_TRAITS, PrecisionType.FULL);
+
+        precision = new Parameter.Default(new double[]{0.5});
+        univariateDiffusion = new MultivariateDiffusionModel(
+                new MatrixParameter("precisionMatrix", new Parameter[]{precision}));
+        univariateRoot = new ConjugateRootTraitPrior(new Parameter.Default(new double[]{1.0}),
+                new Parameter.Default(2.0));
+    }
+
+    private ContinuousDataLikelihoodDelegate createDelegate(int threadCount) {
+        String previous = System.getProperty(CDIFactory.THREAD_COUNT_PROPERTY);
+        System.setProperty(CDIFactory.THREAD_COUNT_PROPERTY, Integer.toString(threadCount));
+        try {
+            DiffusionProcessDelegate diffusionProcessDelegate
+                    = new HomogeneousDiffusionModelDelegate(treeModel, univariateDiffusion);
+            return new ContinuousDataLikelihoodDelegate(treeModel, diffusionProcessDelegate, traitModel,
+                    univariateRoot, rateTransformation, rateModel, true);
+        } finally {
+            if (previous == null) {
+                System.clearProperty(CDIFactory.THREAD_COUNT_PROPERTY);
+            } else {
+                System.setProperty(CDIFactory.THREAD_COUNT_PROPERTY, previous);
+            }
+        }
+    }
+
+    private static void assertSamePartials(ContinuousDataLikelihoodDelegate expected,
+                                           ContinuousDataLikelihoodDelegate delegate, int nodeCount) {
+        ContinuousDiffusionIntegrator expectedIntegrator = expected.getIntegrator();
+        ContinuousDiffusionIntegrator integrator = delegate.getIntegrator();
+        int length = NUM_TRAITS * PrecisionType.FULL.getPartialsDimension(1);
+        double[] expectedPartial = new double[length];
+        double[] partial = new double[length];
+        for (int node = 0; node < nodeCount; node++) {
+            expectedIntegrator.getPostOrderPartial(expected.getActiveNodeIndex(node), expectedPartial);
+            integrator.getPostOrderPartial(delegate.getActiveNodeIndex(node), partial);
+            for (int i = 0; i < length; i++) {
+                assertEquals(expectedPartial[i], partial[i], 0.0);
+            }
+        }
+    }
+
+    public void testTraitBlocks() {
+        ContinuousDataLikelihoodDelegate serial = createDelegate(1);
+        ContinuousDataLikelihoodDelegate parallel = createDelegate(2);
+        assertFalse(serial.getIntegrator() instanceof ParallelSafeMultivariateIntegrator);
+        assertTrue(parallel.getIntegrator() instanceof ParallelSafeMultivariateIntegrator);
+        assertEquals(2, ((ParallelSafeMultivariateIntegrator) parallel.getIntegrator()).getBlockCount());
+
+        TreeDataLikelihood serialLikelihood = new TreeDataLikelihood(serial, treeModel, rateModel);
+        TreeDataLikelihood parallelLikelihood = new TreeDataLikelihood(parallel, treeModel, rateModel);
+
+        double logLikelihood = serialLikelihood.getLogLikelihood();
+        assertFalse(Double.isNaN(logLikelihood));
+        assertEquals(logLikelihood, parallelLikelihood.getLogLikelihood(), 0.0);
+        assertSamePartials(serial, parallel, treeModel.getNodeCount());
+
+        precision.setParameterValue(0, 2.0);
+        serialLikelihood.makeDirty();
+        parallelLikelihood.makeDirty();
+        double changed = serialLikelihood.getLogLikelihood();
+        assertTrue(changed != logLikelihood);
+        assertEquals(changed, parallelLikelihood.getLogLikelihood(), 0.0);
+        assertSamePartials(serial, parallel, treeModel.getNodeCount());
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * AsyncLoggingTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.inference.loggers;
+
+import dr.inference.loggers.LogFormatter;
+import dr.inference.loggers.MCLogger;
+import dr.inference.loggers.NumberColumn;
+import dr.inference.loggers.PercentColumn;
+import dr.inference.loggers.TabDelimitedFormatter;
+import junit.framework.TestCase;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Checks that asynchronous logging writes every record when the destinations are moved
+ * between loggers part way through a run, as MCMCMC does when the cold chain changes.
+ */
+public class AsyncLoggingTest extends TestCase {
+
+    private static final int STATES_PER_SWAP = 5000;
+    private static final int SWAP_COUNT = 6;
+
+    public AsyncLoggingTest(String name) {
+        super(name);
+    }
+
+    private static class ChainLogger {
+        final MCLogger logger;
+        long state;
+
+        ChainLogger(int chain) {
+            logger = new MCLogger(false, 0);
+            logger.setLogEvery(1);
+            logger.add(() -> new NumberColumn[] {
+                    new NumberColumn("chain") {
+                        public double getDoubleValue() {
+                            return chain;
+                        }
+                    },
+                    new NumberColumn("value") {
+                        public double getDoubleValue() {
+                            return state * 2;
+                        }
+                    }
+            });
+            logger.setAsynchronous(true);
+        }
+
+        void log(long state) {
+            this.state = state;
+            logger.log(state);
+        }
+    }
+
+    public void testSwapFormatters() {
+        StringWriter output = new StringWriter();
+
+        ChainLogger[] chains = { new ChainLogger(0), new ChainLogger(1) };
+
+        chains[0].logger.addFormatter(new TabDelimitedFormatter(new PrintWriter(output)));
+        chains[0].logger.startLogging();
+        List<LogFormatter> formatters = chains[0].logger.getFormatters();
+        chains[1].logger.setFormatters(Collections.EMPTY_LIST);
+
+        int coldChain = 0;
+        long state = 0;
+        for (int swap = 0; swap < SWAP_COUNT; swap++) {
+            for (int i = 0; i < STATES_PER_SWAP; i++) {
+                // both chains log but only the cold one has destinations
+                chains[0].log(state);
+                chains[1].log(state);
+                state++;
+            }
+
+            int newColdChain = 1 - coldChain;
+            chains[coldChain].logger.setFormatters(Collections.EMPTY_LIST);
+            chains[newColdChain].logger.setFormatters(formatters);
+            coldChain = newColdChain;
+        }
+        chains[coldChain].logger.stopLogging();
+        chains[1 - coldChain].logger.stopLogging();
+
+        String[] lines = output.toString().split("\n");
+        int expectedState = 0;
+        for (String line : lines) {
+            if (line.startsWith("state")) {
+                continue;
+            }
+            String[] values = line.split("\t");
+            assertEquals(3, values.length);
+            assertEquals(expectedState, Long.parseLong(values[0]));
+            int chain = (expectedState / STATES_PER_SWAP) % 2;
+            assertEquals((double) chain, Double.parseDouble(values[1]));
+            assertEquals(expectedState * 2.0, Double.parseDouble(values[2]));
+            expectedState++;
+        }
+        assertEquals(STATES_PER_SWAP * SWAP_COUNT, expectedState);
+    }
+
+    public void testFormattedColumns() {
+        assertEquals(writeFormattedLog(false), writeFormattedLog(true));
+    }
+
+    private static String writeFormattedLog(boolean asynchronous) {
+        final double[] value = new double[1];
+
+        NumberColumn full = new NumberColumn("full") {
+            public double getDoubleValue() {
+                return value[0];
+            }
+        };
+        NumberColumn rounded = new NumberColumn("rounded") {
+            public double getDoubleValue() {
+                return value[0];
+            }
+        };
+        rounded.setSignificantFigures(3);
+        NumberColumn percent = new PercentColumn(new NumberColumn("percent") {
+            public double getDoubleValue() {
+                return value[0] / 10.0;
+            }
+        });
+
+        assertTrue(full.canFormatLater());
+        assertFalse(rounded.canFormatLater());
+        assertFalse(percent.canFormatLater());
+
+        StringWriter output = new StringWriter();
+        MCLogger logger = new MCLogger(false, 0);
+        logger.setLogEvery(1);
+        logger.add(() -> new NumberColumn[] { full, rounded, percent });
+        logger.addFormatter(new TabDelimitedFormatter(new PrintWriter(output)));
+        logger.setAsynchronous(asynchronous);
+        logger.startLogging();
+        for (int state = 0; state < 1000; state++) {
+            value[0] = state / 997.0;
+            logger.log(state);
+        }
+        logger.stopLogging();
+
+        return output.toString();
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * ConvergenceDiagnosticsTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.inference.mcmc;
+
+import dr.inference.distribution.DistributionLikelihood;
+import dr.inference.distribution.NormalDistributionModel;
+import dr.inference.loggers.Loggable;
+import dr.inference.loggers.Logger;
+import dr.inference.mcmc.ConvergenceDiagnostics;
+import dr.inference.mcmc.MCMC;
+import dr.inference.mcmc.MCMCOptions;
+import dr.inference.model.Parameter;
+import dr.inference.operators.AdaptationMode;
+import dr.inference.operators.OperatorSchedule;
+import dr.inference.operators.RandomWalkOperator;
+import dr.inference.operators.SimpleOperatorSchedule;
+import dr.inference.trace.BatchMeansESS;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that ConvergenceDiagnostics combines the summaries of replicates written during the
+ * run, ignores those left over from an earlier run and stops the chain once the combined
+ * targets are reached.
+ */
+public class ConvergenceDiagnosticsTest extends TestCase {
+
+    private static final int SAMPLE_COUNT = 4000;
+
+    private File directory;
+
+    public ConvergenceDiagnosticsTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        MathUtils.setSeed(666);
+        directory = Files.createTempDirectory("convergence").toFile();
+    }
+
+    public void tearDown() throws Exception {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+
+        super.tearDown();
+    }
+
+    public void testReplicateMerge() {
+        File replicateFile = new File(directory, "replicate.conv");
+
+        Parameter x = new Parameter.Default("x", 0.0);
+        ConvergenceDiagnostics diagnostics = createDiagnostics(x, 0.0, false, replicateFile);
+
+        Parameter replicateX = new Parameter.Default("x", 0.0);
+        ConvergenceDiagnostics replicate = createDiagnostics(replicateX, 0.0, false, null);
+        sample(replicate, replicateX, 1);
+        replicate.check(SAMPLE_COUNT);
+        assertTrue(replicateFile.exists());
+
+        sample(diagnostics, x, 2);
+        diagnostics.check(SAMPLE_COUNT);
+
+        double ess = diagnostics.getEstimator(0).getESS();
+        double replicateESS = replicate.getEstimator(0).getESS();
+        assertEquals(ess + replicateESS, diagnostics.getESS(0), 1E-6 * (ess + replicateESS));
+
+        List<double[]> segments = new ArrayList<double[]>();
+        segments.addAll(Arrays.asList(diagnostics.getEstimator(0).getSegmentStatistics(
+                ConvergenceDiagnostics.DEFAULT_SEGMENT_COUNT)));
+        segments.addAll(Arrays.asList(replicate.getEstimator(0).getSegmentStatistics(
+                ConvergenceDiagnostics.DEFAULT_SEGMENT_COUNT)));
+        assertEquals(ConvergenceDiagnostics.getRHat(segments), diagnostics.getRHat(0), 1E-6);
+    }
+
+    public void testStaleReplicateIgnored() {
+        File replicateFile = new File(directory, "replicate.conv");
+
+        Parameter replicateX = new Parameter.Default("x", 0.0);
+        ConvergenceDiagnostics replicate = createDiagnostics(replicateX, 0.0, false, null);
+        sample(replicate, replicateX, 1);
+        replicate.check(SAMPLE_COUNT);
+        assertTrue(replicateFile.setLastModified(System.currentTimeMillis() - 3600000));
+
+        Parameter x = new Parameter.Default("x", 0.0);
+        ConvergenceDiagnostics diagnostics = createDiagnostics(x, 0.0, false, replicateFile);
+        sample(diagnostics, x, 2);
+        diagnostics.check(SAMPLE_COUNT);
+
+        assertEquals(diagnostics.getEstimator(0).getESS(), diagnostics.getESS(0));
+    }
+
+    public void testStopEarly() {
+        File replicateFile = new File(directory, "replicate.conv");
+        long chainLength = 10000000;
+
+        Parameter x = new Parameter.Default("x", 0.0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+        DistributionLikelihood likelihood = new DistributionLikelihood(new NormalDistributionModel(
+                new Parameter.Default(0.0), new Parameter.Default(1.0)));
+        likelihood.addData(x);
+
+        OperatorSchedule schedule = new SimpleOperatorSchedule();
+        schedule.addOperator(new RandomWalkOperator(x, 1.0, RandomWalkOperator.BoundaryCondition.reflecting,
+                1.0, AdaptationMode.ADAPTATION_OFF));
+
+        Parameter replicateX = new Parameter.Default("x", 0.0);
+        ConvergenceDiagnostics replicate = createDiagnostics(replicateX, 0.0, false, null);
+        sample(replicate, replicateX, 1);
+        replicate.check(SAMPLE_COUNT);
+        double replicateESS = replicate.getEstimator(0).getESS();
+
+        // the chain only has to add a little to the ESS of the replicate
+        double essThreshold = replicateESS + 100;
+        ConvergenceDiagnostics diagnostics = createDiagnostics(x, essThreshold, true, replicateFile);
+
+        MCMC mcmc = new MCMC("mcmc");
+        mcmc.init(new MCMCOptions(chainLength), likelihood, schedule, new Logger[0]);
+        mcmc.addMarkovChainListener(diagnostics);
+        mcmc.setShowOperatorAnalysis(false);
+        mcmc.run();
+
+        assertTrue(diagnostics.hasConverged());
+        assertTrue(diagnostics.getESS(0) >= essThreshold);
+        assertTrue(mcmc.getMarkovChain().getCurrentLength() < chainLength);
+    }
+
+    public void testSwapState() {
+        Parameter x = new Parameter.Default("x", 0.0);
+        ConvergenceDiagnostics cold = createDiagnostics(x, 0.0, false, null);
+        ConvergenceDiagnostics hot = createDiagnostics(new Parameter.Default("x", 0.0), 0.0, false, null);
+        sample(cold, x, 1);
+        BatchMeansESS estimator = cold.getEstimator(0);
+
+        // as MCMCMC does when the hot chain becomes cold
+        hot.swapState(cold);
+
+        assertSame(estimator, hot.getEstimator(0));
+        assertEquals(0, cold.getEstimator(0).getSampleCount());
+    }
+
+    private ConvergenceDiagnostics createDiagnostics(Parameter x, double essThreshold, boolean stopEarly,
+                                                     File replicateFile) {
+        List<Loggable> targets = Collections.<Loggable>singletonList(x);
+        if (replicateFile != null) {
+            return new ConvergenceDiagnostics(targets, 1, 0, ConvergenceDiagnostics.DEFAULT_SEGMENT_COUNT,
+                    1000, essThreshold, 0.0, stopEarly, new File(directory, "chain.conv").getPath(),
+                    Collections.singletonList(replicateFile.getPath()));
+        }
+        return new ConvergenceDiagnostics(targets, 1, 0, ConvergenceDiagnostics.DEFAULT_SEGMENT_COUNT,
+                0, essThreshold, 0.0, stopEarly, new File(directory, "replicate.conv").getPath(), null);
+    }
+
+    /**
+     * Feeds an AR(1) series straight to the diagnostics without running a chain
+     */
+    private static void sample(ConvergenceDiagnostics diagnostics, Parameter x, long seed) {
+        Random random = new Random(seed);
+        double value = 0.0;
+        for (int i = 1; i <= SAMPLE_COUNT; i++) {
+            value = 0.5 * value + random.nextGaussian();
+            x.setParameterValue(0, value);
+            diagnostics.currentState(i, null, null);
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * MCMCMCTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.inference.mcmcmc;
+
+import dr.inference.distribution.DistributionLikelihood;
+import dr.inference.distribution.NormalDistributionModel;
+import dr.inference.loggers.LogFormatter;
+import dr.inference.loggers.Logger;
+import dr.inference.loggers.MCLogger;
+import dr.inference.loggers.NumberColumn;
+import dr.inference.loggers.TabDelimitedFormatter;
+import dr.inference.mcmc.MCMC;
+import dr.inference.mcmc.MCMCOptions;
+import dr.inference.mcmcmc.MCMCMC;
+import dr.inference.mcmcmc.MCMCMCOptions;
+import dr.inference.model.Parameter;
+import dr.inference.operators.AdaptationMode;
+import dr.inference.operators.OperatorSchedule;
+import dr.inference.operators.RandomWalkOperator;
+import dr.inference.operators.SimpleOperatorSchedule;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.List;
+
+/**
+ * Runs a few heated chains on a normal distribution with both the synchronous (barrier) and
+ * asynchronous swapping protocols and checks that the swaps happen and that the log written
+ * by the cold chain is continuous whichever chain is cold.
+ */
+public class MCMCMCTest extends TestCase {
+
+    private static final double[] TEMPERATURES = { 1.0, 0.5, 0.25 };
+    private static final double[] TWO_TEMPERATURES = { 1.0, 0.5 };
+    private static final int CHAIN_LENGTH = 20000;
+    private static final int SWAP_EVERY = 50;
+    private static final int LOG_EVERY = 10;
+    private static final long TIMEOUT = 60000;
+
+    public MCMCMCTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        MathUtils.setSeed(666);
+    }
+
+    public void testSynchronousSwaps() throws Exception {
+        runAndCheck(TEMPERATURES, false);
+    }
+
+    public void testAsynchronousSwaps() throws Exception {
+        // the cold chain never waits for a partner when swapping asynchronously so with more
+        // than two chains whether it is swapped at all depends on timing
+        runAndCheck(TWO_TEMPERATURES, true);
+    }
+
+    public void testStopSynchronous() throws Exception {
+        runAndStop(false);
+    }
+
+    public void testStopAsynchronous() throws Exception {
+        runAndStop(true);
+    }
+
+    private void runAndCheck(double[] temperatures, boolean asynchronous) throws Exception {
+        StringWriter output = new StringWriter();
+        MCMC[] mcmcs = createChains(temperatures.length, CHAIN_LENGTH, new PrintWriter(output));
+        MCMCMC mc3 = new MCMCMC(mcmcs, new MCMCMCOptions(temperatures, SWAP_EVERY,
+                MCMCMCOptions.SwapScheme.ORIGINAL_FLAVOR, asynchronous));
+        mc3.setShowOperatorAnalysis(false);
+
+        runWithTimeout(mc3, null);
+
+        assertTrue(mc3.getStatistics().getSwapRounds() > 0);
+        assertTrue(mc3.getStatistics().getSwapAttempts() > 0);
+        assertTrue(mc3.getStatistics().getSwapsAccepted() > 0);
+
+        // only the loggers of the final cold chain should have the destination
+        List<LogFormatter> formatters = null;
+        for (int i = 0; i < mcmcs.length; i++) {
+            MCLogger logger = (MCLogger) mcmcs[i].getLoggers()[0];
+            if (i == mc3.getColdChain()) {
+                formatters = logger.getFormatters();
+            } else {
+                assertTrue(logger.getFormatters().isEmpty());
+            }
+        }
+        assertNotNull(formatters);
+        assertEquals(1, formatters.size());
+
+        // every state is logged once, in order, and it is written by more than one chain
+        boolean[] wasCold = new boolean[mcmcs.length];
+        long expectedState = 0;
+        for (String line : output.toString().split("\n")) {
+            if (line.startsWith("state")) {
+                continue;
+            }
+            String[] values = line.split("\t");
+            assertEquals(3, values.length);
+            assertEquals(expectedState, Long.parseLong(values[0]));
+            wasCold[(int) Double.parseDouble(values[1])] = true;
+            expectedState += LOG_EVERY;
+        }
+        assertEquals(CHAIN_LENGTH, expectedState);
+
+        int coldCount = 0;
+        for (boolean cold : wasCold) {
+            coldCount += cold ? 1 : 0;
+        }
+        assertTrue(coldCount > 1);
+    }
+
+    private void runAndStop(boolean asynchronous) throws Exception {
+        MCMC[] mcmcs = createChains(TEMPERATURES.length, Long.MAX_VALUE / 2, new PrintWriter(new StringWriter()));
+        MCMCMC mc3 = new MCMCMC(mcmcs, new MCMCMCOptions(TEMPERATURES, SWAP_EVERY,
+                MCMCMCOptions.SwapScheme.ORIGINAL_FLAVOR, asynchronous));
+        mc3.setShowOperatorAnalysis(false);
+
+        runWithTimeout(mc3, () -> {
+            long deadline = System.currentTimeMillis() + TIMEOUT;
+            while (mc3.getCurrentState() < CHAIN_LENGTH && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            mc3.pleaseStop();
+            return null;
+        });
+
+        assertTrue(mc3.getCurrentState() >= CHAIN_LENGTH);
+    }
+
+    private static void runWithTimeout(MCMCMC mc3, java.util.concurrent.Callable<Void> whileRunning) throws Exception {
+        final Throwable[] error = new Throwable[1];
+        Thread thread = new Thread(() -> {
+            try {
+                mc3.run();
+            } catch (Throwable t) {
+                error[0] = t;
+            }
+        });
+        thread.start();
+
+        if (whileRunning != null) {
+            whileRunning.call();
+        }
+
+        thread.join(TIMEOUT);
+        if (thread.isAlive()) {
+            mc3.pleaseStop();
+            fail("MCMCMC run did not finish");
+        }
+        if (error[0] != null) {
+            throw new RuntimeException(error[0]);
+        }
+    }
+
+    private static MCMC[] createChains(int chainCount, long chainLength, PrintWriter output) {
+        MCMC[] mcmcs = new MCMC[chainCount];
+        for (int i = 0; i < mcmcs.length; i++) {
+            final int chain = i;
+
+            Parameter x = new Parameter.Default("x", 0.0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+            DistributionLikelihood likelihood = new DistributionLikelihood(new NormalDistributionModel(
+                    new Parameter.Default(0.0), new Parameter.Default(1.0)));
+            likelihood.addData(x);
+
+            OperatorSchedule schedule = new SimpleOperatorSchedule();
+            schedule.addOperator(new RandomWalkOperator(x, 1.0, RandomWalkOperator.BoundaryCondition.reflecting,
+                    1.0, AdaptationMode.ADAPTATION_OFF));
+
+            MCLogger logger = new MCLogger(new TabDelimitedFormatter(output), LOG_EVERY, false);
+            logger.add(() -> new NumberColumn[] {
+                    new NumberColumn("chain") {
+                        public double getDoubleValue() {
+                            return chain;
+                        }
+                    }
+            });
+            logger.add(x);
+
+            mcmcs[i] = new MCMC("mcmc" + i);
+            mcmcs[i].init(new MCMCOptions(chainLength), likelihood, schedule, new Logger[] { logger });
+        }
+        return mcmcs;
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * CompoundLikelihoodTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.inference.model;
+
+import dr.inference.model.CompoundLikelihood;
+import dr.inference.model.Likelihood;
+import dr.util.TaskScheduler;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+public class CompoundLikelihoodTest extends TestCase {
+
+    private static final int LIKELIHOOD_COUNT = 12;
+
+    private static class CountingLikelihood extends Likelihood.Abstract {
+
+        CountingLikelihood(double value) {
+            super(null);
+            this.value = value;
+        }
+
+        @Override
+        protected double calculateLogLikelihood() {
+            evaluationCount++;
+            return value;
+        }
+
+        final double value;
+        int evaluationCount = 0;
+    }
+
+    private List<CountingLikelihood> createLikelihoods() {
+        List<CountingLikelihood> likelihoods = new ArrayList<CountingLikelihood>();
+        for (int i = 0; i < LIKELIHOOD_COUNT; i++) {
+            likelihoods.add(new CountingLikelihood(-1.0 / (i + 1)));
+        }
+        return likelihoods;
+    }
+
+    public void testParallelAgreesWithSerial() {
+        List<Likelihood> serialList = new ArrayList<Likelihood>(createLikelihoods());
+        List<Likelihood> parallelList = new ArrayList<Likelihood>(createLikelihoods());
+
+        CompoundLikelihood serial = new CompoundLikelihood(serialList);
+        CompoundLikelihood parallel = new CompoundLikelihood(-1, parallelList);
+
+        // summed in the same order so should be identical
+        assertEquals(serial.getLogLikelihood(), parallel.getLogLikelihood(), 0.0);
+    }
+
+    public void testOnlyDirtyLikelihoodsEvaluated() {
+        List<CountingLikelihood> likelihoods = createLikelihoods();
+        CompoundLikelihood compound = new CompoundLikelihood(4, new ArrayList<Likelihood>(likelihoods));
+
+        double logL = compound.getLogLikelihood();
+        for (CountingLikelihood likelihood : likelihoods) {
+            assertEquals(1, likelihood.evaluationCount);
+        }
+
+        likelihoods.get(3).makeDirty();
+        likelihoods.get(7).makeDirty();
+        assertEquals(logL, compound.getLogLikelihood(), 0.0);
+
+        for (int i = 0; i < LIKELIHOOD_COUNT; i++) {
+            int expected = (i == 3 || i == 7 ? 2 : 1);
+            assertEquals("likelihood " + i, expected, likelihoods.get(i).evaluationCount);
+        }
+
+        int[] counts = compound.getEvaluationCounts();
+        assertEquals(2, counts[3]);
+        assertEquals(1, counts[4]);
+    }
+
+    private static class SlowLikelihood extends CountingLikelihood {
+
+        SlowLikelihood(double value, long nanos) {
+            super(value);
+            this.nanos = nanos;
+        }
+
+        @Override
+        protected double calculateLogLikelihood() {
+            long end = System.nanoTime() + nanos;
+            while (System.nanoTime() < end) {
+                // spin so the evaluation time is above the scheduler's inline threshold
+            }
+            if (fail) {
+                throw new IllegalStateException("component failed");
+            }
+            return super.calculateLogLikelihood();
+        }
+
+        final long nanos;
+        boolean fail = false;
+    }
+
+    public void testFailedEvaluationIsRethrown() {
+        // the failing component is not the most expensive so it is run by the pool rather than
+        // on the calling thread and its failure comes back through its future
+        SlowLikelihood slowest = new SlowLikelihood(-1.0, 20 * TaskScheduler.INLINE_COST_THRESHOLD);
+        SlowLikelihood failing = new SlowLikelihood(-2.0, 4 * TaskScheduler.INLINE_COST_THRESHOLD);
+        List<Likelihood> likelihoods = new ArrayList<Likelihood>(createLikelihoods());
+        likelihoods.add(slowest);
+        likelihoods.add(failing);
+        CompoundLikelihood compound = new CompoundLikelihood(4, likelihoods);
+
+        compound.getLogLikelihood();
+
+        // the previous value of the failed component must not be summed in silently
+        failing.fail = true;
+        failing.makeDirty();
+        slowest.makeDirty();
+        try {
+            compound.getLogLikelihood();
+            fail("the failure of a component should be rethrown");
+        } catch (IllegalStateException ise) {
+            // the exception may be rethrown wrapped in a copy made by the fork/join pool
+            assertTrue(ise.getMessage().contains("component failed"));
+        }
+    }
+
+    public void testSchedulerPreservesOrder() throws Exception {
+        List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+        long[] costs = new long[20];
+        for (int i = 0; i < 20; i++) {
+            final int value = i;
+            tasks.add(() -> value);
+            // a mix of cheap (inline) and expensive tasks
+            costs[i] = (i % 3 == 0 ? 10 : TaskScheduler.INLINE_COST_THRESHOLD * i);
+        }
+
+        List<Future<Integer>> results = TaskScheduler.invokeAll(tasks, costs);
+        assertEquals(20, results.size());
+        for (int i = 0; i < 20; i++) {
+            assertTrue(results.get(i).isDone());
+            assertEquals(i, (int) results.get(i).get());
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * ParameterStoreRestoreTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.inference.model;
+
+import dr.inference.model.FastMatrixParameter;
+import dr.inference.model.Parameter;
+import dr.math.MathUtils;
+import test.dr.math.MathTestCase;
+
+public class ParameterStoreRestoreTest extends MathTestCase {
+
+    private static final int DIMENSION = 100;
+
+    private static double[] startingValues() {
+        double[] values = new double[DIMENSION];
+        for (int i = 0; i < DIMENSION; i++) {
+            values[i] = i;
+        }
+        return values;
+    }
+
+    public void testRestoreFewChanges() {
+        Parameter parameter = new Parameter.Default(startingValues());
+
+        parameter.storeParameterValues();
+        parameter.setParameterValue(3, -1.0);
+        parameter.setParameterValue(3, -2.0);
+        parameter.setParameterValueQuietly(97, -3.0);
+        parameter.restoreParameterValues();
+
+        assertEquals(startingValues(), parameter.getParameterValues(), 0.0);
+    }
+
+    public void testRestoreManyChanges() {
+        Parameter parameter = new Parameter.Default(startingValues());
+
+        // enough changes to fall back to storing the whole parameter
+        parameter.storeParameterValues();
+        for (int i = 0; i < DIMENSION; i += 1 + (i % 3)) {
+            parameter.setParameterValue(i, -i);
+        }
+        parameter.restoreParameterValues();
+        assertEquals(startingValues(), parameter.getParameterValues(), 0.0);
+
+        parameter.storeParameterValues();
+        parameter.setAllParameterValuesQuietly(new double[DIMENSION]);
+        parameter.restoreParameterValues();
+        assertEquals(startingValues(), parameter.getParameterValues(), 0.0);
+    }
+
+    public void testAccept() {
+        Parameter parameter = new Parameter.Default(startingValues());
+        double[] expected = startingValues();
+
+        parameter.storeParameterValues();
+        parameter.setParameterValue(10, -10.0);
+        expected[10] = -10.0;
+        parameter.acceptParameterValues();
+
+        parameter.storeParameterValues();
+        parameter.setParameterValue(20, -20.0);
+        parameter.restoreParameterValues();
+
+        assertEquals(expected, parameter.getParameterValues(), 0.0);
+    }
+
+    public void testRandomStoreRestore() {
+        MathUtils.setSeed(666);
+
+        Parameter parameter = new Parameter.Default(startingValues());
+        double[] expected = startingValues();
+
+        for (int iteration = 0; iteration < 1000; iteration++) {
+            parameter.storeParameterValues();
+
+            int changes = 1 + MathUtils.nextInt(MathUtils.nextBoolean() ? 5 : DIMENSION);
+            double[] proposed = expected.clone();
+            for (int k = 0; k < changes; k++) {
+                int i = MathUtils.nextInt(DIMENSION);
+                proposed[i] = MathUtils.nextDouble();
+                parameter.setParameterValue(i, proposed[i]);
+            }
+            assertEquals(proposed, parameter.getParameterValues(), 0.0);
+
+            if (MathUtils.nextBoolean()) {
+                parameter.acceptParameterValues();
+                expected = proposed;
+            } else {
+                parameter.restoreParameterValues();
+            }
+            assertEquals(expected, parameter.getParameterValues(), 0.0);
+        }
+    }
+
+    public void testFastMatrixParameter() {
+        FastMatrixParameter matrix = new FastMatrixParameter("matrix", 10, 10, 0.0);
+        matrix.setAllParameterValuesQuietly(startingValues(), 0);
+
+        matrix.storeParameterValues();
+        matrix.setParameterValue(2, 3, -1.0);
+        matrix.getParameter(5).setParameterValue(4, -2.0);
+        matrix.restoreParameterValues();
+        assertEquals(startingValues(), matrix.getParameterValues(), 0.0);
+
+        matrix.storeParameterValues();
+        matrix.setAllParameterValuesQuietly(new double[DIMENSION], 0);
+        matrix.restoreParameterValues();
+        assertEquals(startingValues(), matrix.getParameterValues(), 0.0);
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * RemoteLikelihoodTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.inference.parallel;
+
+import dr.evolution.alignment.SitePatterns;
+import dr.evolution.datatype.Nucleotides;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.TreeUtils;
+import dr.evomodel.branchmodel.HomogeneousBranchModel;
+import dr.evomodel.branchratemodel.StrictClockBranchRates;
+import dr.evomodel.operators.ExchangeOperator;
+import dr.evomodel.siteratemodel.GammaSiteRateModel;
+import dr.evomodel.substmodel.FrequencyModel;
+import dr.evomodel.substmodel.nucleotide.HKY;
+import dr.evomodel.tree.TreeModel;
+import dr.evomodel.treedatalikelihood.JavaDataLikelihoodDelegate;
+import dr.evomodel.treedatalikelihood.TreeDataLikelihood;
+import dr.evomodel.treelikelihood.PartialsRescalingScheme;
+import dr.inference.model.Parameter;
+import dr.inference.parallel.RemoteLikelihood;
+import dr.inference.parallel.RemoteLikelihoodConnection;
+import dr.inference.parallel.RemoteLikelihoodWorker;
+import dr.math.MathUtils;
+import test.dr.inference.trace.TraceCorrelationAssert;
+
+/**
+ * A worker and a remote likelihood with separate copies of the same model talking over a
+ * loopback socket.
+ */
+public class RemoteLikelihoodTest extends TraceCorrelationAssert {
+
+    public RemoteLikelihoodTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        MathUtils.setSeed(666);
+
+        createAlignment(PRIMATES_TAXON_SEQUENCE, Nucleotides.INSTANCE);
+        patterns = new SitePatterns(alignment, null, 0, -1, 1, true);
+
+        // the worker's copy of the model
+        TreeModel workerTree = createPrimateTreeModel();
+        workerTreeModel = workerTree;
+        worker = new RemoteLikelihoodWorker("worker", createLikelihood(workerTree, new Parameter.Default("kappa", 2.0, 0, 100)), 0, true);
+        int port = worker.bind();
+        Thread thread = new Thread(worker);
+        thread.setDaemon(true);
+        thread.start();
+
+        // the local copy that is operated on
+        treeModel = createPrimateTreeModel();
+        kappa = new Parameter.Default("kappa", 2.0, 0, 100);
+        remoteLikelihood = new RemoteLikelihood(createLikelihood(treeModel, kappa),
+                RemoteLikelihoodConnection.connect("localhost", port, 5000));
+    }
+
+    public void tearDown() throws Exception {
+        remoteLikelihood.terminate();
+        super.tearDown();
+    }
+
+    private TreeDataLikelihood createLikelihood(TreeModel tree, Parameter kappa) {
+        Parameter freqs = new Parameter.Default(alignment.getStateFrequencies());
+        HKY hky = new HKY(kappa, new FrequencyModel(Nucleotides.INSTANCE, freqs));
+        GammaSiteRateModel siteRateModel = new GammaSiteRateModel("gammaModel", 0.5, 4);
+        siteRateModel.setSubstitutionModel(hky);
+        JavaDataLikelihoodDelegate delegate = new JavaDataLikelihoodDelegate(tree, patterns,
+                new HomogeneousBranchModel(hky), siteRateModel, false, PartialsRescalingScheme.NONE, 1);
+        return new TreeDataLikelihood(delegate, tree, new StrictClockBranchRates(new Parameter.Default(1.0)));
+    }
+
+    private double getLocalLogLikelihood() {
+        remoteLikelihood.getLocalLikelihood().makeDirty();
+        return remoteLikelihood.getLocalLikelihood().getLogLikelihood();
+    }
+
+    public void testInitialState() {
+        assertEquals(getLocalLogLikelihood(), remoteLikelihood.getLogLikelihood(), 1E-10);
+    }
+
+    public void testChanges() {
+        double initial = remoteLikelihood.getLogLikelihood();
+
+        kappa.setParameterValue(0, 25.0);
+        assertFalse(remoteLikelihood.getLikelihoodKnown());
+        assertEquals(getLocalLogLikelihood(), remoteLikelihood.getLogLikelihood(), 1E-10);
+        assertFalse(initial == remoteLikelihood.getLogLikelihood());
+
+        NodeRef node = treeModel.getNode(treeModel.getExternalNodeCount());
+        double lower = Math.max(treeModel.getNodeHeight(treeModel.getChild(node, 0)),
+                treeModel.getNodeHeight(treeModel.getChild(node, 1)));
+        treeModel.setNodeHeight(node, (lower + treeModel.getNodeHeight(node)) * 0.5);
+        assertEquals(getLocalLogLikelihood(), remoteLikelihood.getLogLikelihood(), 1E-10);
+
+        ExchangeOperator narrow = new ExchangeOperator(ExchangeOperator.NARROW, treeModel, 1.0);
+        for (int i = 0; i < 5; i++) {
+            narrow.doOperation();
+            assertEquals(getLocalLogLikelihood(), remoteLikelihood.getLogLikelihood(), 1E-10);
+        }
+        assertEquals(TreeUtils.newick(treeModel), TreeUtils.newick(workerTreeModel));
+    }
+
+    public void testRestore() {
+        double initial = remoteLikelihood.getLogLikelihood();
+
+        remoteLikelihood.storeModelState();
+        kappa.setParameterValue(0, 10.0);
+        new ExchangeOperator(ExchangeOperator.NARROW, treeModel, 1.0).doOperation();
+        assertFalse(initial == remoteLikelihood.getLogLikelihood());
+
+        // the restored values are sent with the next request
+        remoteLikelihood.restoreModelState();
+        assertEquals(initial, remoteLikelihood.getLogLikelihood(), 0.0);
+        remoteLikelihood.makeDirty();
+        assertEquals(initial, remoteLikelihood.getLogLikelihood(), 1E-10);
+        assertEquals(TreeUtils.newick(treeModel), TreeUtils.newick(workerTreeModel));
+    }
+
+    private SitePatterns patterns;
+    private Parameter kappa;
+    private TreeModel workerTreeModel;
+    private RemoteLikelihoodWorker worker;
+    private RemoteLikelihood remoteLikelihood;
+}
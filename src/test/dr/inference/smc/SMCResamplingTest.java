@@ -0,0 +1,65 @@
+/*
+ * SMCResamplingTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.inference.smc;
+
+import dr.inference.smc.SMC;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+
+public class SMCResamplingTest extends TestCase {
+
+    public SMCResamplingTest(String name) {
+        super(name);
+    }
+
+    public void testEffectiveSampleSize() {
+        assertEquals(4.0, SMC.getEffectiveSampleSize(new double[] { 3.0, 3.0, 3.0, 3.0 }), 1E-12);
+        assertEquals(1.0, SMC.getEffectiveSampleSize(new double[] { 0.0, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY }), 1E-12);
+        // weights 1/2, 1/4, 1/4
+        assertEquals(1.0 / (0.25 + 0.0625 + 0.0625),
+                SMC.getEffectiveSampleSize(new double[] { Math.log(2.0), 0.0, 0.0 }), 1E-12);
+    }
+
+    public void testSystematicResampling() {
+        MathUtils.setSeed(11);
+        Integer[] particles = { 0, 1, 2, 3 };
+        // weights 1/2, 0, 1/4, 1/4 so systematic resampling gives exactly 2, 0, 1, 1 copies
+        double[] logWeights = { Math.log(2.0), Double.NEGATIVE_INFINITY, 0.0, 0.0 };
+        for (int k = 0; k < 20; k++) {
+            Integer[] resampled = SMC.resample(particles, logWeights);
+            int[] counts = new int[4];
+            for (Integer particle : resampled) {
+                counts[particle]++;
+            }
+            assertEquals(2, counts[0]);
+            assertEquals(0, counts[1]);
+            assertEquals(1, counts[2]);
+            assertEquals(1, counts[3]);
+        }
+    }
+}
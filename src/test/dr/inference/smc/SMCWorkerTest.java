@@ -0,0 +1,160 @@
+/*
+ * SMCWorkerTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.inference.smc;
+
+import dr.app.checkpoint.BeastCheckpointer;
+import dr.inference.distribution.DistributionLikelihood;
+import dr.inference.distribution.NormalDistributionModel;
+import dr.inference.loggers.Logger;
+import dr.inference.markovchain.MarkovChain;
+import dr.inference.model.ModelGraph;
+import dr.inference.model.Parameter;
+import dr.inference.operators.AdaptationMode;
+import dr.inference.operators.OperatorSchedule;
+import dr.inference.operators.RandomWalkOperator;
+import dr.inference.operators.SimpleOperatorSchedule;
+import dr.inference.smc.SMC;
+import dr.inference.smc.SMCOptions;
+import dr.inference.state.Factory;
+import dr.inference.state.StateLoaderSaver;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Moves a set of in-memory particles on two copies of a simple model, each with its own model
+ * graph, and checks that every particle was moved and that both copies did some of the work.
+ */
+public class SMCWorkerTest extends TestCase {
+
+    private static final int PARTICLE_COUNT = 16;
+    private static final long CHAIN_LENGTH = 2000;
+    private static final int ROUNDS = 3;
+
+    public SMCWorkerTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        MathUtils.setSeed(666);
+
+        BeastCheckpointer.getInstance(null, -1, -1, false);
+    }
+
+    private static class Copy {
+        Parameter x;
+        SMC smc;
+        ModelGraph modelGraph;
+        List<StateLoaderSaver> particles = new ArrayList<StateLoaderSaver>();
+    }
+
+    private Copy createCopy(double initialValue) {
+        Copy copy = new Copy();
+
+        ModelGraph connected = ModelGraph.getConnected();
+
+        copy.x = new Parameter.Default("x", initialValue, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+        DistributionLikelihood likelihood = new DistributionLikelihood(
+                new NormalDistributionModel(new Parameter.Default(0.0), new Parameter.Default(1.0)));
+        likelihood.addData(copy.x);
+
+        OperatorSchedule schedule = new SimpleOperatorSchedule();
+        schedule.addOperator(new RandomWalkOperator(copy.x, 1.0, RandomWalkOperator.BoundaryCondition.reflecting,
+                1.0, AdaptationMode.ADAPTATION_OFF));
+
+        for (int i = 0; i < PARTICLE_COUNT; i++) {
+            copy.particles.add(Factory.INSTANCE.getMemoryStateLoaderSaver());
+        }
+
+        copy.smc = new SMC("smc", copy.particles);
+        copy.smc.init(new SMCOptions(CHAIN_LENGTH, ROUNDS, 0.5, 0, false), likelihood, schedule, new Logger[0]);
+
+        copy.modelGraph = ModelGraph.disconnectSince(connected);
+        copy.smc.getMarkovChain().setModelGraph(copy.modelGraph);
+
+        return copy;
+    }
+
+    public void testWorkers() {
+        Copy main = createCopy(0.0);
+        Copy worker = createCopy(50.0);
+
+        assertEquals(3, main.modelGraph.getParameters().size());
+        for (Parameter parameter : worker.modelGraph.getParameters()) {
+            assertFalse(main.modelGraph.getParameters().contains(parameter));
+        }
+
+        MarkovChain mc = main.smc.getMarkovChain();
+        for (int i = 0; i < PARTICLE_COUNT; i++) {
+            main.x.setParameterValue(0, 100.0 + i);
+            main.particles.get(i).saveState(mc, 0, 0.0);
+        }
+
+        main.smc.addWorker(worker.smc, worker.modelGraph);
+        main.smc.run();
+
+        double[] lnL = new double[1];
+        for (StateLoaderSaver particle : main.particles) {
+            long state = particle.loadState(mc, lnL);
+            assertEquals(CHAIN_LENGTH, state);
+            // each particle has moved from its start towards the mode at 0
+            assertTrue(Math.abs(main.x.getParameterValue(0)) < 10.0);
+        }
+
+        // the worker has moved some of the particles
+        assertTrue(Math.abs(worker.x.getParameterValue(0) - 50.0) > 1E-10);
+    }
+
+    public void testMismatchedWorker() {
+        Copy main = createCopy(0.0);
+
+        ModelGraph connected = ModelGraph.getConnected();
+        Parameter y = new Parameter.Default("y", 0.0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+        DistributionLikelihood likelihood = new DistributionLikelihood(
+                new NormalDistributionModel(new Parameter.Default(0.0), new Parameter.Default(1.0)));
+        likelihood.addData(y);
+        likelihood.addData(new Parameter.Default("z", 0.0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY));
+        OperatorSchedule schedule = new SimpleOperatorSchedule();
+        schedule.addOperator(new RandomWalkOperator(y, 1.0, RandomWalkOperator.BoundaryCondition.reflecting,
+                1.0, AdaptationMode.ADAPTATION_OFF));
+        SMC other = new SMC("smc", new ArrayList<StateLoaderSaver>());
+        other.init(new SMCOptions(CHAIN_LENGTH), likelihood, schedule, new Logger[0]);
+        ModelGraph otherGraph = ModelGraph.disconnectSince(connected);
+
+        try {
+            main.smc.addWorker(other, otherGraph);
+            fail("a worker with a different model should be rejected");
+        } catch (IllegalArgumentException iae) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * BatchMeansESSTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.inference.trace;
+
+import dr.inference.mcmc.ConvergenceDiagnostics;
+import dr.inference.trace.BatchMeansESS;
+import dr.inference.trace.TraceCorrelation;
+import dr.inference.trace.TraceType;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks the FFT autocorrelation in TraceCorrelation against direct summation and the online
+ * batch means ESS against the known ESS of an AR(1) process. Also checks the segment statistics
+ * and R-hat used by ConvergenceDiagnostics.
+ */
+public class BatchMeansESSTest extends TestCase {
+
+    private static double[] ar1(double phi, int n, long seed) {
+        Random random = new Random(seed);
+        double[] values = new double[n];
+        double x = 0.0;
+        for (int i = 0; i < n; i++) {
+            x = phi * x + random.nextGaussian();
+            values[i] = 10.0 + x;
+        }
+        return values;
+    }
+
+    private static List<Double> toList(double[] values) {
+        List<Double> list = new ArrayList<Double>();
+        for (double value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+
+    // the initial positive sequence estimator summing all lags directly
+    private static double directESS(double[] values) {
+        final int samples = values.length;
+        double mean = 0.0;
+        for (double value : values) {
+            mean += value;
+        }
+        mean /= samples;
+
+        int maxLag = Math.min(samples - 1, 2000);
+        double[] gammaStat = new double[maxLag];
+        double varStat = 0.0;
+        for (int lag = 0; lag < maxLag; lag++) {
+            for (int j = 0; j < samples - lag; j++) {
+                gammaStat[lag] += (values[j] - mean) * (values[j + lag] - mean);
+            }
+            gammaStat[lag] /= (samples - lag);
+            if (lag == 0) {
+                varStat = gammaStat[0];
+            } else if (lag % 2 == 0) {
+                if (gammaStat[lag - 1] + gammaStat[lag] > 0) {
+                    varStat += 2.0 * (gammaStat[lag - 1] + gammaStat[lag]);
+                } else {
+                    maxLag = lag;
+                }
+            }
+        }
+        return samples * gammaStat[0] / varStat;
+    }
+
+    public void testCorrelationESS() {
+        for (double phi : new double[]{0.0, 0.9, 0.995}) {
+            double[] values = ar1(phi, 50000, 1);
+            TraceCorrelation correlation = new TraceCorrelation(toList(values), TraceType.REAL, 1);
+            double expected = directESS(values);
+            assertEquals("phi = " + phi, expected, correlation.getESS(), expected * 1E-10);
+        }
+    }
+
+    public void testBatchMeansESS() {
+        for (double phi : new double[]{0.0, 0.5, 0.95}) {
+            double[] values = ar1(phi, 500000, 2);
+            BatchMeansESS ess = new BatchMeansESS();
+            for (double value : values) {
+                ess.add(value);
+            }
+            double expected = values.length * (1.0 - phi) / (1.0 + phi);
+            assertEquals(values.length, ess.getSampleCount());
+            assertEquals("phi = " + phi, expected, ess.getESS(), expected * 0.35);
+            assertEquals(10.0, ess.getMean(), 0.1);
+        }
+    }
+
+    public void testTooFewSamples() {
+        BatchMeansESS ess = new BatchMeansESS();
+        for (int i = 0; i < 4; i++) {
+            ess.add(i);
+        }
+        assertTrue(Double.isNaN(ess.getESS()));
+
+        // a constant trace has no ESS
+        ess.reset();
+        for (int i = 0; i < 1000; i++) {
+            ess.add(1.0);
+        }
+        assertTrue(Double.isNaN(ess.getESS()));
+    }
+
+    public void testSegmentStatistics() {
+        double[] values = ar1(0.5, 10000, 3);
+        BatchMeansESS ess = new BatchMeansESS();
+        for (double value : values) {
+            ess.add(value);
+        }
+        double[][] segments = ess.getSegmentStatistics(4);
+        assertEquals(4, segments.length);
+
+        // the segments are the last complete batches split evenly so check against direct sums
+        int length = (int) segments[0][0];
+        int first = ess.getBatchCount() * ess.getBatchSize() - 4 * length;
+        assertTrue(first >= 0);
+        for (int k = 0; k < 4; k++) {
+            assertEquals((double) length, segments[k][0]);
+            double mean = 0.0;
+            for (int i = first + k * length; i < first + (k + 1) * length; i++) {
+                mean += values[i];
+            }
+            mean /= length;
+            double ss = 0.0;
+            for (int i = first + k * length; i < first + (k + 1) * length; i++) {
+                ss += (values[i] - mean) * (values[i] - mean);
+            }
+            assertEquals(mean, segments[k][1], 1E-10);
+            assertEquals(ss, segments[k][2], ss * 1E-10);
+        }
+
+        // a stationary chain has an R-hat close to 1
+        double rHat = ConvergenceDiagnostics.getRHat(Arrays.asList(segments));
+        assertEquals(1.0, rHat, 0.02);
+
+        // shifting one segment should inflate it
+        segments[3][1] += 2.0;
+        assertTrue(ConvergenceDiagnostics.getRHat(Arrays.asList(segments)) > 1.1);
+
+        assertNull(new BatchMeansESS().getSegmentStatistics(4));
+    }
+}
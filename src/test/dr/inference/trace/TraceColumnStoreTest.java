@@ -0,0 +1,129 @@
+/*
+ * TraceColumnStoreTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.inference.trace;
+
+import dr.inference.trace.LogFileTraces;
+import dr.inference.trace.Trace;
+import dr.inference.trace.TraceColumnStore;
+import dr.inference.trace.TraceType;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Random;
+
+/**
+ * Checks that traces loaded through a TraceColumnStore are the same as those loaded into memory.
+ */
+public class TraceColumnStoreTest extends TestCase {
+
+    private File logFile;
+
+    public void setUp() throws IOException {
+        logFile = File.createTempFile("traces", ".log");
+        writeLog(logFile, 1000);
+    }
+
+    public void tearDown() {
+        TraceColumnStore.getStoreFile(logFile).delete();
+        logFile.delete();
+    }
+
+    private static void writeLog(File file, int stateCount) throws IOException {
+        Random random = new Random(42);
+        Writer writer = new FileWriter(file);
+        writer.write("# BEAST log\n");
+        writer.write("state\tposterior\tcount\tlate_real\tconstant\tlocation\tlate_category\n");
+        for (int i = 0; i < stateCount; i++) {
+            writer.write((i * 1000) + "\t" + (-1000 - random.nextDouble()) + "\t" + random.nextInt(10) + "\t" +
+                    (i < stateCount / 2 ? Integer.toString(random.nextInt(3)) : Double.toString(random.nextDouble())) + "\t" +
+                    "1\t" + (random.nextBoolean() ? "Hong Kong" : "Fujian") + "\t" +
+                    (i < stateCount / 2 ? Integer.toString(random.nextInt(3)) : "x") + "\n");
+        }
+        writer.close();
+    }
+
+    private LogFileTraces load(boolean useColumnStore) throws Exception {
+        LogFileTraces traces = new LogFileTraces(logFile.getName(), logFile);
+        traces.setUseColumnStore(useColumnStore);
+        traces.loadTraces();
+        return traces;
+    }
+
+    public void testColumnStore() throws Exception {
+        LogFileTraces expected = load(false);
+        assertFalse(TraceColumnStore.getStoreFile(logFile).exists());
+
+        // first created and then reused
+        assertSameTraces(expected, load(true));
+        assertTrue(TraceColumnStore.getStoreFile(logFile).exists());
+        assertSameTraces(expected, load(true));
+
+        assertEquals(TraceType.REAL, expected.getTrace(0).getTraceType());
+        assertEquals(TraceType.REAL, expected.getTrace(2).getTraceType());
+        assertEquals(TraceType.CATEGORICAL, expected.getTrace(4).getTraceType());
+        assertEquals(TraceType.CATEGORICAL, expected.getTrace(5).getTraceType());
+    }
+
+    public void testOutOfDate() throws Exception {
+        load(true);
+        assertTrue(logFile.setLastModified(logFile.lastModified() + 2000));
+        writeLog(logFile, 500);
+
+        assertNull(TraceColumnStore.open(logFile));
+        LogFileTraces traces = load(true);
+        assertEquals(500, traces.getTrace(0).getValueCount());
+        assertSameTraces(load(false), traces);
+    }
+
+    private void assertSameTraces(LogFileTraces expected, LogFileTraces traces) {
+        assertEquals(expected.getTraceCount(), traces.getTraceCount());
+        assertEquals(expected.getStateCount(), traces.getStateCount());
+        assertEquals(expected.getBurnIn(), traces.getBurnIn());
+        assertEquals(expected.getStepSize(), traces.getStepSize());
+
+        for (int i = 0; i < expected.getTraceCount(); i++) {
+            Trace trace1 = expected.getTrace(i);
+            Trace trace2 = traces.getTrace(i);
+            assertEquals(trace1.getName(), trace2.getName());
+            assertEquals(trace1.getTraceType(), trace2.getTraceType());
+            assertEquals(trace1.isConstant(), trace2.isConstant());
+            assertEquals(trace1.getUniqueValueCount(), trace2.getUniqueValueCount());
+            assertEquals(trace1.getCategoryLabelMap(), trace2.getCategoryLabelMap());
+            assertEquals(expected.getValues(i), traces.getValues(i));
+
+            double[] values = traces.getValuesArray(i);
+            assertEquals(expected.getValues(i).size(), values.length);
+            for (int j = 0; j < values.length; j++) {
+                assertEquals(expected.getValues(i).get(j), values[j], 0.0);
+            }
+        }
+    }
+}
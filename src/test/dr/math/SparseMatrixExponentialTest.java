@@ -0,0 +1,193 @@
+/*
+ * SparseMatrixExponentialTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.math;
+
+import dr.math.MathUtils;
+import dr.math.SparseMatrixExponential;
+import dr.math.matrixAlgebra.CompressedSparseRowMatrix;
+
+/**
+ * Compares the Krylov and uniformization actions of a sparse matrix exponential with a dense
+ * Taylor series exponential.
+ */
+public class SparseMatrixExponentialTest extends MathTestCase {
+
+    private static final double TOLERANCE = 1E-6;
+
+    // a random CTMC rate matrix on a ring with a few extra jumps, row sums zero
+    private static double[] randomGenerator(int dim, int extra) {
+        double[] q = new double[dim * dim];
+        for (int i = 0; i < dim; i++) {
+            q[i * dim + (i + 1) % dim] = MathUtils.nextDouble() + 0.1;
+            q[i * dim + (i + dim - 1) % dim] = MathUtils.nextDouble() + 0.1;
+        }
+        for (int k = 0; k < extra; k++) {
+            int i = MathUtils.nextInt(dim);
+            int j = MathUtils.nextInt(dim);
+            if (i != j) {
+                q[i * dim + j] += 2.0 * MathUtils.nextDouble();
+            }
+        }
+        for (int i = 0; i < dim; i++) {
+            double total = 0.0;
+            for (int j = 0; j < dim; j++) {
+                if (i != j) {
+                    total += q[i * dim + j];
+                }
+            }
+            q[i * dim + i] = -total;
+        }
+        return q;
+    }
+
+    // exp(tA) by a scaled Taylor series and repeated squaring
+    private static double[] denseExponential(double[] a, int dim, double time) {
+        double norm = 0.0;
+        for (int i = 0; i < dim; i++) {
+            double sum = 0.0;
+            for (int j = 0; j < dim; j++) {
+                sum += Math.abs(a[i * dim + j]);
+            }
+            norm = Math.max(norm, sum);
+        }
+        int squarings = Math.max(0, (int) Math.ceil(Math.log(Math.abs(time) * norm / 0.25) / Math.log(2.0)));
+        double scale = time / Math.pow(2.0, squarings);
+
+        double[] result = new double[dim * dim];
+        double[] term = new double[dim * dim];
+        for (int i = 0; i < dim; i++) {
+            result[i * dim + i] = 1.0;
+            term[i * dim + i] = 1.0;
+        }
+        for (int k = 1; k < 30; k++) {
+            term = multiply(term, a, dim);
+            for (int i = 0; i < dim * dim; i++) {
+                term[i] *= scale / k;
+                result[i] += term[i];
+            }
+        }
+        for (int s = 0; s < squarings; s++) {
+            result = multiply(result, result, dim);
+        }
+        return result;
+    }
+
+    private static double[] multiply(double[] a, double[] b, int dim) {
+        double[] c = new double[dim * dim];
+        for (int i = 0; i < dim; i++) {
+            for (int k = 0; k < dim; k++) {
+                double aik = a[i * dim + k];
+                for (int j = 0; j < dim; j++) {
+                    c[i * dim + j] += aik * b[k * dim + j];
+                }
+            }
+        }
+        return c;
+    }
+
+    private static double[] denseProduct(double[] a, double[] v, int dim) {
+        double[] w = new double[dim];
+        for (int i = 0; i < dim; i++) {
+            for (int j = 0; j < dim; j++) {
+                w[i] += a[i * dim + j] * v[j];
+            }
+        }
+        return w;
+    }
+
+    private void checkMethod(SparseMatrixExponential.Method method, int dim, double[] times) {
+        MathUtils.setSeed(1234);
+        double[] q = randomGenerator(dim, dim);
+        CompressedSparseRowMatrix sparse = CompressedSparseRowMatrix.fromDense(q, dim);
+        SparseMatrixExponential exponential = new SparseMatrixExponential(sparse);
+        exponential.setMethod(method);
+        exponential.setTolerance(1E-10);
+
+        double[] v = new double[dim];
+        for (int i = 0; i < dim; i++) {
+            v[i] = MathUtils.nextDouble();
+        }
+
+        double[] w = new double[dim];
+        for (double time : times) {
+            double[] expected = denseProduct(denseExponential(q, dim, time), v, dim);
+            exponential.expmv(time, v, w);
+            assertEquals(expected, w, TOLERANCE);
+        }
+    }
+
+    public void testSparseRowMatrix() {
+        CompressedSparseRowMatrix matrix = new CompressedSparseRowMatrix(3,
+                new int[]{2, 0, 0, 1, 2}, new int[]{0, 1, 1, 1, 2}, new double[]{4.0, 1.0, 2.0, 0.0, -1.0}, 5);
+        assertEquals(3, matrix.getNonZeroCount());
+        assertEquals(3.0, matrix.get(0, 1), 0.0);
+        assertEquals(0.0, matrix.get(1, 1), 0.0);
+
+        double[] y = new double[3];
+        matrix.product(new double[]{1.0, 2.0, 3.0}, y);
+        assertEquals(new double[]{6.0, 0.0, 1.0}, y, 0.0);
+        matrix.transposedProduct(new double[]{1.0, 2.0, 3.0}, y);
+        assertEquals(new double[]{12.0, 3.0, -3.0}, y, 0.0);
+        assertEquals(5.0, matrix.getInfinityNorm(), 0.0);
+    }
+
+    public void testKrylov() {
+        checkMethod(SparseMatrixExponential.Method.KRYLOV, 60, new double[]{0.01, 0.5, 3.0, 20.0, -0.2});
+        checkMethod(SparseMatrixExponential.Method.KRYLOV, 5, new double[]{0.1, 2.0});
+    }
+
+    public void testUniformization() {
+        checkMethod(SparseMatrixExponential.Method.UNIFORMIZATION, 60, new double[]{0.01, 0.5, 3.0, 20.0});
+    }
+
+    public void testAutomatic() {
+        checkMethod(SparseMatrixExponential.Method.AUTOMATIC, 40, new double[]{0.5, 200.0});
+    }
+
+    public void testExponentialEntry() {
+        // the original entry by entry construction, as used by TopographicalMap
+        int dim = 4;
+        double[] q = {-1.0, 1.0, 0.0, 0.0, 0.5, -1.5, 1.0, 0.0, 0.0, 2.0, -3.0, 1.0, 0.0, 0.0, 0.3, -0.3};
+        SparseMatrixExponential exponential = new SparseMatrixExponential(dim, 10);
+        for (int i = 0; i < dim; i++) {
+            for (int j = 0; j < dim; j++) {
+                if (q[i * dim + j] != 0.0) {
+                    exponential.addEntry(i, j, q[i * dim + j]);
+                }
+            }
+        }
+        exponential.setNorm(6.0);
+
+        double[] expected = denseExponential(q, dim, 1.5);
+        for (int x = 0; x < dim; x++) {
+            for (int y = 0; y < dim; y++) {
+                assertEquals(expected[y * dim + x], exponential.getExponentialEntry(x, y, 1.5), TOLERANCE);
+            }
+        }
+    }
+}